@@ -0,0 +1,20 @@
+import { useQuery } from '@tanstack/react-query';
+import { DeviceConnection } from '../types/deviceData';
+import { dashboardService } from '../services/api/dashboardService';
+
+// Khung /topic/sensorData không mang broker/topic/payload nên thẻ broker lấy qua REST, làm mới định kỳ
+const REFRESH_INTERVAL = 5000;
+
+export const useDeviceConnection = (id: string) => {
+    const { data: connection } = useQuery<DeviceConnection>({
+        queryKey: ['deviceConnection', id],
+        queryFn: async () => {
+            const response = await dashboardService.getConnection(id);
+            return response.data;
+        },
+        enabled: !!id,
+        refetchInterval: REFRESH_INTERVAL,
+    });
+
+    return { connection };
+}
@@ -17,9 +17,6 @@ export const useSensorData = (id: string) => {
         led: 0,
         fan: 0,
         servo: 0,
-        broker: '',
-        topic: '',
-        payload: '',
         createdAt: []
     });
 
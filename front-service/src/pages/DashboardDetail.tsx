@@ -14,6 +14,7 @@ import {
   ApiOutlined,
 } from '@ant-design/icons';
 import { useSensorData } from '../hooks/useSensorData';
+import { useDeviceConnection } from '../hooks/useDeviceConnection';
 import { SensorMonitorCard } from '../components/dashboard/SensorMonitorCard';
 import { DeviceControlCard } from '../components/dashboard/DeviceControlCard';
 import { SensorChart } from '../components/dashboard/SensorChart';
@@ -40,6 +41,7 @@ const DashboardDetail: React.FC = () => {
     toggleAlertLed,
     toggleServo
   } = useSensorData(id || '');
+  const { connection } = useDeviceConnection(id || '');
 
   const [sensorHistory, setSensorHistory] = useState<SensorHistory>({
     temperature: [],
@@ -129,9 +131,9 @@ useEffect(() => {
         <Row gutter={[16, 16]} className="mb-6 md:mb-8 hidden md:flex">
           <Col xs={24} lg={12}>
             <BrokerInfoCard
-              broker={sensorData.data.broker}
-              topic={sensorData.data.topic}
-              payload={sensorData.data.payload}
+              broker={connection?.broker ?? ''}
+              topic={connection?.topic ?? ''}
+              payload={connection?.payload ?? ''}
             />
           </Col>
           <Col xs={24} lg={12}>
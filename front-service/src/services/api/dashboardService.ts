@@ -1,4 +1,5 @@
 import { Device } from '../../types/dashboard';
+import { DeviceConnection } from '../../types/deviceData';
 import { PageResponse } from '../../types/PageResponse';
 import api from '../axios';
 
@@ -7,4 +8,6 @@ export const dashboardService = {
         api.get<PageResponse<Device>>('mqtt/devices', {
             params: { page, size }
         }),
+    getConnection: (id: string) =>
+        api.get<DeviceConnection>(`mqtt/devices/${id}/connection`),
 };
\ No newline at end of file
@@ -9,12 +9,17 @@ export interface SensorData {
     led: number;
     fan: number;
     servo: number;
-    broker: string;
-    topic: string;
-    payload: string;
     createdAt: number[];
 }
 
+// Broker, topic và payload của bản tin mới nhất (GET mqtt/devices/{id}/connection)
+export interface DeviceConnection {
+    broker: string | null;
+    topic: string | null;
+    payload: string | null;
+    receivedAt: number[] | null;
+}
+
 export type DeviceCommand = {
     deviceName: string;
     [key: string]: string | number;
@@ -0,0 +1,53 @@
+package com.ptit.service.benchmark;
+
+import com.ptit.service.entity.Device;
+import com.ptit.service.service.DeviceRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Tra cứu thiết bị theo deviceId trên luồng nhận dữ liệu (trường hợp thiết bị đã có trong cache).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class DeviceResolutionBenchmark {
+
+    @Param({"20", "1000"})
+    private int nodes;
+
+    private DeviceRegistry registry;
+    private String[] deviceIds;
+    private int next;
+
+    private final Function<String, Device> factory = id -> {
+        throw new IllegalStateException("Device " + id + " should already be registered");
+    };
+
+    @Setup
+    public void setUp() {
+        registry = new DeviceRegistry(SmallKitFixtures.deviceRepository(SmallKitFixtures.devices(nodes)),
+                new SimpleMeterRegistry());
+        registry.warmUp();
+        deviceIds = new String[nodes];
+        for (int i = 0; i < nodes; i++) {
+            deviceIds[i] = SmallKitFixtures.deviceId(i + 1);
+        }
+    }
+
+    @Benchmark
+    public Device getOrRegister() {
+        String deviceId = deviceIds[next++ % deviceIds.length];
+        return registry.getOrRegister(deviceId, factory);
+    }
+}
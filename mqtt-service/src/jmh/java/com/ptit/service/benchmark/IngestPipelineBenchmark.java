@@ -0,0 +1,137 @@
+package com.ptit.service.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.ptit.service.codec.SmallKitFrame;
+import com.ptit.service.codec.SmallKitJsonCodec;
+import com.ptit.service.entity.Device;
+import com.ptit.service.repository.SensorDataJdbcRepository;
+import com.ptit.service.service.DeviceRegistry;
+import com.ptit.service.service.SensorDataIngestService;
+import com.zaxxer.hikari.HikariDataSource;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.zonky.test.db.postgres.embedded.EmbeddedPostgres;
+import org.flywaydb.core.Flyway;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.context.support.PropertySourcesPlaceholderConfigurer;
+import org.springframework.core.env.MapPropertySource;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Luồng nhận dữ liệu từ đầu tới cuối: giải mã bản tin, tra thiết bị, dựng SensorData và đưa vào
+ * {@link SensorDataIngestService}, các worker ghi lô xuống PostgreSQL thật (embedded, đã chạy các
+ * migration Flyway nên sensor_data là bảng phân vùng như production). Với chính sách BLOCK, ở trạng
+ * thái ổn định thông lượng bị giới hạn bởi tốc độ ghi DB.
+ *
+ * <p>Đặt {@code -Djmh.jdbcUrl=jdbc:postgresql://...} (kèm {@code jmh.jdbcUser}, {@code jmh.jdbcPassword})
+ * để chạy với một PostgreSQL có sẵn thay vì bản embedded.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class IngestPipelineBenchmark {
+
+    private static final int NODES = 50;
+
+    @Param({"500"})
+    private int batchSize;
+
+    private EmbeddedPostgres postgres;
+    private HikariDataSource dataSource;
+    private AnnotationConfigApplicationContext context;
+    private SensorDataIngestService ingestService;
+    private MeterRegistry meterRegistry;
+    private DeviceRegistry deviceRegistry;
+    private SmallKitJsonCodec codec;
+    private byte[][] payloads;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        String jdbcUrl = System.getProperty("jmh.jdbcUrl");
+        String user = System.getProperty("jmh.jdbcUser", "postgres");
+        String password = System.getProperty("jmh.jdbcPassword", "postgres");
+        if (jdbcUrl == null) {
+            postgres = EmbeddedPostgres.builder().start();
+            jdbcUrl = postgres.getJdbcUrl("postgres", "postgres");
+        }
+        dataSource = new HikariDataSource();
+        dataSource.setJdbcUrl(jdbcUrl);
+        dataSource.setUsername(user);
+        dataSource.setPassword(password);
+        dataSource.addDataSourceProperty("reWriteBatchedInserts", "true");
+
+        Flyway.configure().dataSource(dataSource).baselineOnMigrate(true).baselineVersion("0").load().migrate();
+
+        JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+        List<Device> devices = SmallKitFixtures.devices(NODES);
+        for (Device device : devices) {
+            jdbcTemplate.update("INSERT INTO iot_devices (device_id, device_name, device_type, device_location) "
+                            + "VALUES (?, ?, ?, ?) ON CONFLICT (device_id) DO NOTHING",
+                    device.getDeviceId(), device.getName(), device.getType(), device.getLocation());
+            device.setId(jdbcTemplate.queryForObject("SELECT id FROM iot_devices WHERE device_id = ?",
+                    Long.class, device.getDeviceId()));
+        }
+
+        // Dựng đúng các bean của luồng ghi, cấu hình qua property như application.yml
+        Map<String, Object> properties = new HashMap<>();
+        properties.put("mqtt.ingest.batch-size", batchSize);
+        properties.put("mqtt.ingest.overflow-policy", "BLOCK");
+        properties.put("mqtt.ingest.block-timeout-ms", 10000);
+        meterRegistry = new SimpleMeterRegistry();
+        context = new AnnotationConfigApplicationContext();
+        context.getEnvironment().getPropertySources().addFirst(new MapPropertySource("benchmark", properties));
+        context.registerBean(PropertySourcesPlaceholderConfigurer.class);
+        context.registerBean(MeterRegistry.class, () -> meterRegistry);
+        context.registerBean(JdbcTemplate.class, () -> jdbcTemplate);
+        context.registerBean(SensorDataJdbcRepository.class);
+        context.registerBean(SensorDataIngestService.class);
+        context.refresh();
+        ingestService = context.getBean(SensorDataIngestService.class);
+
+        deviceRegistry = new DeviceRegistry(SmallKitFixtures.deviceRepository(devices), meterRegistry);
+        deviceRegistry.warmUp();
+        codec = new SmallKitJsonCodec(new ObjectMapper());
+        payloads = SmallKitFixtures.payloads(NODES, 4096);
+    }
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        private final SmallKitFrame frame = new SmallKitFrame();
+        private int next;
+    }
+
+    @Benchmark
+    public boolean ingest(Cursor cursor) throws Exception {
+        byte[] payload = payloads[cursor.next++ & (payloads.length - 1)];
+        SmallKitFrame frame = codec.decode(payload, cursor.frame);
+        Device device = deviceRegistry.get(frame.getDeviceId());
+        return ingestService.submit(SmallKitFixtures.sensorData(frame, device, payload));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        context.close();
+        System.out.printf("%nsensor.ingest persisted=%.0f dropped=%.0f%n",
+                meterRegistry.counter("sensor.ingest.persisted").count(),
+                meterRegistry.find("sensor.ingest.dropped").counters().stream().mapToDouble(c -> c.count()).sum());
+        dataSource.close();
+        if (postgres != null) {
+            postgres.close();
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package com.ptit.service.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.ptit.service.codec.SmallKitFrame;
+import com.ptit.service.codec.SmallKitJsonCodec;
+import com.ptit.service.config.JacksonConfig;
+import com.ptit.service.entity.Device;
+import com.ptit.service.entity.SensorData;
+import com.ptit.service.response.DeviceResponse;
+import com.ptit.service.response.ResponsePage;
+import com.ptit.service.response.SensorReadingResponse;
+import org.modelmapper.ModelMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.PageRequest;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Entity JPA so với read model trên đường gửi WebSocket/REST:
+ * <ul>
+ *   <li>{@code *Frame}: chuyển một bản ghi cảm biến sang JSON như NotificationService. Số byte mỗi
+ *       frame của hai cách được in ra lúc khởi tạo.</li>
+ *   <li>{@code *Page}: dựng một trang 20 thiết bị; cách cũ tạo ModelMapper mới cho mỗi trang và ánh xạ
+ *       bằng reflection, cách mới gọi {@link DeviceResponse#from}.</li>
+ * </ul>
+ * Chạy với {@code -prof gc} để so sánh gc.alloc.rate.norm.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class ReadModelBenchmark {
+
+    private ObjectMapper objectMapper;
+    private SensorData sensorData;
+    private Page<Device> devicePage;
+
+    @Setup
+    public void setUp() throws Exception {
+        objectMapper = new JacksonConfig().objectMapper();
+        byte[] payload = TelemetryDecodeBenchmark.PAYLOAD;
+        SmallKitFrame frame = new SmallKitJsonCodec(new ObjectMapper()).decode(payload, new SmallKitFrame());
+        sensorData = SmallKitFixtures.sensorData(frame, SmallKitFixtures.devices(1).get(0), payload);
+        sensorData.setId(1L);
+
+        List<Device> devices = new ArrayList<>(SmallKitFixtures.devices(20));
+        devicePage = new PageImpl<>(devices, PageRequest.of(0, 20), 200);
+
+        System.out.printf("bytes/frame: entity=%d, reading=%d%n",
+                objectMapper.writeValueAsBytes(sensorData).length,
+                objectMapper.writeValueAsBytes(SensorReadingResponse.from(sensorData)).length);
+    }
+
+    @Benchmark
+    public byte[] entityFrame() throws Exception {
+        return objectMapper.writeValueAsBytes(sensorData);
+    }
+
+    @Benchmark
+    public byte[] readingFrame() throws Exception {
+        return objectMapper.writeValueAsBytes(SensorReadingResponse.from(sensorData));
+    }
+
+    /** Cách làm trước đây trong ResponsePage: ModelMapper mới cho mỗi trang. */
+    @Benchmark
+    public List<DeviceResponse> modelMapperPerPage() {
+        ModelMapper mapper = new ModelMapper();
+        List<DeviceResponse> list = new ArrayList<>();
+        devicePage.getContent().forEach(device -> list.add(mapper.map(device, DeviceResponse.class)));
+        return list;
+    }
+
+    @Benchmark
+    public ResponsePage<Device, DeviceResponse> sharedModelMapperPage() {
+        return new ResponsePage<>(devicePage, DeviceResponse.class);
+    }
+
+    @Benchmark
+    public ResponsePage<Device, DeviceResponse> precompiledMapperPage() {
+        return new ResponsePage<>(devicePage, DeviceResponse::from);
+    }
+}
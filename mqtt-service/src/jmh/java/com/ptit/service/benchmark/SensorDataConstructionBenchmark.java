@@ -0,0 +1,41 @@
+package com.ptit.service.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.ptit.service.codec.SmallKitFrame;
+import com.ptit.service.codec.SmallKitJsonCodec;
+import com.ptit.service.entity.Device;
+import com.ptit.service.entity.SensorData;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Chi phí dựng entity {@link SensorData} từ một frame đã giải mã (gồm cả timestamp created_at).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class SensorDataConstructionBenchmark {
+
+    private byte[] payload;
+    private SmallKitFrame frame;
+    private Device device;
+
+    @Setup
+    public void setUp() throws Exception {
+        payload = TelemetryDecodeBenchmark.PAYLOAD;
+        frame = new SmallKitJsonCodec(new ObjectMapper()).decode(payload, new SmallKitFrame());
+        device = SmallKitFixtures.devices(1).get(0);
+    }
+
+    @Benchmark
+    public SensorData construct() {
+        return SmallKitFixtures.sensorData(frame, device, payload);
+    }
+}
@@ -0,0 +1,122 @@
+package com.ptit.service.benchmark;
+
+import com.ptit.service.codec.SmallKitFrame;
+import com.ptit.service.entity.Device;
+import com.ptit.service.entity.SensorData;
+import com.ptit.service.entity.enums.PayloadEncoding;
+import com.ptit.service.repository.DeviceRepository;
+
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Dữ liệu mẫu cho benchmark: bản tin giống firmware SmallKit (publish lên iot/data mỗi 5 giây) với
+ * giá trị cảm biến thay đổi theo từng node.
+ */
+final class SmallKitFixtures {
+
+    private SmallKitFixtures() {
+    }
+
+    static String deviceId(int node) {
+        return String.format(Locale.ROOT, "node_%02d", node);
+    }
+
+    static byte[] payload(int node, Random random) {
+        String json = String.format(Locale.ROOT,
+                "{\"id\":\"%s\",\"name\":\"SmallKit %02d\",\"w\":\"PTIT_IoT\",\"i\":\"192.168.1.%d\","
+                        + "\"b\":\"broker.ptit.local\",\"t\":\"iot/data\","
+                        + "\"ss\":{\"temp\":%.1f,\"hum\":%.1f,\"lgt\":%d,\"gas\":%d},"
+                        + "\"stt\":{\"led\":%d,\"fan\":%d,\"alt\":%d,\"bzr\":%d,\"sv\":%d}}",
+                deviceId(node), node, 20 + node % 200,
+                24 + random.nextDouble() * 10, 55 + random.nextDouble() * 30,
+                random.nextInt(1024), 80 + random.nextInt(400),
+                random.nextInt(2), random.nextInt(2), random.nextInt(2), random.nextInt(2), random.nextInt(181));
+        return json.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /** {@code count} bản tin xoay vòng qua {@code nodes} node, cố định seed để các lần chạy so sánh được. */
+    static byte[][] payloads(int nodes, int count) {
+        Random random = new Random(42);
+        byte[][] payloads = new byte[count][];
+        for (int i = 0; i < count; i++) {
+            payloads[i] = payload(i % nodes + 1, random);
+        }
+        return payloads;
+    }
+
+    static List<Device> devices(int nodes) {
+        List<Device> devices = new ArrayList<>(nodes);
+        for (int node = 1; node <= nodes; node++) {
+            Device device = new Device();
+            device.setId((long) node);
+            device.setDeviceId(deviceId(node));
+            device.setName("SmallKit " + node);
+            device.setType("node");
+            device.setLocation("IoT Lab");
+            devices.add(device);
+        }
+        return devices;
+    }
+
+    /** Dựng {@link SensorData} từ frame đã giải mã theo đúng cách MqttService làm. */
+    static SensorData sensorData(SmallKitFrame frame, Device device, byte[] payload) {
+        SensorData sensorData = new SensorData();
+        sensorData.setDevice(device);
+        sensorData.setTemperature(frame.getTemperature());
+        sensorData.setHumidity(frame.getHumidity());
+        sensorData.setLight(frame.getLight());
+        sensorData.setGas(frame.getGas());
+        sensorData.setLed(frame.getLed());
+        sensorData.setFan(frame.getFan());
+        sensorData.setAlertLed(frame.getAlertLed());
+        sensorData.setBuzzer(frame.getBuzzer());
+        sensorData.setServo(frame.getServo());
+        sensorData.setBroker(frame.getBroker());
+        sensorData.setTopic(frame.getTopic());
+        sensorData.setPayloadRaw(payload);
+        sensorData.setPayloadEncoding(PayloadEncoding.JSON);
+        return sensorData;
+    }
+
+    /**
+     * DeviceRepository trong bộ nhớ cho các benchmark không cần DB. Chỉ hỗ trợ các phương thức mà
+     * DeviceRegistry gọi: findAll, findByDeviceId và save.
+     */
+    static DeviceRepository deviceRepository(List<Device> initial) {
+        Map<String, Device> byDeviceId = new ConcurrentHashMap<>();
+        initial.forEach(device -> byDeviceId.put(device.getDeviceId(), device));
+        AtomicLong ids = new AtomicLong(initial.size());
+        return (DeviceRepository) Proxy.newProxyInstance(DeviceRepository.class.getClassLoader(),
+                new Class<?>[]{DeviceRepository.class}, (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "findAll":
+                            return new ArrayList<>(byDeviceId.values());
+                        case "findByDeviceId":
+                            return byDeviceId.get((String) args[0]);
+                        case "save":
+                            Device device = (Device) args[0];
+                            if (device.getId() == null) {
+                                device.setId(ids.incrementAndGet());
+                            }
+                            byDeviceId.put(device.getDeviceId(), device);
+                            return device;
+                        case "hashCode":
+                            return System.identityHashCode(proxy);
+                        case "equals":
+                            return proxy == args[0];
+                        case "toString":
+                            return "InMemoryDeviceRepository";
+                        default:
+                            throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+    }
+}
@@ -0,0 +1,75 @@
+package com.ptit.service.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.ptit.service.codec.SmallKitFrame;
+import com.ptit.service.codec.SmallKitJsonCodec;
+import com.ptit.service.config.JacksonConfig;
+import com.ptit.service.entity.SensorData;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.converter.ByteArrayMessageConverter;
+import org.springframework.messaging.converter.CompositeMessageConverter;
+import org.springframework.messaging.converter.MappingJackson2MessageConverter;
+import org.springframework.messaging.converter.StringMessageConverter;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.messaging.support.AbstractMessageChannel;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Chuyển đổi và gửi qua {@link SimpMessagingTemplate} như NotificationService, với bộ chuyển đổi
+ * giống cấu hình Spring Boot (String, byte[], Jackson dùng ObjectMapper của JacksonConfig).
+ * Kênh đích chỉ nhận message, không có broker phía sau.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class StompConversionBenchmark {
+
+    private SimpMessagingTemplate messagingTemplate;
+    private SensorData sensorData;
+    private String commandResponse;
+
+    @Setup
+    public void setUp() throws Exception {
+        MappingJackson2MessageConverter jackson = new MappingJackson2MessageConverter();
+        jackson.setObjectMapper(new JacksonConfig().objectMapper());
+        messagingTemplate = new SimpMessagingTemplate(new LastMessageChannel());
+        messagingTemplate.setMessageConverter(new CompositeMessageConverter(
+                List.of(new StringMessageConverter(), new ByteArrayMessageConverter(), jackson)));
+
+        byte[] payload = TelemetryDecodeBenchmark.PAYLOAD;
+        SmallKitFrame frame = new SmallKitJsonCodec(new ObjectMapper()).decode(payload, new SmallKitFrame());
+        sensorData = SmallKitFixtures.sensorData(frame, SmallKitFixtures.devices(1).get(0), payload);
+        sensorData.setId(1L);
+        commandResponse = "{\"led\":1,\"status\":\"ok\"}";
+    }
+
+    @Benchmark
+    public void sensorData() {
+        messagingTemplate.convertAndSend("/topic/sensorData/1", sensorData);
+    }
+
+    @Benchmark
+    public void commandResponse() {
+        messagingTemplate.convertAndSend("/topic/command-response/node_01", commandResponse);
+    }
+
+    /** Chỉ giữ message cuối cùng để kết quả chuyển đổi không bị JIT loại bỏ. */
+    private static final class LastMessageChannel extends AbstractMessageChannel {
+        private volatile Message<?> last;
+
+        @Override
+        protected boolean sendInternal(Message<?> message, long timeout) {
+            last = message;
+            return true;
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package com.ptit.service.benchmark;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.ptit.service.codec.SmallKitBinaryCodec;
+import com.ptit.service.codec.SmallKitFrame;
+import com.ptit.service.codec.SmallKitJsonCodec;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * So sánh cách giải mã bản tin SmallKit cũ (tạo ObjectMapper và cây JsonNode cho mỗi bản tin) với
+ * {@link SmallKitJsonCodec}. Chạy với {@code -prof gc} để xem số byte cấp phát trên mỗi bản tin.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class TelemetryDecodeBenchmark {
+
+    static final byte[] PAYLOAD = SmallKitFixtures.payload(1, new Random(42));
+
+    private ObjectMapper sharedMapper;
+    private SmallKitJsonCodec codec;
+    private SmallKitBinaryCodec binaryCodec;
+    private byte[] binaryPayload;
+    private SmallKitFrame frame;
+
+    @Setup
+    public void setUp() throws Exception {
+        sharedMapper = new ObjectMapper();
+        codec = new SmallKitJsonCodec(sharedMapper);
+        frame = new SmallKitFrame();
+        binaryCodec = new SmallKitBinaryCodec();
+        binaryPayload = binaryCodec.encode(codec.decode(PAYLOAD, new SmallKitFrame()), false);
+    }
+
+    /** Cách làm trước đây trong MqttService: ObjectMapper mới, String trung gian, cây JsonNode. */
+    @Benchmark
+    public void treePerMessageMapper(Blackhole bh) throws Exception {
+        String payload = new String(PAYLOAD);
+        JsonNode node = new ObjectMapper().readTree(payload);
+        consumeTree(node, bh);
+    }
+
+    /** Cây JsonNode nhưng dùng chung ObjectMapper, để tách chi phí khởi tạo mapper khỏi chi phí dựng cây. */
+    @Benchmark
+    public void treeSharedMapper(Blackhole bh) throws Exception {
+        JsonNode node = sharedMapper.readTree(PAYLOAD);
+        consumeTree(node, bh);
+    }
+
+    @Benchmark
+    public void streamingCodec(Blackhole bh) throws Exception {
+        consumeFrame(codec.decode(PAYLOAD, frame), bh);
+    }
+
+    /** Cùng các trường nhưng ở định dạng nhị phân của topic iot/data/bin. */
+    @Benchmark
+    public void binaryCodec(Blackhole bh) throws Exception {
+        consumeFrame(binaryCodec.decode(binaryPayload, frame), bh);
+    }
+
+    private static void consumeFrame(SmallKitFrame decoded, Blackhole bh) {
+        bh.consume(decoded.getDeviceId());
+        bh.consume(decoded.getTemperature());
+        bh.consume(decoded.getHumidity());
+        bh.consume(decoded.getLight());
+        bh.consume(decoded.getGas());
+        bh.consume(decoded.getLed());
+        bh.consume(decoded.getServo());
+    }
+
+    private static void consumeTree(JsonNode node, Blackhole bh) {
+        bh.consume(node.path("id").asText("N/A"));
+        JsonNode ss = node.path("ss");
+        bh.consume(ss.path("temp").floatValue());
+        bh.consume(ss.path("hum").floatValue());
+        bh.consume(ss.path("lgt").floatValue());
+        bh.consume(ss.path("gas").floatValue());
+        JsonNode stt = node.path("stt");
+        bh.consume(stt.path("led").intValue());
+        bh.consume(stt.path("sv").intValue());
+    }
+}
@@ -0,0 +1,176 @@
+package com.ptit.service.loadtest;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+import org.springframework.messaging.simp.stomp.StompFrameHandler;
+import org.springframework.messaging.simp.stomp.StompHeaders;
+import org.springframework.messaging.simp.stomp.StompSession;
+import org.springframework.messaging.simp.stomp.StompSessionHandlerAdapter;
+import org.springframework.web.socket.client.standard.StandardWebSocketClient;
+import org.springframework.web.socket.messaging.WebSocketStompClient;
+import org.springframework.web.socket.sockjs.client.SockJsClient;
+import org.springframework.web.socket.sockjs.client.WebSocketTransport;
+
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Client STOMP subscribe /topic/sensorData/{id} của một mẫu thiết bị và đo độ trễ từ lúc node gửi
+ * bản tin tới lúc bản ghi tương ứng tới WebSocket (khớp theo số thứ tự trong trường light).
+ *
+ * <p>Có thể mở nhiều session, chia vòng tròn trên nhiều URL (mỗi URL một instance), mỗi session subscribe
+ * một phần của mẫu; số frame được đếm riêng theo URL để thấy instance nào không nhận được dữ liệu của
+ * thiết bị do instance khác xử lý.
+ *
+ * <p>Service gom cập nhật theo cửa sổ mqtt.fanout.window-ms và chỉ gửi bản ghi mới nhất, nên độ trễ đo
+ * được đã gồm thời gian chờ trong cửa sổ (tối đa một cửa sổ).
+ */
+final class LatencyProbe {
+
+    private final SimulatedFleet fleet;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final Recorder recorder = new Recorder(TimeUnit.SECONDS.toMicros(60), 3);
+    private final Histogram total = new Histogram(TimeUnit.SECONDS.toMicros(60), 3);
+
+    final LongAdder frames = new LongAdder();
+    final LongAdder unmatched = new LongAdder();
+    final LongAdder sessionsFailed = new LongAdder();
+    // Frame theo URL, cùng thứ tự với danh sách URL truyền vào connect
+    private LongAdder[] framesByUrl = new LongAdder[0];
+
+    private WebSocketStompClient client;
+    private final List<StompSession> sessions = new ArrayList<>();
+
+    LatencyProbe(SimulatedFleet fleet) {
+        this.fleet = fleet;
+    }
+
+    /**
+     * @param subscriptions id trong bảng iot_devices -> chỉ số node
+     */
+    void connect(String url, Map<Long, Integer> subscriptions) throws Exception {
+        connect(List.of(url), 1, subscriptions, subscriptions.size());
+    }
+
+    /**
+     * Mở {@code sessionCount} session, session thứ i kết nối {@code urls[i mod urls.size()]} và subscribe
+     * {@code perSession} thiết bị kế tiếp trong mẫu (quay vòng khi hết mẫu).
+     *
+     * @param subscriptions id trong bảng iot_devices -> chỉ số node
+     * @return số subscription đã tạo
+     */
+    int connect(List<String> urls, int sessionCount, Map<Long, Integer> subscriptions, int perSession) throws Exception {
+        client = new WebSocketStompClient(new SockJsClient(List.of(new WebSocketTransport(new StandardWebSocketClient()))));
+        framesByUrl = new LongAdder[urls.size()];
+        for (int i = 0; i < framesByUrl.length; i++) {
+            framesByUrl[i] = new LongAdder();
+        }
+        List<Map.Entry<Long, Integer>> devices = new ArrayList<>(subscriptions.entrySet());
+        int subscribed = 0;
+        int next = 0;
+        for (int i = 0; i < sessionCount && !devices.isEmpty(); i++) {
+            int urlIndex = i % urls.size();
+            StompSession session;
+            try {
+                session = client.connect(urls.get(urlIndex), new StompSessionHandlerAdapter() {
+                }).get(10, TimeUnit.SECONDS);
+            } catch (Exception e) {
+                sessionsFailed.increment();
+                continue;
+            }
+            sessions.add(session);
+            for (int j = 0; j < perSession; j++) {
+                Map.Entry<Long, Integer> entry = devices.get(next++ % devices.size());
+                subscribe(session, entry.getKey(), entry.getValue(), framesByUrl[urlIndex]);
+                subscribed++;
+            }
+        }
+        if (sessions.isEmpty()) {
+            throw new IllegalStateException("No STOMP session could connect to " + urls);
+        }
+        return subscribed;
+    }
+
+    private void subscribe(StompSession session, long id, int node, LongAdder urlFrames) {
+        session.subscribe("/topic/sensorData/" + id, new StompFrameHandler() {
+            @Override
+            public Type getPayloadType(StompHeaders headers) {
+                return byte[].class;
+            }
+
+            @Override
+            public void handleFrame(StompHeaders headers, Object payload) {
+                urlFrames.increment();
+                onFrame(node, (byte[]) payload);
+            }
+        });
+    }
+
+    int sessions() {
+        int connected = 0;
+        for (StompSession session : sessions) {
+            if (session.isConnected()) {
+                connected++;
+            }
+        }
+        return connected;
+    }
+
+    /** Số frame đã nhận theo từng URL, cùng thứ tự với danh sách URL. */
+    long[] framesByUrl() {
+        long[] result = new long[framesByUrl.length];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = framesByUrl[i].sum();
+        }
+        return result;
+    }
+
+    private void onFrame(int node, byte[] payload) {
+        long now = System.nanoTime();
+        frames.increment();
+        try {
+            JsonNode reading = objectMapper.readTree(payload);
+            long sentAt = fleet.sentAt(node, reading.path("light").asInt());
+            if (sentAt == 0) {
+                unmatched.increment();
+                return;
+            }
+            recorder.recordValue(Math.min(TimeUnit.NANOSECONDS.toMicros(now - sentAt), total.getHighestTrackableValue()));
+        } catch (IOException e) {
+            unmatched.increment();
+        }
+    }
+
+    /**
+     * Độ trễ (micro giây) kể từ lần gọi trước; cộng dồn vào tổng nếu {@code accumulate}.
+     */
+    synchronized Histogram interval(boolean accumulate) {
+        Histogram interval = recorder.getIntervalHistogram();
+        if (accumulate) {
+            total.add(interval);
+        }
+        return interval;
+    }
+
+    synchronized Histogram total() {
+        return total;
+    }
+
+    void close() {
+        for (StompSession session : sessions) {
+            if (session.isConnected()) {
+                session.disconnect();
+            }
+        }
+        if (client != null) {
+            client.stop();
+        }
+    }
+}
@@ -0,0 +1,459 @@
+package com.ptit.service.loadtest;
+
+import com.ptit.service.MQTTServiceApplication;
+import com.ptit.service.entity.Device;
+import com.ptit.service.repository.DeviceRepository;
+import com.ptit.service.service.CommandService;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.moquette.broker.Server;
+import io.zonky.test.db.postgres.embedded.EmbeddedPostgres;
+import org.HdrHistogram.Histogram;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.ServerSocket;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Tải thử đầu-cuối: chạy broker MQTT (Moquette), PostgreSQL (embedded, đã migrate bằng Flyway khi
+ * service khởi động) và chính MQTT service trong cùng một JVM, rồi cho {@link SimulatedFleet} đóng vai
+ * hàng nghìn node SmallKit.
+ *
+ * <p>Mỗi chu kỳ báo cáo in số bản tin gửi/giây, số bản ghi đã ghi DB/giây, số frame WebSocket/giây,
+ * độ trễ p50/p95/p99 từ node tới WebSocket ({@link LatencyProbe}) và số bản tin bị bỏ ở từng chặng.
+ * Trong lúc chạy, service gửi lệnh ngẫu nhiên qua {@link CommandService} với tốc độ command-rate để
+ * đo cả chiều điều khiển. Như firmware SmallKit, node mặc định không trả lời lệnh nên mọi lệnh kết thúc
+ * TIMED_OUT; {@code ack=true} cho node trả lời kèm cid để đo thời gian khứ hồi của giao thức có phản hồi.
+ *
+ * <p>Tham số dạng {@code key=value}:
+ * <ul>
+ *     <li>nodes (1000), interval-ms (5000, như firmware), connections (nodes/500), qos (0), ack (false, như
+ *     firmware)</li>
+ *     <li>warmup (10 giây), duration (60 giây), report-interval (5 giây), drain (30 giây)</li>
+ *     <li>sample (100 thiết bị subscribe WebSocket), sessions (1 session STOMP), per-session (cả mẫu,
+ *     số thiết bị mỗi session subscribe), command-rate (1 lệnh/giây)</li>
+ *     <li>jdbc-url, jdbc-user, jdbc-password: dùng PostgreSQL có sẵn thay cho bản embedded</li>
+ *     <li>{@code mqtt.*}, {@code spring.*}, {@code server.*}, {@code logging.*}: truyền thẳng vào service,
+ *     {@code broker.*}: cấu hình Moquette (vd. broker.session_queue_size=4096)</li>
+ * </ul>
+ *
+ * <p>Báo cáo cuối gồm thời gian trung bình của từng chặng (giải mã, chờ lane, tra thiết bị, ghi DB,
+ * tuổi bản ghi khi ghi xong, gửi WebSocket) lấy từ các timer của service trong cửa sổ đo.
+ *
+ * <p>Log của service và broker ghi vào target/loadtest/service.log để không lẫn với báo cáo.
+ */
+public final class LoadTest {
+
+    private static final String[] PASS_THROUGH = {"mqtt.", "spring.", "server.", "logging.", "management."};
+
+    // Các chặng của pipeline theo thứ tự bản tin đi qua
+    private static final String[] STAGES = {"mqtt.decode", "mqtt.dispatch.wait", "device.lookup",
+            "sensor.ingest.flush", "sensor.ingest.lag", "websocket.send"};
+
+    private final Map<String, String> options;
+    private final PrintStream out;
+
+    private EmbeddedPostgres postgres;
+    private Server broker;
+    private ConfigurableApplicationContext service;
+    private SimulatedFleet fleet;
+    private LatencyProbe probe;
+    private ScheduledExecutorService commander;
+    private final LongAdder commandsIssued = new LongAdder();
+
+    private LoadTest(Map<String, String> options, PrintStream out) {
+        this.options = options;
+        this.out = out;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new LinkedHashMap<>();
+        for (String arg : args) {
+            String option = arg.startsWith("--") ? arg.substring(2) : arg;
+            int eq = option.indexOf('=');
+            if (eq <= 0) {
+                throw new IllegalArgumentException("Expected key=value, got " + arg);
+            }
+            options.put(option.substring(0, eq), option.substring(eq + 1));
+        }
+        LoadTest loadTest = new LoadTest(options, System.out);
+        int status = 0;
+        try {
+            loadTest.run();
+        } catch (Exception e) {
+            e.printStackTrace();
+            status = 1;
+        } finally {
+            loadTest.shutdown();
+        }
+        System.exit(status);
+    }
+
+    private void run() throws Exception {
+        int nodes = intOption("nodes", 1000);
+        long intervalMs = intOption("interval-ms", 5000);
+        int warmup = intOption("warmup", 10);
+        int duration = intOption("duration", 60);
+        int reportInterval = intOption("report-interval", 5);
+
+        String brokerUrl = startBroker();
+        String jdbcUrl = startDatabase();
+        startService(brokerUrl, jdbcUrl);
+        MeterRegistry registry = service.getBean(MeterRegistry.class);
+        JdbcTemplate jdbc = service.getBean(JdbcTemplate.class);
+
+        fleet = new SimulatedFleet(brokerUrl, nodes, intOption("connections", Math.max(1, nodes / 500)), intervalMs,
+                intOption("qos", 0), Boolean.parseBoolean(options.getOrDefault("ack", "false")));
+        fleet.connect();
+        fleet.start();
+        out.printf(Locale.ROOT, "Simulating %d nodes every %d ms (%.0f msg/s) on %s%n",
+                nodes, intervalMs, nodes * 1000.0 / intervalMs, brokerUrl);
+
+        awaitRegistration(jdbc, nodes, intervalMs);
+        probe = new LatencyProbe(fleet);
+        Map<Long, Integer> sample = sample(jdbc, nodes, intOption("sample", 100));
+        int subscriptions = probe.connect(List.of(webSocketUrl()), intOption("sessions", 1), sample,
+                intOption("per-session", sample.size()));
+        out.printf("%d STOMP sessions, %d subscriptions%n", probe.sessions(), subscriptions);
+        startCommands(Double.parseDouble(options.getOrDefault("command-rate", "1")));
+
+        out.printf("Warming up for %d s%n", warmup);
+        TimeUnit.SECONDS.sleep(warmup);
+        probe.interval(false);
+        Snapshot start = snapshot(registry);
+        Snapshot previous = start;
+        out.printf("%6s %9s %11s %8s %8s %8s %8s %8s %8s %8s%n",
+                "t(s)", "sent/s", "persisted/s", "ws/s", "p50", "p95", "p99", "max", "queue", "dropped");
+        long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(duration);
+        long remaining;
+        while ((remaining = end - System.nanoTime()) > 0) {
+            TimeUnit.NANOSECONDS.sleep(Math.min(TimeUnit.SECONDS.toNanos(reportInterval), remaining));
+            Snapshot current = snapshot(registry);
+            Histogram latency = probe.interval(true);
+            double seconds = (current.nanos - previous.nanos) / 1e9;
+            out.printf(Locale.ROOT, "%6.0f %9.0f %11.0f %8.0f %8s %8s %8s %8s %8.0f %8d%n",
+                    (current.nanos - start.nanos) / 1e9,
+                    (current.sent - previous.sent) / seconds,
+                    (current.persisted - previous.persisted) / seconds,
+                    (current.frames - previous.frames) / seconds,
+                    millis(latency, 50), millis(latency, 95), millis(latency, 99), millis(latency, 100),
+                    current.queue, current.dropped() - previous.dropped());
+            previous = current;
+        }
+
+        fleet.stop();
+        commander.shutdownNow();
+        Snapshot stopped = snapshot(registry);
+        drain(registry, stopped);
+        report(registry, jdbc, start, stopped, snapshot(registry));
+    }
+
+    private String startBroker() throws IOException {
+        int port = intOption("broker-port", 0);
+        if (port == 0) {
+            port = freePort();
+        }
+        Properties config = new Properties();
+        config.setProperty("host", "127.0.0.1");
+        config.setProperty("port", Integer.toString(port));
+        config.setProperty("websocket_port", "disabled");
+        config.setProperty("allow_anonymous", "true");
+        config.setProperty("persistence_enabled", "false");
+        config.setProperty("telemetry_enabled", "false");
+        options.forEach((key, value) -> {
+            if (key.startsWith("broker.")) {
+                config.setProperty(key.substring("broker.".length()), value);
+            }
+        });
+        broker = new Server();
+        broker.startServer(config);
+        return "tcp://127.0.0.1:" + port;
+    }
+
+    private String startDatabase() throws IOException {
+        String jdbcUrl = options.get("jdbc-url");
+        if (jdbcUrl != null) {
+            return jdbcUrl;
+        }
+        postgres = EmbeddedPostgres.builder().start();
+        return postgres.getJdbcUrl("postgres", "postgres");
+    }
+
+    private void startService(String brokerUrl, String jdbcUrl) {
+        Map<String, String> properties = new LinkedHashMap<>();
+        properties.put("spring.datasource.url", jdbcUrl);
+        properties.put("spring.datasource.username", options.getOrDefault("jdbc-user", "postgres"));
+        properties.put("spring.datasource.password", options.getOrDefault("jdbc-password", "postgres"));
+        properties.put("server.port", "0");
+        properties.put("mqtt.broker.url", brokerUrl);
+        properties.put("mqtt.client.id", "mqtt-service-loadtest");
+        properties.put("mqtt.cluster.mode", "NONE");
+        properties.put("mqtt.cluster.instance-id", "loadtest");
+        properties.put("logging.file.name", "target/loadtest/service.log");
+        // Pattern rỗng tắt log ra console, báo cáo không bị lẫn
+        properties.put("logging.pattern.console", "");
+        properties.put("spring.main.banner-mode", "off");
+        options.forEach((key, value) -> {
+            for (String prefix : PASS_THROUGH) {
+                if (key.startsWith(prefix)) {
+                    properties.put(key, value);
+                }
+            }
+        });
+        // Truyền như tham số dòng lệnh để được ưu tiên hơn application.yml
+        String[] args = properties.entrySet().stream().map(e -> "--" + e.getKey() + "=" + e.getValue()).toArray(String[]::new);
+        service = new SpringApplicationBuilder(MQTTServiceApplication.class).run(args);
+    }
+
+    private String webSocketUrl() {
+        String port = service.getEnvironment().getProperty("local.server.port");
+        String contextPath = service.getEnvironment().getProperty("server.servlet.context-path", "");
+        return "ws://127.0.0.1:" + port + contextPath + "/ws";
+    }
+
+    private void awaitRegistration(JdbcTemplate jdbc, int nodes, long intervalMs) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(intervalMs * 3 + 30_000);
+        int registered = 0;
+        while (System.nanoTime() < deadline) {
+            registered = count(jdbc, "SELECT count(*) FROM iot_devices WHERE device_id LIKE 'node\\_%'");
+            if (registered >= nodes) {
+                break;
+            }
+            TimeUnit.MILLISECONDS.sleep(500);
+        }
+        out.printf("%d/%d devices registered%n", registered, nodes);
+    }
+
+    /** Chọn đều {@code size} node trong đội để subscribe WebSocket, theo id trong iot_devices. */
+    private Map<Long, Integer> sample(JdbcTemplate jdbc, int nodes, int size) {
+        int step = Math.max(1, nodes / Math.max(1, size));
+        Map<Long, Integer> sample = new HashMap<>();
+        jdbc.query("SELECT id, device_id FROM iot_devices WHERE device_id LIKE 'node\\_%'", rs -> {
+            int node;
+            try {
+                node = SimulatedFleet.nodeOf(rs.getString(2));
+            } catch (NumberFormatException e) {
+                return;
+            }
+            if (node < nodes && node % step == 0 && sample.size() < size) {
+                sample.put(rs.getLong(1), node);
+            }
+        });
+        out.printf("Probing %d devices over WebSocket%n", sample.size());
+        return sample;
+    }
+
+    private void startCommands(double perSecond) {
+        commander = Executors.newSingleThreadScheduledExecutor(r -> new Thread(r, "loadtest-commander"));
+        if (perSecond <= 0) {
+            return;
+        }
+        DeviceRepository devices = service.getBean(DeviceRepository.class);
+        CommandService commands = service.getBean(CommandService.class);
+        long periodMicros = (long) (1_000_000 / perSecond);
+        commander.scheduleAtFixedRate(() -> {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            Device device = devices.findByDeviceId(SimulatedFleet.deviceId(random.nextInt(fleet.nodes())));
+            if (device == null) {
+                return;
+            }
+            try {
+                commands.submit(device, "{\"led\": " + random.nextInt(2) + "}");
+                commandsIssued.increment();
+            } catch (Exception e) {
+                // Đếm qua trạng thái FAILED trong bảng commands
+            }
+        }, periodMicros, periodMicros, TimeUnit.MICROSECONDS);
+    }
+
+    /** Chờ hàng đợi ghi cạn và số bản ghi đã ghi ngừng tăng, tối đa {@code drain} giây. */
+    private void drain(MeterRegistry registry, Snapshot stopped) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(intOption("drain", 30));
+        Snapshot last = stopped;
+        while (System.nanoTime() < deadline) {
+            TimeUnit.SECONDS.sleep(1);
+            Snapshot current = snapshot(registry);
+            if (current.queue == 0 && current.pending == 0 && current.persisted == last.persisted) {
+                break;
+            }
+            last = current;
+        }
+    }
+
+    private void report(MeterRegistry registry, JdbcTemplate jdbc, Snapshot start, Snapshot stopped, Snapshot drained) {
+        double seconds = (stopped.nanos - start.nanos) / 1e9;
+        long sent = drained.sent - start.sent;
+        long persisted = drained.persisted - start.persisted;
+        Histogram latency = probe.total();
+
+        out.println();
+        out.printf(Locale.ROOT, "Measured %.0f s, %d nodes%n", seconds, fleet.nodes());
+        out.printf(Locale.ROOT, "  sent           %10d  (%.0f msg/s)%n", sent, (stopped.sent - start.sent) / seconds);
+        out.printf(Locale.ROOT, "  persisted      %10d  (%.0f rows/s during the run)%n", persisted,
+                (stopped.persisted - start.persisted) / seconds);
+        out.printf(Locale.ROOT, "  ws frames      %10d  (%d unmatched)%n", drained.frames - start.frames, probe.unmatched.sum());
+        out.printf(Locale.ROOT, "  latency ms     p50 %s  p95 %s  p99 %s  max %s  (%d samples, includes fanout window)%n",
+                millis(latency, 50), millis(latency, 95), millis(latency, 99), millis(latency, 100), latency.getTotalCount());
+        out.printf("  dropped        publish %d, dispatch %d, ingest queue %d, write %d, spilled %d%n",
+                drained.publishFailed - start.publishFailed, drained.rejected - start.rejected,
+                drained.droppedQueue - start.droppedQueue, drained.droppedWrite - start.droppedWrite,
+                drained.spilled - start.spilled);
+        // Âm: bản tin tồn từ lúc warmup được ghi trong cửa sổ đo; dương sau khi drain: bản tin mất ở broker (QoS 0)
+        out.printf("  difference     %10d  (sent - persisted - dropped)%n",
+                sent - persisted - (drained.dropped() - start.dropped()));
+        out.printf("  rows in table  %10d%n", count(jdbc, "SELECT count(*) FROM sensor_data"));
+
+        Map<String, Integer> commandStatus = new LinkedHashMap<>();
+        jdbc.query("SELECT status, count(*) FROM commands GROUP BY status ORDER BY status",
+                rs -> {
+                    commandStatus.put(rs.getString(1), rs.getInt(2));
+                });
+        long roundTrips = 0;
+        double roundTripMs = 0;
+        double roundTripMax = 0;
+        for (Timer timer : registry.find("command.roundtrip").timers()) {
+            roundTrips += timer.count();
+            roundTripMs += timer.totalTime(TimeUnit.MILLISECONDS);
+            roundTripMax = Math.max(roundTripMax, timer.max(TimeUnit.MILLISECONDS));
+        }
+        out.print("  stage mean ms ");
+        for (String stage : STAGES) {
+            double count = drained.stages.get(stage)[0] - start.stages.get(stage)[0];
+            double total = drained.stages.get(stage)[1] - start.stages.get(stage)[1];
+            out.printf(Locale.ROOT, " %s %.3f", stage, count == 0 ? 0 : total / count);
+        }
+        out.println();
+        out.printf(Locale.ROOT, "  commands       issued %d, received by nodes %d, acked %d, status %s%n",
+                commandsIssued.sum(), fleet.commandsReceived.sum(), fleet.commandsAcked.sum(), commandStatus);
+        if (fleet.acks()) {
+            out.printf(Locale.ROOT, "  command rtt ms mean %.1f  max %.1f (nodes ack with cid, firmware does not)%n",
+                    roundTrips == 0 ? 0 : roundTripMs / roundTrips, roundTripMax);
+        } else {
+            out.println("  command rtt    not measured: nodes do not answer commands, like SmallKit firmware "
+                    + "(commands end TIMED_OUT; ack=true to simulate replies)");
+        }
+    }
+
+    private Snapshot snapshot(MeterRegistry registry) {
+        Snapshot snapshot = new Snapshot();
+        snapshot.nanos = System.nanoTime();
+        snapshot.sent = fleet.sent.sum();
+        snapshot.publishFailed = fleet.publishFailed.sum();
+        snapshot.frames = probe.frames.sum();
+        snapshot.persisted = counter(registry, "sensor.ingest.persisted", null);
+        snapshot.rejected = counter(registry, "mqtt.dispatch.rejected", null);
+        snapshot.droppedQueue = counter(registry, "sensor.ingest.dropped", "queue_full");
+        snapshot.droppedWrite = counter(registry, "sensor.ingest.dropped", "write_failed");
+        snapshot.spilled = counter(registry, "sensor.ingest.spilled", null);
+        snapshot.queue = gauge(registry, "sensor.ingest.queue.size");
+        snapshot.pending = gauge(registry, "mqtt.dispatch.pending");
+        for (String stage : STAGES) {
+            double[] totals = new double[2];
+            for (Timer timer : registry.find(stage).timers()) {
+                totals[0] += timer.count();
+                totals[1] += timer.totalTime(TimeUnit.MILLISECONDS);
+            }
+            snapshot.stages.put(stage, totals);
+        }
+        return snapshot;
+    }
+
+    private static long counter(MeterRegistry registry, String name, String reason) {
+        double sum = 0;
+        List<Counter> counters = List.copyOf((reason == null ? registry.find(name) : registry.find(name).tag("reason", reason)).counters());
+        for (Counter counter : counters) {
+            sum += counter.count();
+        }
+        return (long) sum;
+    }
+
+    private static double gauge(MeterRegistry registry, String name) {
+        Gauge gauge = registry.find(name).gauge();
+        return gauge == null ? 0 : gauge.value();
+    }
+
+    private static int count(JdbcTemplate jdbc, String sql) {
+        Integer count = jdbc.queryForObject(sql, Integer.class);
+        return count == null ? 0 : count;
+    }
+
+    static String millis(Histogram histogram, double percentile) {
+        if (histogram.getTotalCount() == 0) {
+            return "-";
+        }
+        long micros = percentile >= 100 ? histogram.getMaxValue() : histogram.getValueAtPercentile(percentile);
+        return String.format(Locale.ROOT, "%.1f", micros / 1000.0);
+    }
+
+    private int intOption(String name, int defaultValue) {
+        String value = options.get(name);
+        return value == null ? defaultValue : Integer.parseInt(value);
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private void shutdown() {
+        if (commander != null) {
+            commander.shutdownNow();
+        }
+        if (fleet != null) {
+            fleet.close();
+        }
+        if (probe != null) {
+            probe.close();
+        }
+        if (service != null) {
+            service.close();
+        }
+        if (broker != null) {
+            broker.stopServer();
+        }
+        if (postgres != null) {
+            try {
+                postgres.close();
+            } catch (IOException e) {
+                e.printStackTrace(out);
+            }
+        }
+    }
+
+    private static final class Snapshot {
+        long nanos;
+        long sent;
+        long publishFailed;
+        long frames;
+        long persisted;
+        long rejected;
+        long droppedQueue;
+        long droppedWrite;
+        long spilled;
+        double queue;
+        double pending;
+        // Tên timer -> {số lần, tổng ms}
+        final Map<String, double[]> stages = new HashMap<>();
+
+        long dropped() {
+            return publishFailed + rejected + droppedQueue + droppedWrite;
+        }
+    }
+}
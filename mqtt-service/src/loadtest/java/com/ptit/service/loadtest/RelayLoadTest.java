@@ -0,0 +1,216 @@
+package com.ptit.service.loadtest;
+
+import org.HdrHistogram.Histogram;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tải thử tầng WebSocket nhiều instance (mqtt.websocket.broker=relay, vd. docker-compose.relay.yml):
+ * khác {@link LoadTest}, service không chạy trong JVM này mà là các instance có sẵn dùng chung broker MQTT,
+ * PostgreSQL và broker STOMP.
+ *
+ * <p>{@link SimulatedFleet} gửi dữ liệu lên broker MQTT, các instance chia nhau xử lý (SHARED/HASH), còn
+ * {@link LatencyProbe} mở nhiều session STOMP chia đều trên các instance. Mỗi chu kỳ báo cáo in số frame
+ * nhận được/giây trên từng instance so với số frame mong đợi, và độ trễ p50/p95/p99 từ node tới client.
+ * Tỉ lệ nhận thấp ở một instance nghĩa là session trên instance đó không nhận được dữ liệu của thiết bị
+ * do instance khác xử lý (relay không hoạt động) hoặc instance đó quá tải.
+ *
+ * <p>Tham số dạng {@code key=value}:
+ * <ul>
+ *     <li>ws-urls (bắt buộc): các URL SockJS, cách nhau bởi dấu phẩy, vd.
+ *     ws://localhost:8084/mqtt/ws,ws://localhost:8085/mqtt/ws</li>
+ *     <li>broker-url (bắt buộc): broker MQTT mà các instance subscribe</li>
+ *     <li>jdbc-url (bắt buộc), jdbc-user, jdbc-password: DB của các instance, để lấy id thiết bị</li>
+ *     <li>nodes (1000), interval-ms (5000), connections (nodes/500), qos (0), ack (false)</li>
+ *     <li>sessions (1000), per-session (10 thiết bị), sample (sessions * per-session, tối đa nodes)</li>
+ *     <li>warmup (10 giây), duration (60 giây), report-interval (5 giây)</li>
+ * </ul>
+ */
+public final class RelayLoadTest {
+
+    private final Map<String, String> options;
+    private final PrintStream out;
+
+    private SimulatedFleet fleet;
+    private LatencyProbe probe;
+
+    private RelayLoadTest(Map<String, String> options, PrintStream out) {
+        this.options = options;
+        this.out = out;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new LinkedHashMap<>();
+        for (String arg : args) {
+            String option = arg.startsWith("--") ? arg.substring(2) : arg;
+            int eq = option.indexOf('=');
+            if (eq <= 0) {
+                throw new IllegalArgumentException("Expected key=value, got " + arg);
+            }
+            options.put(option.substring(0, eq), option.substring(eq + 1));
+        }
+        RelayLoadTest loadTest = new RelayLoadTest(options, System.out);
+        int status = 0;
+        try {
+            loadTest.run();
+        } catch (Exception e) {
+            e.printStackTrace();
+            status = 1;
+        } finally {
+            loadTest.shutdown();
+        }
+        System.exit(status);
+    }
+
+    private void run() throws Exception {
+        List<String> urls = Arrays.asList(required("ws-urls").split(","));
+        int nodes = intOption("nodes", 1000);
+        long intervalMs = intOption("interval-ms", 5000);
+        int sessions = intOption("sessions", 1000);
+        int perSession = intOption("per-session", 10);
+        int warmup = intOption("warmup", 10);
+        int duration = intOption("duration", 60);
+        int reportInterval = intOption("report-interval", 5);
+
+        DriverManagerDataSource dataSource = new DriverManagerDataSource(required("jdbc-url"),
+                options.getOrDefault("jdbc-user", "postgres"), options.getOrDefault("jdbc-password", "postgres"));
+        JdbcTemplate jdbc = new JdbcTemplate(dataSource);
+
+        String brokerUrl = required("broker-url");
+        fleet = new SimulatedFleet(brokerUrl, nodes, intOption("connections", Math.max(1, nodes / 500)), intervalMs,
+                intOption("qos", 0), Boolean.parseBoolean(options.getOrDefault("ack", "false")));
+        fleet.connect();
+        fleet.start();
+        out.printf(Locale.ROOT, "Simulating %d nodes every %d ms (%.0f msg/s) on %s%n",
+                nodes, intervalMs, nodes * 1000.0 / intervalMs, brokerUrl);
+
+        Map<Long, Integer> sample = awaitDevices(jdbc, nodes,
+                intOption("sample", (int) Math.min(nodes, (long) sessions * perSession)), intervalMs);
+        probe = new LatencyProbe(fleet);
+        int subscriptions = probe.connect(urls, sessions, sample, perSession);
+        out.printf("%d/%d STOMP sessions over %d replicas, %d subscriptions on %d devices%n",
+                probe.sessions(), sessions, urls.size(), subscriptions, sample.size());
+
+        // Mỗi subscription nhận tối đa một frame mỗi chu kỳ gửi của node (fan-out chỉ gửi bản ghi mới nhất)
+        double expectedPerUrl = subscriptions * 1000.0 / intervalMs / urls.size();
+
+        out.printf("Warming up for %d s%n", warmup);
+        TimeUnit.SECONDS.sleep(warmup);
+        probe.interval(false);
+        out.printf("%6s %9s %8s %8s %8s %8s %8s  %s%n",
+                "t(s)", "sessions", "ws/s", "p50", "p95", "p99", "max", "received/expected per replica");
+        long startNanos = System.nanoTime();
+        long previousNanos = startNanos;
+        long[] start = probe.framesByUrl();
+        long[] previous = start;
+        long end = startNanos + TimeUnit.SECONDS.toNanos(duration);
+        long remaining;
+        while ((remaining = end - System.nanoTime()) > 0) {
+            TimeUnit.NANOSECONDS.sleep(Math.min(TimeUnit.SECONDS.toNanos(reportInterval), remaining));
+            long now = System.nanoTime();
+            long[] current = probe.framesByUrl();
+            Histogram latency = probe.interval(true);
+            double seconds = (now - previousNanos) / 1e9;
+            out.printf(Locale.ROOT, "%6.0f %9d %8.0f %8s %8s %8s %8s  %s%n",
+                    (now - startNanos) / 1e9, probe.sessions(), (sum(current) - sum(previous)) / seconds,
+                    LoadTest.millis(latency, 50), LoadTest.millis(latency, 95), LoadTest.millis(latency, 99),
+                    LoadTest.millis(latency, 100), ratios(previous, current, seconds, expectedPerUrl));
+            previous = current;
+            previousNanos = now;
+        }
+
+        fleet.stop();
+        long[] stopped = probe.framesByUrl();
+        double seconds = (System.nanoTime() - startNanos) / 1e9;
+        Histogram latency = probe.total();
+        out.println();
+        out.printf(Locale.ROOT, "Measured %.0f s, %d nodes, %d sessions (%d failed to connect), %d subscriptions%n",
+                seconds, nodes, probe.sessions(), probe.sessionsFailed.sum(), subscriptions);
+        for (int i = 0; i < urls.size(); i++) {
+            double rate = (stopped[i] - start[i]) / seconds;
+            out.printf(Locale.ROOT, "  %-40s %8.0f frames/s  (%.0f%% of expected)%n",
+                    urls.get(i), rate, expectedPerUrl == 0 ? 0 : rate * 100 / expectedPerUrl);
+        }
+        out.printf(Locale.ROOT, "  latency ms     p50 %s  p95 %s  p99 %s  max %s  (%d samples, %d unmatched)%n",
+                LoadTest.millis(latency, 50), LoadTest.millis(latency, 95), LoadTest.millis(latency, 99),
+                LoadTest.millis(latency, 100), latency.getTotalCount(), probe.unmatched.sum());
+    }
+
+    /** Chờ các node được đăng ký rồi chọn đều {@code size} thiết bị để subscribe. */
+    private Map<Long, Integer> awaitDevices(JdbcTemplate jdbc, int nodes, int size, long intervalMs)
+            throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(intervalMs * 3 + 30_000);
+        int step = Math.max(1, nodes / Math.max(1, size));
+        Map<Long, Integer> sample = new HashMap<>();
+        while (System.nanoTime() < deadline) {
+            sample.clear();
+            jdbc.query("SELECT id, device_id FROM iot_devices WHERE device_id LIKE 'node\\_%'", rs -> {
+                int node;
+                try {
+                    node = SimulatedFleet.nodeOf(rs.getString(2));
+                } catch (NumberFormatException e) {
+                    return;
+                }
+                if (node < nodes && node % step == 0 && sample.size() < size) {
+                    sample.put(rs.getLong(1), node);
+                }
+            });
+            if (sample.size() >= Math.min(size, (nodes + step - 1) / step)) {
+                break;
+            }
+            TimeUnit.MILLISECONDS.sleep(500);
+        }
+        if (sample.isEmpty()) {
+            throw new IllegalStateException("No simulated device was registered by the replicas");
+        }
+        return sample;
+    }
+
+    private static String ratios(long[] previous, long[] current, double seconds, double expectedPerUrl) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < current.length; i++) {
+            double rate = (current[i] - previous[i]) / seconds;
+            builder.append(String.format(Locale.ROOT, "%s%.0f/%.0f", i == 0 ? "" : "  ", rate, expectedPerUrl));
+        }
+        return builder.toString();
+    }
+
+    private static long sum(long[] values) {
+        long sum = 0;
+        for (long value : values) {
+            sum += value;
+        }
+        return sum;
+    }
+
+    private String required(String name) {
+        String value = options.get(name);
+        if (value == null) {
+            throw new IllegalArgumentException("Missing required option " + name);
+        }
+        return value;
+    }
+
+    private int intOption(String name, int defaultValue) {
+        String value = options.get(name);
+        return value == null ? defaultValue : Integer.parseInt(value);
+    }
+
+    private void shutdown() {
+        if (fleet != null) {
+            fleet.close();
+        }
+        if (probe != null) {
+            probe.close();
+        }
+    }
+}
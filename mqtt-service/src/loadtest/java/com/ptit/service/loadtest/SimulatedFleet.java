@@ -0,0 +1,237 @@
+package com.ptit.service.loadtest;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.eclipse.paho.client.mqttv3.IMqttDeliveryToken;
+import org.eclipse.paho.client.mqttv3.MqttAsyncClient;
+import org.eclipse.paho.client.mqttv3.MqttCallback;
+import org.eclipse.paho.client.mqttv3.MqttConnectOptions;
+import org.eclipse.paho.client.mqttv3.MqttException;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+import org.eclipse.paho.client.mqttv3.persist.MemoryPersistence;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Mô phỏng N node SmallKit: mỗi node gửi bản tin JSON giống firmware lên iot/data theo chu kỳ riêng
+ * (lệch pha ngẫu nhiên), chia đều trên một số kết nối MQTT dùng chung thay vì một kết nối mỗi node.
+ *
+ * <p>Trường {@code ss.lgt} mang số thứ tự bản tin của node, thời điểm gửi được giữ trong một vòng
+ * {@link #RING} ô cho mỗi node để {@link LatencyProbe} tính độ trễ khi bản ghi tới WebSocket.
+ *
+ * <p>Lệnh trên {@code iot/command/{deviceId}} được áp dụng vào trạng thái của node (led, fan, ...) và
+ * xuất hiện trong các bản tin tiếp theo như firmware. Firmware SmallKit không trả lời lệnh, nên mặc định
+ * node cũng im lặng; chỉ khi bật {@code ack} (giả lập firmware tương lai có phản hồi) node mới trả lời trên
+ * {@code iot/command-response/{deviceId}} kèm {@code cid} của lệnh.
+ */
+final class SimulatedFleet {
+
+    static final int RING = 64;
+
+    private static final String[] ACTUATORS = {"led", "fan", "alt", "bzr", "sv"};
+
+    private final int nodes;
+    private final long intervalMs;
+    private final int qos;
+    private final boolean ack;
+    private final String brokerUrl;
+    private final int connections;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private final List<MqttAsyncClient> clients = new ArrayList<>();
+    private MqttAsyncClient commandClient;
+    private ScheduledExecutorService scheduler;
+
+    // Chỉ task gửi của node ghi seq của node đó (scheduleAtFixedRate không chạy chồng)
+    private final int[] seq;
+    private final int[][] actuators;
+    private final AtomicLongArray sentSeq;
+    private final AtomicLongArray sentNanos;
+
+    final LongAdder sent = new LongAdder();
+    final LongAdder publishFailed = new LongAdder();
+    final LongAdder commandsReceived = new LongAdder();
+    final LongAdder commandsAcked = new LongAdder();
+
+    SimulatedFleet(String brokerUrl, int nodes, int connections, long intervalMs, int qos, boolean ack) {
+        this.brokerUrl = brokerUrl;
+        this.nodes = nodes;
+        this.connections = Math.max(1, Math.min(connections, nodes));
+        this.intervalMs = intervalMs;
+        this.qos = qos;
+        this.ack = ack;
+        this.seq = new int[nodes];
+        this.actuators = new int[nodes][ACTUATORS.length];
+        this.sentSeq = new AtomicLongArray(nodes * RING);
+        this.sentNanos = new AtomicLongArray(nodes * RING);
+    }
+
+    boolean acks() {
+        return ack;
+    }
+
+    static String deviceId(int node) {
+        return String.format(Locale.ROOT, "node_%05d", node);
+    }
+
+    static int nodeOf(String deviceId) {
+        return Integer.parseInt(deviceId.substring(deviceId.indexOf('_') + 1));
+    }
+
+    int nodes() {
+        return nodes;
+    }
+
+    void connect() throws MqttException {
+        for (int i = 0; i < connections; i++) {
+            MqttAsyncClient client = new MqttAsyncClient(brokerUrl, "loadtest-pub-" + i, new MemoryPersistence());
+            client.connect(options()).waitForCompletion();
+            clients.add(client);
+        }
+        commandClient = new MqttAsyncClient(brokerUrl, "loadtest-cmd", new MemoryPersistence());
+        commandClient.setCallback(new MqttCallback() {
+            @Override
+            public void connectionLost(Throwable cause) {
+            }
+
+            @Override
+            public void messageArrived(String topic, MqttMessage message) {
+                onCommand(topic, message.getPayload());
+            }
+
+            @Override
+            public void deliveryComplete(IMqttDeliveryToken token) {
+            }
+        });
+        commandClient.connect(options()).waitForCompletion();
+        commandClient.subscribe("iot/command/+", 1).waitForCompletion();
+    }
+
+    private static MqttConnectOptions options() {
+        MqttConnectOptions options = new MqttConnectOptions();
+        options.setCleanSession(true);
+        options.setAutomaticReconnect(true);
+        options.setMaxInflight(65535);
+        return options;
+    }
+
+    void start() {
+        scheduler = Executors.newScheduledThreadPool(Math.max(2, Runtime.getRuntime().availableProcessors() / 2), r -> {
+            Thread thread = new Thread(r, "fleet-publisher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        for (int node = 0; node < nodes; node++) {
+            int n = node;
+            long phase = ThreadLocalRandom.current().nextLong(intervalMs);
+            scheduler.scheduleAtFixedRate(() -> publish(n), phase, intervalMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    void stop() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    void close() {
+        stop();
+        for (MqttAsyncClient client : clients) {
+            disconnect(client);
+        }
+        if (commandClient != null) {
+            disconnect(commandClient);
+        }
+    }
+
+    private static void disconnect(MqttAsyncClient client) {
+        try {
+            client.disconnect().waitForCompletion(2000);
+            client.close();
+        } catch (MqttException e) {
+            // Đang tắt, bỏ qua
+        }
+    }
+
+    /**
+     * Thời điểm (System.nanoTime) node gửi bản tin số {@code sequence}, 0 nếu ô đã bị bản tin sau ghi đè.
+     */
+    long sentAt(int node, int sequence) {
+        int slot = node * RING + (sequence & (RING - 1));
+        long nanos = sentNanos.get(slot);
+        return sentSeq.get(slot) == sequence ? nanos : 0;
+    }
+
+    private void publish(int node) {
+        int sequence = ++seq[node];
+        int[] state = actuators[node];
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        String json = String.format(Locale.ROOT,
+                "{\"id\":\"%s\",\"name\":\"SmallKit %d\",\"w\":\"PTIT_IoT\",\"i\":\"10.%d.%d.%d\","
+                        + "\"b\":\"loadtest\",\"t\":\"iot/data\","
+                        + "\"ss\":{\"temp\":%.1f,\"hum\":%.1f,\"lgt\":%d,\"gas\":%d},"
+                        + "\"stt\":{\"led\":%d,\"fan\":%d,\"alt\":%d,\"bzr\":%d,\"sv\":%d}}",
+                deviceId(node), node, (node >> 16) & 0xff, (node >> 8) & 0xff, node & 0xff,
+                24 + random.nextDouble() * 10, 55 + random.nextDouble() * 30,
+                sequence, 80 + random.nextInt(400),
+                state[0], state[1], state[2], state[3], state[4]);
+        MqttMessage message = new MqttMessage(json.getBytes(StandardCharsets.UTF_8));
+        message.setQos(qos);
+        int slot = node * RING + (sequence & (RING - 1));
+        sentSeq.set(slot, 0);
+        sentNanos.set(slot, System.nanoTime());
+        sentSeq.set(slot, sequence);
+        try {
+            clients.get(node % clients.size()).publish("iot/data", message);
+            sent.increment();
+        } catch (MqttException e) {
+            // Hết inflight hoặc mất kết nối: tính là bản tin không gửi được
+            publishFailed.increment();
+        }
+    }
+
+    private void onCommand(String topic, byte[] payload) {
+        String deviceId = topic.substring(topic.lastIndexOf('/') + 1);
+        int node;
+        try {
+            node = nodeOf(deviceId);
+        } catch (NumberFormatException e) {
+            return;
+        }
+        if (node < 0 || node >= nodes) {
+            return;
+        }
+        commandsReceived.increment();
+        try {
+            JsonNode command = objectMapper.readTree(payload);
+            int[] state = actuators[node];
+            for (int i = 0; i < ACTUATORS.length; i++) {
+                if (command.has(ACTUATORS[i])) {
+                    state[i] = command.get(ACTUATORS[i]).asInt();
+                }
+            }
+            if (ack) {
+                ObjectNode response = objectMapper.createObjectNode();
+                response.put("id", deviceId);
+                if (command.has("cid")) {
+                    response.put("cid", command.get("cid").asText());
+                }
+                response.put("status", "ok");
+                commandClient.publish("iot/command-response/" + deviceId, objectMapper.writeValueAsBytes(response), 1, false);
+                commandsAcked.increment();
+            }
+        } catch (Exception e) {
+            // Lệnh không hợp lệ: firmware cũng bỏ qua
+        }
+    }
+}
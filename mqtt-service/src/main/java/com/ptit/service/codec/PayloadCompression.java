@@ -0,0 +1,72 @@
+package com.ptit.service.codec;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Nén payload gốc bằng raw deflate trước khi lưu. Bản tin SmallKit rất ngắn (~200 byte) nên nén từng
+ * bản tin riêng lẻ gần như không được gì; từ điển {@link #JSON_DICTIONARY} chứa sẵn khung JSON của
+ * firmware để deflate chỉ phải mã hoá phần giá trị.
+ *
+ * <p>Từ điển là một phần của định dạng lưu trữ: dữ liệu đã nén chỉ giải nén được với đúng từ điển đó,
+ * nên không được sửa nội dung của nó (cần từ điển mới thì thêm một {@code PayloadEncoding} mới).
+ */
+public final class PayloadCompression {
+
+    public static final byte[] JSON_DICTIONARY = ("\"t\":\"iot/data\",\"b\":\"broker\",\"w\":\"\",\"i\":\"192.168.1."
+            + "{\"id\":\"node_0\",\"name\":\"SmallKit \",\"ss\":{\"temp\":2,\"hum\":,\"lgt\":,\"gas\":},"
+            + "\"stt\":{\"led\":0,\"fan\":0,\"alt\":0,\"bzr\":0,\"sv\":0}}").getBytes(StandardCharsets.UTF_8);
+
+    private static final ThreadLocal<Deflater> DEFLATER =
+            ThreadLocal.withInitial(() -> new Deflater(Deflater.BEST_COMPRESSION, true));
+    private static final ThreadLocal<Inflater> INFLATER = ThreadLocal.withInitial(() -> new Inflater(true));
+
+    private PayloadCompression() {
+    }
+
+    /**
+     * @return dữ liệu đã nén, hoặc {@code null} nếu bản nén không nhỏ hơn bản gốc
+     */
+    public static byte[] deflate(byte[] data, byte[] dictionary) {
+        Deflater deflater = DEFLATER.get();
+        deflater.reset();
+        if (dictionary != null) {
+            deflater.setDictionary(dictionary);
+        }
+        deflater.setInput(data);
+        deflater.finish();
+        byte[] buffer = new byte[data.length];
+        int length = 0;
+        while (!deflater.finished() && length < buffer.length) {
+            length += deflater.deflate(buffer, length, buffer.length - length);
+        }
+        return deflater.finished() && length < data.length ? Arrays.copyOf(buffer, length) : null;
+    }
+
+    public static byte[] inflate(byte[] data, byte[] dictionary) {
+        Inflater inflater = INFLATER.get();
+        inflater.reset();
+        if (dictionary != null) {
+            inflater.setDictionary(dictionary);
+        }
+        inflater.setInput(data);
+        ByteArrayOutputStream out = new ByteArrayOutputStream(data.length * 3);
+        byte[] buffer = new byte[512];
+        try {
+            while (!inflater.finished()) {
+                int n = inflater.inflate(buffer);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new IllegalArgumentException("Truncated or corrupt deflate payload");
+                }
+                out.write(buffer, 0, n);
+            }
+        } catch (DataFormatException e) {
+            throw new IllegalArgumentException("Corrupt deflate payload", e);
+        }
+        return out.toByteArray();
+    }
+}
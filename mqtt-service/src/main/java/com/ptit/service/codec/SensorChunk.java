@@ -0,0 +1,174 @@
+package com.ptit.service.codec;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+
+/**
+ * Các bản ghi cảm biến của một thiết bị trong một ngày ở dạng cột, theo thứ tự (created_at, id) tăng dần.
+ * Thời gian lưu bằng micro giây (độ chính xác của TIMESTAMP trong PostgreSQL) tính từ epoch, coi
+ * created_at như giờ UTC giống cách cột TIMESTAMP không múi giờ lưu giá trị.
+ */
+public final class SensorChunk {
+
+    final int size;
+    final long[] ids;
+    final long[] times;
+    final float[] temperature;
+    final float[] humidity;
+    final float[] light;
+    final float[] gas;
+    final int[] alertLed;
+    final int[] buzzer;
+    final int[] led;
+    final int[] fan;
+    final int[] servo;
+    final String[] topic;
+    final String[] broker;
+
+    SensorChunk(int size) {
+        this.size = size;
+        ids = new long[size];
+        times = new long[size];
+        temperature = new float[size];
+        humidity = new float[size];
+        light = new float[size];
+        gas = new float[size];
+        alertLed = new int[size];
+        buzzer = new int[size];
+        led = new int[size];
+        fan = new int[size];
+        servo = new int[size];
+        topic = new String[size];
+        broker = new String[size];
+    }
+
+    public static long toMicros(LocalDateTime time) {
+        return time.toEpochSecond(ZoneOffset.UTC) * 1_000_000L + time.getNano() / 1_000;
+    }
+
+    public static LocalDateTime fromMicros(long micros) {
+        return LocalDateTime.ofEpochSecond(Math.floorDiv(micros, 1_000_000L),
+                (int) Math.floorMod(micros, 1_000_000L) * 1_000, ZoneOffset.UTC);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public long id(int row) {
+        return ids[row];
+    }
+
+    public LocalDateTime createdAt(int row) {
+        return fromMicros(times[row]);
+    }
+
+    public long micros(int row) {
+        return times[row];
+    }
+
+    public float temperature(int row) {
+        return temperature[row];
+    }
+
+    public float humidity(int row) {
+        return humidity[row];
+    }
+
+    public float light(int row) {
+        return light[row];
+    }
+
+    public float gas(int row) {
+        return gas[row];
+    }
+
+    public int alertLed(int row) {
+        return alertLed[row];
+    }
+
+    public int buzzer(int row) {
+        return buzzer[row];
+    }
+
+    public int led(int row) {
+        return led[row];
+    }
+
+    public int fan(int row) {
+        return fan[row];
+    }
+
+    public int servo(int row) {
+        return servo[row];
+    }
+
+    public String topic(int row) {
+        return topic[row];
+    }
+
+    public String broker(int row) {
+        return broker[row];
+    }
+
+    /**
+     * Gom từng dòng (đã theo thứ tự created_at, id) thành một {@link SensorChunk}.
+     */
+    public static final class Builder {
+        private SensorChunk chunk = new SensorChunk(64);
+        private int size;
+
+        public Builder add(long id, LocalDateTime createdAt, float temperature, float humidity, float light, float gas,
+                           int alertLed, int buzzer, int led, int fan, int servo, String topic, String broker) {
+            if (size == chunk.size) {
+                chunk = copy(chunk, size * 2);
+            }
+            chunk.ids[size] = id;
+            chunk.times[size] = toMicros(createdAt);
+            chunk.temperature[size] = temperature;
+            chunk.humidity[size] = humidity;
+            chunk.light[size] = light;
+            chunk.gas[size] = gas;
+            chunk.alertLed[size] = alertLed;
+            chunk.buzzer[size] = buzzer;
+            chunk.led[size] = led;
+            chunk.fan[size] = fan;
+            chunk.servo[size] = servo;
+            chunk.topic[size] = topic;
+            chunk.broker[size] = broker;
+            size++;
+            return this;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public SensorChunk build() {
+            return copy(chunk, size);
+        }
+
+        public void clear() {
+            size = 0;
+        }
+
+        private static SensorChunk copy(SensorChunk source, int capacity) {
+            SensorChunk target = new SensorChunk(capacity);
+            int n = Math.min(source.size, capacity);
+            System.arraycopy(source.ids, 0, target.ids, 0, n);
+            System.arraycopy(source.times, 0, target.times, 0, n);
+            System.arraycopy(source.temperature, 0, target.temperature, 0, n);
+            System.arraycopy(source.humidity, 0, target.humidity, 0, n);
+            System.arraycopy(source.light, 0, target.light, 0, n);
+            System.arraycopy(source.gas, 0, target.gas, 0, n);
+            System.arraycopy(source.alertLed, 0, target.alertLed, 0, n);
+            System.arraycopy(source.buzzer, 0, target.buzzer, 0, n);
+            System.arraycopy(source.led, 0, target.led, 0, n);
+            System.arraycopy(source.fan, 0, target.fan, 0, n);
+            System.arraycopy(source.servo, 0, target.servo, 0, n);
+            System.arraycopy(source.topic, 0, target.topic, 0, n);
+            System.arraycopy(source.broker, 0, target.broker, 0, n);
+            return target;
+        }
+    }
+}
@@ -0,0 +1,335 @@
+package com.ptit.service.codec;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * Mã hoá {@link SensorChunk} cho tầng lưu trữ lạnh (bảng sensor_data_cold), mỗi cột một kiểu nén:
+ * <ul>
+ *     <li>id: delta so với dòng trước (zigzag varint), id cấp theo khối nên gần như tăng dần</li>
+ *     <li>created_at: delta-of-delta (zigzag varint), thiết bị gửi đều đặn nên hầu hết chỉ 1-2 byte</li>
+ *     <li>4 cột float: XOR với giá trị trước theo kiểu Gorilla, giá trị không đổi chỉ tốn 1 bit</li>
+ *     <li>5 cột trạng thái (led, fan, ...) và topic/broker: run-length, gần như không đổi trong ngày</li>
+ * </ul>
+ * Phần thân được nén thêm bằng deflate nếu nhỏ hơn.
+ *
+ * <p>Byte đầu là phiên bản định dạng: dữ liệu đã ghi phải giải mã được mãi, nên thay đổi định dạng thì
+ * thêm phiên bản mới và giữ nguyên nhánh giải mã của phiên bản cũ.
+ */
+public final class SensorChunkCodec {
+
+    private static final byte VERSION_1 = 1;
+    private static final byte BODY_RAW = 0;
+    private static final byte BODY_DEFLATE = 1;
+
+    private SensorChunkCodec() {
+    }
+
+    public static byte[] encode(SensorChunk chunk) {
+        int n = chunk.size;
+        Output out = new Output(n * 16 + 64);
+        out.writeVarInt(n);
+        if (n > 0) {
+            out.writeVarLong(chunk.ids[0]);
+            for (int i = 1; i < n; i++) {
+                out.writeVarLong(zigzag(chunk.ids[i] - chunk.ids[i - 1]));
+            }
+            out.writeVarLong(zigzag(chunk.times[0]));
+            long previousDelta = 0;
+            for (int i = 1; i < n; i++) {
+                long delta = chunk.times[i] - chunk.times[i - 1];
+                out.writeVarLong(zigzag(delta - previousDelta));
+                previousDelta = delta;
+            }
+            writeRuns(out, chunk.alertLed, n);
+            writeRuns(out, chunk.buzzer, n);
+            writeRuns(out, chunk.led, n);
+            writeRuns(out, chunk.fan, n);
+            writeRuns(out, chunk.servo, n);
+            writeRuns(out, chunk.topic, n);
+            writeRuns(out, chunk.broker, n);
+            writeGorilla(out, chunk.temperature, n);
+            writeGorilla(out, chunk.humidity, n);
+            writeGorilla(out, chunk.light, n);
+            writeGorilla(out, chunk.gas, n);
+        }
+        byte[] body = out.toByteArray();
+        byte[] deflated = PayloadCompression.deflate(body, null);
+        byte[] payload = deflated != null ? deflated : body;
+        byte[] result = new byte[payload.length + 2];
+        result[0] = VERSION_1;
+        result[1] = deflated != null ? BODY_DEFLATE : BODY_RAW;
+        System.arraycopy(payload, 0, result, 2, payload.length);
+        return result;
+    }
+
+    public static SensorChunk decode(byte[] data) {
+        if (data.length < 2 || data[0] != VERSION_1) {
+            throw new IllegalArgumentException("Unsupported sensor chunk version " + (data.length == 0 ? "-" : data[0]));
+        }
+        byte[] body = Arrays.copyOfRange(data, 2, data.length);
+        if (data[1] == BODY_DEFLATE) {
+            body = PayloadCompression.inflate(body, null);
+        }
+        Input in = new Input(body);
+        int n = in.readVarInt();
+        SensorChunk chunk = new SensorChunk(n);
+        if (n > 0) {
+            chunk.ids[0] = in.readVarLong();
+            for (int i = 1; i < n; i++) {
+                chunk.ids[i] = chunk.ids[i - 1] + unzigzag(in.readVarLong());
+            }
+            chunk.times[0] = unzigzag(in.readVarLong());
+            long delta = 0;
+            for (int i = 1; i < n; i++) {
+                delta += unzigzag(in.readVarLong());
+                chunk.times[i] = chunk.times[i - 1] + delta;
+            }
+            readRuns(in, chunk.alertLed, n);
+            readRuns(in, chunk.buzzer, n);
+            readRuns(in, chunk.led, n);
+            readRuns(in, chunk.fan, n);
+            readRuns(in, chunk.servo, n);
+            readRuns(in, chunk.topic, n);
+            readRuns(in, chunk.broker, n);
+            readGorilla(in, chunk.temperature, n);
+            readGorilla(in, chunk.humidity, n);
+            readGorilla(in, chunk.light, n);
+            readGorilla(in, chunk.gas, n);
+        }
+        return chunk;
+    }
+
+    // Run-length: các cặp (độ dài run, giá trị)
+
+    private static void writeRuns(Output out, int[] values, int n) {
+        int start = 0;
+        for (int i = 1; i <= n; i++) {
+            if (i == n || values[i] != values[start]) {
+                out.writeVarInt(i - start);
+                out.writeVarLong(zigzag(values[start]));
+                start = i;
+            }
+        }
+    }
+
+    private static void readRuns(Input in, int[] values, int n) {
+        int i = 0;
+        while (i < n) {
+            int run = in.readVarInt();
+            int value = (int) unzigzag(in.readVarLong());
+            Arrays.fill(values, i, i + run, value);
+            i += run;
+        }
+    }
+
+    private static void writeRuns(Output out, String[] values, int n) {
+        int start = 0;
+        for (int i = 1; i <= n; i++) {
+            if (i == n || !Objects.equals(values[i], values[start])) {
+                out.writeVarInt(i - start);
+                out.writeString(values[start]);
+                start = i;
+            }
+        }
+    }
+
+    private static void readRuns(Input in, String[] values, int n) {
+        int i = 0;
+        while (i < n) {
+            int run = in.readVarInt();
+            String value = in.readString();
+            Arrays.fill(values, i, i + run, value);
+            i += run;
+        }
+    }
+
+    // Gorilla: giá trị đầu 32 bit; sau đó XOR với giá trị trước, '0' nếu bằng nhau, '10' + bit có nghĩa nếu
+    // nằm trong cửa sổ (leading/trailing zero) của lần trước, '11' + 5 bit leading + 5 bit (độ dài - 1) + bit có nghĩa
+
+    private static void writeGorilla(Output out, float[] values, int n) {
+        BitWriter bits = new BitWriter(n);
+        int previous = Float.floatToRawIntBits(values[0]);
+        bits.write(previous, 32);
+        int previousLeading = -1;
+        int previousTrailing = 0;
+        for (int i = 1; i < n; i++) {
+            int current = Float.floatToRawIntBits(values[i]);
+            int xor = current ^ previous;
+            previous = current;
+            if (xor == 0) {
+                bits.write(0, 1);
+                continue;
+            }
+            int leading = Math.min(Integer.numberOfLeadingZeros(xor), 31);
+            int trailing = Integer.numberOfTrailingZeros(xor);
+            if (previousLeading >= 0 && leading >= previousLeading && trailing >= previousTrailing) {
+                bits.write(0b10, 2);
+                bits.write(xor >>> previousTrailing, 32 - previousLeading - previousTrailing);
+            } else {
+                int length = 32 - leading - trailing;
+                bits.write(0b11, 2);
+                bits.write(leading, 5);
+                bits.write(length - 1, 5);
+                bits.write(xor >>> trailing, length);
+                previousLeading = leading;
+                previousTrailing = trailing;
+            }
+        }
+        byte[] encoded = bits.toByteArray();
+        out.writeVarInt(encoded.length);
+        out.write(encoded);
+    }
+
+    private static void readGorilla(Input in, float[] values, int n) {
+        BitReader bits = new BitReader(in.readBytes(in.readVarInt()));
+        int previous = (int) bits.read(32);
+        values[0] = Float.intBitsToFloat(previous);
+        int leading = 0;
+        int trailing = 0;
+        for (int i = 1; i < n; i++) {
+            if (bits.read(1) != 0) {
+                if (bits.read(1) != 0) {
+                    leading = (int) bits.read(5);
+                    int length = (int) bits.read(5) + 1;
+                    trailing = 32 - leading - length;
+                }
+                int xor = (int) bits.read(32 - leading - trailing) << trailing;
+                previous ^= xor;
+            }
+            values[i] = Float.intBitsToFloat(previous);
+        }
+    }
+
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static final class Output extends ByteArrayOutputStream {
+        Output(int size) {
+            super(size);
+        }
+
+        void writeVarInt(int value) {
+            writeVarLong(value & 0xffffffffL);
+        }
+
+        void writeVarLong(long value) {
+            while ((value & ~0x7fL) != 0) {
+                write((int) ((value & 0x7f) | 0x80));
+                value >>>= 7;
+            }
+            write((int) value);
+        }
+
+        void writeString(String value) {
+            if (value == null) {
+                writeVarInt(0);
+                return;
+            }
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            writeVarInt(bytes.length + 1);
+            write(bytes, 0, bytes.length);
+        }
+
+        @Override
+        public void write(byte[] bytes) {
+            write(bytes, 0, bytes.length);
+        }
+    }
+
+    private static final class Input {
+        private final byte[] data;
+        private int position;
+
+        Input(byte[] data) {
+            this.data = data;
+        }
+
+        int readVarInt() {
+            return (int) readVarLong();
+        }
+
+        long readVarLong() {
+            long value = 0;
+            for (int shift = 0; ; shift += 7) {
+                if (position >= data.length || shift > 63) {
+                    throw new IllegalArgumentException("Corrupt sensor chunk");
+                }
+                byte b = data[position++];
+                value |= (long) (b & 0x7f) << shift;
+                if (b >= 0) {
+                    return value;
+                }
+            }
+        }
+
+        byte[] readBytes(int length) {
+            if (length < 0 || position + length > data.length) {
+                throw new IllegalArgumentException("Corrupt sensor chunk");
+            }
+            byte[] bytes = Arrays.copyOfRange(data, position, position + length);
+            position += length;
+            return bytes;
+        }
+
+        String readString() {
+            int length = readVarInt();
+            return length == 0 ? null : new String(readBytes(length - 1), StandardCharsets.UTF_8);
+        }
+    }
+
+    private static final class BitWriter {
+        private byte[] buffer;
+        private long bitCount;
+
+        BitWriter(int values) {
+            buffer = new byte[Math.max(8, values)];
+        }
+
+        void write(long value, int bits) {
+            for (int i = bits - 1; i >= 0; i--) {
+                int index = (int) (bitCount >>> 3);
+                if (index == buffer.length) {
+                    buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                }
+                if (((value >>> i) & 1) != 0) {
+                    buffer[index] |= (byte) (0x80 >>> (bitCount & 7));
+                }
+                bitCount++;
+            }
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(buffer, (int) ((bitCount + 7) >>> 3));
+        }
+    }
+
+    private static final class BitReader {
+        private final byte[] data;
+        private long position;
+
+        BitReader(byte[] data) {
+            this.data = data;
+        }
+
+        long read(int bits) {
+            long value = 0;
+            for (int i = 0; i < bits; i++) {
+                int index = (int) (position >>> 3);
+                if (index >= data.length) {
+                    throw new IllegalArgumentException("Corrupt sensor chunk");
+                }
+                value = (value << 1) | ((data[index] >>> (7 - (position & 7))) & 1);
+                position++;
+            }
+            return value;
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package com.ptit.service.codec;
+
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Định dạng nhị phân gọn của bản tin SmallKit (topic mqtt.ingest.binary-topic), cùng các trường với
+ * bản tin JSON nhưng khoảng 30 byte thay vì khoảng 230 byte. Các số đều big-endian:
+ *
+ * <pre>
+ * u8   version (= 1)
+ * u8   flags: bit 0 = có khối thông tin thiết bị ở cuối
+ * str  id
+ * f32  temp, f32 hum, f32 lgt, f32 gas
+ * u8   led, u8 fan, u8 alt, u8 bzr, u8 sv
+ * [str name, str w, str i, str b, str t]   nếu flags bit 0
+ * </pre>
+ *
+ * {@code str} là u8 độ dài + các byte UTF-8. Khối thông tin thiết bị chỉ dùng khi đăng ký thiết bị mới,
+ * firmware có thể chỉ gửi kèm trong bản tin đầu tiên sau khi kết nối.
+ */
+@Component
+public class SmallKitBinaryCodec {
+
+    public static final int VERSION = 1;
+    public static final int FLAG_DEVICE_INFO = 0x01;
+
+    public SmallKitFrame decode(byte[] payload, SmallKitFrame frame) throws IOException {
+        frame.reset();
+        ByteBuffer buffer = ByteBuffer.wrap(payload);
+        try {
+            int version = Byte.toUnsignedInt(buffer.get());
+            if (version != VERSION) {
+                throw new IOException("Unsupported SmallKit binary frame version " + version);
+            }
+            int flags = Byte.toUnsignedInt(buffer.get());
+            frame.setDeviceId(readString(buffer));
+            frame.setTemperature(buffer.getFloat());
+            frame.setHumidity(buffer.getFloat());
+            frame.setLight(buffer.getFloat());
+            frame.setGas(buffer.getFloat());
+            frame.setLed(Byte.toUnsignedInt(buffer.get()));
+            frame.setFan(Byte.toUnsignedInt(buffer.get()));
+            frame.setAlertLed(Byte.toUnsignedInt(buffer.get()));
+            frame.setBuzzer(Byte.toUnsignedInt(buffer.get()));
+            frame.setServo(Byte.toUnsignedInt(buffer.get()));
+            if ((flags & FLAG_DEVICE_INFO) != 0) {
+                frame.setName(readString(buffer));
+                frame.setWifi(readString(buffer));
+                frame.setIp(readString(buffer));
+                frame.setBroker(readString(buffer));
+                frame.setTopic(readString(buffer));
+            }
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Truncated SmallKit binary frame (" + payload.length + " bytes)", e);
+        }
+        return frame;
+    }
+
+    /** Chỉ đọc id thiết bị ở đầu frame. */
+    public String readDeviceId(byte[] payload) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(payload);
+        try {
+            int version = Byte.toUnsignedInt(buffer.get());
+            if (version != VERSION) {
+                throw new IOException("Unsupported SmallKit binary frame version " + version);
+            }
+            buffer.get();
+            return readString(buffer);
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Truncated SmallKit binary frame (" + payload.length + " bytes)", e);
+        }
+    }
+
+    /** Mã hoá một frame, dùng cho công cụ giả lập thiết bị và benchmark. */
+    public byte[] encode(SmallKitFrame frame, boolean withDeviceInfo) {
+        ByteBuffer buffer = ByteBuffer.allocate(withDeviceInfo ? 1024 : 280);
+        buffer.put((byte) VERSION);
+        buffer.put((byte) (withDeviceInfo ? FLAG_DEVICE_INFO : 0));
+        writeString(buffer, frame.getDeviceId());
+        buffer.putFloat(frame.getTemperature());
+        buffer.putFloat(frame.getHumidity());
+        buffer.putFloat(frame.getLight());
+        buffer.putFloat(frame.getGas());
+        buffer.put((byte) frame.getLed());
+        buffer.put((byte) frame.getFan());
+        buffer.put((byte) frame.getAlertLed());
+        buffer.put((byte) frame.getBuzzer());
+        buffer.put((byte) frame.getServo());
+        if (withDeviceInfo) {
+            writeString(buffer, frame.getName());
+            writeString(buffer, frame.getWifi());
+            writeString(buffer, frame.getIp());
+            writeString(buffer, frame.getBroker());
+            writeString(buffer, frame.getTopic());
+        }
+        byte[] result = new byte[buffer.position()];
+        buffer.flip();
+        buffer.get(result);
+        return result;
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        int length = Byte.toUnsignedInt(buffer.get());
+        if (length > buffer.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        String value = new String(buffer.array(), buffer.position(), length, StandardCharsets.UTF_8);
+        buffer.position(buffer.position() + length);
+        return value;
+    }
+
+    private static void writeString(ByteBuffer buffer, String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > 255) {
+            throw new IllegalArgumentException("String field longer than 255 bytes: " + value);
+        }
+        buffer.put((byte) bytes.length);
+        buffer.put(bytes);
+    }
+}
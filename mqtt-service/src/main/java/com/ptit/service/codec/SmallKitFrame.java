@@ -0,0 +1,49 @@
+package com.ptit.service.codec;
+
+import lombok.Data;
+
+/**
+ * Một bản tin dữ liệu của SmallKit sau khi giải mã. Đối tượng được tái sử dụng giữa các bản tin
+ * (gọi {@link #reset()} trước mỗi lần giải mã) nên không được giữ tham chiếu sau khi xử lý xong.
+ */
+@Data
+public class SmallKitFrame {
+
+    public static final String UNKNOWN = "N/A";
+
+    private String deviceId;
+    private String name;
+    private String wifi;
+    private String ip;
+    private String broker;
+    private String topic;
+
+    private float temperature;
+    private float humidity;
+    private float light;
+    private float gas;
+
+    private int led;
+    private int fan;
+    private int alertLed;
+    private int buzzer;
+    private int servo;
+
+    public void reset() {
+        deviceId = UNKNOWN;
+        name = UNKNOWN;
+        wifi = UNKNOWN;
+        ip = UNKNOWN;
+        broker = UNKNOWN;
+        topic = UNKNOWN;
+        temperature = 0;
+        humidity = 0;
+        light = 0;
+        gas = 0;
+        led = 0;
+        fan = 0;
+        alertLed = 0;
+        buzzer = 0;
+        servo = 0;
+    }
+}
@@ -0,0 +1,213 @@
+package com.ptit.service.codec;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.stereotype.Component;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+/**
+ * Giải mã bản tin JSON của SmallKit ({@code id, name, w, i, b, t, ss{temp,hum,lgt,gas},
+ * stt{led,fan,alt,bzr,sv}}) bằng streaming parser, đọc thẳng từ mảng byte của MQTT mà không dựng
+ * cây JsonNode. {@link JsonFactory} dùng chung và thread-safe.
+ */
+@Component
+public class SmallKitJsonCodec {
+
+    private final JsonFactory jsonFactory;
+
+    public SmallKitJsonCodec(ObjectMapper objectMapper) {
+        this.jsonFactory = objectMapper.getFactory();
+    }
+
+    /**
+     * Giải mã {@code payload} vào {@code frame}. Trường thiếu giữ giá trị mặc định ("N/A" hoặc 0),
+     * trường không đúng kiểu số được coi là 0, giống cách đọc bằng JsonNode trước đây.
+     */
+    public SmallKitFrame decode(byte[] payload, SmallKitFrame frame) throws IOException {
+        frame.reset();
+        try (JsonParser parser = jsonFactory.createParser(payload)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new IOException("SmallKit frame must be a JSON object");
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                JsonToken value = parser.nextToken();
+                switch (field) {
+                    case "id":
+                        frame.setDeviceId(text(parser, value));
+                        break;
+                    case "name":
+                        frame.setName(text(parser, value));
+                        break;
+                    case "w":
+                        frame.setWifi(text(parser, value));
+                        break;
+                    case "i":
+                        frame.setIp(text(parser, value));
+                        break;
+                    case "b":
+                        frame.setBroker(text(parser, value));
+                        break;
+                    case "t":
+                        frame.setTopic(text(parser, value));
+                        break;
+                    case "ss":
+                        readSensors(parser, value, frame);
+                        break;
+                    case "stt":
+                        readStatus(parser, value, frame);
+                        break;
+                    default:
+                        parser.skipChildren();
+                }
+            }
+        }
+        return frame;
+    }
+
+    /**
+     * Chỉ đọc trường {@code id}, dừng ngay khi gặp (firmware gửi id đầu tiên), để chọn kết nối xử lý bản tin
+     * mà không giải mã cả bản tin.
+     *
+     * @return id thiết bị, hoặc {@link SmallKitFrame#UNKNOWN} nếu không có
+     */
+    public String readDeviceId(byte[] payload) throws IOException {
+        try (JsonParser parser = jsonFactory.createParser(payload)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new IOException("SmallKit frame must be a JSON object");
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                JsonToken value = parser.nextToken();
+                if ("id".equals(field)) {
+                    return text(parser, value);
+                }
+                parser.skipChildren();
+            }
+        }
+        return SmallKitFrame.UNKNOWN;
+    }
+
+    /**
+     * Chuyển lệnh từ WebSocket ({@code {"deviceName": "...", "led": 1, ...}}) thành bản tin MQTT gửi
+     * xuống thiết bị: bỏ trường deviceName, các trường còn lại được ghi dưới dạng số nguyên.
+     */
+    public byte[] encodeCommand(String commandJson) throws IOException {
+        return encodeCommand(commandJson, null);
+    }
+
+    /**
+     * Như {@link #encodeCommand(String)}, thêm trường {@code "cid"} để thiết bị gửi lại trong phản hồi.
+     */
+    public byte[] encodeCommand(String commandJson, String correlationId) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(64);
+        try (JsonParser parser = jsonFactory.createParser(commandJson);
+             JsonGenerator generator = jsonFactory.createGenerator(out)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new IOException("Command must be a JSON object");
+            }
+            generator.writeStartObject();
+            if (correlationId != null) {
+                generator.writeStringField("cid", correlationId);
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                parser.nextToken();
+                if ("deviceName".equals(field) || "cid".equals(field)) {
+                    parser.skipChildren();
+                    continue;
+                }
+                generator.writeNumberField(field, parser.getValueAsInt());
+                parser.skipChildren();
+            }
+            generator.writeEndObject();
+        }
+        return out.toByteArray();
+    }
+
+    private void readSensors(JsonParser parser, JsonToken token, SmallKitFrame frame) throws IOException {
+        if (token != JsonToken.START_OBJECT) {
+            parser.skipChildren();
+            return;
+        }
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            JsonToken value = parser.nextToken();
+            switch (field) {
+                case "temp":
+                    frame.setTemperature(floatValue(parser, value));
+                    break;
+                case "hum":
+                    frame.setHumidity(floatValue(parser, value));
+                    break;
+                case "lgt":
+                    frame.setLight(floatValue(parser, value));
+                    break;
+                case "gas":
+                    frame.setGas(floatValue(parser, value));
+                    break;
+                default:
+                    parser.skipChildren();
+            }
+        }
+    }
+
+    private void readStatus(JsonParser parser, JsonToken token, SmallKitFrame frame) throws IOException {
+        if (token != JsonToken.START_OBJECT) {
+            parser.skipChildren();
+            return;
+        }
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            JsonToken value = parser.nextToken();
+            switch (field) {
+                case "led":
+                    frame.setLed(intValue(parser, value));
+                    break;
+                case "fan":
+                    frame.setFan(intValue(parser, value));
+                    break;
+                case "alt":
+                    frame.setAlertLed(intValue(parser, value));
+                    break;
+                case "bzr":
+                    frame.setBuzzer(intValue(parser, value));
+                    break;
+                case "sv":
+                    frame.setServo(intValue(parser, value));
+                    break;
+                default:
+                    parser.skipChildren();
+            }
+        }
+    }
+
+    private static String text(JsonParser parser, JsonToken token) throws IOException {
+        if (token == JsonToken.START_OBJECT || token == JsonToken.START_ARRAY) {
+            parser.skipChildren();
+            return "";
+        }
+        return token == JsonToken.VALUE_NULL ? SmallKitFrame.UNKNOWN : parser.getText();
+    }
+
+    private static float floatValue(JsonParser parser, JsonToken token) throws IOException {
+        if (token.isNumeric()) {
+            return parser.getFloatValue();
+        }
+        parser.skipChildren();
+        return 0;
+    }
+
+    private static int intValue(JsonParser parser, JsonToken token) throws IOException {
+        if (token.isNumeric()) {
+            return parser.getIntValue();
+        }
+        parser.skipChildren();
+        return 0;
+    }
+}
@@ -0,0 +1,62 @@
+package com.ptit.service.config;
+
+import com.ptit.service.entity.enums.SensorType;
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Luật cảnh báo đánh giá trên mỗi bản ghi cảm biến (mqtt.alerts.*), xem {@code AlertRuleEngine}.
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "mqtt.alerts")
+public class AlertRulesProperties {
+
+    private boolean enabled = true;
+
+    // Mọi cảnh báo được gửi tới destination này và tới {destination}/{id thiết bị}
+    private String destination = "/topic/alerts";
+
+    private List<Rule> rules = new ArrayList<>();
+
+    @Data
+    public static class Rule {
+        private String name;
+
+        private SensorType metric;
+
+        // VALUE: so sánh giá trị đo; RATE: so sánh tốc độ thay đổi (đơn vị/phút) so với bản ghi trước
+        private Kind kind = Kind.VALUE;
+
+        // Đặt đúng một trong hai: vượt lên trên above hoặc xuống dưới below
+        private Double above;
+        private Double below;
+
+        // Mức trả về để hết cảnh báo (trễ); mặc định bằng chính ngưỡng
+        private Double clear;
+
+        // Cảnh báo khi n trong m bản ghi gần nhất vượt ngưỡng, hết cảnh báo khi n trong m bản ghi gần
+        // nhất đã về mức clear. n = m = 1 là ngưỡng đơn giản.
+        private int n = 1;
+        private int m = 1;
+
+        // Rỗng = áp dụng cho mọi thiết bị; deviceIds là deviceId dạng chuỗi (vd. node_01)
+        private List<String> deviceIds = new ArrayList<>();
+        private List<String> deviceTypes = new ArrayList<>();
+
+        private String severity = "WARNING";
+
+        // Lệnh JSON gửi tới thiết bị khi cảnh báo bật / tắt (tuỳ chọn), vd. {"buzzer": 1}
+        private String command;
+        private String clearCommand;
+    }
+
+    public enum Kind {
+        VALUE,
+        RATE
+    }
+}
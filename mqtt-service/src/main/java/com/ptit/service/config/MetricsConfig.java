@@ -0,0 +1,22 @@
+package com.ptit.service.config;
+
+import io.micrometer.core.instrument.config.MeterFilter;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+public class MetricsConfig {
+
+    // Metric đếm bản tin theo từng thiết bị, tag device có thể có hàng chục nghìn giá trị
+    public static final String DEVICE_MESSAGES = "mqtt.messages.device";
+
+    @Value("${mqtt.metrics.max-device-tags:1000}")
+    private int maxDeviceTags;
+
+    @Bean
+    public MeterFilter deviceTagLimit() {
+        // Quá giới hạn thì các thiết bị mới nhận counter rỗng, tránh bùng nổ số series trên Prometheus
+        return MeterFilter.maximumAllowableTags(DEVICE_MESSAGES, "device", maxDeviceTags, MeterFilter.deny());
+    }
+}
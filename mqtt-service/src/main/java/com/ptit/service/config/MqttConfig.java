@@ -1,6 +1,9 @@
 package com.ptit.service.config;
 
+import com.ptit.service.service.MqttClientPool;
+import com.ptit.service.service.MqttClusterMembership;
 import org.eclipse.paho.client.mqttv3.*;
+import org.eclipse.paho.client.mqttv3.persist.MemoryPersistence;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
@@ -9,6 +12,9 @@ import org.springframework.context.annotation.Configuration;
 import org.springframework.messaging.simp.SimpMessagingTemplate;
 import org.springframework.web.socket.config.annotation.EnableWebSocket;
 
+import java.util.ArrayList;
+import java.util.List;
+
 @Configuration
 @EnableWebSocket
 public class MqttConfig {
@@ -30,36 +36,63 @@ public class MqttConfig {
     @Value("${mqtt.topic}")
     private String topic;
 
+    @Value("${mqtt.pool.subscriber-connections:1}")
+    private int subscriberConnections;
+
+    @Value("${mqtt.pool.publisher-connections:1}")
+    private int publisherConnections;
+
+    @Value("${mqtt.pool.max-inflight:100}")
+    private int maxInflight;
+
     private final SimpMessagingTemplate messagingTemplate;
+    private final MqttClusterMembership clusterMembership;
 
-    public MqttConfig(SimpMessagingTemplate messagingTemplate) {
+    public MqttConfig(SimpMessagingTemplate messagingTemplate, MqttClusterMembership clusterMembership) {
         this.messagingTemplate = messagingTemplate;
+        this.clusterMembership = clusterMembership;
     }
 
-    @Bean
-    public MqttClient mqttClient() {
-        try {
-            logger.info("Initializing MQTT client...");
-            logger.info("Broker URL: {}", brokerUrl);
-            logger.info("Client ID: {}", clientId);
-            logger.info("Username: {}", username);
+    @Bean(destroyMethod = "close")
+    public MqttClientPool mqttClientPool() {
+        logger.info("Initializing MQTT client pool...");
+        // Mỗi instance trong cluster cần client id riêng
+        String clientId = clusterMembership.clientId(this.clientId);
+        logger.info("Broker URL: {}", brokerUrl);
+        logger.info("Client ID: {}", clientId);
+        logger.info("Username: {}", username);
 
-            MqttClient client = new MqttClient(brokerUrl, clientId);
-            MqttConnectOptions options = new MqttConnectOptions();
-            options.setCleanSession(true);
+        MqttConnectOptions options = new MqttConnectOptions();
+        options.setCleanSession(true);
+        options.setMaxInflight(maxInflight);
 
-            // Thêm thông tin xác thực vào connect options
-            if (username != null && !username.isEmpty()) {
-                options.setUserName(username);
-                options.setPassword(password.toCharArray());
-            }
+        // Thêm thông tin xác thực vào connect options
+        if (username != null && !username.isEmpty()) {
+            options.setUserName(username);
+            options.setPassword(password.toCharArray());
+        }
 
-            client.connect(options);
-            logger.info("MQTT client connected successfully to broker at: {}", brokerUrl);
+        List<MqttClient> subscribers = new ArrayList<>();
+        List<MqttClient> publishers = new ArrayList<>();
+        // Kết nối nhận đầu tiên giữ nguyên client id cũ
+        for (int i = 0; i < Math.max(1, subscriberConnections); i++) {
+            subscribers.add(create(i == 0 ? clientId : clientId + "-s" + i));
+        }
+        for (int i = 0; i < Math.max(1, publisherConnections); i++) {
+            publishers.add(create(clientId + "-p" + i));
+        }
+        // Kết nối tới broker do MqttConnectionSupervisor thực hiện bất đồng bộ
+        logger.info("MQTT client pool created: {} subscriber, {} publisher connections to {}",
+                subscribers.size(), publishers.size(), brokerUrl);
+        return new MqttClientPool(subscribers, publishers, options);
+    }
 
-            return client;
+    private MqttClient create(String clientId) {
+        try {
+            // cleanSession=true nên không cần lưu trạng thái phiên xuống đĩa
+            return new MqttClient(brokerUrl, clientId, new MemoryPersistence());
         } catch (MqttException e) {
-            logger.error("Failed to connect to MQTT broker at: {}", brokerUrl, e);
+            logger.error("Invalid MQTT client configuration for broker at: {}", brokerUrl, e);
             throw new RuntimeException("Error initializing MQTT client", e);
         }
     }
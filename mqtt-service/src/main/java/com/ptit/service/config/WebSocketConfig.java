@@ -1,15 +1,96 @@
 package com.ptit.service.config;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.messaging.simp.config.ChannelRegistration;
 import org.springframework.messaging.simp.config.MessageBrokerRegistry;
+import org.springframework.scheduling.TaskScheduler;
+import org.springframework.util.StringUtils;
 import org.springframework.web.socket.config.annotation.EnableWebSocketMessageBroker;
 import org.springframework.web.socket.config.annotation.StompEndpointRegistry;
 import org.springframework.web.socket.config.annotation.WebSocketMessageBrokerConfigurer;
+import org.springframework.web.socket.config.annotation.WebSocketTransportRegistration;
 
 @Configuration
 @EnableWebSocketMessageBroker
 public class WebSocketConfig implements WebSocketMessageBrokerConfigurer {
 
+    private static final Logger logger = LoggerFactory.getLogger(WebSocketConfig.class);
+
+    // simple: broker trong bộ nhớ, mọi session nằm trên một instance
+    // relay: chuyển tiếp tới broker STOMP bên ngoài (ActiveMQ/RabbitMQ) để chạy nhiều instance
+    @Value("${mqtt.websocket.broker:simple}")
+    private String brokerMode;
+
+    @Value("${mqtt.websocket.relay.host:localhost}")
+    private String relayHost;
+
+    @Value("${mqtt.websocket.relay.port:61613}")
+    private int relayPort;
+
+    @Value("${mqtt.websocket.relay.client-login:guest}")
+    private String relayClientLogin;
+
+    @Value("${mqtt.websocket.relay.client-passcode:guest}")
+    private String relayClientPasscode;
+
+    @Value("${mqtt.websocket.relay.system-login:guest}")
+    private String relaySystemLogin;
+
+    @Value("${mqtt.websocket.relay.system-passcode:guest}")
+    private String relaySystemPasscode;
+
+    @Value("${mqtt.websocket.relay.virtual-host:}")
+    private String relayVirtualHost;
+
+    // Heartbeat STOMP: chu kỳ server gửi và chu kỳ tối đa server chờ nhận từ phía bên kia
+    @Value("${mqtt.websocket.heartbeat.send-ms:10000}")
+    private long heartbeatSendMs;
+
+    @Value("${mqtt.websocket.heartbeat.receive-ms:10000}")
+    private long heartbeatReceiveMs;
+
+    @Value("${mqtt.websocket.inbound.core-pool-size:4}")
+    private int inboundCorePoolSize;
+
+    @Value("${mqtt.websocket.inbound.max-pool-size:16}")
+    private int inboundMaxPoolSize;
+
+    @Value("${mqtt.websocket.inbound.queue-capacity:1000}")
+    private int inboundQueueCapacity;
+
+    @Value("${mqtt.websocket.outbound.core-pool-size:8}")
+    private int outboundCorePoolSize;
+
+    @Value("${mqtt.websocket.outbound.max-pool-size:32}")
+    private int outboundMaxPoolSize;
+
+    @Value("${mqtt.websocket.outbound.queue-capacity:10000}")
+    private int outboundQueueCapacity;
+
+    @Value("${mqtt.websocket.send-time-limit-ms:15000}")
+    private int sendTimeLimitMs;
+
+    @Value("${mqtt.websocket.send-buffer-size-limit-kb:512}")
+    private int sendBufferSizeLimitKb;
+
+    private TaskScheduler messageBrokerTaskScheduler;
+
+    // Scheduler do @EnableWebSocketMessageBroker tạo sẵn, dùng cho heartbeat của simple broker
+    @Autowired
+    public void setMessageBrokerTaskScheduler(@Lazy @Qualifier("messageBrokerTaskScheduler") TaskScheduler taskScheduler) {
+        this.messageBrokerTaskScheduler = taskScheduler;
+    }
+
+    public boolean isRelay() {
+        return "relay".equalsIgnoreCase(brokerMode);
+    }
+
     @Override
     public void registerStompEndpoints(StompEndpointRegistry registry) {
         registry.addEndpoint("/ws")
@@ -29,7 +110,47 @@ public class WebSocketConfig implements WebSocketMessageBrokerConfigurer {
     @Override
     public void configureMessageBroker(MessageBrokerRegistry registry) {
         // Cấu hình broker để gửi dữ liệu từ server đến client
-        registry.enableSimpleBroker("/topic");
+        if (isRelay()) {
+            registry.enableStompBrokerRelay("/topic")
+                    .setRelayHost(relayHost)
+                    .setRelayPort(relayPort)
+                    .setClientLogin(relayClientLogin)
+                    .setClientPasscode(relayClientPasscode)
+                    .setSystemLogin(relaySystemLogin)
+                    .setSystemPasscode(relaySystemPasscode)
+                    .setVirtualHost(StringUtils.hasText(relayVirtualHost) ? relayVirtualHost : null)
+                    .setSystemHeartbeatSendInterval(heartbeatSendMs)
+                    .setSystemHeartbeatReceiveInterval(heartbeatReceiveMs);
+            logger.info("WebSocket broker: STOMP relay to {}:{}", relayHost, relayPort);
+        } else {
+            registry.enableSimpleBroker("/topic")
+                    .setHeartbeatValue(new long[]{heartbeatSendMs, heartbeatReceiveMs})
+                    .setTaskScheduler(messageBrokerTaskScheduler);
+            logger.info("WebSocket broker: in-memory simple broker");
+        }
         registry.setApplicationDestinationPrefixes("/app");
     }
+
+    @Override
+    public void configureClientInboundChannel(ChannelRegistration registration) {
+        registration.taskExecutor()
+                .corePoolSize(inboundCorePoolSize)
+                .maxPoolSize(inboundMaxPoolSize)
+                .queueCapacity(inboundQueueCapacity);
+    }
+
+    @Override
+    public void configureClientOutboundChannel(ChannelRegistration registration) {
+        registration.taskExecutor()
+                .corePoolSize(outboundCorePoolSize)
+                .maxPoolSize(outboundMaxPoolSize)
+                .queueCapacity(outboundQueueCapacity);
+    }
+
+    @Override
+    public void configureWebSocketTransport(WebSocketTransportRegistration registration) {
+        // Client chậm bị ngắt thay vì giữ bộ đệm gửi không giới hạn
+        registration.setSendTimeLimit(sendTimeLimitMs)
+                .setSendBufferSizeLimit(sendBufferSizeLimitKb * 1024);
+    }
 }
@@ -5,10 +5,7 @@ import com.ptit.service.service.CommandService;
 import io.swagger.annotations.*;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.ResponseEntity;
-import org.springframework.web.bind.annotation.PostMapping;
-import org.springframework.web.bind.annotation.RequestBody;
-import org.springframework.web.bind.annotation.RequestMapping;
-import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.bind.annotation.*;
 
 @RestController
 @RequestMapping("/api/commands")
@@ -19,7 +16,7 @@ public class CommandController {
     private CommandService commandService;
 
     @PostMapping
-    @ApiOperation(value = "Lưu lệnh điều khiển", notes = "Lưu lệnh điều khiển thiết bị IoT")
+    @ApiOperation(value = "Gửi lệnh điều khiển", notes = "Lưu lệnh điều khiển thiết bị IoT và gửi tới thiết bị qua MQTT, trả về lệnh kèm correlationId")
     @ApiResponses(value = {
         @ApiResponse(code = 200, message = "Lưu thành công"),
         @ApiResponse(code = 400, message = "Dữ liệu không hợp lệ"),
@@ -29,4 +26,14 @@ public class CommandController {
     public ResponseEntity<Command> saveCommand(@RequestBody Command command) {
         return ResponseEntity.ok(commandService.saveCommand(command));
     }
-}
\ No newline at end of file
+
+    @GetMapping("/{correlationId}")
+    @ApiOperation(value = "Lấy trạng thái lệnh", notes = "Trạng thái, thời điểm gửi/phản hồi và độ trễ của lệnh theo correlationId")
+    @ApiResponses(value = {
+        @ApiResponse(code = 200, message = "Thành công"),
+        @ApiResponse(code = 404, message = "Không tìm thấy lệnh")
+    })
+    public ResponseEntity<Command> getCommand(@PathVariable String correlationId) {
+        return ResponseEntity.ok(commandService.findByCorrelationId(correlationId));
+    }
+}
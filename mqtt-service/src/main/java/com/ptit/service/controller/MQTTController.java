@@ -1,15 +1,34 @@
 package com.ptit.service.controller;
 
+import com.ptit.service.response.DeviceConnectionResponse;
 import com.ptit.service.response.DeviceResponse;
+import com.ptit.service.response.DeviceStatusResponse;
 import com.ptit.service.response.ResponsePage;
+import com.ptit.service.response.SensorHistoryResponse;
+import com.ptit.service.response.SensorReadingPage;
+import com.ptit.service.response.SensorReadingResponse;
+import com.ptit.service.response.SensorSparkline;
 import com.ptit.service.entity.Device;
+import com.ptit.service.exception.BaseException;
+import com.ptit.service.exception.ErrorCode;
+import com.ptit.service.service.DeviceLivenessTracker;
 import com.ptit.service.service.DeviceService;
+import com.ptit.service.service.SensorDataExportService;
+import com.ptit.service.service.SensorDataService;
 import io.swagger.annotations.*;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.domain.Pageable;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+
 @RestController
 @RequestMapping("/devices")
 @Api(tags = "Device Management", description = "APIs quản lý thiết bị IoT và thông tin thiết bị")
@@ -18,6 +37,15 @@ public class MQTTController {
     @Autowired
     private DeviceService deviceService;
 
+    @Autowired
+    private SensorDataService sensorDataService;
+
+    @Autowired
+    private SensorDataExportService sensorDataExportService;
+
+    @Autowired
+    private DeviceLivenessTracker livenessTracker;
+
     @GetMapping
     @ApiOperation(value = "Lấy danh sách tất cả thiết bị", notes = "Trả về danh sách thiết bị IoT có phân trang")
     @ApiResponses(value = {
@@ -40,4 +68,103 @@ public class MQTTController {
     public ResponseEntity<Device> saveDevice(@RequestBody Device device) {
         return ResponseEntity.ok(deviceService.saveDevice(device));
     }
-}
\ No newline at end of file
+
+    @GetMapping("/latest")
+    @ApiOperation(value = "Lấy dữ liệu mới nhất của tất cả thiết bị", notes = "Trả về bản ghi cảm biến mới nhất của từng thiết bị, key là id thiết bị")
+    @ApiResponses(value = {
+        @ApiResponse(code = 200, message = "Thành công")
+    })
+    public Map<Long, SensorReadingResponse> getLatestForAllDevices() {
+        return sensorDataService.getLatestForAllDevices();
+    }
+
+    @GetMapping("/status")
+    @ApiOperation(value = "Lấy trạng thái kết nối của thiết bị",
+            notes = "ONLINE/OFFLINE và thời điểm nhận dữ liệu cuối của các thiết bị đã gửi dữ liệu. Ở cluster mode HASH, "
+                    + "thiết bị do instance khác theo dõi lấy theo trạng thái đã ghi trong iot_devices (trễ tới một chu kỳ flush)")
+    @ApiResponses(value = {
+        @ApiResponse(code = 200, message = "Thành công")
+    })
+    public List<DeviceStatusResponse> getDeviceStatuses() {
+        return livenessTracker.getStatuses();
+    }
+
+    @GetMapping("/{deviceId}/connection")
+    @ApiOperation(value = "Lấy broker, topic và payload của bản tin mới nhất",
+            notes = "Cho thẻ thông tin broker; các trường này không có trong khung dữ liệu /topic/sensorData/{id}. "
+                    + "Các trường là null khi thiết bị chưa gửi dữ liệu, payload là null với bản tin nhị phân")
+    @ApiResponses(value = {
+        @ApiResponse(code = 200, message = "Thành công")
+    })
+    public DeviceConnectionResponse getConnection(@PathVariable Long deviceId) {
+        return sensorDataService.getLatestConnection(deviceId);
+    }
+
+    @GetMapping("/{deviceId}/history")
+    @ApiOperation(value = "Lấy lịch sử dữ liệu theo khoảng thời gian",
+            notes = "resolution: auto | raw | 1m | 1h | 1d. Với auto, chọn độ phân giải mịn nhất mà số điểm không vượt quá maxPoints")
+    @ApiResponses(value = {
+        @ApiResponse(code = 200, message = "Thành công"),
+        @ApiResponse(code = 400, message = "Tham số không hợp lệ")
+    })
+    public SensorHistoryResponse getHistory(
+            @PathVariable Long deviceId,
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime from,
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime to,
+            @RequestParam(defaultValue = "auto") String resolution,
+            @RequestParam(defaultValue = "500") int maxPoints) {
+        return sensorDataService.getAggregatedHistory(deviceId, from, to, resolution, maxPoints);
+    }
+
+    @GetMapping("/{deviceId}/readings")
+    @ApiOperation(value = "Lấy lịch sử dữ liệu thô theo con trỏ",
+            notes = "Mới nhất trước. Bỏ trống cursor để lấy trang đầu, gửi lại nextCursor để lấy trang cũ hơn")
+    @ApiResponses(value = {
+        @ApiResponse(code = 200, message = "Thành công"),
+        @ApiResponse(code = 400, message = "Con trỏ không hợp lệ")
+    })
+    public SensorReadingPage getReadings(
+            @PathVariable Long deviceId,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(defaultValue = "100") int limit) {
+        return sensorDataService.getHistoryPage(deviceId, cursor, limit);
+    }
+
+    @GetMapping("/{deviceId}/sparkline")
+    @ApiOperation(value = "Lấy các bản ghi gần nhất cho biểu đồ nhỏ",
+            notes = "points bản ghi gần nhất dạng cột, cũ nhất trước; thường trả từ bộ nhớ mà không truy vấn DB")
+    @ApiResponses(value = {
+        @ApiResponse(code = 200, message = "Thành công"),
+        @ApiResponse(code = 400, message = "Tham số không hợp lệ")
+    })
+    public SensorSparkline getSparkline(
+            @PathVariable Long deviceId,
+            @RequestParam(defaultValue = "60") int points) {
+        return sensorDataService.getSparkline(deviceId, points);
+    }
+
+    @GetMapping("/export")
+    @ApiOperation(value = "Xuất dữ liệu cảm biến",
+            notes = "Xuất dữ liệu thô của các thiết bị trong khoảng [from, to) dạng CSV, ghi dần vào phản hồi. gzip=true để nén")
+    @ApiResponses(value = {
+        @ApiResponse(code = 200, message = "Thành công"),
+        @ApiResponse(code = 400, message = "Tham số không hợp lệ")
+    })
+    public void exportSensorData(
+            @RequestParam List<Long> deviceIds,
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime from,
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime to,
+            @RequestParam(defaultValue = "csv") String format,
+            @RequestParam(defaultValue = "false") boolean gzip,
+            HttpServletResponse response) throws IOException {
+        if (!"csv".equalsIgnoreCase(format)) {
+            throw new BaseException(ErrorCode.INVALID_REQUEST);
+        }
+        sensorDataExportService.validate(deviceIds, from, to);
+
+        String fileName = "sensor-data.csv" + (gzip ? ".gz" : "");
+        response.setContentType(gzip ? "application/gzip" : "text/csv;charset=UTF-8");
+        response.setHeader(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + fileName + "\"");
+        sensorDataExportService.exportCsv(deviceIds, from, to, gzip, response.getOutputStream());
+    }
+}
@@ -0,0 +1,32 @@
+package com.ptit.service.controller;
+
+import com.ptit.service.service.SensorStreamService;
+import io.swagger.annotations.*;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.util.List;
+
+@RestController
+@RequestMapping("/stream")
+@Api(tags = "Stream", description = "Luồng Server-Sent Events dữ liệu cảm biến, gọn hơn STOMP cho màn hình nhiều thiết bị")
+public class StreamController {
+
+    @Autowired
+    private SensorStreamService sensorStreamService;
+
+    @GetMapping(value = "/sensors", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    @ApiOperation(value = "Nhận dữ liệu cảm biến của nhiều thiết bị trên một kết nối",
+            notes = "Sự kiện snapshot gửi đủ giá trị của các thiết bị, sau đó các sự kiện delta chỉ gồm trường đã đổi. "
+                    + "Dữ liệu là object theo id thiết bị: ts (epoch millis), temp, hum, lgt, gas, led, fan, alt, bzr, sv")
+    @ApiResponses(value = {
+        @ApiResponse(code = 200, message = "Thành công"),
+        @ApiResponse(code = 400, message = "Danh sách thiết bị rỗng hoặc quá dài"),
+        @ApiResponse(code = 503, message = "Quá số luồng cho phép hoặc luồng bị tắt")
+    })
+    public SseEmitter streamSensors(@RequestParam List<Long> deviceIds) {
+        return sensorStreamService.subscribe(deviceIds);
+    }
+}
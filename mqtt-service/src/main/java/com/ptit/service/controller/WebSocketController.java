@@ -1,25 +1,28 @@
 package com.ptit.service.controller;
 
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.ptit.service.entity.Command;
 import com.ptit.service.entity.Device;
-import com.ptit.service.entity.SensorData;
+import com.ptit.service.response.SensorReadingPage;
+import com.ptit.service.response.SensorReadingResponse;
+import com.ptit.service.response.SensorSparkline;
+import com.ptit.service.service.CommandResponseRouter;
+import com.ptit.service.service.CommandService;
 import com.ptit.service.service.DeviceService;
 import com.ptit.service.service.SensorDataService;
 import io.swagger.annotations.*;
 import lombok.extern.slf4j.Slf4j;
-import org.eclipse.paho.client.mqttv3.MqttClient;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.data.domain.Page;
-import org.springframework.data.domain.Pageable;
 import org.springframework.messaging.handler.annotation.DestinationVariable;
+import org.springframework.messaging.handler.annotation.Header;
 import org.springframework.messaging.handler.annotation.MessageMapping;
 import org.springframework.messaging.handler.annotation.Payload;
 import org.springframework.messaging.handler.annotation.SendTo;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
 import org.springframework.messaging.simp.SimpMessagingTemplate;
 import org.springframework.stereotype.Controller;
 
+import java.util.Map;
+
 @Controller
 @Slf4j
 @Api(tags = "WebSocket", description = "APIs WebSocket cho dữ liệu thời gian thực và điều khiển thiết bị")
@@ -31,7 +34,10 @@ public class WebSocketController {
     private DeviceService deviceService;
 
     @Autowired
-    private MqttClient mqttClient;
+    private CommandResponseRouter commandResponseRouter;
+
+    @Autowired
+    private CommandService commandService;
 
     @Autowired
     private SimpMessagingTemplate messagingTemplate;
@@ -39,10 +45,17 @@ public class WebSocketController {
     @MessageMapping("/device/{deviceId}")
     @SendTo("/topic/sensorData/{deviceId}")
     @ApiOperation(value = "Lấy dữ liệu thiết bị", notes = "Lấy dữ liệu cảm biến mới nhất của thiết bị")
-    public SensorData getDeviceData(@DestinationVariable Long deviceId) {
+    public SensorReadingResponse getDeviceData(@DestinationVariable Long deviceId) {
         return sensorDataService.getLatestData(deviceId);
     }
 
+    @MessageMapping("/device/latest")
+    @SendTo("/topic/latest")
+    @ApiOperation(value = "Lấy dữ liệu mới nhất của tất cả thiết bị", notes = "Trả về bản ghi mới nhất của từng thiết bị, key là id thiết bị")
+    public Map<Long, SensorReadingResponse> getLatestForAllDevices() {
+        return sensorDataService.getLatestForAllDevices();
+    }
+
     // Subscribe to real-time updates for a specific deivce
     @MessageMapping("/subscribe/device/{deviceId}")
     @ApiOperation(value = "Đăng ký nhận dữ liệu thiết bị", notes = "Đăng ký nhận dữ liệu thời gian thực từ thiết bị")
@@ -56,9 +69,21 @@ public class WebSocketController {
     // Get historical data for a Device
     @MessageMapping("/device/history/{deviceId}")
     @SendTo("/topic/history/{deviceId}")
-    @ApiOperation(value = "Lấy lịch sử dữ liệu thiết bị", notes = "Lấy dữ liệu lịch sử của thiết bị có phân trang")
-    public Page<SensorData> getDeviceHistory(@DestinationVariable Long deviceId, Pageable pageable) {
-        return sensorDataService.getHistory(deviceId, pageable);
+    @ApiOperation(value = "Lấy lịch sử dữ liệu thiết bị",
+            notes = "Phân trang theo con trỏ: header cursor (nextCursor của trang trước, bỏ trống cho trang đầu) và limit")
+    public SensorReadingPage getDeviceHistory(@DestinationVariable Long deviceId,
+                                              @Header(name = "cursor", required = false) String cursor,
+                                              @Header(name = "limit", required = false) Integer limit) {
+        return sensorDataService.getHistoryPage(deviceId, cursor, limit != null ? limit : 100);
+    }
+
+    @MessageMapping("/device/sparkline/{deviceId}")
+    @SendTo("/topic/sparkline/{deviceId}")
+    @ApiOperation(value = "Lấy các bản ghi gần nhất cho biểu đồ nhỏ",
+            notes = "Header points (mặc định 60): số bản ghi gần nhất, trả dạng cột, cũ nhất trước")
+    public SensorSparkline getDeviceSparkline(@DestinationVariable Long deviceId,
+                                              @Header(name = "points", required = false) Integer points) {
+        return sensorDataService.getSparkline(deviceId, points != null ? points : 60);
     }
 
     @MessageMapping("/publish/command/{deviceId}")
@@ -69,32 +94,11 @@ public class WebSocketController {
 
         // Giả sử commandJson có cấu trúc như { "deviceName": "device_1", "led": 1 }
         try {
-            // Parse JSON command để lấy trạng thái của các thiết bị
-            ObjectMapper objectMapper = new ObjectMapper();
-            JsonNode commandNode = objectMapper.readTree(commandJson);
-            String deviceName = commandNode.path("deviceName").asText();
-
-            // Xử lý các thiết bị trong lệnh
             Device device = deviceService.findById(deviceId);
             if (device != null) {
-                // Tạo thông điệp MQTT chứa các trạng thái thiết bị
-                ObjectNode mqttMessage = objectMapper.createObjectNode();
-
-                // Lặp qua tất cả các trường trong lệnh (ngoại trừ "deviceName")
-                commandNode.fieldNames().forEachRemaining(field -> {
-                    if (!field.equals("deviceName")) {
-                        mqttMessage.put(field, commandNode.path(field).asInt()); // Thêm các thiết bị (led, buzzer, etc.)
-                    }
-                });
-
-                // Gửi thông điệp MQTT đến thiết bị
-                String mqttCommand = mqttMessage.toString();
-                try {
-                    mqttClient.publish("iot/command/" + device.getDeviceId(), mqttCommand.getBytes(), 2, false);
-                    log.info("Command published to MQTT: {}", mqttCommand);
-                } catch (Exception e) {
-                    log.error("Error publishing command", e);
-                }
+                // Lưu lệnh kèm correlation id rồi gửi qua MQTT; trạng thái được cập nhật khi thiết bị phản hồi
+                Command command = commandService.submit(device, commandJson);
+                log.info("Command {} for {}: {}", command.getCorrelationId(), device.getDeviceId(), command.getStatus());
             }
         } catch (Exception e) {
             log.error("Error processing command JSON", e);
@@ -103,17 +107,12 @@ public class WebSocketController {
 
     @MessageMapping("/subscribe/command-response/{deviceId}")
     @ApiOperation(value = "Đăng ký nhận phản hồi lệnh", notes = "Đăng ký nhận phản hồi từ thiết bị sau khi gửi lệnh")
-    public void subscribeToCommandResponse(@DestinationVariable Long deviceId) {
+    public void subscribeToCommandResponse(@DestinationVariable Long deviceId, SimpMessageHeaderAccessor headerAccessor) {
         log.info("Subscribed to command response for device ID: {}", deviceId);
-        try {
-            mqttClient.subscribe("iot/command-response/" + deviceId, (topic, message) -> {
-                String responsePayload = new String(message.getPayload());
-                log.info("Received command response for device {}: {}", deviceId, responsePayload);
-                // Gửi dữ liệu phản hồi tới frontend qua WebSocket
-                messagingTemplate.convertAndSend("/topic/command-response/" + deviceId, responsePayload);
-            });
-        } catch (Exception e) {
-            log.error("Error subscribing to command-response topic for device {}", deviceId, e);
+        Device device = deviceService.findById(deviceId);
+        if (device != null && headerAccessor.getSessionId() != null) {
+            // Phản hồi đi qua subscription iot/command-response/# sẵn có, chỉ ghi nhận session quan tâm
+            commandResponseRouter.register(headerAccessor.getSessionId(), device);
         }
     }
 }
@@ -1,10 +1,12 @@
 package com.ptit.service.entity;
 
+import com.ptit.service.entity.enums.CommandStatus;
 import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.NoArgsConstructor;
 
 import javax.persistence.*;
+import java.time.LocalDateTime;
 
 @Entity
 @Data
@@ -24,6 +26,27 @@ public class Command extends BaseEntity{
     @Column(name = "command", nullable = false)
     private String command;
 
+    @Enumerated(EnumType.STRING)
     @Column(name = "status", nullable = false)
-    private String status = "PENDING";
+    private CommandStatus status = CommandStatus.PENDING;
+
+    // Gửi kèm lệnh (trường "cid") để khớp phản hồi của thiết bị
+    @Column(name = "correlation_id", unique = true, length = 36)
+    private String correlationId;
+
+    @Column(name = "issued_at", nullable = false)
+    private LocalDateTime issuedAt;
+
+    @Column(name = "sent_at")
+    private LocalDateTime sentAt;
+
+    @Column(name = "completed_at")
+    private LocalDateTime completedAt;
+
+    // Thời gian từ lúc gửi tới lúc nhận phản hồi
+    @Column(name = "latency_ms")
+    private Long latencyMs;
+
+    @Column(name = "response", columnDefinition = "TEXT")
+    private String response;
 }
@@ -1,5 +1,6 @@
 package com.ptit.service.entity;
 
+import com.ptit.service.entity.enums.DeviceStatus;
 import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.NoArgsConstructor;
@@ -12,7 +13,7 @@ import java.time.LocalDateTime;
 @Data
 @AllArgsConstructor
 @NoArgsConstructor
-@Table(name = "iot_devices")
+@Table(name = "iot_devices", uniqueConstraints = @UniqueConstraint(name = "uk_iot_devices_device_id", columnNames = "device_id"))
 public class Device implements Serializable {
 
     @Id
@@ -44,6 +45,14 @@ public class Device implements Serializable {
     @Column(name = "updated_at", columnDefinition = "TIMESTAMP")
     private LocalDateTime updatedAt;
 
+    // Do DeviceLivenessTracker ghi theo lô bằng JDBC; JPA chỉ đọc để lưu thiết bị không ghi đè các cột này
+    @Column(name = "last_seen_at", columnDefinition = "TIMESTAMP", insertable = false, updatable = false)
+    private LocalDateTime lastSeenAt;
+
+    @Enumerated(EnumType.STRING)
+    @Column(name = "status", length = 16, insertable = false, updatable = false)
+    private DeviceStatus status;
+
     @PreUpdate
     public void preUpdate() {
         this.updatedAt = LocalDateTime.now();
@@ -1,11 +1,15 @@
 package com.ptit.service.entity;
 
 import com.fasterxml.jackson.annotation.JsonBackReference;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.ptit.service.entity.enums.PayloadEncoding;
 import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.NoArgsConstructor;
+import lombok.ToString;
 
 import javax.persistence.*;
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDateTime;
 
 @Entity
@@ -20,7 +24,8 @@ public class SensorData {
     @Column(name = "id")
     private Long id;
 
-    @ManyToOne
+    // Bản ghi đọc ra chỉ cần id thiết bị (khoá ngoại), không nạp Device theo từng dòng
+    @ManyToOne(fetch = FetchType.LAZY)
     @JsonBackReference
     @JoinColumn(name = "device_id")
     private Device device;
@@ -55,12 +60,37 @@ public class SensorData {
     @Column(name = "topic")
     private String topic;
 
+    // Cột cũ, chỉ còn dữ liệu trước khi có payload_raw
     @Column(name = "payload")
     private String payload;
 
+    // Payload gốc của bản tin, mã hoá theo payloadEncoding (có thể đã nén)
+    @JsonIgnore
+    @ToString.Exclude
+    @Column(name = "payload_raw")
+    private byte[] payloadRaw;
+
+    @JsonIgnore
+    @Enumerated(EnumType.STRING)
+    @Column(name = "payload_encoding", length = 16)
+    private PayloadEncoding payloadEncoding;
+
     @Column(name = "broker")
     private String broker;
 
-    @Column(name = "created_at", updatable = false, columnDefinition = "TIMESTAMP")
+    // Khoá phân vùng của sensor_data (phân vùng theo ngày)
+    @Column(name = "created_at", nullable = false, updatable = false, columnDefinition = "TIMESTAMP")
     private LocalDateTime createdAt = LocalDateTime.now();
+
+    /**
+     * Payload JSON dạng chuỗi để hiển thị; với bản ghi mới phải giải nén payloadRaw nên chỉ gọi khi thật
+     * sự cần chuỗi (getter {@code getPayload()} chỉ trả cột cũ, để serialize/log không tốn giải nén).
+     * Bản tin nhị phân không có dạng chuỗi nên trả về {@code null}.
+     */
+    public String decodePayload() {
+        if (payload == null && payloadRaw != null && payloadEncoding != null && payloadEncoding.isJson()) {
+            return new String(payloadEncoding.decode(payloadRaw), StandardCharsets.UTF_8);
+        }
+        return payload;
+    }
 }
\ No newline at end of file
@@ -0,0 +1,86 @@
+package com.ptit.service.entity;
+
+import com.ptit.service.entity.enums.RollupResolution;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+/**
+ * Một dòng của bảng sensor_rollup: min/max/sum/count của các cảm biến trong một bucket thời gian.
+ * Các giá trị có thể cộng dồn nên hai bucket cùng khoá được gộp bằng {@link #merge(SensorRollup)}.
+ */
+@Data
+@NoArgsConstructor
+public class SensorRollup {
+
+    private Long deviceId;
+    private RollupResolution resolution;
+    private LocalDateTime bucketStart;
+    private long count;
+
+    private float temperatureMin = Float.POSITIVE_INFINITY;
+    private float temperatureMax = Float.NEGATIVE_INFINITY;
+    private double temperatureSum;
+
+    private float humidityMin = Float.POSITIVE_INFINITY;
+    private float humidityMax = Float.NEGATIVE_INFINITY;
+    private double humiditySum;
+
+    private float lightMin = Float.POSITIVE_INFINITY;
+    private float lightMax = Float.NEGATIVE_INFINITY;
+    private double lightSum;
+
+    private float gasMin = Float.POSITIVE_INFINITY;
+    private float gasMax = Float.NEGATIVE_INFINITY;
+    private double gasSum;
+
+    public SensorRollup(Long deviceId, RollupResolution resolution, LocalDateTime bucketStart) {
+        this.deviceId = deviceId;
+        this.resolution = resolution;
+        this.bucketStart = bucketStart;
+    }
+
+    public void add(SensorData data) {
+        add(data.getTemperature(), data.getHumidity(), data.getLight(), data.getGas());
+    }
+
+    public void add(float temperature, float humidity, float light, float gas) {
+        count++;
+        temperatureMin = Math.min(temperatureMin, temperature);
+        temperatureMax = Math.max(temperatureMax, temperature);
+        temperatureSum += temperature;
+        humidityMin = Math.min(humidityMin, humidity);
+        humidityMax = Math.max(humidityMax, humidity);
+        humiditySum += humidity;
+        lightMin = Math.min(lightMin, light);
+        lightMax = Math.max(lightMax, light);
+        lightSum += light;
+        gasMin = Math.min(gasMin, gas);
+        gasMax = Math.max(gasMax, gas);
+        gasSum += gas;
+    }
+
+    public void merge(SensorRollup other) {
+        count += other.count;
+        temperatureMin = Math.min(temperatureMin, other.temperatureMin);
+        temperatureMax = Math.max(temperatureMax, other.temperatureMax);
+        temperatureSum += other.temperatureSum;
+        humidityMin = Math.min(humidityMin, other.humidityMin);
+        humidityMax = Math.max(humidityMax, other.humidityMax);
+        humiditySum += other.humiditySum;
+        lightMin = Math.min(lightMin, other.lightMin);
+        lightMax = Math.max(lightMax, other.lightMax);
+        lightSum += other.lightSum;
+        gasMin = Math.min(gasMin, other.gasMin);
+        gasMax = Math.max(gasMax, other.gasMax);
+        gasSum += other.gasSum;
+    }
+
+    /** Bản sao của bucket này với khoá thời gian ở độ phân giải thô hơn. */
+    public SensorRollup rebucket(RollupResolution target) {
+        SensorRollup copy = new SensorRollup(deviceId, target, target.truncate(bucketStart));
+        copy.merge(this);
+        return copy;
+    }
+}
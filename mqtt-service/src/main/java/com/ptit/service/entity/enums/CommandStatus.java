@@ -0,0 +1,21 @@
+package com.ptit.service.entity.enums;
+
+/**
+ * Trạng thái của một lệnh điều khiển trong commands.status.
+ */
+public enum CommandStatus {
+    /** Đã lưu, chưa gửi được tới broker (đang chờ trong bộ đệm gửi). */
+    PENDING,
+    /** Đã gửi tới broker, chờ thiết bị phản hồi. */
+    SENT,
+    /** Thiết bị phản hồi thành công. */
+    ACKED,
+    /** Thiết bị phản hồi lỗi hoặc lệnh không gửi được. */
+    FAILED,
+    /** Không có phản hồi trong mqtt.command.timeout-ms. */
+    TIMED_OUT;
+
+    public boolean isOpen() {
+        return this == PENDING || this == SENT;
+    }
+}
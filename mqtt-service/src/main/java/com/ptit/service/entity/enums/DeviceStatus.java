@@ -1,6 +1,9 @@
 package com.ptit.service.entity.enums;
 
 public enum DeviceStatus {
+    // Trạng thái kết nối của thiết bị (iot_devices.status)
+    ONLINE,
+    OFFLINE,
     ON,
     OFF,
     HIGH,
@@ -0,0 +1,44 @@
+package com.ptit.service.entity.enums;
+
+import com.ptit.service.codec.PayloadCompression;
+
+/**
+ * Cách payload gốc của bản tin được lưu trong cột sensor_data.payload_raw.
+ */
+public enum PayloadEncoding {
+    JSON(false, true),
+    JSON_DEFLATE(true, true),
+    BINARY(false, false),
+    BINARY_DEFLATE(true, false);
+
+    private final boolean compressed;
+    private final boolean json;
+
+    PayloadEncoding(boolean compressed, boolean json) {
+        this.compressed = compressed;
+        this.json = json;
+    }
+
+    public boolean isCompressed() {
+        return compressed;
+    }
+
+    public boolean isJson() {
+        return json;
+    }
+
+    /** Mã hoá có nén tương ứng của mã hoá này. */
+    public PayloadEncoding toCompressed() {
+        return json ? JSON_DEFLATE : BINARY_DEFLATE;
+    }
+
+    /** Từ điển deflate dùng cho mã hoá này ({@code null} nếu không dùng từ điển). */
+    public byte[] dictionary() {
+        return json ? PayloadCompression.JSON_DICTIONARY : null;
+    }
+
+    /** Trả lại payload gốc từ dữ liệu đã lưu. */
+    public byte[] decode(byte[] stored) {
+        return compressed ? PayloadCompression.inflate(stored, dictionary()) : stored;
+    }
+}
@@ -0,0 +1,13 @@
+package com.ptit.service.entity.enums;
+
+/**
+ * Chính sách lưu payload gốc của bản tin cảm biến (mqtt.ingest.payload-storage).
+ */
+public enum PayloadStorage {
+    /** Không lưu payload gốc, chỉ lưu các giá trị đã giải mã. */
+    NONE,
+    /** Lưu nguyên payload gốc. */
+    RAW,
+    /** Lưu payload gốc đã nén (giữ bản gốc nếu nén không nhỏ hơn). */
+    COMPRESSED
+}
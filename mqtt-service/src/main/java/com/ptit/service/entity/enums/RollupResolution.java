@@ -0,0 +1,40 @@
+package com.ptit.service.entity.enums;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+
+public enum RollupResolution {
+    MINUTE("1m", "minute", Duration.ofMinutes(1), ChronoUnit.MINUTES),
+    HOUR("1h", "hour", Duration.ofHours(1), ChronoUnit.HOURS),
+    DAY("1d", "day", Duration.ofDays(1), ChronoUnit.DAYS);
+
+    private final String code;
+    private final String truncField;
+    private final Duration step;
+    private final ChronoUnit unit;
+
+    RollupResolution(String code, String truncField, Duration step, ChronoUnit unit) {
+        this.code = code;
+        this.truncField = truncField;
+        this.step = step;
+        this.unit = unit;
+    }
+
+    public String getCode() {
+        return code;
+    }
+
+    /** Tham số cho date_trunc của Postgres. */
+    public String getTruncField() {
+        return truncField;
+    }
+
+    public Duration getStep() {
+        return step;
+    }
+
+    public LocalDateTime truncate(LocalDateTime time) {
+        return time.truncatedTo(unit);
+    }
+}
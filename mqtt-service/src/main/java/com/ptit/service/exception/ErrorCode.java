@@ -7,7 +7,11 @@ import org.springframework.http.HttpStatus;
 public enum ErrorCode {
 
     // Common errors
-    INVALID_REQUEST(HttpStatus.BAD_REQUEST, "error.invalid_request");
+    INVALID_REQUEST(HttpStatus.BAD_REQUEST, "error.invalid_request"),
+    DEVICE_NOT_FOUND(HttpStatus.NOT_FOUND, "error.device_not_found"),
+    COMMAND_NOT_FOUND(HttpStatus.NOT_FOUND, "error.command_not_found"),
+    STREAM_LIMIT_EXCEEDED(HttpStatus.SERVICE_UNAVAILABLE, "error.stream_limit_exceeded"),
+    STREAM_DISABLED(HttpStatus.SERVICE_UNAVAILABLE, "error.stream_disabled");
 
     private final HttpStatus httpStatus;
     private final String messageKey;
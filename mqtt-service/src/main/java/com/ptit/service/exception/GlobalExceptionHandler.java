@@ -0,0 +1,16 @@
+package com.ptit.service.exception;
+
+import com.ptit.service.response.MessageResponse;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.RestControllerAdvice;
+
+@RestControllerAdvice
+public class GlobalExceptionHandler {
+
+    @ExceptionHandler(BaseException.class)
+    public ResponseEntity<MessageResponse> handleBaseException(BaseException e) {
+        return ResponseEntity.status(e.getErrorCode().getHttpStatus())
+                .body(MessageResponse.builder().message(e.getErrorCode().getMessageKey()).build());
+    }
+}
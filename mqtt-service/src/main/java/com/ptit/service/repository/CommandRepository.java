@@ -1,8 +1,48 @@
 package com.ptit.service.repository;
 
 import com.ptit.service.entity.Command;
+import com.ptit.service.entity.enums.CommandStatus;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
 
 @Repository
-public interface CommandRepository extends JpaRepository<Command, Long> {}
+public interface CommandRepository extends JpaRepository<Command, Long> {
+
+    Optional<Command> findByCorrelationId(String correlationId);
+
+    // Lệnh còn chờ cũ nhất của thiết bị, dùng khi phản hồi không mang correlation id
+    Optional<Command> findFirstByDeviceDeviceIdAndStatusInOrderByIssuedAtAsc(String deviceId,
+                                                                              Collection<CommandStatus> statuses);
+
+    List<Command> findByStatusInAndIssuedAtBefore(Collection<CommandStatus> statuses, LocalDateTime before);
+
+    @Modifying
+    @Transactional
+    @Query("UPDATE Command c SET c.status = :status, c.sentAt = :sentAt "
+            + "WHERE c.correlationId = :correlationId AND c.status = com.ptit.service.entity.enums.CommandStatus.PENDING")
+    int markSent(@Param("correlationId") String correlationId, @Param("status") CommandStatus status,
+                 @Param("sentAt") LocalDateTime sentAt);
+
+    /**
+     * Chuyển lệnh còn mở sang trạng thái kết thúc; trả về 0 nếu lệnh đã kết thúc trước đó (vd. phản
+     * hồi tới sau khi đã timeout), nhờ vậy mỗi lệnh chỉ được kết thúc một lần kể cả khi nhiều instance.
+     */
+    @Modifying
+    @Transactional
+    @Query("UPDATE Command c SET c.status = :status, c.completedAt = :completedAt, c.latencyMs = :latencyMs, "
+            + "c.response = :response WHERE c.correlationId = :correlationId "
+            + "AND c.status IN (com.ptit.service.entity.enums.CommandStatus.PENDING, "
+            + "com.ptit.service.entity.enums.CommandStatus.SENT)")
+    int complete(@Param("correlationId") String correlationId, @Param("status") CommandStatus status,
+                 @Param("completedAt") LocalDateTime completedAt, @Param("latencyMs") Long latencyMs,
+                 @Param("response") String response);
+}
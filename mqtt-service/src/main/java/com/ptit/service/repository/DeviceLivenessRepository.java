@@ -0,0 +1,83 @@
+package com.ptit.service.repository;
+
+import com.ptit.service.entity.enums.DeviceStatus;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * Ghi last_seen_at/status của iot_devices theo lô bằng JDBC batch. Không ghi đè bản ghi có last_seen_at mới hơn,
+ * để instance cũ (vd. sau khi đổi instance-count ở cluster mode HASH) không đè trạng thái của instance đang sở hữu.
+ */
+@Repository
+public class DeviceLivenessRepository {
+
+    private static final String UPDATE_SQL = "UPDATE iot_devices SET last_seen_at = ?, status = ? "
+            + "WHERE id = ? AND (last_seen_at IS NULL OR date_trunc('milliseconds', last_seen_at) <= ?)";
+
+    private static final String SELECT_ONLINE_SQL =
+            "SELECT id, device_id, last_seen_at FROM iot_devices WHERE status = 'ONLINE' AND last_seen_at IS NOT NULL";
+
+    private static final String SELECT_SEEN_SQL =
+            "SELECT id, device_id, last_seen_at, status FROM iot_devices WHERE last_seen_at IS NOT NULL";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public DeviceLivenessRepository(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    public void batchUpdate(List<Row> rows) {
+        jdbcTemplate.batchUpdate(UPDATE_SQL, new BatchPreparedStatementSetter() {
+            @Override
+            public void setValues(PreparedStatement ps, int i) throws SQLException {
+                Row row = rows.get(i);
+                Timestamp lastSeenAt = Timestamp.valueOf(row.lastSeenAt);
+                ps.setTimestamp(1, lastSeenAt);
+                ps.setString(2, row.status.name());
+                ps.setLong(3, row.id);
+                ps.setTimestamp(4, lastSeenAt);
+            }
+
+            @Override
+            public int getBatchSize() {
+                return rows.size();
+            }
+        });
+    }
+
+    /**
+     * Các thiết bị đang ONLINE theo lần ghi cuối, để tiếp tục theo dõi sau khi khởi động lại. Ở cluster mode HASH
+     * người gọi lọc lại theo thiết bị mình sở hữu.
+     */
+    public List<Row> findOnline() {
+        return jdbcTemplate.query(SELECT_ONLINE_SQL, (rs, i) -> new Row(rs.getLong(1), rs.getString(2),
+                rs.getTimestamp(3).toLocalDateTime(), DeviceStatus.ONLINE));
+    }
+
+    /**
+     * Trạng thái đã ghi của mọi thiết bị đã từng gửi dữ liệu.
+     */
+    public List<Row> findSeen() {
+        return jdbcTemplate.query(SELECT_SEEN_SQL, (rs, i) -> new Row(rs.getLong(1), rs.getString(2),
+                rs.getTimestamp(3).toLocalDateTime(),
+                rs.getString(4) == null ? DeviceStatus.OFFLINE : DeviceStatus.valueOf(rs.getString(4))));
+    }
+
+    @Getter
+    @AllArgsConstructor
+    public static final class Row {
+        private final long id;
+        private final String deviceId;
+        private final LocalDateTime lastSeenAt;
+        private final DeviceStatus status;
+    }
+}
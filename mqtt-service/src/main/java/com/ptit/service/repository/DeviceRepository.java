@@ -1,10 +1,19 @@
 package com.ptit.service.repository;
 
 import com.ptit.service.entity.Device;
+import com.ptit.service.response.DeviceResponse;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.stereotype.Repository;
 
 @Repository
 public interface DeviceRepository extends JpaRepository<Device, Long> {
     Device findByDeviceId(String deviceId);
+
+    @Query(value = "SELECT new com.ptit.service.response.DeviceResponse(d.id, d.deviceId, d.name, d.type, "
+            + "d.location, d.wifi, d.ip, d.status, d.lastSeenAt) FROM Device d",
+            countQuery = "SELECT COUNT(d) FROM Device d")
+    Page<DeviceResponse> findAllResponses(Pageable pageable);
 }
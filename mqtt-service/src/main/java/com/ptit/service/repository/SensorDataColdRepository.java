@@ -0,0 +1,126 @@
+package com.ptit.service.repository;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Đọc/ghi các chunk của tầng lưu trữ lạnh (sensor_data_cold), mỗi thiết bị mỗi ngày một dòng.
+ */
+@Repository
+public class SensorDataColdRepository {
+
+    private static final String INSERT_SQL = "INSERT INTO sensor_data_cold (device_id, day, row_count, first_at, last_at, data) "
+            + "VALUES (?, ?, ?, ?, ?, ?)";
+
+    // Chỉ metadata, không đọc cột data
+    private static final String SELECT_DAYS_SQL = "SELECT device_id, day, row_count, first_at, last_at FROM sensor_data_cold "
+            + "WHERE device_id = ? AND first_at <= ? AND last_at >= ? ORDER BY day DESC";
+
+    private static final String SELECT_CHUNK_SQL = "SELECT data FROM sensor_data_cold WHERE device_id = ? AND day = ?";
+
+    private static final String SELECT_DEVICES_SQL = "SELECT DISTINCT device_id FROM sensor_data_cold WHERE device_id = ANY (?)";
+
+    private static final String DELETE_BEFORE_SQL = "DELETE FROM sensor_data_cold WHERE day < ?";
+
+    private static final String COUNT_DAY_SQL = "SELECT COALESCE(SUM(row_count), 0) FROM sensor_data_cold WHERE day = ?";
+
+    private static final String DELETE_DAY_SQL = "DELETE FROM sensor_data_cold WHERE day = ?";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public SensorDataColdRepository(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    public void insert(List<Chunk> chunks) {
+        jdbcTemplate.batchUpdate(INSERT_SQL, new BatchPreparedStatementSetter() {
+            @Override
+            public void setValues(PreparedStatement ps, int i) throws SQLException {
+                Chunk chunk = chunks.get(i);
+                ps.setLong(1, chunk.deviceId);
+                ps.setDate(2, Date.valueOf(chunk.day));
+                ps.setInt(3, chunk.rowCount);
+                ps.setTimestamp(4, Timestamp.valueOf(chunk.firstAt));
+                ps.setTimestamp(5, Timestamp.valueOf(chunk.lastAt));
+                ps.setBytes(6, chunk.data);
+            }
+
+            @Override
+            public int getBatchSize() {
+                return chunks.size();
+            }
+        });
+    }
+
+    /**
+     * Metadata các chunk của thiết bị có dòng trong [from, to], ngày mới nhất trước.
+     */
+    public List<Chunk> findDays(long deviceId, LocalDateTime from, LocalDateTime to) {
+        return jdbcTemplate.query(SELECT_DAYS_SQL, (rs, i) -> chunk(rs, null),
+                deviceId, Timestamp.valueOf(to), Timestamp.valueOf(from));
+    }
+
+    public byte[] findData(long deviceId, LocalDate day) {
+        List<byte[]> data = jdbcTemplate.query(SELECT_CHUNK_SQL, (rs, i) -> rs.getBytes(1), deviceId, Date.valueOf(day));
+        return data.isEmpty() ? null : data.get(0);
+    }
+
+    /**
+     * Các thiết bị trong {@code deviceIds} có ít nhất một chunk.
+     */
+    public Set<Long> findDevicesWithChunks(Collection<Long> deviceIds) {
+        return new HashSet<>(jdbcTemplate.query(connection -> {
+            PreparedStatement ps = connection.prepareStatement(SELECT_DEVICES_SQL);
+            ps.setArray(1, connection.createArrayOf("bigint", deviceIds.toArray()));
+            return ps;
+        }, (rs, i) -> rs.getLong(1)));
+    }
+
+    public int deleteBefore(LocalDate day) {
+        return jdbcTemplate.update(DELETE_BEFORE_SQL, Date.valueOf(day));
+    }
+
+    /**
+     * Tổng số dòng trong các chunk của ngày {@code day}, 0 nếu ngày chưa được chuyển.
+     */
+    public long countRows(LocalDate day) {
+        Long rows = jdbcTemplate.queryForObject(COUNT_DAY_SQL, Long.class, Date.valueOf(day));
+        return rows == null ? 0 : rows;
+    }
+
+    public int deleteDay(LocalDate day) {
+        return jdbcTemplate.update(DELETE_DAY_SQL, Date.valueOf(day));
+    }
+
+    private static Chunk chunk(ResultSet rs, byte[] data) throws SQLException {
+        return new Chunk(rs.getLong(1), rs.getDate(2).toLocalDate(), rs.getInt(3),
+                rs.getTimestamp(4).toLocalDateTime(), rs.getTimestamp(5).toLocalDateTime(), data);
+    }
+
+    @Getter
+    @AllArgsConstructor
+    public static final class Chunk {
+        private final long deviceId;
+        private final LocalDate day;
+        private final int rowCount;
+        private final LocalDateTime firstAt;
+        private final LocalDateTime lastAt;
+        // null khi chỉ đọc metadata
+        private final byte[] data;
+    }
+}
@@ -0,0 +1,92 @@
+package com.ptit.service.repository;
+
+import com.zaxxer.hikari.HikariDataSource;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.Collection;
+
+/**
+ * Đọc sensor_data cho việc xuất dữ liệu lớn bằng cursor phía server: kết nối để autocommit = false
+ * và đặt fetchSize nên driver Postgres lấy từng đợt {@code fetch-size} dòng thay vì nạp cả kết quả.
+ *
+ * <p>Dùng pool kết nối riêng (nhỏ, chỉ đọc), không phải pool chính, để một lượt xuất kéo dài không
+ * chiếm kết nối của luồng ghi dữ liệu. Pool được tạo tại đây thay vì khai báo bean DataSource thứ hai
+ * để không làm tắt DataSource tự cấu hình của Spring Boot. Chunk của tầng lạnh cũng được đọc qua pool
+ * này ({@link #coldChunks()}), trên cùng kết nối với cursor khi đọc trong lúc cursor còn mở.
+ */
+@Repository
+public class SensorDataExportRepository implements DisposableBean {
+
+    private static final String EXPORT_SQL = "SELECT d.device_id, s.created_at, s.temperature, s.humidity, "
+            + "s.light, s.gas, s.alert_led, s.buzzer, s.led, s.fan, s.servo, s.device_id "
+            + "FROM sensor_data s JOIN iot_devices d ON d.id = s.device_id "
+            + "WHERE s.device_id = ANY (?) AND s.created_at >= ? AND s.created_at < ? "
+            + "ORDER BY s.device_id, s.created_at";
+
+    private final HikariDataSource dataSource;
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final SensorDataColdRepository coldRepository;
+
+    public SensorDataExportRepository(DataSourceProperties properties,
+                                      @Value("${mqtt.export.pool-size:2}") int poolSize,
+                                      @Value("${mqtt.export.fetch-size:5000}") int fetchSize,
+                                      @Value("${mqtt.export.query-timeout-seconds:0}") int queryTimeoutSeconds) {
+        this.dataSource = properties.initializeDataSourceBuilder().type(HikariDataSource.class).build();
+        dataSource.setPoolName("export");
+        dataSource.setMaximumPoolSize(poolSize);
+        dataSource.setMinimumIdle(0);
+        dataSource.setAutoCommit(false);
+        dataSource.setReadOnly(true);
+
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+        jdbcTemplate.setFetchSize(fetchSize);
+        jdbcTemplate.setQueryTimeout(queryTimeoutSeconds);
+
+        // Transaction chỉ để giữ kết nối của cursor cho cả các truy vấn tầng lạnh trong handler
+        this.transactionTemplate = new TransactionTemplate(new DataSourceTransactionManager(dataSource));
+        transactionTemplate.setReadOnly(true);
+        this.coldRepository = new SensorDataColdRepository(jdbcTemplate);
+    }
+
+    /**
+     * Duyệt các bản ghi của {@code deviceIds} trong [from, to), theo thiết bị rồi thời gian.
+     * {@code handler} được gọi cho từng dòng trong khi cursor còn mở; cột 12 là id DB của thiết bị.
+     * Truy vấn qua {@link #coldChunks()} trong handler dùng lại kết nối của cursor, nên mỗi lượt xuất chỉ
+     * giữ một kết nối của pool.
+     */
+    public void streamRange(Collection<Long> deviceIds, LocalDateTime from, LocalDateTime to,
+                            RowCallbackHandler handler) {
+        transactionTemplate.executeWithoutResult(status -> jdbcTemplate.query(connection -> {
+            PreparedStatement ps = connection.prepareStatement(EXPORT_SQL,
+                    ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            ps.setArray(1, connection.createArrayOf("bigint", deviceIds.toArray()));
+            ps.setTimestamp(2, Timestamp.valueOf(from));
+            ps.setTimestamp(3, Timestamp.valueOf(to));
+            return ps;
+        }, handler));
+    }
+
+    /**
+     * Các truy vấn của tầng lạnh trên pool xuất dữ liệu thay vì pool chính.
+     */
+    public SensorDataColdRepository coldChunks() {
+        return coldRepository;
+    }
+
+    @Override
+    public void destroy() {
+        dataSource.close();
+    }
+}
@@ -0,0 +1,197 @@
+package com.ptit.service.repository;
+
+import com.ptit.service.codec.PayloadCompression;
+import com.ptit.service.entity.SensorData;
+import com.ptit.service.entity.enums.PayloadEncoding;
+import com.ptit.service.entity.enums.PayloadStorage;
+import com.ptit.service.service.MqttClusterMembership;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.stereotype.Repository;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Ghi {@link SensorData} theo lô bằng JDBC batch thay vì từng lệnh {@code save} của JPA.
+ * Id được cấp trước từ sequence nên lệnh insert idempotent khi phải ghi lại một lô.
+ *
+ * <p>Id không giúp gì khi broker giao lại một bản tin QoS 1 (bản tin mới nhận được id mới). Ở chế độ
+ * cluster SHARED, bản tin có thể được giao lại cho instance khác khi PUBACK bị mất, nên mỗi dòng được ghi
+ * kèm dấu vân tay của payload gốc vào sensor_data_dedup trong cùng câu lệnh: payload giống hệt của cùng
+ * thiết bị trong mqtt.ingest.dedup-window-ms bị bỏ qua. Ở chế độ khác phiên MQTT là cleanSession nên
+ * broker không giao lại, không cần bước này.
+ */
+@Repository
+public class SensorDataJdbcRepository {
+
+    private static final String INSERT_SQL = "INSERT INTO sensor_data "
+            + "(id, device_id, temperature, humidity, light, gas, alert_led, buzzer, led, fan, servo, "
+            + "topic, payload_raw, payload_encoding, broker, created_at) "
+            + "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?) "
+            + "ON CONFLICT DO NOTHING";
+
+    // Chỉ insert vào sensor_data khi dấu vân tay chưa có hoặc đã quá cửa sổ (received_at là created_at)
+    private static final String DEDUP_INSERT_SQL = "WITH fresh AS ("
+            + "INSERT INTO sensor_data_dedup AS d (device_id, fingerprint, received_at) VALUES (?, ?, ?::timestamp) "
+            + "ON CONFLICT (device_id, fingerprint) DO UPDATE SET received_at = EXCLUDED.received_at "
+            + "WHERE d.received_at < EXCLUDED.received_at - ?::float8 * interval '1 millisecond' RETURNING 1) "
+            + "INSERT INTO sensor_data "
+            + "(id, device_id, temperature, humidity, light, gas, alert_led, buzzer, led, fan, servo, "
+            + "topic, payload_raw, payload_encoding, broker, created_at) "
+            + "SELECT ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?::timestamp FROM fresh "
+            + "ON CONFLICT DO NOTHING";
+
+    private static final String PRUNE_DEDUP_SQL =
+            "DELETE FROM sensor_data_dedup WHERE received_at < LOCALTIMESTAMP - ?::float8 * interval '1 millisecond'";
+
+    private static final String NEXT_IDS_SQL =
+            "SELECT nextval(pg_get_serial_sequence('sensor_data', 'id')) FROM generate_series(1, ?)";
+
+    // Mỗi thiết bị một lần đi index (device_id, created_at DESC, id DESC) lấy limit dòng mới nhất
+    private static final String RECENT_SQL = "SELECT s.device_id, s.id, s.created_at, s.temperature, s.humidity, "
+            + "s.light, s.gas, s.alert_led, s.buzzer, s.led, s.fan, s.servo "
+            + "FROM unnest(?) AS d(id) CROSS JOIN LATERAL ("
+            + "SELECT * FROM sensor_data WHERE device_id = d.id ORDER BY created_at DESC, id DESC LIMIT ?) s";
+
+    // Số tham số đứng trước cột của sensor_data trong DEDUP_INSERT_SQL
+    private static final int DEDUP_PARAMS = 4;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final PayloadStorage payloadStorage;
+    private final long dedupWindowMs;
+
+    public SensorDataJdbcRepository(JdbcTemplate jdbcTemplate,
+                                    @Value("${mqtt.ingest.payload-storage:COMPRESSED}") PayloadStorage payloadStorage,
+                                    @Value("${mqtt.ingest.dedup-window-ms:120000}") long dedupWindowMs,
+                                    @Value("${mqtt.cluster.mode:NONE}") MqttClusterMembership.Mode clusterMode) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.payloadStorage = payloadStorage;
+        this.dedupWindowMs = clusterMode == MqttClusterMembership.Mode.SHARED ? dedupWindowMs : 0;
+    }
+
+    public boolean isDeduplicating() {
+        return dedupWindowMs > 0;
+    }
+
+    public List<Long> nextIds(int count) {
+        return jdbcTemplate.queryForList(NEXT_IDS_SQL, Long.class, count);
+    }
+
+    /**
+     * Tối đa {@code limit} bản ghi mới nhất của từng thiết bị trong {@code deviceIds}; cột 1 là id thiết bị,
+     * 2-3 là id và created_at, sau đó các giá trị đo và trạng thái theo thứ tự của bảng.
+     */
+    public void findRecent(Collection<Long> deviceIds, int limit, RowCallbackHandler handler) {
+        jdbcTemplate.query(connection -> {
+            PreparedStatement ps = connection.prepareStatement(RECENT_SQL);
+            ps.setArray(1, connection.createArrayOf("bigint", deviceIds.toArray()));
+            ps.setInt(2, limit);
+            return ps;
+        }, handler);
+    }
+
+    /**
+     * Ghi một lô.
+     *
+     * @return số dòng bị bỏ vì trùng payload với một bản tin vừa ghi (luôn 0 khi không khử trùng)
+     */
+    public int batchInsert(List<SensorData> batch) {
+        if (!isDeduplicating()) {
+            jdbcTemplate.batchUpdate(INSERT_SQL, setter(batch, 0));
+            return 0;
+        }
+        int duplicates = 0;
+        for (int count : jdbcTemplate.batchUpdate(DEDUP_INSERT_SQL, setter(batch, DEDUP_PARAMS))) {
+            if (count == 0) {
+                duplicates++;
+            }
+        }
+        return duplicates;
+    }
+
+    /** Xoá dấu vân tay đã ra khỏi cửa sổ khử trùng. */
+    public int pruneDedup() {
+        return isDeduplicating() ? jdbcTemplate.update(PRUNE_DEDUP_SQL, dedupWindowMs) : 0;
+    }
+
+    private BatchPreparedStatementSetter setter(List<SensorData> batch, int offset) {
+        return new BatchPreparedStatementSetter() {
+            @Override
+            public void setValues(PreparedStatement ps, int i) throws SQLException {
+                SensorData data = batch.get(i);
+                Timestamp createdAt = Timestamp.valueOf(data.getCreatedAt());
+                if (offset > 0) {
+                    ps.setLong(1, data.getDevice().getId());
+                    ps.setLong(2, fingerprint(data));
+                    ps.setTimestamp(3, createdAt);
+                    ps.setLong(4, dedupWindowMs);
+                }
+                ps.setLong(offset + 1, data.getId());
+                ps.setLong(offset + 2, data.getDevice().getId());
+                ps.setFloat(offset + 3, data.getTemperature());
+                ps.setFloat(offset + 4, data.getHumidity());
+                ps.setFloat(offset + 5, data.getLight());
+                ps.setFloat(offset + 6, data.getGas());
+                ps.setInt(offset + 7, data.getAlertLed());
+                ps.setInt(offset + 8, data.getBuzzer());
+                ps.setInt(offset + 9, data.getLed());
+                ps.setInt(offset + 10, data.getFan());
+                ps.setInt(offset + 11, data.getServo());
+                ps.setString(offset + 12, data.getTopic());
+                bindPayload(ps, offset + 13, data);
+                ps.setString(offset + 15, data.getBroker());
+                ps.setTimestamp(offset + 16, createdAt);
+            }
+
+            @Override
+            public int getBatchSize() {
+                return batch.size();
+            }
+        };
+    }
+
+    /**
+     * FNV-1a 64 bit của payload gốc (chưa nén), cộng mã hoá để bản tin JSON và nhị phân không trùng nhau.
+     * Bản ghi không có payload gốc dùng id nên không bao giờ bị coi là trùng.
+     */
+    static long fingerprint(SensorData data) {
+        byte[] raw = data.getPayloadRaw();
+        if (raw == null || data.getPayloadEncoding() == null) {
+            return data.getId();
+        }
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : raw) {
+            hash ^= b & 0xff;
+            hash *= 0x100000001b3L;
+        }
+        return hash ^ data.getPayloadEncoding().ordinal();
+    }
+
+    // Nén được thực hiện trên worker ghi DB, không phải trên luồng callback MQTT. Entity trong bộ nhớ
+    // giữ nguyên payload chưa nén nên nén lại khi ghi lại một lô cũng cho cùng kết quả.
+    private void bindPayload(PreparedStatement ps, int index, SensorData data) throws SQLException {
+        byte[] raw = data.getPayloadRaw();
+        PayloadEncoding encoding = data.getPayloadEncoding();
+        if (payloadStorage == PayloadStorage.NONE || raw == null || encoding == null) {
+            ps.setNull(index, Types.BINARY);
+            ps.setNull(index + 1, Types.VARCHAR);
+            return;
+        }
+        if (payloadStorage == PayloadStorage.COMPRESSED && !encoding.isCompressed()) {
+            byte[] compressed = PayloadCompression.deflate(raw, encoding.dictionary());
+            if (compressed != null) {
+                raw = compressed;
+                encoding = encoding.toCompressed();
+            }
+        }
+        ps.setBytes(index, raw);
+        ps.setString(index + 1, encoding.name());
+    }
+}
@@ -1,14 +1,49 @@
 package com.ptit.service.repository;
 
 import com.ptit.service.entity.SensorData;
-import org.springframework.data.domain.Page;
+import com.ptit.service.response.SensorReadingResponse;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+
 @Repository
 public interface SensorDataRepository extends JpaRepository<SensorData, Long> {
     SensorData findFirstByDeviceIdOrderByCreatedAtDesc(Long deviceId);
 
-    Page<SensorData> findTop100ByDeviceIdOrderByCreatedAtDesc(Long deviceId, Pageable pageable);
+    // Điều kiện trên created_at cho phép Postgres chỉ quét các phân vùng liên quan
+    SensorData findFirstByDeviceIdAndCreatedAtGreaterThanEqualOrderByCreatedAtDesc(Long deviceId, LocalDateTime since);
+
+    // Phân trang keyset trên (created_at, id), mới nhất trước; trả về List nên không có truy vấn COUNT
+    String READING_SELECT = "SELECT new com.ptit.service.response.SensorReadingResponse(s.id, s.createdAt, "
+            + "s.temperature, s.humidity, s.light, s.gas, s.alertLed, s.buzzer, s.led, s.fan, s.servo) "
+            + "FROM SensorData s WHERE s.device.id = :deviceId ";
+
+    @Query(READING_SELECT + "ORDER BY s.createdAt DESC, s.id DESC")
+    List<SensorReadingResponse> findReadings(@Param("deviceId") Long deviceId, Pageable pageable);
+
+    // createdAt <= :createdAt thừa về logic nhưng cho phép Postgres bắt đầu quét index ngay tại con trỏ
+    @Query(READING_SELECT + "AND s.createdAt <= :createdAt AND (s.createdAt < :createdAt OR s.id < :id) "
+            + "ORDER BY s.createdAt DESC, s.id DESC")
+    List<SensorReadingResponse> findReadingsBefore(@Param("deviceId") Long deviceId,
+                                                   @Param("createdAt") LocalDateTime createdAt,
+                                                   @Param("id") Long id, Pageable pageable);
+
+    List<SensorData> findByDeviceIdAndCreatedAtGreaterThanEqualAndCreatedAtLessThanOrderByCreatedAtAsc(
+            Long deviceId, LocalDateTime from, LocalDateTime to, Pageable pageable);
+
+    @Query(value = "SELECT DISTINCT ON (device_id) * FROM sensor_data "
+            + "WHERE device_id IN (:deviceIds) ORDER BY device_id, created_at DESC", nativeQuery = true)
+    List<SensorData> findLatestByDeviceIds(@Param("deviceIds") Collection<Long> deviceIds);
+
+    @Query(value = "SELECT DISTINCT ON (device_id) * FROM sensor_data "
+            + "WHERE device_id IN (:deviceIds) AND created_at >= :since "
+            + "ORDER BY device_id, created_at DESC", nativeQuery = true)
+    List<SensorData> findLatestByDeviceIdsSince(@Param("deviceIds") Collection<Long> deviceIds,
+                                                @Param("since") LocalDateTime since);
 }
@@ -0,0 +1,168 @@
+package com.ptit.service.repository;
+
+import com.ptit.service.entity.SensorRollup;
+import com.ptit.service.entity.enums.RollupResolution;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.stereotype.Repository;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.List;
+
+@Repository
+public class SensorRollupRepository {
+
+    private static final String COLUMNS = "device_id, resolution, bucket_start, sample_count, "
+            + "temperature_min, temperature_max, temperature_sum, humidity_min, humidity_max, humidity_sum, "
+            + "light_min, light_max, light_sum, gas_min, gas_max, gas_sum";
+
+    private static final String CONFLICT = " ON CONFLICT (device_id, resolution, bucket_start) DO UPDATE SET ";
+
+    // Cộng dồn phần tổng hợp mới vào bucket đã có
+    private static final String UPSERT_ADD_SQL = "INSERT INTO sensor_rollup (" + COLUMNS + ") "
+            + "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)" + CONFLICT
+            + "sample_count = sensor_rollup.sample_count + EXCLUDED.sample_count, "
+            + mergeColumn("temperature") + ", " + mergeColumn("humidity") + ", "
+            + mergeColumn("light") + ", " + mergeColumn("gas");
+
+    // Tổng hợp dữ liệu gốc trong [from, to) rồi cộng dồn vào bucket (dùng cho job bù), cùng ngữ nghĩa với
+    // luồng trực tiếp để hai bên không ghi đè nhau. %1$s là trường của date_trunc, được chèn trực tiếp
+    // (lấy từ enum) để GROUP BY và SELECT là cùng một biểu thức
+    private static final String REBUILD_SQL = "INSERT INTO sensor_rollup (" + COLUMNS + ") "
+            + "SELECT device_id, ?, date_trunc('%1$s', created_at), count(*), "
+            + "min(temperature), max(temperature), sum(temperature), min(humidity), max(humidity), sum(humidity), "
+            + "min(light), max(light), sum(light), min(gas), max(gas), sum(gas) "
+            + "FROM sensor_data WHERE device_id IS NOT NULL AND created_at >= ? AND created_at < ? "
+            + "GROUP BY device_id, date_trunc('%1$s', created_at)" + CONFLICT
+            + "sample_count = sensor_rollup.sample_count + EXCLUDED.sample_count, "
+            + mergeColumn("temperature") + ", " + mergeColumn("humidity") + ", "
+            + mergeColumn("light") + ", " + mergeColumn("gas");
+
+    private static final String FIND_RANGE_SQL = "SELECT " + COLUMNS + " FROM sensor_rollup "
+            + "WHERE device_id = ? AND resolution = ? AND bucket_start >= ? AND bucket_start < ? "
+            + "ORDER BY bucket_start";
+
+    // Khoá advisory của rollup: flush trực tiếp giữ khoá chia sẻ, job bù giữ khoá độc quyền
+    private static final long ROLLUP_LOCK = 0x524f4c4c5550L;
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public SensorRollupRepository(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    public void upsertAdditive(List<SensorRollup> rollups) {
+        jdbcTemplate.batchUpdate(UPSERT_ADD_SQL, new BatchPreparedStatementSetter() {
+            @Override
+            public void setValues(PreparedStatement ps, int i) throws SQLException {
+                SensorRollup r = rollups.get(i);
+                ps.setLong(1, r.getDeviceId());
+                ps.setString(2, r.getResolution().getCode());
+                ps.setTimestamp(3, Timestamp.valueOf(r.getBucketStart()));
+                ps.setLong(4, r.getCount());
+                ps.setFloat(5, r.getTemperatureMin());
+                ps.setFloat(6, r.getTemperatureMax());
+                ps.setDouble(7, r.getTemperatureSum());
+                ps.setFloat(8, r.getHumidityMin());
+                ps.setFloat(9, r.getHumidityMax());
+                ps.setDouble(10, r.getHumiditySum());
+                ps.setFloat(11, r.getLightMin());
+                ps.setFloat(12, r.getLightMax());
+                ps.setDouble(13, r.getLightSum());
+                ps.setFloat(14, r.getGasMin());
+                ps.setFloat(15, r.getGasMax());
+                ps.setDouble(16, r.getGasSum());
+            }
+
+            @Override
+            public int getBatchSize() {
+                return rollups.size();
+            }
+        });
+    }
+
+    /**
+     * Cộng dồn tổng hợp của dữ liệu gốc trong [from, to) vào bucket. Không idempotent: gọi trong transaction
+     * đang giữ {@link #lockExclusive()} và dời watermark qua {@code to} trong cùng transaction.
+     */
+    public int rebuild(RollupResolution resolution, LocalDateTime from, LocalDateTime to) {
+        return jdbcTemplate.update(String.format(REBUILD_SQL, resolution.getTruncField()), resolution.getCode(),
+                Timestamp.valueOf(from), Timestamp.valueOf(to));
+    }
+
+    public List<SensorRollup> findRange(Long deviceId, RollupResolution resolution,
+                                        LocalDateTime from, LocalDateTime to) {
+        return jdbcTemplate.query(FIND_RANGE_SQL, rollupMapper(resolution), deviceId, resolution.getCode(),
+                Timestamp.valueOf(from), Timestamp.valueOf(to));
+    }
+
+    /** Khoá của flush trực tiếp, giữ tới hết transaction; nhiều instance flush song song được. */
+    public void lockShared() {
+        jdbcTemplate.query("SELECT pg_advisory_xact_lock_shared(?)", rs -> null, ROLLUP_LOCK);
+    }
+
+    /** Khoá của job bù, giữ tới hết transaction; chờ các flush đang chạy xong và chặn flush mới. */
+    public void lockExclusive() {
+        jdbcTemplate.query("SELECT pg_advisory_xact_lock(?)", rs -> null, ROLLUP_LOCK);
+    }
+
+    public LocalDateTime findWatermark(String name) {
+        List<Timestamp> result = jdbcTemplate.queryForList(
+                "SELECT watermark FROM sensor_rollup_state WHERE name = ?", Timestamp.class, name);
+        return result.isEmpty() ? null : result.get(0).toLocalDateTime();
+    }
+
+    public void saveWatermark(String name, LocalDateTime watermark) {
+        jdbcTemplate.update("INSERT INTO sensor_rollup_state (name, watermark, updated_at) VALUES (?, ?, LOCALTIMESTAMP) "
+                        + "ON CONFLICT (name) DO UPDATE SET watermark = GREATEST(sensor_rollup_state.watermark, EXCLUDED.watermark), "
+                        + "updated_at = EXCLUDED.updated_at",
+                name, Timestamp.valueOf(watermark));
+    }
+
+    /**
+     * Số dòng trạng thái có tên bắt đầu bằng {@code prefix} (trừ {@code excludeName}) được cập nhật trong
+     * {@code withinMs} mili giây gần đây, tức số instance khác còn đang flush.
+     */
+    public int countActive(String prefix, String excludeName, long withinMs) {
+        Integer count = jdbcTemplate.queryForObject("SELECT count(*) FROM sensor_rollup_state "
+                        + "WHERE name LIKE ? AND name <> ? AND updated_at > LOCALTIMESTAMP - ?::float8 * interval '1 millisecond'",
+                Integer.class, prefix + "%", excludeName, withinMs);
+        return count == null ? 0 : count;
+    }
+
+    public LocalDateTime findFirstRawTimestamp() {
+        Timestamp first = jdbcTemplate.queryForObject("SELECT min(created_at) FROM sensor_data", Timestamp.class);
+        return first == null ? null : first.toLocalDateTime();
+    }
+
+    private static RowMapper<SensorRollup> rollupMapper(RollupResolution resolution) {
+        return (rs, rowNum) -> {
+            SensorRollup r = new SensorRollup(rs.getLong("device_id"), resolution,
+                    rs.getTimestamp("bucket_start").toLocalDateTime());
+            r.setCount(rs.getLong("sample_count"));
+            r.setTemperatureMin(rs.getFloat("temperature_min"));
+            r.setTemperatureMax(rs.getFloat("temperature_max"));
+            r.setTemperatureSum(rs.getDouble("temperature_sum"));
+            r.setHumidityMin(rs.getFloat("humidity_min"));
+            r.setHumidityMax(rs.getFloat("humidity_max"));
+            r.setHumiditySum(rs.getDouble("humidity_sum"));
+            r.setLightMin(rs.getFloat("light_min"));
+            r.setLightMax(rs.getFloat("light_max"));
+            r.setLightSum(rs.getDouble("light_sum"));
+            r.setGasMin(rs.getFloat("gas_min"));
+            r.setGasMax(rs.getFloat("gas_max"));
+            r.setGasSum(rs.getDouble("gas_sum"));
+            return r;
+        };
+    }
+
+    private static String mergeColumn(String sensor) {
+        return sensor + "_min = LEAST(sensor_rollup." + sensor + "_min, EXCLUDED." + sensor + "_min), "
+                + sensor + "_max = GREATEST(sensor_rollup." + sensor + "_max, EXCLUDED." + sensor + "_max), "
+                + sensor + "_sum = sensor_rollup." + sensor + "_sum + EXCLUDED." + sensor + "_sum";
+    }
+}
@@ -0,0 +1,28 @@
+package com.ptit.service.response;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+/**
+ * Sự kiện cảnh báo gửi trên /topic/alerts: {@code state} là FIRING khi luật bắt đầu vi phạm và
+ * CLEARED khi giá trị đã trở về mức bình thường.
+ */
+@Data
+@Builder
+@AllArgsConstructor
+@NoArgsConstructor
+public class AlertResponse {
+    private String rule;
+    private String severity;
+    private String state;
+    private Long id;
+    private String deviceId;
+    private String metric;
+    private double value;
+    private double threshold;
+    private LocalDateTime time;
+}
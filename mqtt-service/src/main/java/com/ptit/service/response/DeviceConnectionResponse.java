@@ -0,0 +1,30 @@
+package com.ptit.service.response;
+
+import com.ptit.service.entity.SensorData;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+/**
+ * Broker, topic và payload của bản tin mới nhất từ thiết bị, cho thẻ thông tin broker. Tách khỏi
+ * {@link SensorReadingResponse} để khung dữ liệu gửi theo từng bản ghi không phải mang chúng.
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class DeviceConnectionResponse {
+    private String broker;
+    private String topic;
+    // JSON gốc của bản tin; null với bản tin nhị phân
+    private String payload;
+    private LocalDateTime receivedAt;
+
+    public static DeviceConnectionResponse from(SensorData data) {
+        if (data == null) {
+            return new DeviceConnectionResponse();
+        }
+        return new DeviceConnectionResponse(data.getBroker(), data.getTopic(), data.decodePayload(), data.getCreatedAt());
+    }
+}
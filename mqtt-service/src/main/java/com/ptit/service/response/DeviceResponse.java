@@ -1,8 +1,16 @@
 package com.ptit.service.response;
 
+import com.ptit.service.entity.Device;
+import com.ptit.service.entity.enums.DeviceStatus;
+import lombok.AllArgsConstructor;
 import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
 
 @Data
+@AllArgsConstructor
+@NoArgsConstructor
 public class DeviceResponse {
     private Long id;
     private String deviceId;
@@ -11,4 +19,11 @@ public class DeviceResponse {
     private String location;
     private String wifi;
     private String ip;
+    private DeviceStatus status;
+    private LocalDateTime lastSeenAt;
+
+    public static DeviceResponse from(Device device) {
+        return new DeviceResponse(device.getId(), device.getDeviceId(), device.getName(), device.getType(),
+                device.getLocation(), device.getWifi(), device.getIp(), device.getStatus(), device.getLastSeenAt());
+    }
 }
@@ -0,0 +1,21 @@
+package com.ptit.service.response;
+
+import com.ptit.service.entity.enums.DeviceStatus;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+/**
+ * Trạng thái kết nối của thiết bị, gửi trên /topic/device-status khi thiết bị chuyển ONLINE/OFFLINE.
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class DeviceStatusResponse {
+    private Long id;
+    private String deviceId;
+    private DeviceStatus status;
+    private LocalDateTime lastSeenAt;
+}
@@ -10,6 +10,8 @@ import org.springframework.data.domain.Pageable;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 @Data
 @Builder
@@ -19,26 +21,35 @@ public class ResponsePage<T, S> {
   private List<S> data;
   private MetaData metaData;
 
+  // ModelMapper giữ cache TypeMap theo cặp kiểu, dùng chung để không phải dựng lại ở mỗi trang
+  private static final ModelMapper MAPPER = new ModelMapper();
+
   public ResponsePage(Page<T> page, Class<S> s) {
-    ModelMapper mapper = new ModelMapper();
     List<S> list = new ArrayList<>();
     page.getContent().forEach(ob -> {
-      list.add(mapper.map(ob, s));
+      list.add(MAPPER.map(ob, s));
     });
     data = list;
     metaData = new MetaData(page);
   }
 
+  /**
+   * Ánh xạ bằng hàm viết sẵn (vd. {@code DeviceResponse::from}) thay vì reflection của ModelMapper.
+   */
+  public ResponsePage(Page<T> page, Function<? super T, ? extends S> mapper) {
+    data = page.getContent().stream().map(mapper).collect(Collectors.toList());
+    metaData = new MetaData(page);
+  }
+
   public ResponsePage(Page<S> page) {
     data = page.getContent();
     metaData = new MetaData(page);
   }
 
   public ResponsePage(Pageable page, Long total, List<T> listInput, Class<S> s) {
-    ModelMapper mapper = new ModelMapper();
     List<S> list = new ArrayList<>();
     listInput.forEach(ob -> {
-      list.add(mapper.map(ob, s));
+      list.add(MAPPER.map(ob, s));
     });
     data = list;
     metaData = new MetaData(total, page);
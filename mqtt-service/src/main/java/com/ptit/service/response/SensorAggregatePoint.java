@@ -0,0 +1,38 @@
+package com.ptit.service.response;
+
+import com.ptit.service.entity.SensorRollup;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class SensorAggregatePoint {
+    private LocalDateTime time;
+    private long count;
+    private Stats temperature;
+    private Stats humidity;
+    private Stats light;
+    private Stats gas;
+
+    public static SensorAggregatePoint from(SensorRollup r) {
+        long n = r.getCount();
+        return new SensorAggregatePoint(r.getBucketStart(), n,
+                new Stats(r.getTemperatureMin(), r.getTemperatureMax(), (float) (r.getTemperatureSum() / n)),
+                new Stats(r.getHumidityMin(), r.getHumidityMax(), (float) (r.getHumiditySum() / n)),
+                new Stats(r.getLightMin(), r.getLightMax(), (float) (r.getLightSum() / n)),
+                new Stats(r.getGasMin(), r.getGasMax(), (float) (r.getGasSum() / n)));
+    }
+
+    @Data
+    @AllArgsConstructor
+    @NoArgsConstructor
+    public static class Stats {
+        private float min;
+        private float max;
+        private float avg;
+    }
+}
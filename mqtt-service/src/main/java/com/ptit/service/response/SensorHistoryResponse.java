@@ -0,0 +1,21 @@
+package com.ptit.service.response;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+@Data
+@Builder
+@AllArgsConstructor
+@NoArgsConstructor
+public class SensorHistoryResponse {
+    private Long deviceId;
+    private String resolution;
+    private LocalDateTime from;
+    private LocalDateTime to;
+    private List<SensorAggregatePoint> points;
+}
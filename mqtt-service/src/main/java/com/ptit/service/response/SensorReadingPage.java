@@ -0,0 +1,23 @@
+package com.ptit.service.response;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * Một trang lịch sử, mới nhất trước. Gửi lại {@code nextCursor} để lấy trang cũ hơn; không có tổng số
+ * bản ghi vì việc đếm tốn chi phí tăng theo độ dài lịch sử.
+ */
+@Data
+@Builder
+@AllArgsConstructor
+@NoArgsConstructor
+public class SensorReadingPage {
+    private Long deviceId;
+    private List<SensorReadingResponse> items;
+    private String nextCursor;
+    private boolean hasMore;
+}
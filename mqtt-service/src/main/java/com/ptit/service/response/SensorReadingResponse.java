@@ -0,0 +1,41 @@
+package com.ptit.service.response;
+
+import com.ptit.service.codec.SensorChunk;
+import com.ptit.service.entity.SensorData;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+/**
+ * Một bản ghi cảm biến gửi cho client: chỉ các giá trị đo và trạng thái, không có topic/broker/payload.
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class SensorReadingResponse {
+    private Long id;
+    private LocalDateTime createdAt;
+    private float temperature;
+    private float humidity;
+    private float light;
+    private float gas;
+    private int alertLed;
+    private int buzzer;
+    private int led;
+    private int fan;
+    private int servo;
+
+    public static SensorReadingResponse from(SensorData data) {
+        return new SensorReadingResponse(data.getId(), data.getCreatedAt(),
+                data.getTemperature(), data.getHumidity(), data.getLight(), data.getGas(),
+                data.getAlertLed(), data.getBuzzer(), data.getLed(), data.getFan(), data.getServo());
+    }
+
+    public static SensorReadingResponse from(SensorChunk chunk, int row) {
+        return new SensorReadingResponse(chunk.id(row), chunk.createdAt(row),
+                chunk.temperature(row), chunk.humidity(row), chunk.light(row), chunk.gas(row),
+                chunk.alertLed(row), chunk.buzzer(row), chunk.led(row), chunk.fan(row), chunk.servo(row));
+    }
+}
@@ -0,0 +1,26 @@
+package com.ptit.service.response;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+/**
+ * Các bản ghi gần nhất của thiết bị dạng cột cho biểu đồ nhỏ, cũ nhất trước: phần tử thứ i của mỗi mảng
+ * là bản ghi lúc {@code start + offsetsMs[i]}.
+ */
+@Data
+@Builder
+@AllArgsConstructor
+@NoArgsConstructor
+public class SensorSparkline {
+    private Long deviceId;
+    private LocalDateTime start;
+    private long[] offsetsMs;
+    private float[] temperature;
+    private float[] humidity;
+    private float[] light;
+    private float[] gas;
+}
@@ -0,0 +1,268 @@
+package com.ptit.service.service;
+
+import com.ptit.service.config.AlertRulesProperties;
+import com.ptit.service.config.AlertRulesProperties.Rule;
+import com.ptit.service.entity.Device;
+import com.ptit.service.entity.SensorData;
+import com.ptit.service.entity.enums.SensorType;
+import com.ptit.service.response.AlertResponse;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Đánh giá luật cảnh báo (mqtt.alerts.rules) trên mỗi bản ghi đã nhận, hoàn toàn trong bộ nhớ.
+ *
+ * <p>Luật được biên dịch một lần lúc khởi động. Mỗi thiết bị có một bộ đánh giá riêng, giữ danh sách
+ * luật áp dụng cho nó và lịch sử m bản ghi gần nhất của từng luật dưới dạng bitmask, nên mỗi bản ghi chỉ
+ * tốn vài phép dịch bit và popcount cho mỗi luật. Ngưỡng đơn giản, tốc độ thay đổi và "n trong m" đều
+ * quy về cùng một cơ chế: cảnh báo khi n/m bản ghi vượt ngưỡng, hết cảnh báo khi n/m bản ghi đã về
+ * mức clear. Chỉ các lần chuyển trạng thái mới được gửi lên /topic/alerts và gửi lệnh MQTT (nếu có).
+ *
+ * <p>Bản ghi của một thiết bị được xử lý tuần tự trên lane của nó (DeviceMessageDispatcher), khoá trên
+ * bộ đánh giá chỉ để an toàn và không bị tranh chấp.
+ *
+ * <p>Trạng thái "n trong m" và giá trị trước của luật RATE nằm trong bộ nhớ của instance, nên luật chỉ đúng
+ * khi instance thấy toàn bộ luồng của thiết bị: cluster mode NONE hoặc HASH. Ở SHARED, broker rải bản tin
+ * của một thiết bị lên nhiều instance, nên bật luật ở chế độ này sẽ bị từ chối ngay lúc khởi động.
+ */
+@Service
+public class AlertRuleEngine {
+
+    private static final Logger logger = LoggerFactory.getLogger(AlertRuleEngine.class);
+
+    private static final String FIRING = "FIRING";
+    private static final String CLEARED = "CLEARED";
+
+    private final NotificationService notificationService;
+    private final CommandService commandService;
+    private final MeterRegistry meterRegistry;
+    private final boolean enabled;
+    private final String destination;
+    private final List<CompiledRule> rules;
+
+    private final Map<Long, DeviceEvaluator> evaluators = new ConcurrentHashMap<>();
+    private final AtomicInteger active = new AtomicInteger();
+
+    public AlertRuleEngine(AlertRulesProperties properties, NotificationService notificationService,
+                           CommandService commandService, MqttClusterMembership clusterMembership,
+                           MeterRegistry meterRegistry) {
+        this.notificationService = notificationService;
+        this.commandService = commandService;
+        this.meterRegistry = meterRegistry;
+        this.destination = properties.getDestination();
+        List<CompiledRule> compiled = new ArrayList<>();
+        for (Rule rule : properties.getRules()) {
+            compiled.add(new CompiledRule(rule));
+        }
+        this.rules = List.copyOf(compiled);
+        this.enabled = properties.isEnabled() && !rules.isEmpty();
+        if (enabled && clusterMembership.getMode() == MqttClusterMembership.Mode.SHARED) {
+            // Mỗi instance chỉ thấy một phần bản tin của thiết bị: n/m và tốc độ thay đổi tính sai
+            throw new IllegalStateException("mqtt.alerts needs mqtt.cluster.mode NONE or HASH, got SHARED; "
+                    + "set mqtt.alerts.enabled=false or switch to HASH");
+        }
+        meterRegistry.gauge("alerts.active", active);
+        logger.info("Alert rules: enabled={}, rules={}", enabled, rules.size());
+    }
+
+    /**
+     * Đánh giá các luật của thiết bị trên bản ghi vừa nhận.
+     */
+    public void evaluate(Device device, SensorData data) {
+        if (!enabled) {
+            return;
+        }
+        DeviceEvaluator evaluator = evaluators.get(device.getId());
+        if (evaluator == null || !Objects.equals(evaluator.type, device.getType())) {
+            // Lần đầu gặp thiết bị, hoặc loại thiết bị đã đổi nên tập luật áp dụng có thể khác
+            if (evaluator != null) {
+                active.addAndGet(-evaluator.activeCount());
+            }
+            evaluator = new DeviceEvaluator(device, rules);
+            evaluators.put(device.getId(), evaluator);
+        }
+        if (evaluator.rules.length == 0) {
+            return;
+        }
+        long time = data.getCreatedAt().atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        synchronized (evaluator) {
+            for (int i = 0; i < evaluator.rules.length; i++) {
+                evaluate(evaluator, i, device, data, time);
+            }
+        }
+    }
+
+    private void evaluate(DeviceEvaluator evaluator, int i, Device device, SensorData data, long time) {
+        CompiledRule rule = evaluator.rules[i];
+        double value = rule.sample(data);
+        double observed = value;
+        if (rule.rate) {
+            double previous = evaluator.lastValue[i];
+            long previousTime = evaluator.lastTime[i];
+            evaluator.lastValue[i] = value;
+            evaluator.lastTime[i] = time;
+            if (previousTime == 0 || time <= previousTime) {
+                return;
+            }
+            observed = (value - previous) * 60_000d / (time - previousTime);
+        }
+
+        boolean violating = rule.rising ? observed > rule.threshold : observed < rule.threshold;
+        boolean recovered = rule.rising ? observed <= rule.clear : observed >= rule.clear;
+        long over = ((evaluator.over[i] << 1) | (violating ? 1 : 0)) & rule.windowMask;
+        long back = ((evaluator.back[i] << 1) | (recovered ? 1 : 0)) & rule.windowMask;
+
+        if (!evaluator.active[i] && Long.bitCount(over) >= rule.n) {
+            evaluator.active[i] = true;
+            // Hết cảnh báo cần n bản ghi mới đã về mức clear, không tính các bản ghi trước khi bật
+            back = 0;
+            transition(rule, device, FIRING, observed, data.getCreatedAt());
+        } else if (evaluator.active[i] && Long.bitCount(back) >= rule.n) {
+            evaluator.active[i] = false;
+            over = 0;
+            transition(rule, device, CLEARED, observed, data.getCreatedAt());
+        }
+        evaluator.over[i] = over;
+        evaluator.back[i] = back;
+    }
+
+    private void transition(CompiledRule rule, Device device, String state, double value, LocalDateTime time) {
+        if (FIRING.equals(state)) {
+            active.incrementAndGet();
+        } else {
+            active.decrementAndGet();
+        }
+        meterRegistry.counter("alerts.transitions", "rule", rule.name, "state", state).increment();
+        logger.info("Alert {} {} for {}: {}={}", rule.name, state, device.getDeviceId(), rule.metric, value);
+
+        AlertResponse alert = AlertResponse.builder()
+                .rule(rule.name)
+                .severity(rule.severity)
+                .state(state)
+                .id(device.getId())
+                .deviceId(device.getDeviceId())
+                .metric(rule.metric.name())
+                .value(value)
+                .threshold(rule.threshold)
+                .time(time)
+                .build();
+        try {
+            notificationService.sendRealtimeUpdate(destination, alert);
+            notificationService.sendRealtimeUpdate(destination + "/" + device.getId(), alert);
+        } catch (Exception e) {
+            logger.error("Cannot publish alert {} for {}", rule.name, device.getDeviceId(), e);
+        }
+
+        String command = FIRING.equals(state) ? rule.command : rule.clearCommand;
+        if (command != null && !command.isEmpty()) {
+            try {
+                commandService.submit(device, command);
+            } catch (Exception e) {
+                logger.error("Cannot send alert command of {} to {}", rule.name, device.getDeviceId(), e);
+            }
+        }
+    }
+
+    private static final class CompiledRule {
+        private final String name;
+        private final SensorType metric;
+        private final boolean rate;
+        private final boolean rising;
+        private final double threshold;
+        private final double clear;
+        private final int n;
+        private final long windowMask;
+        private final Set<String> deviceIds;
+        private final Set<String> deviceTypes;
+        private final String severity;
+        private final String command;
+        private final String clearCommand;
+
+        CompiledRule(Rule rule) {
+            if (rule.getName() == null || rule.getMetric() == null) {
+                throw new IllegalStateException("Alert rule needs a name and a metric: " + rule);
+            }
+            if ((rule.getAbove() == null) == (rule.getBelow() == null)) {
+                throw new IllegalStateException("Alert rule " + rule.getName() + " needs exactly one of above/below");
+            }
+            if (rule.getN() < 1 || rule.getM() < rule.getN() || rule.getM() > Long.SIZE) {
+                throw new IllegalStateException("Alert rule " + rule.getName() + " needs 1 <= n <= m <= 64");
+            }
+            this.name = rule.getName();
+            this.metric = rule.getMetric();
+            this.rate = rule.getKind() == AlertRulesProperties.Kind.RATE;
+            this.rising = rule.getAbove() != null;
+            this.threshold = rising ? rule.getAbove() : rule.getBelow();
+            this.clear = rule.getClear() != null ? rule.getClear() : threshold;
+            if (rising ? clear > threshold : clear < threshold) {
+                throw new IllegalStateException("Alert rule " + name + " has its clear level beyond the threshold");
+            }
+            this.n = rule.getN();
+            this.windowMask = rule.getM() == Long.SIZE ? -1L : (1L << rule.getM()) - 1;
+            this.deviceIds = new HashSet<>(rule.getDeviceIds());
+            this.deviceTypes = new HashSet<>(rule.getDeviceTypes());
+            this.severity = rule.getSeverity();
+            this.command = rule.getCommand();
+            this.clearCommand = rule.getClearCommand();
+        }
+
+        boolean appliesTo(Device device) {
+            return (deviceIds.isEmpty() || deviceIds.contains(device.getDeviceId()))
+                    && (deviceTypes.isEmpty() || deviceTypes.contains(device.getType()));
+        }
+
+        double sample(SensorData data) {
+            switch (metric) {
+                case TEMPERATURE:
+                    return data.getTemperature();
+                case HUMIDITY:
+                    return data.getHumidity();
+                case LIGHT:
+                    return data.getLight();
+                default:
+                    return data.getGas();
+            }
+        }
+    }
+
+    private static final class DeviceEvaluator {
+        private final String type;
+        private final CompiledRule[] rules;
+        private final long[] over;
+        private final long[] back;
+        private final boolean[] active;
+        private final double[] lastValue;
+        private final long[] lastTime;
+
+        DeviceEvaluator(Device device, List<CompiledRule> all) {
+            this.type = device.getType();
+            this.rules = all.stream().filter(rule -> rule.appliesTo(device)).toArray(CompiledRule[]::new);
+            this.over = new long[rules.length];
+            this.back = new long[rules.length];
+            this.active = new boolean[rules.length];
+            this.lastValue = new double[rules.length];
+            this.lastTime = new long[rules.length];
+        }
+
+        synchronized int activeCount() {
+            int count = 0;
+            for (boolean firing : active) {
+                count += firing ? 1 : 0;
+            }
+            return count;
+        }
+    }
+}
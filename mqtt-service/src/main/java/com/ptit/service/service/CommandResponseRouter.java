@@ -0,0 +1,111 @@
+package com.ptit.service.service;
+
+import com.ptit.service.entity.Device;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.messaging.SessionDisconnectEvent;
+
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Bảng định tuyến phản hồi lệnh trong tiến trình: deviceId (chuỗi, như trong topic
+ * {@code iot/command-response/{deviceId}}) -> destination WebSocket
+ * {@code /topic/command-response/{id}} của thiết bị. Broker chỉ có một subscription wildcard
+ * {@code iot/command-response/#} do MqttService giữ; yêu cầu đăng ký từ trình duyệt chỉ tăng bộ
+ * đếm quan tâm của thiết bị (theo session), không tạo subscription mới trên broker.
+ */
+@Component
+public class CommandResponseRouter {
+
+    private static final Logger logger = LoggerFactory.getLogger(CommandResponseRouter.class);
+
+    private static final String DESTINATION_PREFIX = "/topic/command-response/";
+
+    private final NotificationService notificationService;
+    private final DeviceService deviceService;
+    private final boolean relay;
+
+    private final Map<String, Route> routes = new ConcurrentHashMap<>();
+    // sessionId -> các deviceId session đó quan tâm, để gỡ khi session đóng
+    private final Map<String, Set<String>> sessions = new ConcurrentHashMap<>();
+
+    public CommandResponseRouter(NotificationService notificationService, DeviceService deviceService,
+                                 @Value("${mqtt.websocket.broker:simple}") String brokerMode,
+                                 MeterRegistry meterRegistry) {
+        this.notificationService = notificationService;
+        this.deviceService = deviceService;
+        // Ở chế độ relay, session quan tâm có thể nằm trên instance khác
+        this.relay = "relay".equalsIgnoreCase(brokerMode);
+        Gauge.builder("command.response.routes", routes, Map::size).register(meterRegistry);
+    }
+
+    /**
+     * Ghi nhận session {@code sessionId} quan tâm phản hồi lệnh của {@code device}. Gọi lại nhiều lần
+     * với cùng session không làm tăng bộ đếm.
+     */
+    public void register(String sessionId, Device device) {
+        String deviceId = device.getDeviceId();
+        Set<String> devices = sessions.computeIfAbsent(sessionId, id -> ConcurrentHashMap.newKeySet());
+        if (!devices.add(deviceId)) {
+            return;
+        }
+        routes.compute(deviceId, (key, route) -> {
+            Route r = route != null ? route : new Route(DESTINATION_PREFIX + device.getId());
+            r.sessions.add(sessionId);
+            return r;
+        });
+    }
+
+    @EventListener
+    public void onDisconnect(SessionDisconnectEvent event) {
+        Set<String> devices = sessions.remove(event.getSessionId());
+        if (devices == null) {
+            return;
+        }
+        for (String deviceId : devices) {
+            routes.computeIfPresent(deviceId, (key, route) -> {
+                route.sessions.remove(event.getSessionId());
+                return route.sessions.isEmpty() ? null : route;
+            });
+        }
+    }
+
+    /**
+     * Chuyển phản hồi của {@code deviceId} tới destination WebSocket của thiết bị nếu có client quan tâm.
+     */
+    public void dispatch(String deviceId, String payload) {
+        Route route = routes.get(deviceId);
+        String destination;
+        if (route != null) {
+            destination = route.destination;
+        } else if (relay) {
+            Device device = deviceService.findByDeviceId(deviceId);
+            if (device == null) {
+                return;
+            }
+            destination = DESTINATION_PREFIX + device.getId();
+        } else {
+            return;
+        }
+        notificationService.sendRealtimeUpdate(destination, payload);
+        logger.debug("Routed command response of {} to {}", deviceId, destination);
+    }
+
+    private static final class Route {
+        private final String destination;
+        // Số phần tử là bộ đếm quan tâm; chỉ sửa bên trong routes.compute(...)
+        private final Set<String> sessions = new HashSet<>();
+
+        Route(String destination) {
+            this.destination = destination;
+        }
+    }
+}
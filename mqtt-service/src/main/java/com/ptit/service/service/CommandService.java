@@ -1,16 +1,259 @@
 package com.ptit.service.service;
 
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.ptit.service.codec.SmallKitJsonCodec;
 import com.ptit.service.entity.Command;
+import com.ptit.service.entity.Device;
+import com.ptit.service.entity.enums.CommandStatus;
+import com.ptit.service.exception.BaseException;
+import com.ptit.service.exception.ErrorCode;
 import com.ptit.service.repository.CommandRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.EnumSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Vòng đời lệnh điều khiển: mỗi lệnh có correlation id (trường {@code "cid"} trong bản tin), được
+ * lưu vào bảng commands, gửi tới {@code iot/command/{deviceId}} và chuyển sang ACKED/FAILED khi có
+ * phản hồi trên {@code iot/command-response/{deviceId}}, hoặc TIMED_OUT nếu quá mqtt.command.timeout-ms.
+ *
+ * <p>Phản hồi không mang cid (firmware cũ) được khớp với lệnh còn chờ cũ nhất của thiết bị. Độ trễ
+ * khứ hồi được ghi vào timer command.roundtrip theo thiết bị và kết quả (p50/p99 + histogram).
+ */
 @Service
 public class CommandService {
+
+    private static final Logger logger = LoggerFactory.getLogger(CommandService.class);
+
+    private static final Set<CommandStatus> OPEN = EnumSet.of(CommandStatus.PENDING, CommandStatus.SENT);
+
     @Autowired
     private CommandRepository commandRepository;
 
+    @Autowired
+    private DeviceService deviceService;
+
+    @Autowired
+    private MqttConnectionSupervisor connectionSupervisor;
+
+    @Autowired
+    private SmallKitJsonCodec smallKitJsonCodec;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${mqtt.command.timeout-ms:10000}")
+    private long timeoutMs;
+
+    // Lệnh còn nằm trong bộ đệm gửi được chờ lâu hơn, tới khi bộ đệm bỏ nó
+    @Value("${mqtt.outbound.max-age-ms:60000}")
+    private long outboundMaxAgeMs;
+
+    @Value("${mqtt.command.qos:2}")
+    private int qos;
+
+    // Lệnh do instance này gửi và chưa kết thúc, theo correlation id
+    private final Map<String, Outstanding> outstanding = new ConcurrentHashMap<>();
+
     public Command saveCommand(Command command) {
-        return commandRepository.save(command);
+        if (command.getDevice() == null || command.getDevice().getId() == null || command.getCommand() == null) {
+            throw new BaseException(ErrorCode.INVALID_REQUEST);
+        }
+        Device device = deviceService.findById(command.getDevice().getId());
+        if (device == null) {
+            throw new BaseException(ErrorCode.DEVICE_NOT_FOUND);
+        }
+        return submit(device, command.getCommand());
+    }
+
+    /**
+     * Lưu và gửi lệnh {@code commandJson} ({@code {"led": 1, ...}}) tới thiết bị.
+     */
+    public Command submit(Device device, String commandJson) {
+        String correlationId = UUID.randomUUID().toString();
+        byte[] payload;
+        try {
+            payload = smallKitJsonCodec.encodeCommand(commandJson, correlationId);
+        } catch (IOException e) {
+            throw new BaseException(ErrorCode.INVALID_REQUEST, e);
+        }
+
+        Command command = new Command();
+        command.setDevice(device);
+        command.setCommand(new String(payload, StandardCharsets.UTF_8));
+        command.setStatus(CommandStatus.PENDING);
+        command.setCorrelationId(correlationId);
+        command.setIssuedAt(LocalDateTime.now());
+        command = commandRepository.save(command);
+
+        Outstanding pending = new Outstanding(device.getDeviceId(), System.nanoTime());
+        outstanding.put(correlationId, pending);
+        switch (connectionSupervisor.publish("iot/command/" + device.getDeviceId(), payload, qos, false)) {
+            case SENT:
+                LocalDateTime sentAt = LocalDateTime.now();
+                commandRepository.markSent(correlationId, CommandStatus.SENT, sentAt);
+                command.setStatus(CommandStatus.SENT);
+                command.setSentAt(sentAt);
+                break;
+            case BUFFERED:
+                pending.buffered = true;
+                logger.info("Command {} for {} buffered until the broker is reachable", correlationId, device.getDeviceId());
+                break;
+            default:
+                outstanding.remove(correlationId);
+                finish(correlationId, device.getDeviceId(), CommandStatus.FAILED, null, "outbound buffer full");
+                command.setStatus(CommandStatus.FAILED);
+        }
+        return command;
+    }
+
+    public Command findByCorrelationId(String correlationId) {
+        return commandRepository.findByCorrelationId(correlationId)
+                .orElseThrow(() -> new BaseException(ErrorCode.COMMAND_NOT_FOUND));
+    }
+
+    /**
+     * Xử lý phản hồi của thiết bị trên iot/command-response/{deviceId}.
+     */
+    public void onResponse(String deviceId, byte[] payload) {
+        String response = new String(payload, StandardCharsets.UTF_8);
+        String correlationId = null;
+        CommandStatus status = CommandStatus.ACKED;
+        try {
+            JsonNode node = objectMapper.readTree(payload);
+            if (node != null && node.isObject()) {
+                correlationId = node.path("cid").asText(null);
+                if (isFailure(node)) {
+                    status = CommandStatus.FAILED;
+                }
+            }
+        } catch (IOException e) {
+            // Phản hồi không phải JSON: coi là ACK không có cid
+            logger.debug("Non-JSON command response from {}: {}", deviceId, response);
+        }
+
+        if (correlationId == null) {
+            Optional<Command> oldest = commandRepository.findFirstByDeviceDeviceIdAndStatusInOrderByIssuedAtAsc(deviceId, OPEN);
+            if (!oldest.isPresent()) {
+                logger.debug("Command response from {} matches no pending command", deviceId);
+                return;
+            }
+            correlationId = oldest.get().getCorrelationId();
+        }
+
+        Outstanding pending = outstanding.remove(correlationId);
+        Long latencyMs = null;
+        if (pending != null) {
+            latencyMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - pending.startNanos);
+        } else {
+            // Lệnh do instance khác gửi (cluster) hoặc trước lần khởi động này
+            Optional<Command> command = commandRepository.findByCorrelationId(correlationId);
+            if (command.isPresent() && command.get().getIssuedAt() != null) {
+                LocalDateTime start = command.get().getSentAt() != null ? command.get().getSentAt() : command.get().getIssuedAt();
+                latencyMs = Duration.between(start, LocalDateTime.now()).toMillis();
+            }
+        }
+        finish(correlationId, deviceId, status, latencyMs, response);
+    }
+
+    @Scheduled(fixedDelayString = "${mqtt.command.sweep-interval-ms:1000}")
+    public void sweepTimeouts() {
+        long now = System.nanoTime();
+        Iterator<Map.Entry<String, Outstanding>> it = outstanding.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<String, Outstanding> entry = it.next();
+            Outstanding pending = entry.getValue();
+            long limitMs = pending.buffered ? Math.max(timeoutMs, outboundMaxAgeMs) : timeoutMs;
+            if (now - pending.startNanos < TimeUnit.MILLISECONDS.toNanos(limitMs)) {
+                continue;
+            }
+            it.remove();
+            try {
+                finish(entry.getKey(), pending.deviceId, CommandStatus.TIMED_OUT, null, null);
+            } catch (Exception e) {
+                logger.error("Cannot mark command {} as timed out", entry.getKey(), e);
+            }
+        }
+    }
+
+    /**
+     * Lệnh còn mở trong DB mà không instance nào theo dõi (instance gửi đã dừng) được đóng ở đây.
+     */
+    @Scheduled(initialDelayString = "${mqtt.command.orphan-sweep-interval-ms:60000}",
+            fixedDelayString = "${mqtt.command.orphan-sweep-interval-ms:60000}")
+    public void sweepOrphans() {
+        LocalDateTime before = LocalDateTime.now().minus(Duration.ofMillis(2 * Math.max(timeoutMs, outboundMaxAgeMs)));
+        for (Command command : commandRepository.findByStatusInAndIssuedAtBefore(OPEN, before)) {
+            if (!outstanding.containsKey(command.getCorrelationId())) {
+                finish(command.getCorrelationId(), command.getDevice().getDeviceId(), CommandStatus.TIMED_OUT, null, null);
+            }
+        }
+    }
+
+    private void finish(String correlationId, String deviceId, CommandStatus status, Long latencyMs, String response) {
+        int updated = commandRepository.complete(correlationId, status, LocalDateTime.now(), latencyMs, response);
+        if (updated == 0) {
+            // Đã kết thúc trước đó (phản hồi muộn sau timeout, hoặc instance khác đã xử lý)
+            logger.debug("Command {} already completed, ignoring {}", correlationId, status);
+            return;
+        }
+        if (status == CommandStatus.TIMED_OUT) {
+            meterRegistry.counter("command.timeouts", "device", deviceId).increment();
+            logger.warn("Command {} for {} timed out", correlationId, deviceId);
+        } else if (latencyMs != null) {
+            roundTripTimer(deviceId, status).record(latencyMs, TimeUnit.MILLISECONDS);
+        }
+        logger.info("Command {} for {} completed: {} ({} ms)", correlationId, deviceId, status, latencyMs);
+    }
+
+    private Timer roundTripTimer(String deviceId, CommandStatus outcome) {
+        return Timer.builder("command.roundtrip")
+                .description("Thời gian từ lúc gửi lệnh tới lúc thiết bị phản hồi")
+                .tags("device", deviceId, "outcome", outcome.name())
+                .publishPercentiles(0.5, 0.99)
+                .publishPercentileHistogram()
+                .minimumExpectedValue(Duration.ofMillis(1))
+                .maximumExpectedValue(Duration.ofMillis(Math.max(timeoutMs, outboundMaxAgeMs)))
+                .register(meterRegistry);
+    }
+
+    private static boolean isFailure(JsonNode node) {
+        String status = node.path("status").asText("");
+        return "error".equalsIgnoreCase(status) || "fail".equalsIgnoreCase(status) || "failed".equalsIgnoreCase(status)
+                || (node.has("ok") && !node.get("ok").asBoolean(true))
+                || (node.has("success") && !node.get("success").asBoolean(true));
+    }
+
+    private static final class Outstanding {
+        private final String deviceId;
+        private final long startNanos;
+        private volatile boolean buffered;
+
+        Outstanding(String deviceId, long startNanos) {
+            this.deviceId = deviceId;
+            this.startNanos = startNanos;
+        }
     }
-}
\ No newline at end of file
+}
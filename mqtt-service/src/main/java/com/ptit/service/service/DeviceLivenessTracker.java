@@ -0,0 +1,361 @@
+package com.ptit.service.service;
+
+import com.ptit.service.entity.Device;
+import com.ptit.service.entity.enums.DeviceStatus;
+import com.ptit.service.repository.DeviceLivenessRepository;
+import com.ptit.service.response.DeviceStatusResponse;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongSupplier;
+
+/**
+ * Theo dõi thiết bị còn gửi dữ liệu hay không. Mỗi bản tin iot/data chỉ ghi lại thời điểm nhận vào bộ
+ * nhớ; thiết bị không gửi gì trong mqtt.liveness.timeout-ms bị chuyển OFFLINE.
+ *
+ * <p>Hết hạn được phát hiện bằng một hashed timer wheel ({@code wheel-size} ô, mỗi ô một tick) do một
+ * luồng duy nhất quay, không phải một tác vụ hẹn giờ cho mỗi thiết bị. Bản tin đến không di chuyển
+ * thiết bị trong wheel: khi tới ô của nó, luồng quay kiểm tra thời điểm nhận cuối và đặt lại vào ô
+ * tương ứng nếu thiết bị vẫn gửi dữ liệu. Mỗi thiết bị vì vậy chỉ được xử lý khoảng một lần mỗi
+ * timeout, bất kể tần suất gửi, và mỗi tick chỉ duyệt đúng một ô.
+ *
+ * <p>Chuyển trạng thái được gửi lên /topic/device-status. last_seen_at/status được ghi xuống iot_devices
+ * theo lô mỗi {@code flush-interval-ms}, chỉ với các thiết bị có thay đổi.
+ *
+ * <p>Ở cluster mode HASH mỗi instance chỉ theo dõi (và ghi trạng thái của) các thiết bị nó sở hữu, kể cả
+ * khi nạp lại thiết bị ONLINE lúc khởi động. Ở SHARED một thiết bị không gửi gì tới instance này vẫn có thể
+ * đang gửi tới instance khác, nên trạng thái trong bộ nhớ không đủ để kết luận OFFLINE: khi đó phải tắt
+ * mqtt.liveness.enabled, nếu không service từ chối khởi động.
+ */
+@Service
+public class DeviceLivenessTracker {
+
+    private static final Logger logger = LoggerFactory.getLogger(DeviceLivenessTracker.class);
+
+    private static final String DESTINATION = "/topic/device-status";
+
+    private final DeviceLivenessRepository livenessRepository;
+    private final NotificationService notificationService;
+    private final MqttClusterMembership clusterMembership;
+    private final LongSupplier clock;
+    private final boolean enabled;
+    private final long timeoutMs;
+    private final long tickMs;
+    private final long flushIntervalMs;
+    private final List<Entry>[] wheel;
+    private final int mask;
+
+    private final Map<Long, Entry> entries = new ConcurrentHashMap<>();
+    // Thiết bị vừa ONLINE chờ luồng quay đưa vào wheel; wheel chỉ do luồng quay sửa
+    private final Queue<Entry> arrivals = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger online = new AtomicInteger();
+    private final long startMillis;
+    private long currentTick;
+    private ScheduledExecutorService ticker;
+
+    @Autowired
+    public DeviceLivenessTracker(DeviceLivenessRepository livenessRepository,
+                                 NotificationService notificationService,
+                                 MqttClusterMembership clusterMembership,
+                                 @Value("${mqtt.liveness.enabled:true}") boolean enabled,
+                                 @Value("${mqtt.liveness.timeout-ms:30000}") long timeoutMs,
+                                 @Value("${mqtt.liveness.tick-ms:1000}") long tickMs,
+                                 @Value("${mqtt.liveness.wheel-size:512}") int wheelSize,
+                                 @Value("${mqtt.liveness.flush-interval-ms:10000}") long flushIntervalMs,
+                                 MeterRegistry meterRegistry) {
+        this(livenessRepository, notificationService, clusterMembership, enabled, timeoutMs, tickMs, wheelSize,
+                flushIntervalMs, meterRegistry, System::currentTimeMillis);
+    }
+
+    /** Cho phép test thay đồng hồ và tự gọi {@link #tick()}. */
+    @SuppressWarnings("unchecked")
+    DeviceLivenessTracker(DeviceLivenessRepository livenessRepository, NotificationService notificationService,
+                          MqttClusterMembership clusterMembership, boolean enabled, long timeoutMs, long tickMs,
+                          int wheelSize, long flushIntervalMs, MeterRegistry meterRegistry, LongSupplier clock) {
+        if (Integer.bitCount(wheelSize) != 1) {
+            throw new IllegalArgumentException("mqtt.liveness.wheel-size must be a power of two: " + wheelSize);
+        }
+        if (enabled && clusterMembership.getMode() == MqttClusterMembership.Mode.SHARED) {
+            // Bản tin của một thiết bị được rải lên nhiều instance: mỗi instance sẽ báo OFFLINE sai
+            throw new IllegalStateException("mqtt.liveness needs mqtt.cluster.mode NONE or HASH, got SHARED; "
+                    + "set mqtt.liveness.enabled=false or switch to HASH");
+        }
+        this.livenessRepository = livenessRepository;
+        this.notificationService = notificationService;
+        this.clusterMembership = clusterMembership;
+        this.enabled = enabled;
+        this.clock = clock;
+        this.startMillis = clock.getAsLong();
+        this.timeoutMs = timeoutMs;
+        this.tickMs = tickMs;
+        this.flushIntervalMs = flushIntervalMs;
+        this.wheel = new List[wheelSize];
+        for (int i = 0; i < wheelSize; i++) {
+            wheel[i] = new ArrayList<>();
+        }
+        this.mask = wheelSize - 1;
+        Gauge.builder("devices.online", online, AtomicInteger::get).register(meterRegistry);
+        Gauge.builder("devices.tracked", entries, Map::size).register(meterRegistry);
+    }
+
+    @PostConstruct
+    public void start() {
+        if (!enabled) {
+            logger.info("Device liveness disabled");
+            return;
+        }
+        resume();
+        ticker = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "device-liveness");
+            thread.setDaemon(true);
+            return thread;
+        });
+        ticker.scheduleAtFixedRate(this::tick, tickMs, tickMs, TimeUnit.MILLISECONDS);
+        ticker.scheduleWithFixedDelay(this::flush, flushIntervalMs, flushIntervalMs, TimeUnit.MILLISECONDS);
+        logger.info("Device liveness: timeoutMs={}, tickMs={}, wheelSize={}, resumed {} online devices",
+                timeoutMs, tickMs, wheel.length, entries.size());
+    }
+
+    /**
+     * Thiết bị ONLINE lúc dừng lần trước được theo dõi tiếp, sẽ OFFLINE nếu không gửi dữ liệu trở lại. Chỉ lấy
+     * thiết bị của instance này: thiết bị của instance khác không bao giờ được heartbeat ở đây.
+     */
+    void resume() {
+        for (DeviceLivenessRepository.Row row : livenessRepository.findOnline()) {
+            if (!clusterMembership.isAssigned(row.getDeviceId())) {
+                continue;
+            }
+            Entry entry = new Entry(row.getId(), row.getDeviceId());
+            entry.lastSeen = toMillis(row.getLastSeenAt());
+            entry.persistedSeen = entry.lastSeen;
+            entry.persistedStatus = DeviceStatus.ONLINE;
+            entry.online = true;
+            entries.put(entry.id, entry);
+            arrivals.add(entry);
+            online.incrementAndGet();
+        }
+    }
+
+    /**
+     * Ghi nhận thiết bị vừa gửi dữ liệu. Khi thiết bị đang ONLINE chỉ là một lần ghi biến volatile.
+     */
+    public void heartbeat(Device device) {
+        if (!enabled) {
+            return;
+        }
+        Entry entry = entries.get(device.getId());
+        if (entry == null) {
+            entry = entries.computeIfAbsent(device.getId(), id -> new Entry(id, device.getDeviceId()));
+        }
+        entry.lastSeen = clock.getAsLong();
+        if (entry.online) {
+            return;
+        }
+        synchronized (entry) {
+            if (entry.online) {
+                return;
+            }
+            entry.online = true;
+            online.incrementAndGet();
+            arrivals.add(entry);
+            publish(entry, DeviceStatus.ONLINE);
+        }
+    }
+
+    /**
+     * Trạng thái các thiết bị đã gửi dữ liệu. Ở cluster mode HASH, thiết bị của instance khác lấy theo
+     * last_seen_at/status đã ghi xuống iot_devices (cũ tới một chu kỳ flush của instance sở hữu); bản ghi
+     * ONLINE mà last_seen_at đã quá timeout cộng một chu kỳ flush (instance sở hữu đã dừng) được coi là OFFLINE.
+     */
+    public List<DeviceStatusResponse> getStatuses() {
+        List<DeviceStatusResponse> statuses = new ArrayList<>(entries.size());
+        for (Entry entry : entries.values()) {
+            statuses.add(toResponse(entry, entry.online ? DeviceStatus.ONLINE : DeviceStatus.OFFLINE));
+        }
+        if (clusterMembership.getMode() == MqttClusterMembership.Mode.HASH) {
+            LocalDateTime staleBefore = toLocalDateTime(clock.getAsLong() - timeoutMs - flushIntervalMs);
+            for (DeviceLivenessRepository.Row row : livenessRepository.findSeen()) {
+                if (!clusterMembership.isAssigned(row.getDeviceId())) {
+                    DeviceStatus status = row.getStatus() == DeviceStatus.ONLINE
+                            && row.getLastSeenAt().isBefore(staleBefore) ? DeviceStatus.OFFLINE : row.getStatus();
+                    statuses.add(new DeviceStatusResponse(row.getId(), row.getDeviceId(), status, row.getLastSeenAt()));
+                }
+            }
+        }
+        return statuses;
+    }
+
+    /**
+     * Trạng thái trong bộ nhớ của thiết bị, hoặc {@code null} nếu chưa nhận bản tin nào kể từ khi khởi động.
+     */
+    public DeviceStatusResponse getStatus(Long id) {
+        Entry entry = entries.get(id);
+        return entry == null ? null : toResponse(entry, entry.online ? DeviceStatus.ONLINE : DeviceStatus.OFFLINE);
+    }
+
+    void tick() {
+        try {
+            Entry arrival;
+            while ((arrival = arrivals.poll()) != null) {
+                schedule(arrival);
+            }
+            long targetTick = (clock.getAsLong() - startMillis) / tickMs;
+            // Bù các tick bị lỡ (GC, máy treo) để không ô nào bị bỏ qua
+            while (currentTick < targetTick) {
+                currentTick++;
+                expire(wheel[(int) (currentTick & mask)]);
+            }
+        } catch (Exception e) {
+            logger.error("Device liveness tick failed", e);
+        }
+    }
+
+    private void expire(List<Entry> bucket) {
+        long now = clock.getAsLong();
+        int kept = 0;
+        for (int i = 0, size = bucket.size(); i < size; i++) {
+            Entry entry = bucket.get(i);
+            if (entry.deadlineTick > currentTick) {
+                // Còn vòng quay khác của wheel mới tới hạn
+                bucket.set(kept++, entry);
+                continue;
+            }
+            if (now - entry.lastSeen >= timeoutMs && markOffline(entry, now)) {
+                // OFFLINE: rời wheel cho tới bản tin tiếp theo
+                continue;
+            }
+            // Thiết bị vẫn gửi dữ liệu: đặt lại vào ô ứng với thời điểm nhận cuối
+            entry.deadlineTick = deadlineTick(entry.lastSeen);
+            if ((entry.deadlineTick & mask) == (currentTick & mask)) {
+                bucket.set(kept++, entry);
+            } else {
+                wheel[(int) (entry.deadlineTick & mask)].add(entry);
+            }
+        }
+        for (int i = bucket.size() - 1; i >= kept; i--) {
+            bucket.remove(i);
+        }
+    }
+
+    /**
+     * @return {@code false} nếu thiết bị vừa gửi dữ liệu trong lúc đang chuyển OFFLINE (vẫn ONLINE)
+     */
+    private boolean markOffline(Entry entry, long now) {
+        synchronized (entry) {
+            entry.online = false;
+            // heartbeat ghi lastSeen rồi mới đọc online: đọc lại sau khi ghi online = false để không bỏ sót
+            // bản tin đến đúng lúc này (heartbeat khi đó đã thấy online = true nên không tự xử lý)
+            if (clock.getAsLong() - entry.lastSeen < timeoutMs) {
+                entry.online = true;
+                return false;
+            }
+            online.decrementAndGet();
+            publish(entry, DeviceStatus.OFFLINE);
+            logger.info("Device {} went offline, last seen {} ms ago", entry.deviceId, now - entry.lastSeen);
+            return true;
+        }
+    }
+
+    private void schedule(Entry entry) {
+        entry.deadlineTick = deadlineTick(entry.lastSeen);
+        wheel[(int) (entry.deadlineTick & mask)].add(entry);
+    }
+
+    private long deadlineTick(long lastSeen) {
+        // Tick đầu tiên mà tại đó thiết bị đã quá timeout, luôn sau tick hiện tại
+        return Math.max((lastSeen + timeoutMs - startMillis + tickMs - 1) / tickMs, currentTick + 1);
+    }
+
+    void flush() {
+        try {
+            List<DeviceLivenessRepository.Row> rows = new ArrayList<>();
+            List<Entry> changed = new ArrayList<>();
+            for (Entry entry : entries.values()) {
+                long seen = entry.lastSeen;
+                DeviceStatus status = entry.online ? DeviceStatus.ONLINE : DeviceStatus.OFFLINE;
+                if (seen != entry.persistedSeen || status != entry.persistedStatus) {
+                    rows.add(new DeviceLivenessRepository.Row(entry.id, entry.deviceId, toLocalDateTime(seen), status));
+                    changed.add(entry);
+                }
+            }
+            if (rows.isEmpty()) {
+                return;
+            }
+            livenessRepository.batchUpdate(rows);
+            for (int i = 0; i < rows.size(); i++) {
+                changed.get(i).persistedSeen = toMillis(rows.get(i).getLastSeenAt());
+                changed.get(i).persistedStatus = rows.get(i).getStatus();
+            }
+            logger.debug("Persisted liveness of {} devices", rows.size());
+        } catch (Exception e) {
+            logger.error("Cannot persist device liveness", e);
+        }
+    }
+
+    private void publish(Entry entry, DeviceStatus status) {
+        try {
+            notificationService.sendRealtimeUpdate(DESTINATION, toResponse(entry, status));
+        } catch (Exception e) {
+            logger.error("Cannot publish status of {}", entry.deviceId, e);
+        }
+    }
+
+    private static DeviceStatusResponse toResponse(Entry entry, DeviceStatus status) {
+        return new DeviceStatusResponse(entry.id, entry.deviceId, status, toLocalDateTime(entry.lastSeen));
+    }
+
+    private static LocalDateTime toLocalDateTime(long millis) {
+        return LocalDateTime.ofInstant(Instant.ofEpochMilli(millis), ZoneId.systemDefault());
+    }
+
+    private static long toMillis(LocalDateTime time) {
+        return time.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (ticker != null) {
+            ticker.shutdownNow();
+        }
+        if (enabled) {
+            // Ghi lần cuối để last_seen_at không cũ hơn một chu kỳ flush
+            flush();
+        }
+    }
+
+    private static final class Entry {
+        private final long id;
+        private final String deviceId;
+        private volatile long lastSeen;
+        private volatile boolean online;
+        // Chỉ luồng quay đọc/ghi
+        private long deadlineTick;
+        private long persistedSeen;
+        private DeviceStatus persistedStatus;
+
+        Entry(long id, String deviceId) {
+            this.id = id;
+            this.deviceId = deviceId;
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package com.ptit.service.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Chuyển việc xử lý bản tin MQTT từ luồng callback của Paho sang các worker, giữ thứ tự theo từng
+ * thiết bị. Mỗi thiết bị có một hàng đợi riêng (lane), tại mỗi thời điểm chỉ một worker chạy lane đó;
+ * các lane khác nhau chạy song song nên thiết bị xử lý chậm không chặn thiết bị khác.
+ *
+ * <p>Worker là virtual thread nếu JVM hỗ trợ (Java 21+), ngược lại là pool cố định
+ * mqtt.dispatch.workers luồng. Tổng số bản tin đang chờ bị giới hạn: khi đầy, luồng callback chờ
+ * (đẩy áp lực ngược về broker); lane của một thiết bị vượt giới hạn riêng thì bản tin mới bị bỏ.
+ */
+@Component
+public class DeviceMessageDispatcher {
+
+    private static final Logger logger = LoggerFactory.getLogger(DeviceMessageDispatcher.class);
+
+    // Số bản tin một lane xử lý liên tiếp trước khi nhường worker cho lane khác
+    private static final int LANE_BATCH = 64;
+
+    private final ExecutorService workers;
+    private final ConcurrentHashMap<String, Lane> lanes = new ConcurrentHashMap<>();
+    private final Semaphore pendingPermits;
+    private final int maxPending;
+    private final int maxPendingPerDevice;
+    private final Counter rejectedCounter;
+    private final Counter throttledCounter;
+
+    public DeviceMessageDispatcher(@Value("${mqtt.dispatch.virtual-threads:true}") boolean virtualThreads,
+                                   @Value("${mqtt.dispatch.workers:8}") int workerCount,
+                                   @Value("${mqtt.dispatch.max-pending:20000}") int maxPending,
+                                   @Value("${mqtt.dispatch.max-pending-per-device:1000}") int maxPendingPerDevice,
+                                   MeterRegistry meterRegistry) {
+        ExecutorService virtual = virtualThreads ? newVirtualThreadExecutor() : null;
+        if (virtual != null) {
+            this.workers = virtual;
+        } else {
+            AtomicInteger threadIndex = new AtomicInteger();
+            this.workers = Executors.newFixedThreadPool(Math.max(1, workerCount), r -> {
+                Thread thread = new Thread(r, "mqtt-dispatch-" + threadIndex.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        this.maxPending = maxPending;
+        this.maxPendingPerDevice = maxPendingPerDevice;
+        this.pendingPermits = new Semaphore(maxPending);
+        this.rejectedCounter = meterRegistry.counter("mqtt.dispatch.rejected");
+        this.throttledCounter = meterRegistry.counter("mqtt.dispatch.throttled");
+        meterRegistry.gauge("mqtt.dispatch.pending", pendingPermits, p -> maxPending - p.availablePermits());
+        meterRegistry.gauge("mqtt.dispatch.lanes", lanes, ConcurrentHashMap::size);
+        logger.info("MQTT dispatch: {} workers, maxPending={}, maxPendingPerDevice={}",
+                virtual != null ? "virtual-thread" : Math.max(1, workerCount), maxPending, maxPendingPerDevice);
+    }
+
+    /**
+     * Xếp {@code task} vào lane của {@code deviceKey}; các task cùng khoá chạy tuần tự theo thứ tự gửi.
+     *
+     * @return false nếu lane của thiết bị đã đầy và task bị bỏ
+     */
+    public boolean dispatch(String deviceKey, Runnable task) {
+        if (!pendingPermits.tryAcquire()) {
+            throttledCounter.increment();
+            try {
+                pendingPermits.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                rejectedCounter.increment();
+                return false;
+            }
+        }
+        boolean[] schedule = new boolean[1];
+        boolean[] accepted = new boolean[1];
+        // Thêm task và quyết định lịch chạy trong cùng compute để không lệch với lúc lane được gỡ bỏ
+        Lane lane = lanes.compute(deviceKey, (key, current) -> {
+            Lane l = current != null ? current : new Lane(key);
+            if (l.size.get() >= maxPendingPerDevice) {
+                return l;
+            }
+            l.tasks.add(task);
+            l.size.incrementAndGet();
+            accepted[0] = true;
+            if (!l.scheduled) {
+                l.scheduled = true;
+                schedule[0] = true;
+            }
+            return l;
+        });
+        if (!accepted[0]) {
+            pendingPermits.release();
+            rejectedCounter.increment();
+            return false;
+        }
+        if (schedule[0]) {
+            submit(lane);
+        }
+        return true;
+    }
+
+    private void submit(Lane lane) {
+        try {
+            workers.execute(lane);
+        } catch (RejectedExecutionException e) {
+            // Đang tắt ứng dụng
+            logger.warn("Dispatcher stopped, dropping {} pending messages of {}", lane.size, lane.key);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        workers.shutdown();
+        try {
+            if (!workers.awaitTermination(5, TimeUnit.SECONDS)) {
+                logger.warn("MQTT dispatch workers did not finish within 5s, {} messages pending",
+                        maxPending - pendingPermits.availablePermits());
+                workers.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            workers.shutdownNow();
+        }
+    }
+
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            // Gọi qua reflection vì mã nguồn vẫn biên dịch cho Java 17
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    private final class Lane implements Runnable {
+        private final String key;
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger size = new AtomicInteger();
+        // Chỉ đọc/ghi bên trong lanes.compute(...) cho khoá này
+        private boolean scheduled;
+
+        Lane(String key) {
+            this.key = key;
+        }
+
+        @Override
+        public void run() {
+            for (int i = 0; i < LANE_BATCH; i++) {
+                Runnable task = tasks.poll();
+                if (task == null) {
+                    break;
+                }
+                size.decrementAndGet();
+                try {
+                    task.run();
+                } catch (Exception e) {
+                    logger.error("Error handling MQTT message for {}", key, e);
+                } finally {
+                    pendingPermits.release();
+                }
+            }
+            boolean[] resubmit = new boolean[1];
+            lanes.compute(key, (k, current) -> {
+                if (tasks.isEmpty()) {
+                    scheduled = false;
+                    return null;
+                }
+                resubmit[0] = true;
+                return current;
+            });
+            if (resubmit[0]) {
+                submit(this);
+            }
+        }
+    }
+}
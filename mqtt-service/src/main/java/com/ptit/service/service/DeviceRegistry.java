@@ -0,0 +1,106 @@
+package com.ptit.service.service;
+
+import com.ptit.service.entity.Device;
+import com.ptit.service.repository.DeviceRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * Cache thiết bị trong bộ nhớ theo {@code deviceId} (chuỗi, ví dụ "node_01") để luồng nhận dữ liệu
+ * không phải truy vấn bảng iot_devices cho mỗi bản tin.
+ */
+@Service
+public class DeviceRegistry {
+
+    private static final Logger logger = LoggerFactory.getLogger(DeviceRegistry.class);
+
+    private final DeviceRepository deviceRepository;
+    private final Map<String, Device> devices = new ConcurrentHashMap<>();
+    private final Counter hitCounter;
+    private final Counter missCounter;
+
+    public DeviceRegistry(DeviceRepository deviceRepository, MeterRegistry meterRegistry) {
+        this.deviceRepository = deviceRepository;
+        this.hitCounter = meterRegistry.counter("device.registry.lookups", "result", "hit");
+        this.missCounter = meterRegistry.counter("device.registry.lookups", "result", "miss");
+        Gauge.builder("device.registry.size", devices, Map::size).register(meterRegistry);
+    }
+
+    @PostConstruct
+    public void warmUp() {
+        // Nếu bảng còn bản ghi trùng device_id thì giữ bản ghi có id nhỏ nhất
+        for (Device device : deviceRepository.findAll()) {
+            devices.merge(device.getDeviceId(), device,
+                    (current, other) -> current.getId() <= other.getId() ? current : other);
+        }
+        logger.info("Device registry warmed with {} devices", devices.size());
+    }
+
+    public Device get(String deviceId) {
+        Device device = devices.get(deviceId);
+        if (device != null) {
+            hitCounter.increment();
+            return device;
+        }
+        missCounter.increment();
+        device = deviceRepository.findByDeviceId(deviceId);
+        if (device != null) {
+            devices.putIfAbsent(deviceId, device);
+        }
+        return device;
+    }
+
+    /**
+     * Trả về thiết bị đã có hoặc đăng ký mới bằng {@code factory}. Việc kiểm tra và insert được
+     * thực hiện trong {@link ConcurrentHashMap#computeIfAbsent}, nên hai bản tin đầu tiên của cùng
+     * một node đến đồng thời chỉ tạo ra một bản ghi iot_devices.
+     */
+    public Device getOrRegister(String deviceId, Function<String, Device> factory) {
+        Device device = devices.get(deviceId);
+        if (device != null) {
+            hitCounter.increment();
+            return device;
+        }
+        missCounter.increment();
+        return devices.computeIfAbsent(deviceId, id -> {
+            Device existing = deviceRepository.findByDeviceId(id);
+            if (existing != null) {
+                return existing;
+            }
+            Device created = deviceRepository.save(factory.apply(id));
+            logger.info("Registered new device {} with id {}", id, created.getId());
+            return created;
+        });
+    }
+
+    /**
+     * Cập nhật cache sau khi thiết bị được ghi từ bên ngoài luồng nhận dữ liệu (API quản lý thiết bị).
+     * Khoá cũ bị xoá nếu {@code deviceId} của thiết bị đã thay đổi.
+     */
+    public void refresh(Device device) {
+        devices.values().removeIf(cached -> Objects.equals(cached.getId(), device.getId()));
+        if (device.getDeviceId() != null) {
+            devices.put(device.getDeviceId(), device);
+        }
+    }
+
+    public Collection<Device> all() {
+        return List.copyOf(devices.values());
+    }
+
+    public int size() {
+        return devices.size();
+    }
+}
@@ -1,6 +1,7 @@
 package com.ptit.service.service;
 
 import com.ptit.service.response.DeviceResponse;
+import com.ptit.service.response.DeviceStatusResponse;
 import com.ptit.service.response.ResponsePage;
 import com.ptit.service.entity.Device;
 import com.ptit.service.repository.DeviceRepository;
@@ -9,27 +10,48 @@ import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.stereotype.Service;
 
+import java.util.function.Function;
+
 @Service
 public class DeviceService {
     @Autowired
     private DeviceRepository deviceRepository;
+    @Autowired
+    private DeviceRegistry deviceRegistry;
+    @Autowired
+    private DeviceLivenessTracker livenessTracker;
 
     public ResponsePage<Device, DeviceResponse> getAllDevices(Pageable pageable) {
-        Page<Device> devices = deviceRepository.findAll(pageable);
-
-        return new ResponsePage<>(devices, DeviceResponse.class);
+        // Chỉ lấy các cột của DeviceResponse, không nạp entity rồi ánh xạ bằng reflection
+        Page<DeviceResponse> devices = deviceRepository.findAllResponses(pageable);
+        // Giá trị trong DB có thể cũ tới một chu kỳ ghi, ưu tiên trạng thái trong bộ nhớ
+        devices.forEach(device -> {
+            DeviceStatusResponse live = livenessTracker.getStatus(device.getId());
+            if (live != null) {
+                device.setStatus(live.getStatus());
+                device.setLastSeenAt(live.getLastSeenAt());
+            }
+        });
+
+        return new ResponsePage<Device, DeviceResponse>(devices);
     }
 
     public Device saveDevice(Device device) {
-        return deviceRepository.save(device);
+        Device saved = deviceRepository.save(device);
+        deviceRegistry.refresh(saved);
+        return saved;
     }
 
     public Device save(Device device) {
-        return deviceRepository.save(device);
+        return saveDevice(device);
     }
 
     public Device findByDeviceId(String deviceId) {
-        return deviceRepository.findByDeviceId(deviceId);
+        return deviceRegistry.get(deviceId);
+    }
+
+    public Device findOrRegister(String deviceId, Function<String, Device> factory) {
+        return deviceRegistry.getOrRegister(deviceId, factory);
     }
 
     public Device findById(Long deviceId) {
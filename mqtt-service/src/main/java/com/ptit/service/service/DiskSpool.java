@@ -0,0 +1,144 @@
+package com.ptit.service.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Append-only spool file dùng để tạm lưu bản ghi ra đĩa khi hàng đợi trong bộ nhớ bị đầy
+ * hoặc khi đích ghi (DB, broker) tạm thời không khả dụng.
+ */
+public class DiskSpool<T> {
+
+    private static final Logger logger = LoggerFactory.getLogger(DiskSpool.class);
+
+    public interface Codec<T> {
+        void write(T item, DataOutput out) throws IOException;
+
+        T read(DataInput in) throws IOException;
+    }
+
+    private final Path activeFile;
+    private final Path replayFile;
+    private final Codec<T> codec;
+    private DataOutputStream out;
+    private long pending;
+
+    public DiskSpool(Path directory, String name, Codec<T> codec) {
+        this.codec = codec;
+        this.activeFile = directory.resolve(name + ".spool");
+        this.replayFile = directory.resolve(name + ".replay");
+        try {
+            Files.createDirectories(directory);
+            pending = countRecords(replayFile) + countRecords(activeFile);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot open spool directory " + directory, e);
+        }
+        if (pending > 0) {
+            logger.warn("Spool {} contains {} records from a previous run", activeFile, pending);
+        }
+    }
+
+    public synchronized void append(T item) throws IOException {
+        if (out == null) {
+            out = new DataOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(activeFile.toFile(), true)));
+        }
+        codec.write(item, out);
+        out.flush();
+        pending++;
+    }
+
+    public synchronized long size() {
+        return pending;
+    }
+
+    /**
+     * Đọc lại toàn bộ bản ghi đã spool theo từng lô và chuyển cho {@code sink}.
+     * File replay chỉ bị xoá khi tất cả các lô đã được xử lý thành công, nên {@code sink}
+     * phải idempotent.
+     */
+    public int drain(int batchSize, Consumer<List<T>> sink) throws IOException {
+        synchronized (this) {
+            if (pending == 0) {
+                return 0;
+            }
+            if (!Files.exists(replayFile)) {
+                closeWriter();
+                if (!Files.exists(activeFile)) {
+                    pending = 0;
+                    return 0;
+                }
+                Files.move(activeFile, replayFile, StandardCopyOption.ATOMIC_MOVE);
+            }
+        }
+
+        int drained = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(replayFile.toFile())))) {
+            List<T> batch = new ArrayList<>(batchSize);
+            try {
+                while (in.available() > 0) {
+                    batch.add(codec.read(in));
+                    if (batch.size() == batchSize) {
+                        sink.accept(batch);
+                        drained += batch.size();
+                        batch = new ArrayList<>(batchSize);
+                    }
+                }
+            } catch (EOFException e) {
+                // Bản ghi cuối bị cắt (tiến trình dừng giữa lúc append): bỏ nó, các bản ghi đủ coi như đã xử lý
+                logger.warn("Spool file {} is truncated, dropping the incomplete last record", replayFile);
+            }
+            if (!batch.isEmpty()) {
+                sink.accept(batch);
+                drained += batch.size();
+            }
+        }
+
+        synchronized (this) {
+            Files.deleteIfExists(replayFile);
+            pending = Math.max(0, pending - drained);
+        }
+        return drained;
+    }
+
+    public synchronized void close() {
+        closeWriter();
+    }
+
+    private void closeWriter() {
+        if (out != null) {
+            try {
+                out.close();
+            } catch (IOException e) {
+                logger.warn("Error closing spool file {}", activeFile, e);
+            }
+            out = null;
+        }
+    }
+
+    private long countRecords(Path file) throws IOException {
+        if (!Files.exists(file)) {
+            return 0;
+        }
+        long count = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(file.toFile())))) {
+            while (in.available() > 0) {
+                codec.read(in);
+                count++;
+            }
+        } catch (EOFException e) {
+            logger.warn("Spool file {} is truncated, keeping {} complete records", file, count);
+        }
+        return count;
+    }
+}
@@ -0,0 +1,38 @@
+package com.ptit.service.service;
+
+import com.ptit.service.entity.SensorData;
+import org.springframework.stereotype.Service;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Lưu bản ghi cảm biến mới nhất của từng thiết bị (theo id DB) để trả lời truy vấn "giá trị hiện tại"
+ * mà không phải sắp xếp lịch sử sensor_data.
+ */
+@Service
+public class LatestReadingStore {
+
+    private final Map<Long, SensorData> latest = new ConcurrentHashMap<>();
+
+    public void update(SensorData sensorData) {
+        if (sensorData == null || sensorData.getDevice() == null) {
+            return;
+        }
+        // Bản tin đến muộn (cũ hơn giá trị đang giữ) không được ghi đè
+        latest.merge(sensorData.getDevice().getId(), sensorData,
+                (current, incoming) -> incoming.getCreatedAt().isBefore(current.getCreatedAt()) ? current : incoming);
+    }
+
+    public SensorData get(Long deviceId) {
+        return latest.get(deviceId);
+    }
+
+    public boolean contains(Long deviceId) {
+        return latest.containsKey(deviceId);
+    }
+
+    public Map<Long, SensorData> snapshot() {
+        return Map.copyOf(latest);
+    }
+}
@@ -0,0 +1,68 @@
+package com.ptit.service.service;
+
+import org.eclipse.paho.client.mqttv3.MqttClient;
+import org.eclipse.paho.client.mqttv3.MqttConnectOptions;
+import org.eclipse.paho.client.mqttv3.MqttException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Các kết nối MQTT của service: nhóm kết nối nhận (subscribe) và nhóm kết nối gửi (publish) tách
+ * riêng, để lệnh QoS 2 gửi đi không tranh luồng callback với bản tin dữ liệu đến.
+ *
+ * <p>Lệnh tới cùng một topic luôn đi qua cùng một kết nối gửi nên giữ được thứ tự. Việc kết nối,
+ * kết nối lại và gửi có bộ đệm do {@link MqttConnectionSupervisor} đảm nhận.
+ */
+public class MqttClientPool {
+
+    private static final Logger logger = LoggerFactory.getLogger(MqttClientPool.class);
+
+    private final List<MqttClient> subscribers;
+    private final List<MqttClient> publishers;
+    private final MqttConnectOptions connectOptions;
+
+    public MqttClientPool(List<MqttClient> subscribers, List<MqttClient> publishers,
+                          MqttConnectOptions connectOptions) {
+        if (subscribers.isEmpty() || publishers.isEmpty()) {
+            throw new IllegalArgumentException("MQTT pool needs at least one subscriber and one publisher connection");
+        }
+        this.subscribers = Collections.unmodifiableList(new ArrayList<>(subscribers));
+        this.publishers = Collections.unmodifiableList(new ArrayList<>(publishers));
+        this.connectOptions = connectOptions;
+    }
+
+    public List<MqttClient> getSubscribers() {
+        return subscribers;
+    }
+
+    public List<MqttClient> getPublishers() {
+        return publishers;
+    }
+
+    public MqttConnectOptions getConnectOptions() {
+        return connectOptions;
+    }
+
+    public MqttClient publisher(String topic) {
+        return publishers.get(Math.floorMod(topic.hashCode(), publishers.size()));
+    }
+
+    public void close() {
+        List<MqttClient> all = new ArrayList<>(subscribers);
+        all.addAll(publishers);
+        for (MqttClient client : all) {
+            try {
+                if (client.isConnected()) {
+                    client.disconnect();
+                }
+                client.close();
+            } catch (MqttException e) {
+                logger.warn("Error closing MQTT client {}", client.getClientId(), e);
+            }
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package com.ptit.service.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
+
+import java.util.UUID;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Chia luồng dữ liệu MQTT giữa nhiều instance mqtt-service (mqtt.cluster.mode):
+ * <ul>
+ *     <li>NONE: một instance, subscribe thẳng các topic như trước.</li>
+ *     <li>SHARED: subscribe {@code $share/<group>/<topic>}, broker giao mỗi bản tin cho đúng một
+ *     instance trong nhóm (broker cần hỗ trợ shared subscription, vd. EMQX, Mosquitto 2, HiveMQ).</li>
+ *     <li>HASH: mọi instance nhận toàn bộ bản tin nhưng chỉ xử lý thiết bị có
+ *     {@code hash(deviceId) mod instance-count == instance-index}; dùng khi broker không hỗ trợ
+ *     shared subscription.</li>
+ * </ul>
+ * Ở chế độ cluster, client id MQTT được thêm hậu tố theo instance để các instance không đá nhau.
+ */
+@Component
+public class MqttClusterMembership {
+
+    private static final Logger logger = LoggerFactory.getLogger(MqttClusterMembership.class);
+
+    // Số thứ tự ở cuối hostname, vd. mqtt-service-2 trong StatefulSet
+    private static final Pattern ORDINAL = Pattern.compile(".*-(\\d+)$");
+
+    public enum Mode {
+        NONE,
+        SHARED,
+        HASH
+    }
+
+    private final Mode mode;
+    private final String group;
+    private final String instanceId;
+    private final int instanceIndex;
+    private final int instanceCount;
+    private final Counter notOwnedCounter;
+
+    public MqttClusterMembership(@Value("${mqtt.cluster.mode:NONE}") Mode mode,
+                                 @Value("${mqtt.cluster.group:mqtt-service}") String group,
+                                 @Value("${mqtt.cluster.instance-id:${HOSTNAME:}}") String instanceId,
+                                 @Value("${mqtt.cluster.instance-index:-1}") int instanceIndex,
+                                 @Value("${mqtt.cluster.instance-count:1}") int instanceCount,
+                                 @Value("${mqtt.websocket.broker:simple}") String websocketBroker,
+                                 MeterRegistry meterRegistry) {
+        this.mode = mode;
+        this.group = group;
+        this.instanceId = StringUtils.hasText(instanceId) ? instanceId : UUID.randomUUID().toString().substring(0, 8);
+        this.instanceCount = Math.max(1, instanceCount);
+        this.instanceIndex = instanceIndex >= 0 ? instanceIndex : ordinalOf(this.instanceId);
+        this.notOwnedCounter = meterRegistry.counter("mqtt.cluster.not_owned");
+        if (mode == Mode.HASH && (this.instanceIndex < 0 || this.instanceIndex >= this.instanceCount)) {
+            throw new IllegalStateException("mqtt.cluster.instance-index must be in [0, " + this.instanceCount
+                    + ") in HASH mode, got " + this.instanceIndex);
+        }
+        logger.info("MQTT cluster mode {}: group={}, instance={}, index={}/{}",
+                mode, group, this.instanceId, this.instanceIndex, this.instanceCount);
+        if (mode != Mode.NONE && !"relay".equalsIgnoreCase(websocketBroker)) {
+            // Mỗi bản tin chỉ được một instance xử lý, client WebSocket ở instance khác sẽ không nhận được
+            logger.warn("MQTT cluster mode {} without mqtt.websocket.broker=relay: "
+                    + "dashboards only see devices handled by the instance they are connected to", mode);
+        }
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    public String getInstanceId() {
+        return instanceId;
+    }
+
+    /** Client id MQTT của instance này; giữ nguyên {@code baseId} khi không chạy cluster. */
+    public String clientId(String baseId) {
+        return mode == Mode.NONE ? baseId : baseId + "-" + instanceId;
+    }
+
+    /** Topic filter thực sự dùng để subscribe cho {@code topic}. */
+    public String subscriptionFilter(String topic) {
+        return mode == Mode.SHARED ? "$share/" + group + "/" + topic : topic;
+    }
+
+    /**
+     * Kết nối nhận (trong {@code connections} kết nối của instance) chịu trách nhiệm thiết bị. Mọi kết nối
+     * nhận cùng subscribe toàn bộ topic và chỉ xử lý thiết bị của mình, nên bản tin của một thiết bị luôn
+     * đi qua cùng một luồng callback và giữ được thứ tự. Hash được trộn lại để không trùng với cách chia
+     * của chế độ HASH (nếu không, với cùng số lượng, mọi thiết bị của instance rơi vào một kết nối).
+     */
+    public static int connectionOf(String deviceId, int connections) {
+        int h = deviceId.hashCode() * 0x9E3779B9;
+        return Math.floorMod(h ^ (h >>> 16), connections);
+    }
+
+    /** Instance này có chịu trách nhiệm xử lý bản tin của {@code deviceId} không. */
+    public boolean owns(String deviceId) {
+        if (isAssigned(deviceId)) {
+            return true;
+        }
+        notOwnedCounter.increment();
+        return false;
+    }
+
+    /**
+     * Như {@link #owns(String)} nhưng không đếm vào mqtt.cluster.not_owned, dùng khi lọc dữ liệu nạp từ DB
+     * thay vì bản tin nhận được.
+     */
+    public boolean isAssigned(String deviceId) {
+        return mode != Mode.HASH || Math.floorMod(deviceId.hashCode(), instanceCount) == instanceIndex;
+    }
+
+    private static int ordinalOf(String instanceId) {
+        Matcher matcher = ORDINAL.matcher(instanceId);
+        return matcher.matches() ? Integer.parseInt(matcher.group(1)) : -1;
+    }
+}
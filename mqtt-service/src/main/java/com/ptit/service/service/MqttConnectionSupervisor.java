@@ -0,0 +1,418 @@
+package com.ptit.service.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.eclipse.paho.client.mqttv3.IMqttDeliveryToken;
+import org.eclipse.paho.client.mqttv3.IMqttMessageListener;
+import org.eclipse.paho.client.mqttv3.MqttCallback;
+import org.eclipse.paho.client.mqttv3.MqttClient;
+import org.eclipse.paho.client.mqttv3.MqttException;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntFunction;
+
+/**
+ * Giữ các kết nối của {@link MqttClientPool} luôn sống. Kết nối (lần đầu và khi bị mất) được thực
+ * hiện bất đồng bộ trên luồng "mqtt-supervisor" với backoff luỹ thừa có jitter, nên broker không có
+ * mặt lúc khởi động không chặn ứng dụng. Sau mỗi lần kết nối lại, các topic đã đăng ký qua
+ * {@link #subscribe} được subscribe lại (phiên là cleanSession).
+ *
+ * <p>Bản tin gửi đi khi kết nối gửi đang mất được giữ trong bộ đệm có giới hạn (bộ nhớ hoặc đĩa) và
+ * gửi lại theo thứ tự khi kết nối phục hồi; bản tin quá mqtt.outbound.max-age-ms bị bỏ vì lệnh điều
+ * khiển đã cũ không còn ý nghĩa.
+ */
+@Service
+public class MqttConnectionSupervisor {
+
+    private static final Logger logger = LoggerFactory.getLogger(MqttConnectionSupervisor.class);
+
+    public enum PublishResult {
+        /** Đã gửi tới broker. */
+        SENT,
+        /** Đang chờ trong bộ đệm, sẽ gửi khi kết nối phục hồi. */
+        BUFFERED,
+        /** Bị bỏ vì bộ đệm đầy. */
+        DROPPED
+    }
+
+    public enum BufferMode {
+        /** Bộ đệm trong bộ nhớ, đầy thì bỏ bản tin cũ nhất. */
+        MEMORY,
+        /** Ghi bộ đệm ra đĩa (giữ qua lần khởi động lại), đầy thì bỏ bản tin mới. */
+        DISK
+    }
+
+    private final MqttClientPool mqttClientPool;
+    private final MeterRegistry meterRegistry;
+
+    @Value("${mqtt.reconnect.initial-delay-ms:1000}")
+    private long initialDelayMs;
+
+    @Value("${mqtt.reconnect.max-delay-ms:60000}")
+    private long maxDelayMs;
+
+    @Value("${mqtt.outbound.buffer:MEMORY}")
+    private BufferMode bufferMode;
+
+    @Value("${mqtt.outbound.buffer-capacity:1000}")
+    private int bufferCapacity;
+
+    @Value("${mqtt.outbound.max-age-ms:60000}")
+    private long maxAgeMs;
+
+    @Value("${mqtt.outbound.spill-dir:${java.io.tmpdir}/mqtt-service/outbound}")
+    private String spillDir;
+
+    private final Map<MqttClient, ClientState> clients = new LinkedHashMap<>();
+    private final Map<String, Integer> subscriptions = new ConcurrentHashMap<>();
+
+    private final Object outboundLock = new Object();
+    private final BlockingDeque<OutboundMessage> memoryBuffer = new LinkedBlockingDeque<>();
+    private DiskSpool<OutboundMessage> diskBuffer;
+
+    private ScheduledExecutorService executor;
+    private volatile boolean running;
+
+    private Counter bufferedCounter;
+    private Counter flushedCounter;
+    private Counter droppedOverflowCounter;
+    private Counter droppedExpiredCounter;
+
+    public MqttConnectionSupervisor(MqttClientPool mqttClientPool, MeterRegistry meterRegistry) {
+        this.mqttClientPool = mqttClientPool;
+        this.meterRegistry = meterRegistry;
+    }
+
+    @PostConstruct
+    public void start() {
+        if (bufferMode == BufferMode.DISK) {
+            diskBuffer = new DiskSpool<>(Paths.get(spillDir), "mqtt-outbound", new OutboundMessageCodec());
+        }
+        bufferedCounter = meterRegistry.counter("mqtt.outbound.buffered");
+        flushedCounter = meterRegistry.counter("mqtt.outbound.flushed");
+        droppedOverflowCounter = meterRegistry.counter("mqtt.outbound.dropped", "reason", "overflow");
+        droppedExpiredCounter = meterRegistry.counter("mqtt.outbound.dropped", "reason", "expired");
+        Gauge.builder("mqtt.outbound.buffer.size", this, MqttConnectionSupervisor::bufferedSize).register(meterRegistry);
+
+        executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "mqtt-supervisor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        running = true;
+        List<MqttClient> subscribers = mqttClientPool.getSubscribers();
+        for (int i = 0; i < subscribers.size(); i++) {
+            register(subscribers.get(i), i);
+        }
+        for (MqttClient client : mqttClientPool.getPublishers()) {
+            register(client, -1);
+        }
+        // Gửi lại phần còn trong bộ đệm khi lần gửi trước thất bại mà kết nối không bị mất
+        executor.scheduleWithFixedDelay(this::flushBuffer, 1, 1, TimeUnit.SECONDS);
+        logger.info("MQTT supervisor started: {} connections, backoff {}-{}ms, outbound buffer {} x{}",
+                clients.size(), initialDelayMs, maxDelayMs, bufferMode, bufferCapacity);
+    }
+
+    /**
+     * @param subscriberIndex số thứ tự trong nhóm kết nối nhận, -1 với kết nối gửi
+     */
+    private void register(MqttClient client, int subscriberIndex) {
+        ClientState state = new ClientState(client, subscriberIndex);
+        clients.put(client, state);
+        client.setCallback(new MqttCallback() {
+            @Override
+            public void connectionLost(Throwable cause) {
+                logger.warn("MQTT connection {} lost: {}", client.getClientId(), cause == null ? null : cause.toString());
+                state.lostCounter.increment();
+                scheduleConnect(state, 0);
+            }
+
+            @Override
+            public void messageArrived(String topic, MqttMessage message) throws Exception {
+                IMqttMessageListener listener = state.listener;
+                if (listener != null) {
+                    listener.messageArrived(topic, message);
+                }
+            }
+
+            @Override
+            public void deliveryComplete(IMqttDeliveryToken token) {
+            }
+        });
+        Gauge.builder("mqtt.connection.connected", client, c -> c.isConnected() ? 1 : 0)
+                .tag("client", client.getClientId())
+                .register(meterRegistry);
+        scheduleConnect(state, 0);
+    }
+
+    /**
+     * Subscribe {@code filters} trên mọi kết nối nhận, ngay nếu đang kết nối và lại sau mỗi lần kết
+     * nối lại. Bản tin đến trên kết nối nhận thứ i được chuyển cho {@code listeners.apply(i)}, để bên
+     * nhận chia được thiết bị theo kết nối.
+     */
+    public void subscribe(String[] filters, int[] qos, IntFunction<IMqttMessageListener> listeners) {
+        for (int i = 0; i < filters.length; i++) {
+            subscriptions.put(filters[i], qos[i]);
+        }
+        for (ClientState state : clients.values()) {
+            if (!state.publisher) {
+                state.listener = listeners.apply(state.subscriberIndex);
+                executor.execute(() -> resubscribe(state));
+            }
+        }
+    }
+
+    /**
+     * Gửi bản tin qua kết nối gửi của {@code topic}. Khi kết nối đang mất (hoặc còn bản tin cũ trong
+     * bộ đệm, để giữ thứ tự) bản tin được đưa vào bộ đệm.
+     *
+     */
+    public PublishResult publish(String topic, byte[] payload, int qos, boolean retained) {
+        MqttClient publisher = mqttClientPool.publisher(topic);
+        if (publisher.isConnected() && bufferedSize() == 0) {
+            try {
+                publisher.publish(topic, payload, qos, retained);
+                return PublishResult.SENT;
+            } catch (MqttException e) {
+                logger.warn("Publishing to {} failed, buffering: {}", topic, e.getMessage());
+            }
+        }
+        synchronized (outboundLock) {
+            return buffer(new OutboundMessage(topic, payload, qos, retained, System.currentTimeMillis()))
+                    ? PublishResult.BUFFERED : PublishResult.DROPPED;
+        }
+    }
+
+    private boolean buffer(OutboundMessage message) {
+        if (diskBuffer != null) {
+            if (diskBuffer.size() >= bufferCapacity) {
+                droppedOverflowCounter.increment();
+                logger.warn("Outbound MQTT buffer full, dropped message to {}", message.topic);
+                return false;
+            }
+            try {
+                diskBuffer.append(message);
+            } catch (IOException e) {
+                droppedOverflowCounter.increment();
+                logger.error("Cannot buffer outbound MQTT message to {}", message.topic, e);
+                return false;
+            }
+        } else {
+            if (memoryBuffer.size() >= bufferCapacity) {
+                OutboundMessage oldest = memoryBuffer.pollFirst();
+                droppedOverflowCounter.increment();
+                logger.warn("Outbound MQTT buffer full, dropped oldest message to {}", oldest.topic);
+            }
+            memoryBuffer.addLast(message);
+        }
+        bufferedCounter.increment();
+        return true;
+    }
+
+    private long bufferedSize() {
+        return diskBuffer != null ? diskBuffer.size() : memoryBuffer.size();
+    }
+
+    private void scheduleConnect(ClientState state, long delayMs) {
+        if (!running) {
+            return;
+        }
+        try {
+            executor.schedule(() -> connect(state), delayMs, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // Đang tắt ứng dụng
+        }
+    }
+
+    private void connect(ClientState state) {
+        MqttClient client = state.client;
+        if (!running || client.isConnected()) {
+            return;
+        }
+        try {
+            client.connect(mqttClientPool.getConnectOptions());
+        } catch (MqttException e) {
+            long delay = state.nextDelay();
+            state.failedCounter.increment();
+            logger.warn("MQTT connection {} to {} failed ({}), retrying in {}ms",
+                    client.getClientId(), client.getServerURI(), e.getMessage(), delay);
+            scheduleConnect(state, delay);
+            return;
+        }
+        if (state.connectedBefore) {
+            state.reconnectCounter.increment();
+            logger.info("MQTT connection {} re-established after {} attempts", client.getClientId(), state.attempts + 1);
+        } else {
+            logger.info("MQTT client {} connected successfully to broker at: {}", client.getClientId(), client.getServerURI());
+        }
+        state.connectedBefore = true;
+        state.attempts = 0;
+        if (state.publisher) {
+            flushBuffer();
+        } else {
+            resubscribe(state);
+        }
+    }
+
+    private void resubscribe(ClientState state) {
+        MqttClient client = state.client;
+        if (!client.isConnected() || subscriptions.isEmpty()) {
+            return;
+        }
+        String[] filters = subscriptions.keySet().toArray(new String[0]);
+        int[] qos = new int[filters.length];
+        for (int i = 0; i < filters.length; i++) {
+            qos[i] = subscriptions.get(filters[i]);
+        }
+        try {
+            client.subscribe(filters, qos);
+            logger.info("MQTT client {} subscribed to topics: {}", client.getClientId(), String.join(", ", filters));
+        } catch (MqttException e) {
+            // Thường do kết nối vừa mất, connectionLost sẽ lên lịch kết nối và subscribe lại
+            logger.warn("Subscribing on {} failed: {}", client.getClientId(), e.getMessage());
+        }
+    }
+
+    private void flushBuffer() {
+        synchronized (outboundLock) {
+            if (bufferedSize() == 0) {
+                return;
+            }
+            long expiredBefore = System.currentTimeMillis() - maxAgeMs;
+            int sent = 0;
+            try {
+                if (diskBuffer != null) {
+                    // Lô chưa gửi hết thì cả file được đọc lại ở lần sau nên có thể gửi trùng
+                    sent = diskBuffer.drain(100, batch -> {
+                        for (OutboundMessage message : batch) {
+                            send(message, expiredBefore);
+                        }
+                    });
+                } else {
+                    while (!memoryBuffer.isEmpty()) {
+                        send(memoryBuffer.peekFirst(), expiredBefore);
+                        memoryBuffer.pollFirst();
+                        sent++;
+                    }
+                }
+            } catch (Exception e) {
+                logger.warn("Flushing outbound MQTT buffer stopped, {} messages left: {}", bufferedSize(), e.getMessage());
+            }
+            if (sent > 0) {
+                logger.info("Flushed {} buffered outbound MQTT messages", sent);
+            }
+        }
+    }
+
+    private void send(OutboundMessage message, long expiredBefore) {
+        if (message.createdAt < expiredBefore) {
+            droppedExpiredCounter.increment();
+            return;
+        }
+        try {
+            mqttClientPool.publisher(message.topic).publish(message.topic, message.payload, message.qos, message.retained);
+            flushedCounter.increment();
+        } catch (MqttException e) {
+            throw new IllegalStateException("Cannot publish buffered message to " + message.topic, e);
+        }
+    }
+
+    @PreDestroy
+    public void stop() {
+        running = false;
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+        if (diskBuffer != null) {
+            diskBuffer.close();
+        } else if (!memoryBuffer.isEmpty()) {
+            logger.warn("MQTT supervisor stopped with {} outbound messages still buffered", memoryBuffer.size());
+        }
+    }
+
+    private final class ClientState {
+        private final MqttClient client;
+        private final boolean publisher;
+        private final int subscriberIndex;
+        private volatile IMqttMessageListener listener;
+        private final Counter reconnectCounter;
+        private final Counter failedCounter;
+        private final Counter lostCounter;
+        private int attempts;
+        private boolean connectedBefore;
+
+        ClientState(MqttClient client, int subscriberIndex) {
+            this.client = client;
+            this.publisher = subscriberIndex < 0;
+            this.subscriberIndex = subscriberIndex;
+            this.reconnectCounter = meterRegistry.counter("mqtt.connection.reconnects", "client", client.getClientId());
+            this.failedCounter = meterRegistry.counter("mqtt.connection.failed_attempts", "client", client.getClientId());
+            this.lostCounter = meterRegistry.counter("mqtt.connection.lost", "client", client.getClientId());
+        }
+
+        // Backoff luỹ thừa với "equal jitter": nửa cố định, nửa ngẫu nhiên để các instance không kết nối lại cùng lúc
+        long nextDelay() {
+            long ceiling = Math.min(maxDelayMs, initialDelayMs << Math.min(attempts, 20));
+            attempts++;
+            return ceiling / 2 + ThreadLocalRandom.current().nextLong(ceiling / 2 + 1);
+        }
+    }
+
+    private static final class OutboundMessage {
+        private final String topic;
+        private final byte[] payload;
+        private final int qos;
+        private final boolean retained;
+        private final long createdAt;
+
+        OutboundMessage(String topic, byte[] payload, int qos, boolean retained, long createdAt) {
+            this.topic = topic;
+            this.payload = payload;
+            this.qos = qos;
+            this.retained = retained;
+            this.createdAt = createdAt;
+        }
+    }
+
+    private static class OutboundMessageCodec implements DiskSpool.Codec<OutboundMessage> {
+        @Override
+        public void write(OutboundMessage message, DataOutput out) throws IOException {
+            out.writeUTF(message.topic);
+            out.writeInt(message.payload.length);
+            out.write(message.payload);
+            out.writeByte(message.qos);
+            out.writeBoolean(message.retained);
+            out.writeLong(message.createdAt);
+        }
+
+        @Override
+        public OutboundMessage read(DataInput in) throws IOException {
+            String topic = in.readUTF();
+            byte[] payload = new byte[in.readInt()];
+            in.readFully(payload);
+            return new OutboundMessage(topic, payload, in.readByte(), in.readBoolean(), in.readLong());
+        }
+    }
+}
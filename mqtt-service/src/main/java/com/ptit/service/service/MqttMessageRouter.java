@@ -0,0 +1,37 @@
+package com.ptit.service.service;
+
+import org.eclipse.paho.client.mqttv3.IMqttMessageListener;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+import org.eclipse.paho.client.mqttv3.MqttTopic;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Listener chung cho mọi kết nối nhận, chuyển bản tin tới handler theo topic filter gốc (không có tiền tố
+ * {@code $share/<group>/}). Listener gắn theo từng subscription của Paho so khớp topic với filter đã
+ * subscribe nên không nhận được bản tin của shared subscription; router này thay thế cho chúng.
+ */
+public class MqttMessageRouter implements IMqttMessageListener {
+
+    private static final Logger logger = LoggerFactory.getLogger(MqttMessageRouter.class);
+
+    private final Map<String, IMqttMessageListener> routes = new ConcurrentHashMap<>();
+
+    public void route(String topicFilter, IMqttMessageListener listener) {
+        routes.put(topicFilter, listener);
+    }
+
+    @Override
+    public void messageArrived(String topic, MqttMessage message) throws Exception {
+        for (Map.Entry<String, IMqttMessageListener> route : routes.entrySet()) {
+            if (MqttTopic.isMatched(route.getKey(), topic)) {
+                route.getValue().messageArrived(topic, message);
+                return;
+            }
+        }
+        logger.debug("No route for MQTT topic {}", topic);
+    }
+}
@@ -1,16 +1,27 @@
 package com.ptit.service.service;
 
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.ptit.service.codec.SmallKitBinaryCodec;
+import com.ptit.service.codec.SmallKitFrame;
+import com.ptit.service.codec.SmallKitJsonCodec;
+import com.ptit.service.config.MetricsConfig;
 import com.ptit.service.entity.Device;
 import com.ptit.service.entity.SensorData;
+import com.ptit.service.entity.enums.PayloadEncoding;
+import com.ptit.service.response.SensorReadingResponse;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import org.eclipse.paho.client.mqttv3.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import javax.annotation.PostConstruct;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 
 @Service
 public class MqttService extends BaseService {
@@ -18,7 +29,9 @@ public class MqttService extends BaseService {
     private static final Logger logger = LoggerFactory.getLogger(MqttService.class);
 
     @Autowired
-    private MqttClient mqttClient;
+    private MqttClientPool mqttClientPool;
+    @Autowired
+    private MqttConnectionSupervisor connectionSupervisor;
 
     @Autowired
     private DeviceService deviceService;
@@ -27,126 +40,229 @@ public class MqttService extends BaseService {
     private SensorDataService sensorDataService;
     @Autowired
     private NotificationService notificationService;
+    @Autowired
+    private SensorStreamService sensorStreamService;
+    @Autowired
+    private AlertRuleEngine alertRuleEngine;
+    @Autowired
+    private DeviceLivenessTracker livenessTracker;
+    @Autowired
+    private SmallKitJsonCodec smallKitJsonCodec;
+    @Autowired
+    private SmallKitBinaryCodec smallKitBinaryCodec;
+    @Autowired
+    private MqttClusterMembership clusterMembership;
+    @Autowired
+    private DeviceMessageDispatcher dispatcher;
+    @Autowired
+    private CommandService commandService;
+    @Autowired
+    private CommandResponseRouter commandResponseRouter;
+    @Autowired
+    private MeterRegistry meterRegistry;
 
-    @PostConstruct
-    public void init() {
-        try {
-            logger.info("Initializing MQTT Service...");
+    @Value("${mqtt.ingest.binary-topic:iot/data/bin}")
+    private String binaryTopic;
 
-            // Đảm bảo client đã kết nối
-            if (!mqttClient.isConnected()) {
-                logger.warn("MQTT client not connected, attempting to connect...");
-                mqttClient.connect();
-            }
+    // Thời gian của từng chặng, để tìm chặng nghẽn khi tải cao; thời gian ghi DB là sensor.ingest.flush
+    private Timer jsonDecodeTimer;
+    private Timer binaryDecodeTimer;
+    private Timer dispatchWaitTimer;
+    private Timer deviceLookupTimer;
+    private Counter jsonReceivedCounter;
+    private Counter binaryReceivedCounter;
+    private final Map<Long, Counter> deviceCounters = new ConcurrentHashMap<>();
 
-            mqttClient.subscribe("iot/data", this::handleDeviceDataMessage);
-            logger.info("Subscribed to topic: iot/data");
+    @PostConstruct
+    public void init() {
+        logger.info("Initializing MQTT Service...");
+        jsonDecodeTimer = meterRegistry.timer("mqtt.decode", "encoding", "json");
+        binaryDecodeTimer = meterRegistry.timer("mqtt.decode", "encoding", "binary");
+        dispatchWaitTimer = meterRegistry.timer("mqtt.dispatch.wait");
+        deviceLookupTimer = meterRegistry.timer("device.lookup");
+        jsonReceivedCounter = meterRegistry.counter("mqtt.messages.received", "encoding", "json");
+        binaryReceivedCounter = meterRegistry.counter("mqtt.messages.received", "encoding", "binary");
 
+        int connections = mqttClientPool.getSubscribers().size();
+        if (connections > 1 && clusterMembership.getMode() == MqttClusterMembership.Mode.SHARED) {
+            // Mỗi kết nối là một thành viên riêng của nhóm $share, broker rải bản tin của một thiết bị lên
+            // nhiều kết nối nên không chia được theo thiết bị mà không mất bản tin
+            throw new IllegalStateException("mqtt.pool.subscriber-connections must be 1 in mqtt.cluster.mode=SHARED, got "
+                    + connections);
+        }
+        String[] filters = {
+                clusterMembership.subscriptionFilter("iot/data"),
+                clusterMembership.subscriptionFilter(binaryTopic),
+                clusterMembership.subscriptionFilter("iot/command-response/#")
+        };
+        // Mỗi kết nối nhận có router riêng định tuyến theo topic gốc (dùng được cả shared subscription) và
+        // chỉ xử lý thiết bị của kết nối đó. Supervisor subscribe ngay khi có kết nối và sau mỗi lần kết nối lại
+        connectionSupervisor.subscribe(filters, new int[]{1, 1, 1}, connection -> {
+            MqttMessageRouter router = new MqttMessageRouter();
+            router.route("iot/data", (topic, message) -> handleDeviceDataMessage(connection, connections, message));
+            router.route(binaryTopic, (topic, message) -> handleBinaryDataMessage(connection, connections, message));
             // Subscribe nhận phản hồi lệnh
-            mqttClient.subscribe("iot/command-response/#", this::handleCommandResponse);
-            logger.info("Subscribed to topic: iot/command-response/#");
-
-        } catch (MqttException e) {
-            logger.error("Error subscribing to MQTT topic", e);
-            // Thử kết nối lại sau 5 giây
-            try {
-                Thread.sleep(5000);
-                init();
-            } catch (InterruptedException ie) {
-                Thread.currentThread().interrupt();
-                logger.error("Interrupted while retrying MQTT connection", ie);
+            router.route("iot/command-response/#",
+                    (topic, message) -> handleCommandResponse(connection, connections, topic, message));
+            return router;
+        });
+        logger.info("Registered MQTT subscriptions on {} connections: {}", connections, String.join(", ", filters));
+    }
+
+    // Các handler chạy trên luồng callback của Paho: chỉ giải mã rồi chuyển sang lane của thiết bị,
+    // phần còn lại (tra thiết bị, xếp hàng ghi DB, gửi WebSocket) chạy trên worker của dispatcher
+    private void handleDeviceDataMessage(int connection, int connections, MqttMessage message) {
+        try {
+            long received = System.nanoTime();
+            byte[] raw = message.getPayload();
+            if (connections > 1
+                    && MqttClusterMembership.connectionOf(smallKitJsonCodec.readDeviceId(raw), connections) != connection) {
+                return;
             }
+            jsonReceivedCounter.increment();
+            // Frame được chuyển sang worker nên mỗi bản tin cần một frame riêng
+            SmallKitFrame frame = smallKitJsonCodec.decode(raw, new SmallKitFrame());
+            jsonDecodeTimer.record(System.nanoTime() - received, TimeUnit.NANOSECONDS);
+            dispatch(frame, raw, PayloadEncoding.JSON, received);
+        } catch (Exception e) {
+            logger.error("Error while processing message", e);
         }
     }
 
-    private void handleDeviceDataMessage(String topic, MqttMessage message) {
+    private void handleBinaryDataMessage(int connection, int connections, MqttMessage message) {
         try {
-            String payload = new String(message.getPayload());
-            logger.debug("Payload: {}", payload);
+            long received = System.nanoTime();
+            byte[] raw = message.getPayload();
+            if (connections > 1
+                    && MqttClusterMembership.connectionOf(smallKitBinaryCodec.readDeviceId(raw), connections) != connection) {
+                return;
+            }
+            binaryReceivedCounter.increment();
+            SmallKitFrame frame = smallKitBinaryCodec.decode(raw, new SmallKitFrame());
+            binaryDecodeTimer.record(System.nanoTime() - received, TimeUnit.NANOSECONDS);
+            dispatch(frame, raw, PayloadEncoding.BINARY, received);
+        } catch (Exception e) {
+            logger.error("Error while processing binary message", e);
+        }
+    }
 
-            ObjectMapper mapper = new ObjectMapper();
-            JsonNode jsonNode = mapper.readTree(payload);
+    private void dispatch(SmallKitFrame frame, byte[] raw, PayloadEncoding encoding, long received) {
+        if (!dispatcher.dispatch(frame.getDeviceId(), () -> {
+            dispatchWaitTimer.record(System.nanoTime() - received, TimeUnit.NANOSECONDS);
+            ingest(frame, raw, encoding);
+        })) {
+            logger.warn("Dispatch lane full, dropped reading from {}", frame.getDeviceId());
+        }
+    }
 
-            String deviceId = jsonNode.path("id").asText("N/A");
+    // Phần chung của bản tin JSON và nhị phân sau khi đã giải mã
+    private void ingest(SmallKitFrame frame, byte[] raw, PayloadEncoding encoding) {
+        String deviceId = frame.getDeviceId();
 
-            // Chỉ xử lý deviceId bắt đầu bằng "node_"
-            if (!deviceId.startsWith("node_")) {
-                logger.debug("Bỏ qua thiết bị không hợp lệ: {}", deviceId);
-                return;
+        // Chỉ xử lý deviceId bắt đầu bằng "node_"
+        if (!deviceId.startsWith("node_")) {
+            logger.debug("Bỏ qua thiết bị không hợp lệ: {}", deviceId);
+            return;
+        }
+
+        // Chế độ HASH: thiết bị thuộc instance khác. Instance nào cũng nhận bản tin nên vẫn cập nhật giá trị mới
+        // nhất và luồng SSE của instance này (không ghi DB), với thiết bị đã được instance sở hữu đăng ký
+        if (!clusterMembership.owns(deviceId)) {
+            Device device = deviceService.findByDeviceId(deviceId);
+            if (device != null) {
+                SensorData sensorData = toSensorData(device, frame, raw, encoding);
+                sensorDataService.observe(sensorData);
+                if (sensorStreamService.hasStreams()) {
+                    sensorStreamService.publish(device.getId(), SensorReadingResponse.from(sensorData));
+                }
             }
+            return;
+        }
 
-            String deviceName = jsonNode.path("name").asText("N/A");
-            String deviceWifi = jsonNode.path("w").asText("N/A");
-            String deviceIp = jsonNode.path("i").asText("N/A");
-            String deviceBroker = jsonNode.path("b").asText("N/A");
-            String deviceTopic = jsonNode.path("t").asText("N/A");
+        long lookupStart = System.nanoTime();
+        Device device = deviceService.findOrRegister(deviceId, id -> {
+            Device newDevice = new Device();
+            newDevice.setDeviceId(id);
+            newDevice.setName(frame.getName());
+            newDevice.setType("node");
+            newDevice.setLocation("IoT Lab");
+            newDevice.setWifi(frame.getWifi());
+            newDevice.setIp(frame.getIp());
+            return newDevice;
+        });
+        deviceLookupTimer.record(System.nanoTime() - lookupStart, TimeUnit.NANOSECONDS);
+        deviceCounters.computeIfAbsent(device.getId(),
+                id -> meterRegistry.counter(MetricsConfig.DEVICE_MESSAGES, "device", deviceId)).increment();
 
-            Device device = deviceService.findByDeviceId(deviceId);
+        // Thiết bị còn sống kể cả khi bản ghi bị bỏ vì hàng đợi ghi đầy
+        livenessTracker.heartbeat(device);
 
-            if (device == null) {
-                device = new Device();
-                device.setDeviceId(deviceId);
-                device.setName(deviceName);
-                device.setType("node");
-                device.setLocation("IoT Lab");
-                device.setWifi(deviceWifi);
-                device.setIp(deviceIp);
-                device = deviceService.save(device);
-            }
+        SensorData sensorData = toSensorData(device, frame, raw, encoding);
 
-            JsonNode sensorsNode = jsonNode.path("ss");
-            float temperature = sensorsNode.path("temp").floatValue();
-            float humidity = sensorsNode.path("hum").floatValue();
-            float light = sensorsNode.path("lgt").floatValue();
-            float gas = sensorsNode.path("gas").floatValue();
-
-            SensorData sensorData = new SensorData();
-            sensorData.setDevice(device);
-            sensorData.setTemperature(temperature);
-            sensorData.setHumidity(humidity);
-            sensorData.setLight(light);
-            sensorData.setGas(gas);
-
-            JsonNode statusNode = jsonNode.path("stt");
-            int led = statusNode.path("led").intValue();
-            int fan = statusNode.path("fan").intValue();
-            int alertLed = statusNode.path("alt").intValue();
-            int buzzer = statusNode.path("bzr").intValue();
-            int servo = statusNode.path("sv").intValue();
-
-            sensorData.setLed(led);
-            sensorData.setFan(fan);
-            sensorData.setAlertLed(alertLed);
-            sensorData.setBuzzer(buzzer);
-            sensorData.setServo(servo);
-
-            sensorData.setBroker(deviceBroker);
-            sensorData.setTopic(deviceTopic);
-            sensorData.setPayload(payload);
-
-            sensorDataService.save(sensorData);
-
-            notificationService.sendRealtimeUpdate("/topic/sensorData/" + device.getId(), sensorData);
-            logger.debug("Sending data to /topic/sensorData/{}: {}", device.getId(), sensorData);
-            System.out.printf("Published : %s\n", sensorData);
-        } catch (Exception e) {
-            logger.error("Error while processing message", e);
+        // Ghi DB được thực hiện theo lô bởi các worker của SensorDataIngestService
+        if (!sensorDataService.accept(sensorData)) {
+            logger.warn("Ingest queue full, dropped reading from {}", deviceId);
+            return;
         }
+
+        alertRuleEngine.evaluate(device, sensorData);
+
+        // Gom theo cửa sổ mqtt.fanout.window-ms, client chỉ nhận bản ghi mới nhất của mỗi cửa sổ
+        SensorReadingResponse reading = SensorReadingResponse.from(sensorData);
+        notificationService.publishLatest("/topic/sensorData/" + device.getId(), reading);
+        sensorStreamService.publish(device.getId(), reading);
+        logger.debug("Sending data to /topic/sensorData/{}: {}", device.getId(), sensorData);
+    }
+
+    private static SensorData toSensorData(Device device, SmallKitFrame frame, byte[] raw, PayloadEncoding encoding) {
+        SensorData sensorData = new SensorData();
+        sensorData.setDevice(device);
+        sensorData.setTemperature(frame.getTemperature());
+        sensorData.setHumidity(frame.getHumidity());
+        sensorData.setLight(frame.getLight());
+        sensorData.setGas(frame.getGas());
+
+        sensorData.setLed(frame.getLed());
+        sensorData.setFan(frame.getFan());
+        sensorData.setAlertLed(frame.getAlertLed());
+        sensorData.setBuzzer(frame.getBuzzer());
+        sensorData.setServo(frame.getServo());
+
+        sensorData.setBroker(frame.getBroker());
+        sensorData.setTopic(frame.getTopic());
+        // Giữ nguyên mảng byte của bản tin; việc nén (nếu có) do worker ghi DB thực hiện
+        sensorData.setPayloadRaw(raw);
+        sensorData.setPayloadEncoding(encoding);
+        return sensorData;
     }
 
     // Xử lý phản hồi từ thiết bị
-    private void handleCommandResponse(String topic, MqttMessage message) {
+    private void handleCommandResponse(int connection, int connections, String topic, MqttMessage message) {
+        // Lấy deviceId từ topic (iot/command-response/{deviceId})
+        String[] topicParts = topic.split("/");
+        if (topicParts.length < 3) {
+            return;
+        }
+        String deviceId = topicParts[2];
+        if (connections > 1 && MqttClusterMembership.connectionOf(deviceId, connections) != connection) {
+            return;
+        }
+        dispatcher.dispatch(deviceId, () -> handleCommandResponse(deviceId, message.getPayload()));
+    }
+
+    private void handleCommandResponse(String deviceId, byte[] payload) {
         try {
-            String responsePayload = new String(message.getPayload());
+            String responsePayload = new String(payload);
             logger.info("Received command response: {}", responsePayload);
 
-            // Lấy deviceId từ topic (iot/command-response/{deviceId})
-            String[] topicParts = topic.split("/");
-            if (topicParts.length >= 3) {
-                String deviceId = topicParts[2];
+            if (clusterMembership.owns(deviceId)) {
+                // Khớp với lệnh đang chờ (trạng thái, độ trễ khứ hồi)
+                commandService.onResponse(deviceId, payload);
 
                 // Gửi dữ liệu phản hồi qua WebSocket
                 notificationService.sendRealtimeUpdate("/topic/command-response/" + deviceId, responsePayload);
+                // và tới destination theo id của thiết bị cho các client đã đăng ký qua /app/subscribe/command-response
+                commandResponseRouter.dispatch(deviceId, responsePayload);
                 logger.info("Sent command response to WebSocket for device: {}", deviceId);
             }
         } catch (Exception e) {
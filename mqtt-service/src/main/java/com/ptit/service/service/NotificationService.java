@@ -1,16 +1,180 @@
 package com.ptit.service.service;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
 import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.messaging.support.MessageBuilder;
 import org.springframework.stereotype.Service;
+import org.springframework.util.MimeTypeUtils;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Gửi dữ liệu thời gian thực tới client WebSocket.
+ *
+ * <p>{@link #sendRealtimeUpdate} gửi ngay (dùng cho phản hồi lệnh). {@link #publishLatest} gom các
+ * cập nhật theo destination trong một cửa sổ thời gian, chỉ giữ giá trị mới nhất; mỗi lần flush
+ * payload được chuyển sang JSON một lần rồi broker gửi cùng message đó cho mọi subscriber.
+ * Destination không có subscriber thì bỏ qua, không chuyển đổi.
+ *
+ * <p>Metric gắn tag {@code destination} theo họ destination (hai đoạn đầu, vd. {@code /topic/sensorData}
+ * cho {@code /topic/sensorData/42}): vẫn thấy tốc độ gửi theo từng loại topic mà số series không tăng
+ * theo số thiết bị.
+ */
 @Service
 public class NotificationService {
 
+    private static final Logger logger = LoggerFactory.getLogger(NotificationService.class);
+
     @Autowired
     private SimpMessagingTemplate messagingTemplate;
 
+    @Autowired
+    private SubscriptionRegistry subscriptionRegistry;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    // Cửa sổ gom cập nhật; 0 = gửi ngay từng cập nhật
+    @Value("${mqtt.fanout.window-ms:500}")
+    private long windowMs;
+
+    @Value("${mqtt.fanout.skip-unsubscribed:true}")
+    private boolean skipUnsubscribed;
+
+    @Value("${mqtt.websocket.broker:simple}")
+    private String brokerMode;
+
+    private final Map<String, Object> pending = new ConcurrentHashMap<>();
+    private ScheduledExecutorService flusher;
+    // Meter theo họ destination; số họ cố định theo code nên map không lớn dần
+    private final Map<String, FamilyMeters> familyMeters = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    public void start() {
+        if (skipUnsubscribed && "relay".equalsIgnoreCase(brokerMode)) {
+            // Subscriber có thể nằm trên instance khác, registry chỉ thấy các session của instance này
+            skipUnsubscribed = false;
+        }
+        if (windowMs > 0) {
+            flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "websocket-fanout");
+                thread.setDaemon(true);
+                return thread;
+            });
+            flusher.scheduleWithFixedDelay(this::flush, windowMs, windowMs, TimeUnit.MILLISECONDS);
+        }
+        logger.info("WebSocket fan-out: windowMs={}, skipUnsubscribed={}", windowMs, skipUnsubscribed);
+    }
+
     public void sendRealtimeUpdate(String topic, Object payload) {
-        messagingTemplate.convertAndSend(topic, payload);
+        meters(topic).immediateSend.record(() -> messagingTemplate.convertAndSend(topic, payload));
+    }
+
+    /**
+     * Đặt giá trị mới nhất cho {@code destination}; giá trị chưa gửi trước đó (nếu có) bị thay thế.
+     */
+    public void publishLatest(String destination, Object payload) {
+        FamilyMeters family = meters(destination);
+        family.offered.increment();
+        if (windowMs <= 0) {
+            send(destination, payload);
+            return;
+        }
+        if (pending.put(destination, payload) != null) {
+            family.coalesced.increment();
+        }
+    }
+
+    private void flush() {
+        for (String destination : pending.keySet()) {
+            Object payload = pending.remove(destination);
+            if (payload != null) {
+                try {
+                    send(destination, payload);
+                } catch (Exception e) {
+                    logger.error("Error sending realtime update to {}", destination, e);
+                }
+            }
+        }
+    }
+
+    private void send(String destination, Object payload) {
+        FamilyMeters family = meters(destination);
+        if (skipUnsubscribed && !subscriptionRegistry.hasSubscribers(destination)) {
+            family.skipped.increment();
+            return;
+        }
+        long start = System.nanoTime();
+        byte[] body;
+        try {
+            body = objectMapper.writeValueAsBytes(payload);
+        } catch (Exception e) {
+            logger.error("Cannot serialize realtime update for {}", destination, e);
+            return;
+        }
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+        accessor.setContentType(MimeTypeUtils.APPLICATION_JSON);
+        accessor.setLeaveMutable(true);
+        messagingTemplate.send(destination, MessageBuilder.createMessage(body, accessor.getMessageHeaders()));
+        family.fanoutSend.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        family.sent.increment();
+    }
+
+    private FamilyMeters meters(String destination) {
+        return familyMeters.computeIfAbsent(family(destination), FamilyMeters::new);
+    }
+
+    // Hai đoạn đầu của destination: /topic/sensorData/42 -> /topic/sensorData, /topic/alerts -> /topic/alerts
+    static String family(String destination) {
+        int second = destination.indexOf('/', 1);
+        if (second < 0) {
+            return destination;
+        }
+        int third = destination.indexOf('/', second + 1);
+        return third < 0 ? destination : destination.substring(0, third);
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (flusher != null) {
+            flusher.shutdownNow();
+        }
+    }
+
+    // Thời gian chuyển JSON + đưa vào broker STOMP theo chế độ gửi, và các counter fan-out của một họ destination
+    private final class FamilyMeters {
+        private final Timer immediateSend;
+        private final Timer fanoutSend;
+        private final Counter offered;
+        private final Counter coalesced;
+        private final Counter skipped;
+        private final Counter sent;
+
+        FamilyMeters(String family) {
+            immediateSend = meterRegistry.timer("websocket.send", "mode", "immediate", "destination", family);
+            fanoutSend = meterRegistry.timer("websocket.send", "mode", "fanout", "destination", family);
+            offered = meterRegistry.counter("websocket.fanout.offered", "destination", family);
+            coalesced = meterRegistry.counter("websocket.fanout.coalesced", "destination", family);
+            skipped = meterRegistry.counter("websocket.fanout.skipped", "destination", family);
+            sent = meterRegistry.counter("websocket.fanout.sent", "destination", family);
+        }
     }
 }
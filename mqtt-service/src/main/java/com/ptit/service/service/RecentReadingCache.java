@@ -0,0 +1,388 @@
+package com.ptit.service.service;
+
+import com.ptit.service.codec.SensorChunk;
+import com.ptit.service.entity.Device;
+import com.ptit.service.entity.SensorData;
+import com.ptit.service.repository.SensorDataColdRepository;
+import com.ptit.service.repository.SensorDataJdbcRepository;
+import com.ptit.service.response.SensorReadingResponse;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+/**
+ * Bộ đệm các bản ghi gần nhất của từng thiết bị để trả lời lịch sử gần đây (trang đầu của
+ * /app/device/history, sparkline) mà không truy vấn DB.
+ *
+ * <p>Mỗi thiết bị có một vòng đệm cố định {@code readings-per-device} dòng, lưu theo cột bằng mảng
+ * nguyên thuỷ nên GC không phải duyệt từng bản ghi; tổng bộ nhớ bị chặn bởi số dòng nhân
+ * {@code max-devices}. Vòng đệm được nạp từ DB khi khởi động (và khi cần, cho thiết bị chưa nạp), sau đó
+ * nhận từng bản ghi từ luồng ghi. Nó luôn chứa đủ mọi bản ghi từ dòng cũ nhất đang giữ trở về sau, nên
+ * truy vấn nào không với tới dòng cũ hơn thì trả lời được hoàn toàn từ bộ nhớ; ngược lại trả về
+ * {@code null} để gọi DB như cũ.
+ *
+ * <p>Điều đó chỉ đúng khi instance này ghi mọi bản ghi của thiết bị. Ở cluster mode HASH chỉ thiết bị của
+ * instance mới có vòng đệm (nạp lúc khởi động hoặc tạo khi nhận bản tin đầu tiên), thiết bị khác luôn đọc DB.
+ * Ở SHARED mỗi instance chỉ nhận một phần bản tin của thiết bị nên bộ đệm bị tắt.
+ */
+@Service
+public class RecentReadingCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(RecentReadingCache.class);
+
+    // id, thời gian, 4 float, 5 int mỗi dòng
+    private static final int BYTES_PER_READING = 8 + 8 + 4 * 4 + 5 * 4;
+
+    private final SensorDataJdbcRepository sensorDataJdbcRepository;
+    private final SensorDataColdRepository coldRepository;
+    private final DeviceRegistry deviceRegistry;
+    private final MqttClusterMembership clusterMembership;
+    private final boolean enabled;
+    private final int capacity;
+    private final int maxDevices;
+    private final int warmupBatch;
+
+    private final Map<Long, Ring> rings = new ConcurrentHashMap<>();
+
+    private final Counter hitCounter;
+    private final Counter missCounter;
+
+    public RecentReadingCache(SensorDataJdbcRepository sensorDataJdbcRepository,
+                              SensorDataColdRepository coldRepository,
+                              DeviceRegistry deviceRegistry,
+                              MqttClusterMembership clusterMembership,
+                              MeterRegistry meterRegistry,
+                              @Value("${mqtt.history.cache.enabled:true}") boolean enabled,
+                              @Value("${mqtt.history.cache.readings-per-device:300}") int capacity,
+                              @Value("${mqtt.history.cache.max-devices:4000}") int maxDevices,
+                              @Value("${mqtt.history.cache.warmup-batch:200}") int warmupBatch) {
+        this.sensorDataJdbcRepository = sensorDataJdbcRepository;
+        this.coldRepository = coldRepository;
+        this.deviceRegistry = deviceRegistry;
+        this.clusterMembership = clusterMembership;
+        this.enabled = enabled && capacity > 0 && maxDevices > 0
+                && clusterMembership.getMode() != MqttClusterMembership.Mode.SHARED;
+        if (enabled && !this.enabled && clusterMembership.getMode() == MqttClusterMembership.Mode.SHARED) {
+            logger.warn("Recent reading cache disabled in mqtt.cluster.mode=SHARED: "
+                    + "this instance only sees part of each device's readings");
+        }
+        this.capacity = capacity;
+        this.maxDevices = maxDevices;
+        this.warmupBatch = warmupBatch;
+
+        hitCounter = meterRegistry.counter("sensor.recent.cache", "result", "hit");
+        missCounter = meterRegistry.counter("sensor.recent.cache", "result", "miss");
+        Gauge.builder("sensor.recent.cache.devices", rings, Map::size).register(meterRegistry);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void onStartup() {
+        if (!enabled) {
+            return;
+        }
+        logger.info("Recent reading cache: {} readings x {} devices, up to {} MB", capacity, maxDevices,
+                (long) capacity * maxDevices * BYTES_PER_READING / (1024 * 1024));
+        Thread warmup = new Thread(this::warmUp, "recent-readings-warmup");
+        warmup.setDaemon(true);
+        warmup.start();
+    }
+
+    /**
+     * Nạp vòng đệm của các thiết bị đã biết (của instance này) theo từng lô, mỗi lô một truy vấn.
+     */
+    void warmUp() {
+        long start = System.currentTimeMillis();
+        List<Long> deviceIds = deviceRegistry.all().stream()
+                .filter(device -> clusterMembership.isAssigned(device.getDeviceId()))
+                .map(Device::getId)
+                .limit(maxDevices)
+                .collect(Collectors.toList());
+        int loaded = 0;
+        try {
+            for (int i = 0; i < deviceIds.size(); i += warmupBatch) {
+                loaded += load(deviceIds.subList(i, Math.min(i + warmupBatch, deviceIds.size())));
+            }
+            logger.info("Recent reading cache loaded {} devices in {} ms", loaded, System.currentTimeMillis() - start);
+        } catch (Exception e) {
+            // Các thiết bị chưa nạp sẽ được nạp khi có truy vấn
+            logger.error("Recent reading cache warm-up stopped after {} devices", loaded, e);
+        }
+    }
+
+    public void add(SensorData data) {
+        if (!enabled || data.getDevice() == null || data.getId() == null
+                || !clusterMembership.isAssigned(data.getDevice().getDeviceId())) {
+            return;
+        }
+        Ring ring = ring(data.getDevice().getId());
+        if (ring != null) {
+            ring.add(data.getId(), micros(data.getCreatedAt()), data.getTemperature(), data.getHumidity(),
+                    data.getLight(), data.getGas(), data.getAlertLed(), data.getBuzzer(), data.getLed(),
+                    data.getFan(), data.getServo());
+        }
+    }
+
+    /**
+     * Tối đa {@code limit} bản ghi đứng trước vị trí (createdAt, id), mới nhất trước ({@code createdAt == null}
+     * là từ bản ghi mới nhất), hoặc {@code null} nếu bộ đệm không chắc có đủ các bản ghi đó.
+     */
+    public List<SensorReadingResponse> readBefore(long deviceId, LocalDateTime createdAt, Long id, int limit) {
+        if (!enabled) {
+            return null;
+        }
+        Ring ring = loadedRing(deviceId);
+        List<SensorReadingResponse> readings = new ArrayList<>(Math.min(limit, capacity));
+        if (ring == null || !ring.readBefore(createdAt == null ? Long.MAX_VALUE : micros(createdAt),
+                id == null ? Long.MAX_VALUE : id, limit, readings)) {
+            missCounter.increment();
+            return null;
+        }
+        hitCounter.increment();
+        return readings;
+    }
+
+    private Ring ring(long deviceId) {
+        Ring ring = rings.get(deviceId);
+        if (ring == null && rings.size() < maxDevices) {
+            ring = rings.computeIfAbsent(deviceId, id -> new Ring(capacity));
+        }
+        return ring;
+    }
+
+    // Vòng đệm chỉ được tạo khi thiết bị có dữ liệu, id lạ từ truy vấn không chiếm chỗ trong bộ đệm. Ở HASH
+    // chỉ thiết bị của instance có vòng đệm (từ warmUp/add), thiết bị chưa có thì không nạp theo truy vấn
+    private Ring loadedRing(long deviceId) {
+        Ring ring = rings.get(deviceId);
+        if (ring == null && clusterMembership.getMode() == MqttClusterMembership.Mode.HASH) {
+            return null;
+        }
+        if (ring == null || !ring.isLoaded()) {
+            load(List.of(deviceId));
+            ring = rings.get(deviceId);
+        }
+        return ring;
+    }
+
+    private int load(List<Long> deviceIds) {
+        // Số dòng và khoá (thời gian, id) của dòng cũ nhất đã đọc của từng thiết bị; dòng đến mới nhất trước
+        Map<Long, long[]> oldest = new HashMap<>();
+        sensorDataJdbcRepository.findRecent(deviceIds, capacity, rs -> {
+            Ring ring = ring(rs.getLong(1));
+            if (ring != null) {
+                long id = rs.getLong(2);
+                long time = micros(rs.getTimestamp(3).toLocalDateTime());
+                ring.add(id, time, rs.getFloat(4), rs.getFloat(5), rs.getFloat(6), rs.getFloat(7),
+                        rs.getInt(8), rs.getInt(9), rs.getInt(10), rs.getInt(11), rs.getInt(12));
+                long[] last = oldest.computeIfAbsent(rs.getLong(1), k -> new long[3]);
+                last[0]++;
+                last[1] = time;
+                last[2] = id;
+            }
+        });
+        // Chưa chắc đã hết lịch sử nếu vừa đủ capacity dòng hoặc thiết bị có dữ liệu ở tầng lạnh
+        Set<Long> withColdData = coldRepository.findDevicesWithChunks(deviceIds);
+        int loaded = 0;
+        for (Long deviceId : deviceIds) {
+            Ring ring = rings.get(deviceId);
+            if (ring != null) {
+                long[] last = oldest.get(deviceId);
+                if (last != null && last[0] >= capacity) {
+                    ring.markLoaded(last[1], last[2]);
+                } else {
+                    ring.markLoaded(withColdData.contains(deviceId));
+                }
+                loaded++;
+            }
+        }
+        return loaded;
+    }
+
+    // Làm tròn tới micro giây như driver Postgres khi ghi, để bản ghi từ luồng ghi và từ DB có cùng khoá
+    private static long micros(LocalDateTime time) {
+        return SensorChunk.toMicros(time.plusNanos(500));
+    }
+
+    /**
+     * Vòng đệm của một thiết bị, sắp theo (created_at, id) tăng dần; vị trí logic i nằm ở
+     * {@code (head + i) % capacity}.
+     */
+    static final class Ring {
+        private final int capacity;
+        private final long[] ids;
+        private final long[] micros;
+        private final float[] temperature;
+        private final float[] humidity;
+        private final float[] light;
+        private final float[] gas;
+        private final int[] alertLed;
+        private final int[] buzzer;
+        private final int[] led;
+        private final int[] fan;
+        private final int[] servo;
+        private int head;
+        private int count;
+        private volatile boolean loaded;
+        // Có thể còn bản ghi cũ hơn dòng đầu tiên mà không nằm trong vòng đệm
+        private boolean hasOlder;
+
+        Ring(int capacity) {
+            this.capacity = capacity;
+            ids = new long[capacity];
+            micros = new long[capacity];
+            temperature = new float[capacity];
+            humidity = new float[capacity];
+            light = new float[capacity];
+            gas = new float[capacity];
+            alertLed = new int[capacity];
+            buzzer = new int[capacity];
+            led = new int[capacity];
+            fan = new int[capacity];
+            servo = new int[capacity];
+        }
+
+        boolean isLoaded() {
+            return loaded;
+        }
+
+        synchronized void markLoaded(boolean older) {
+            hasOlder |= older;
+            loaded = true;
+        }
+
+        /**
+         * Đánh dấu đã nạp khi DB còn dòng cũ hơn (time, id): bỏ các dòng cũ hơn mốc đó (bản tin đến muộn
+         * nhận trước khi nạp), vì giữa chúng và mốc có thể có dòng mà vòng đệm không có.
+         */
+        synchronized void markLoaded(long time, long id) {
+            while (count > 0 && compare(0, time, id) < 0) {
+                head = (head + 1) % capacity;
+                count--;
+            }
+            markLoaded(true);
+        }
+
+        synchronized void add(long id, long time, float t, float h, float l, float g,
+                              int alert, int buzz, int ledValue, int fanValue, int servoValue) {
+            // Vị trí chèn: số dòng có khoá nhỏ hơn; bản tin đúng thứ tự luôn rơi vào cuối
+            int position = count;
+            if (count > 0 && compare(count - 1, time, id) >= 0) {
+                position = search(time, id);
+                if (position < count && compare(position, time, id) == 0) {
+                    return;
+                }
+                if (position == 0 && loaded && hasOlder) {
+                    // Cũ hơn mọi dòng đang giữ và có thể có dòng khác ở giữa: để DB trả lời
+                    return;
+                }
+            }
+            if (count == capacity) {
+                if (position == 0) {
+                    hasOlder = true;
+                    return;
+                }
+                head = (head + 1) % capacity;
+                count--;
+                position--;
+                hasOlder = true;
+            }
+            if (position < count - position) {
+                // Dịch phần trước sang trái, lùi head
+                head = (head + capacity - 1) % capacity;
+                for (int i = 0; i < position; i++) {
+                    move(i + 1, i);
+                }
+            } else {
+                for (int i = count; i > position; i--) {
+                    move(i - 1, i);
+                }
+            }
+            int slot = slot(position);
+            ids[slot] = id;
+            micros[slot] = time;
+            temperature[slot] = t;
+            humidity[slot] = h;
+            light[slot] = l;
+            gas[slot] = g;
+            alertLed[slot] = alert;
+            buzzer[slot] = buzz;
+            led[slot] = ledValue;
+            fan[slot] = fanValue;
+            servo[slot] = servoValue;
+            count++;
+        }
+
+        /**
+         * Ghi vào {@code out} tối đa {@code limit} dòng có khoá nhỏ hơn (time, id), mới nhất trước.
+         *
+         * @return {@code false} nếu có thể còn dòng cũ hơn cần lấy mà vòng đệm không có
+         */
+        synchronized boolean readBefore(long time, long id, int limit, List<SensorReadingResponse> out) {
+            if (!loaded) {
+                return false;
+            }
+            for (int i = search(time, id) - 1; i >= 0 && out.size() < limit; i--) {
+                int slot = slot(i);
+                out.add(new SensorReadingResponse(ids[slot], SensorChunk.fromMicros(micros[slot]),
+                        temperature[slot], humidity[slot], light[slot], gas[slot],
+                        alertLed[slot], buzzer[slot], led[slot], fan[slot], servo[slot]));
+            }
+            return out.size() >= limit || !hasOlder;
+        }
+
+        // Vị trí logic đầu tiên có khoá >= (time, id)
+        private int search(long time, long id) {
+            int low = 0;
+            int high = count;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (compare(mid, time, id) < 0) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+
+        private int compare(int index, long time, long id) {
+            int slot = slot(index);
+            int byTime = Long.compare(micros[slot], time);
+            return byTime != 0 ? byTime : Long.compare(ids[slot], id);
+        }
+
+        private int slot(int index) {
+            return (head + index) % capacity;
+        }
+
+        private void move(int from, int to) {
+            int source = slot(from);
+            int target = slot(to);
+            ids[target] = ids[source];
+            micros[target] = micros[source];
+            temperature[target] = temperature[source];
+            humidity[target] = humidity[source];
+            light[target] = light[source];
+            gas[target] = gas[source];
+            alertLed[target] = alertLed[source];
+            buzzer[target] = buzzer[source];
+            led[target] = led[source];
+            fan[target] = fan[source];
+            servo[target] = servo[source];
+        }
+    }
+}
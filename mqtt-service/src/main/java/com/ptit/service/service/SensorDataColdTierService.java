@@ -0,0 +1,490 @@
+package com.ptit.service.service;
+
+import com.ptit.service.codec.SensorChunk;
+import com.ptit.service.codec.SensorChunkCodec;
+import com.ptit.service.repository.SensorDataColdRepository;
+import com.ptit.service.repository.SensorDataColdRepository.Chunk;
+import com.ptit.service.response.SensorReadingResponse;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.PessimisticLockingFailureException;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PreDestroy;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+
+/**
+ * Tầng lưu trữ lạnh của sensor_data.
+ *
+ * <p>Phân vùng theo ngày cũ hơn mqtt.tiering.after-days được đọc theo (thiết bị, thời gian), mỗi thiết
+ * bị mã hoá thành một chunk dạng cột ({@link SensorChunkCodec}) ghi vào sensor_data_cold, rồi phân vùng
+ * được DETACH và DROP ở các bước riêng (xem {@code tierPartition}), để không giữ khoá trên sensor_data
+ * trong lúc chép. Chỉ giữ các cột đo và trạng thái cùng topic/broker; payload gốc bị bỏ.
+ *
+ * <p>Phía đọc trả về chunk đã giải mã dưới dạng {@link SensorReadingResponse} với id và created_at gốc,
+ * nên {@link SensorDataService} ghép được với dòng của tầng nóng theo cùng khoá (created_at, id).
+ */
+@Service
+public class SensorDataColdTierService {
+
+    private static final Logger logger = LoggerFactory.getLogger(SensorDataColdTierService.class);
+
+    private static final LocalDateTime OLDEST = LocalDateTime.of(1970, 1, 1, 0, 0);
+    private static final LocalDateTime NEWEST = LocalDateTime.of(9999, 1, 1, 0, 0);
+
+    private static final String SELECT_PARTITION_SQL = "SELECT id, device_id, created_at, temperature, humidity, light, gas, "
+            + "alert_led, buzzer, led, fan, servo, topic, broker FROM %s ORDER BY device_id, created_at, id";
+
+    private final SensorDataColdRepository coldRepository;
+    private final SensorDataPartitionService partitionService;
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final boolean enabled;
+    private final int afterDays;
+    private final int retentionDays;
+    private final int insertBatch;
+    private final long lockTimeoutMs;
+    private final int lockRetries;
+    private final long lockRetryDelayMs;
+
+    private final Map<String, SensorChunk> chunkCache;
+    private final ExecutorService executor;
+    private final AtomicBoolean tiering = new AtomicBoolean();
+
+    private final Counter rowsCounter;
+    private final Counter hotBytesCounter;
+    private final Counter coldBytesCounter;
+    private final Timer tieringTimer;
+    private final Counter cacheHitCounter;
+    private final Counter cacheMissCounter;
+    private final Counter lockTimeoutCounter;
+
+    public SensorDataColdTierService(SensorDataColdRepository coldRepository,
+                                     SensorDataPartitionService partitionService,
+                                     JdbcTemplate jdbcTemplate,
+                                     PlatformTransactionManager transactionManager,
+                                     MeterRegistry meterRegistry,
+                                     @Value("${mqtt.tiering.enabled:true}") boolean enabled,
+                                     @Value("${mqtt.tiering.after-days:7}") int afterDays,
+                                     @Value("${mqtt.storage.retention-days:0}") int retentionDays,
+                                     @Value("${mqtt.tiering.insert-batch:200}") int insertBatch,
+                                     @Value("${mqtt.tiering.fetch-size:10000}") int fetchSize,
+                                     @Value("${mqtt.tiering.chunk-cache-size:64}") int chunkCacheSize,
+                                     @Value("${mqtt.tiering.lock-timeout-ms:5000}") long lockTimeoutMs,
+                                     @Value("${mqtt.tiering.lock-retries:5}") int lockRetries,
+                                     @Value("${mqtt.tiering.lock-retry-delay-ms:10000}") long lockRetryDelayMs) {
+        this.coldRepository = coldRepository;
+        this.partitionService = partitionService;
+        // JdbcTemplate riêng để đọc phân vùng bằng cursor theo từng fetch-size dòng
+        this.jdbcTemplate = new JdbcTemplate(jdbcTemplate.getDataSource());
+        this.jdbcTemplate.setFetchSize(fetchSize);
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.enabled = enabled;
+        this.afterDays = afterDays;
+        this.retentionDays = retentionDays;
+        this.insertBatch = insertBatch;
+        this.lockTimeoutMs = lockTimeoutMs;
+        this.lockRetries = Math.max(1, lockRetries);
+        this.lockRetryDelayMs = lockRetryDelayMs;
+        this.chunkCache = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, SensorChunk> eldest) {
+                return size() > chunkCacheSize;
+            }
+        };
+        this.executor = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "sensor-tiering");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        rowsCounter = meterRegistry.counter("sensor.tiering.rows");
+        hotBytesCounter = meterRegistry.counter("sensor.tiering.bytes", "tier", "hot");
+        coldBytesCounter = meterRegistry.counter("sensor.tiering.bytes", "tier", "cold");
+        tieringTimer = meterRegistry.timer("sensor.tiering.duration");
+        cacheHitCounter = meterRegistry.counter("sensor.cold.chunks", "cache", "hit");
+        cacheMissCounter = meterRegistry.counter("sensor.cold.chunks", "cache", "miss");
+        lockTimeoutCounter = meterRegistry.counter("sensor.tiering.lock_timeouts");
+
+        if (enabled && retentionDays > 0 && afterDays >= retentionDays) {
+            logger.warn("mqtt.tiering.after-days ({}) >= mqtt.storage.retention-days ({}): partitions expire before they are tiered",
+                    afterDays, retentionDays);
+        }
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void onStartup() {
+        scheduleTiering();
+    }
+
+    /**
+     * Chuyển các phân vùng đủ cũ trên luồng riêng, không chiếm luồng chung của @Scheduled.
+     */
+    @Scheduled(cron = "${mqtt.tiering.cron:0 30 0 * * *}")
+    public void scheduleTiering() {
+        if (!enabled || !tiering.compareAndSet(false, true)) {
+            return;
+        }
+        executor.execute(() -> {
+            try {
+                tierPartitionsBefore(LocalDate.now().minusDays(afterDays));
+            } catch (Exception e) {
+                logger.error("Sensor data tiering failed", e);
+            } finally {
+                tiering.set(false);
+            }
+        });
+    }
+
+    /**
+     * Chuyển mọi phân vùng theo ngày trước {@code cutoff} sang tầng lạnh, cũ nhất trước. Bảng theo ngày còn sót
+     * từ lần chạy trước (đã DETACH nhưng chưa DROP) được hoàn tất trước.
+     *
+     * @return số phân vùng đã chuyển
+     */
+    public int tierPartitionsBefore(LocalDate cutoff) {
+        int tiered = 0;
+        LocalDate expired = retentionDays > 0 ? LocalDate.now().minusDays(retentionDays) : null;
+        for (Map.Entry<LocalDate, String> detached : partitionService.detachedPartitions().entrySet()) {
+            if (expired != null && detached.getKey().isBefore(expired)) {
+                withLockRetry(detached.getValue(), () -> transactionTemplate.execute(status -> {
+                    setLocalLockTimeout();
+                    jdbcTemplate.execute("DROP TABLE " + detached.getValue());
+                    return null;
+                }));
+                continue;
+            }
+            logger.info("Finishing tiering of detached {}", detached.getValue());
+            TieringResult result = new TieringResult();
+            result.rows = coldRepository.countRows(detached.getKey());
+            dropDetached(detached.getKey(), detached.getValue(), result);
+        }
+        for (Map.Entry<LocalDate, String> partition : partitionService.dailyPartitions().entrySet()) {
+            LocalDate day = partition.getKey();
+            if (!day.isBefore(cutoff)) {
+                break;
+            }
+            if (expired != null && day.isBefore(expired)) {
+                // Sắp bị xoá theo hạn lưu trữ, không cần chuyển
+                continue;
+            }
+            tierPartition(day, partition.getValue());
+            tiered++;
+        }
+        return tiered;
+    }
+
+    /**
+     * Ba bước, mỗi bước chỉ giữ khoá ngắn và chờ khoá tối đa lock-timeout-ms (thử lại lock-retries lần) để
+     * một lượt xuất dữ liệu đang giữ cursor trên sensor_data không làm luồng ghi phải xếp hàng sau tầng lạnh:
+     * <ol>
+     *     <li>chép phân vùng sang sensor_data_cold trong một transaction, chỉ khoá phân vùng;</li>
+     *     <li>DETACH phân vùng khỏi sensor_data (CONCURRENTLY nếu không có phân vùng default);</li>
+     *     <li>đối chiếu số dòng của bảng đã tách với tầng lạnh (chép lại nếu có dòng đến muộn) rồi DROP.</li>
+     * </ol>
+     * Giữa bước 1 và 2 các dòng của ngày có ở cả hai tầng; phía đọc bỏ dòng trùng theo id.
+     */
+    private void tierPartition(LocalDate day, String partition) {
+        long start = System.nanoTime();
+        TieringResult result = withLockRetry(partition, () -> transactionTemplate.execute(status -> {
+            setLocalLockTimeout();
+            // Chặn ghi vào phân vùng như SHARE, đồng thời tự xung đột để hai instance không cùng chép một ngày
+            jdbcTemplate.execute("LOCK TABLE " + partition + " IN SHARE ROW EXCLUSIVE MODE");
+            TieringResult totals = new TieringResult();
+            long copied = coldRepository.countRows(day);
+            if (copied > 0) {
+                // Đã chép (ở lần chạy trước hoặc bởi instance khác) nhưng chưa DETACH, bước 3 sẽ đối chiếu lại
+                totals.rows = copied;
+                return totals;
+            }
+            Long hotBytes = jdbcTemplate.queryForObject("SELECT pg_total_relation_size(?::regclass)", Long.class, partition);
+            totals.hotBytes = hotBytes == null ? 0 : hotBytes;
+            copy(day, partition, totals);
+            return totals;
+        }));
+        detach(partition);
+        dropDetached(day, partition, result);
+
+        long elapsed = System.nanoTime() - start;
+        tieringTimer.record(elapsed, TimeUnit.NANOSECONDS);
+        rowsCounter.increment(result.rows);
+        hotBytesCounter.increment(result.hotBytes);
+        coldBytesCounter.increment(result.coldBytes);
+        if (result.orphans > 0) {
+            logger.warn("Dropped {} rows without device from {}", result.orphans, partition);
+        }
+        logger.info("Tiered {}: {} rows of {} devices, {} KB -> {} KB ({}x) in {} ms", partition, result.rows,
+                result.chunks, result.hotBytes / 1024, result.coldBytes / 1024,
+                result.coldBytes == 0 ? "-" : String.format("%.1f", (double) result.hotBytes / result.coldBytes),
+                TimeUnit.NANOSECONDS.toMillis(elapsed));
+    }
+
+    /**
+     * DETACH phân vùng khỏi sensor_data. CONCURRENTLY không chạy được trong transaction nên lệnh chạy trên kết
+     * nối autocommit, lock_timeout đặt theo session rồi trả lại. Nếu lần trước dừng giữa DETACH CONCURRENTLY,
+     * phân vùng còn ở trạng thái chờ và được FINALIZE.
+     */
+    private void detach(String partition) {
+        withLockRetry(partition, () -> {
+            String mode;
+            if (!partitionService.dailyPartitions().containsValue(partition)) {
+                // Instance khác đã DETACH
+                return null;
+            } else if (partitionService.isDetachPending(partition)) {
+                mode = " FINALIZE";
+            } else if (partitionService.hasDefaultPartition()) {
+                // Không được dùng CONCURRENTLY: khoá ACCESS EXCLUSIVE trên sensor_data, nhưng chỉ chờ tối đa lock_timeout
+                mode = "";
+            } else {
+                mode = " CONCURRENTLY";
+            }
+            return jdbcTemplate.execute((ConnectionCallback<Void>) connection -> {
+                try (Statement statement = connection.createStatement()) {
+                    statement.execute("SET lock_timeout = " + lockTimeoutMs);
+                    try {
+                        statement.execute("ALTER TABLE sensor_data DETACH PARTITION " + partition + mode);
+                    } finally {
+                        statement.execute("RESET lock_timeout");
+                    }
+                }
+                return null;
+            });
+        });
+    }
+
+    /**
+     * Bảng đã tách không còn nhận dòng mới và không ai đọc qua sensor_data nữa: đối chiếu với tầng lạnh rồi DROP,
+     * chỉ khoá chính bảng đó.
+     */
+    private void dropDetached(LocalDate day, String table, TieringResult result) {
+        withLockRetry(table, () -> transactionTemplate.execute(status -> {
+            setLocalLockTimeout();
+            if (!Boolean.TRUE.equals(jdbcTemplate.queryForObject("SELECT to_regclass(?) IS NOT NULL", Boolean.class, table))) {
+                // Instance khác đã DROP
+                return null;
+            }
+            jdbcTemplate.execute("LOCK TABLE " + table + " IN ACCESS EXCLUSIVE MODE");
+            Long hot = jdbcTemplate.queryForObject("SELECT count(*) FROM " + table + " WHERE device_id IS NOT NULL",
+                    Long.class);
+            if (hot != null && hot != result.rows) {
+                // Dòng đến muộn giữa bước chép và DETACH: chép lại cả ngày từ bảng giờ đã cố định
+                logger.warn("{} has {} rows but {} were tiered, copying again", table, hot, result.rows);
+                coldRepository.deleteDay(day);
+                result.rows = 0;
+                result.chunks = 0;
+                result.orphans = 0;
+                result.coldBytes = 0;
+                copy(day, table, result);
+            }
+            jdbcTemplate.execute("DROP TABLE " + table);
+            return null;
+        }));
+    }
+
+    private void copy(LocalDate day, String table, TieringResult totals) {
+        List<Chunk> pending = new ArrayList<>(insertBatch);
+        SensorChunk.Builder builder = new SensorChunk.Builder();
+        long[] current = {-1};
+        LocalDateTime[] range = new LocalDateTime[2];
+        jdbcTemplate.query(String.format(SELECT_PARTITION_SQL, table), rs -> {
+            long deviceId = rs.getLong(2);
+            if (rs.wasNull()) {
+                totals.orphans++;
+                return;
+            }
+            LocalDateTime createdAt = rs.getTimestamp(3).toLocalDateTime();
+            if (deviceId != current[0]) {
+                finishChunk(current[0], day, builder, range, pending, totals);
+                current[0] = deviceId;
+                range[0] = createdAt;
+            }
+            range[1] = createdAt;
+            builder.add(rs.getLong(1), createdAt, rs.getFloat(4), rs.getFloat(5), rs.getFloat(6), rs.getFloat(7),
+                    rs.getInt(8), rs.getInt(9), rs.getInt(10), rs.getInt(11), rs.getInt(12),
+                    rs.getString(13), rs.getString(14));
+            if (pending.size() >= insertBatch) {
+                coldRepository.insert(pending);
+                pending.clear();
+            }
+        });
+        finishChunk(current[0], day, builder, range, pending, totals);
+        if (!pending.isEmpty()) {
+            coldRepository.insert(pending);
+        }
+    }
+
+    private void setLocalLockTimeout() {
+        jdbcTemplate.execute("SET LOCAL lock_timeout = " + lockTimeoutMs);
+    }
+
+    private <T> T withLockRetry(String table, Supplier<T> action) {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return action.get();
+            } catch (PessimisticLockingFailureException e) {
+                lockTimeoutCounter.increment();
+                if (attempt >= lockRetries) {
+                    throw e;
+                }
+                logger.warn("Lock timeout on {} (attempt {}/{}), retrying in {} ms", table, attempt, lockRetries,
+                        lockRetryDelayMs * attempt);
+                try {
+                    Thread.sleep(lockRetryDelayMs * attempt);
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    throw e;
+                }
+            }
+        }
+    }
+
+    private static void finishChunk(long deviceId, LocalDate day, SensorChunk.Builder builder, LocalDateTime[] range,
+                                    List<Chunk> pending, TieringResult totals) {
+        if (builder.size() == 0) {
+            return;
+        }
+        byte[] data = SensorChunkCodec.encode(builder.build());
+        pending.add(new Chunk(deviceId, day, builder.size(), range[0], range[1], data));
+        totals.rows += builder.size();
+        totals.chunks++;
+        totals.coldBytes += data.length;
+        builder.clear();
+    }
+
+    /**
+     * Tối đa {@code limit} bản ghi lạnh của thiết bị đứng trước vị trí (createdAt, id), mới nhất trước;
+     * {@code createdAt == null} là bắt đầu từ bản ghi lạnh mới nhất. Chỉ xét các chunk có dòng từ
+     * {@code notBefore} trở đi (null = không giới hạn), để bỏ qua tầng lạnh khi trang đã đủ dòng nóng mới hơn.
+     */
+    public List<SensorReadingResponse> readBefore(long deviceId, LocalDateTime createdAt, Long id,
+                                                  LocalDateTime notBefore, int limit) {
+        List<SensorReadingResponse> readings = new ArrayList<>(Math.min(limit, 1024));
+        long cursorMicros = createdAt == null ? Long.MAX_VALUE : SensorChunk.toMicros(createdAt);
+        for (Chunk meta : coldRepository.findDays(deviceId, notBefore == null ? OLDEST : notBefore,
+                createdAt == null ? NEWEST : createdAt)) {
+            SensorChunk chunk = chunk(deviceId, meta.getDay());
+            if (chunk == null) {
+                continue;
+            }
+            for (int row = chunk.size() - 1; row >= 0 && readings.size() < limit; row--) {
+                long micros = chunk.micros(row);
+                if (micros < cursorMicros || (micros == cursorMicros && id != null && chunk.id(row) < id)) {
+                    readings.add(SensorReadingResponse.from(chunk, row));
+                }
+            }
+            if (readings.size() >= limit) {
+                break;
+            }
+        }
+        return readings;
+    }
+
+    /**
+     * Tối đa {@code limit} bản ghi lạnh của thiết bị trong [from, to), cũ nhất trước.
+     */
+    public List<SensorReadingResponse> readRange(long deviceId, LocalDateTime from, LocalDateTime to, int limit) {
+        List<SensorReadingResponse> readings = new ArrayList<>(Math.min(limit, 1024));
+        List<Chunk> days = coldRepository.findDays(deviceId, from, to);
+        long fromMicros = SensorChunk.toMicros(from);
+        long toMicros = SensorChunk.toMicros(to);
+        for (int i = days.size() - 1; i >= 0 && readings.size() < limit; i--) {
+            SensorChunk chunk = chunk(deviceId, days.get(i).getDay());
+            if (chunk == null) {
+                continue;
+            }
+            for (int row = 0; row < chunk.size() && readings.size() < limit; row++) {
+                long micros = chunk.micros(row);
+                if (micros >= fromMicros && micros < toMicros) {
+                    readings.add(SensorReadingResponse.from(chunk, row));
+                }
+            }
+        }
+        return readings;
+    }
+
+    /**
+     * Duyệt các bản ghi lạnh của thiết bị trong [from, to) theo thời gian tăng dần, dùng cho xuất dữ liệu
+     * khối lớn. Chunk được đọc qua {@code source} (pool xuất dữ liệu, không phải pool chính) và không đi qua
+     * cache, nên client chậm không giữ kết nối của luồng ghi.
+     */
+    public void forEachInRange(SensorDataColdRepository source, long deviceId, LocalDateTime from, LocalDateTime to,
+                               RowHandler handler) {
+        long fromMicros = SensorChunk.toMicros(from);
+        long toMicros = SensorChunk.toMicros(to);
+        List<Chunk> days = source.findDays(deviceId, from, to);
+        for (int i = days.size() - 1; i >= 0; i--) {
+            byte[] data = source.findData(deviceId, days.get(i).getDay());
+            if (data == null) {
+                continue;
+            }
+            SensorChunk chunk = SensorChunkCodec.decode(data);
+            for (int row = 0; row < chunk.size(); row++) {
+                long micros = chunk.micros(row);
+                if (micros >= fromMicros && micros < toMicros) {
+                    handler.accept(chunk, row);
+                }
+            }
+        }
+    }
+
+    private SensorChunk chunk(long deviceId, LocalDate day) {
+        String key = deviceId + ":" + day;
+        synchronized (chunkCache) {
+            SensorChunk cached = chunkCache.get(key);
+            if (cached != null) {
+                cacheHitCounter.increment();
+                return cached;
+            }
+        }
+        cacheMissCounter.increment();
+        byte[] data = coldRepository.findData(deviceId, day);
+        if (data == null) {
+            return null;
+        }
+        SensorChunk chunk = SensorChunkCodec.decode(data);
+        synchronized (chunkCache) {
+            chunkCache.put(key, chunk);
+        }
+        return chunk;
+    }
+
+    @PreDestroy
+    public void stop() {
+        executor.shutdownNow();
+    }
+
+    @FunctionalInterface
+    public interface RowHandler {
+        void accept(SensorChunk chunk, int row);
+    }
+
+    private static final class TieringResult {
+        private long rows;
+        private long chunks;
+        private long orphans;
+        private long hotBytes;
+        private long coldBytes;
+    }
+}
@@ -0,0 +1,203 @@
+package com.ptit.service.service;
+
+import com.ptit.service.codec.SensorChunk;
+import com.ptit.service.entity.Device;
+import com.ptit.service.exception.BaseException;
+import com.ptit.service.exception.ErrorCode;
+import com.ptit.service.repository.DeviceRepository;
+import com.ptit.service.repository.SensorDataExportRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Xuất sensor_data ra CSV, ghi thẳng vào luồng phản hồi trong khi đọc cursor nên bộ nhớ dùng không
+ * phụ thuộc số dòng xuất. Dòng ở tầng lạnh của mỗi thiết bị được ghi ngay trước các dòng nóng của nó,
+ * nên kết quả vẫn theo thiết bị rồi thời gian. Dòng nóng không mới hơn dòng lạnh cuối của thiết bị bị bỏ:
+ * đó là ngày vừa được chép sang tầng lạnh nhưng phân vùng chưa kịp DETACH.
+ */
+@Service
+public class SensorDataExportService {
+
+    private static final Logger logger = LoggerFactory.getLogger(SensorDataExportService.class);
+
+    private static final String CSV_HEADER =
+            "device_id,created_at,temperature,humidity,light,gas,alert_led,buzzer,led,fan,servo\n";
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final SensorDataExportRepository exportRepository;
+    private final SensorDataColdTierService coldTierService;
+    private final DeviceRepository deviceRepository;
+    private final int maxDevices;
+    private final Duration maxRange;
+    private final Counter rowsCounter;
+    private final Timer exportTimer;
+
+    public SensorDataExportService(SensorDataExportRepository exportRepository,
+                                   SensorDataColdTierService coldTierService,
+                                   DeviceRepository deviceRepository,
+                                   @Value("${mqtt.export.max-devices:1000}") int maxDevices,
+                                   @Value("${mqtt.export.max-range-days:366}") int maxRangeDays,
+                                   MeterRegistry meterRegistry) {
+        this.exportRepository = exportRepository;
+        this.coldTierService = coldTierService;
+        this.deviceRepository = deviceRepository;
+        this.maxDevices = maxDevices;
+        this.maxRange = Duration.ofDays(maxRangeDays);
+        this.rowsCounter = meterRegistry.counter("export.rows");
+        this.exportTimer = Timer.builder("export.duration")
+                .description("Thời gian một lượt xuất dữ liệu cảm biến")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Kiểm tra tham số trước khi bắt đầu ghi phản hồi, vì sau khi đã gửi header thì không trả lỗi được nữa.
+     */
+    public void validate(Collection<Long> deviceIds, LocalDateTime from, LocalDateTime to) {
+        if (deviceIds == null || deviceIds.isEmpty() || deviceIds.size() > maxDevices
+                || from == null || to == null || !from.isBefore(to)
+                || Duration.between(from, to).compareTo(maxRange) > 0) {
+            throw new BaseException(ErrorCode.INVALID_REQUEST);
+        }
+    }
+
+    /**
+     * Ghi CSV của {@code deviceIds} trong [from, to) vào {@code out}, nén gzip nếu {@code gzip}.
+     *
+     * @return số dòng dữ liệu đã ghi
+     */
+    public long exportCsv(Collection<Long> deviceIds, LocalDateTime from, LocalDateTime to, boolean gzip,
+                          OutputStream out) throws IOException {
+        validate(deviceIds, from, to);
+        long start = System.nanoTime();
+        OutputStream target = gzip ? new GZIPOutputStream(out, BUFFER_SIZE) : out;
+        Writer writer = new BufferedWriter(new OutputStreamWriter(target, StandardCharsets.UTF_8), BUFFER_SIZE);
+        long[] rows = {0};
+        // Id DB và created_at (micro giây) của dòng lạnh cuối cùng vừa ghi
+        long[] coldLast = {-1, Long.MIN_VALUE};
+        StringBuilder line = new StringBuilder(128);
+        // Mã thiết bị theo id DB, theo thứ tự của cursor; thiết bị được lấy ra khi đã ghi phần tầng lạnh
+        TreeMap<Long, String> coldPending = new TreeMap<>();
+        for (Device device : deviceRepository.findAllById(deviceIds)) {
+            coldPending.put(device.getId(), device.getDeviceId());
+        }
+        try {
+            writer.write(CSV_HEADER);
+            exportRepository.streamRange(deviceIds, from, to, rs -> {
+                long deviceDbId = rs.getLong(12);
+                if (!coldPending.isEmpty() && coldPending.firstKey() <= deviceDbId) {
+                    rows[0] += writeColdUpTo(deviceDbId, coldPending, from, to, line, writer, coldLast);
+                }
+                LocalDateTime createdAt = rs.getTimestamp(2).toLocalDateTime();
+                if (coldLast[0] == deviceDbId && SensorChunk.toMicros(createdAt) <= coldLast[1]) {
+                    return;
+                }
+                line.setLength(0);
+                appendField(line, rs.getString(1)).append(',')
+                        .append(createdAt).append(',')
+                        .append(rs.getFloat(3)).append(',')
+                        .append(rs.getFloat(4)).append(',')
+                        .append(rs.getFloat(5)).append(',')
+                        .append(rs.getFloat(6)).append(',')
+                        .append(rs.getInt(7)).append(',')
+                        .append(rs.getInt(8)).append(',')
+                        .append(rs.getInt(9)).append(',')
+                        .append(rs.getInt(10)).append(',')
+                        .append(rs.getInt(11)).append('\n');
+                write(writer, line);
+                rows[0]++;
+            });
+            // Thiết bị chỉ có dữ liệu ở tầng lạnh
+            rows[0] += writeColdUpTo(Long.MAX_VALUE, coldPending, from, to, line, writer, coldLast);
+            writer.flush();
+            if (target instanceof GZIPOutputStream) {
+                ((GZIPOutputStream) target).finish();
+            }
+        } catch (UncheckedIOException e) {
+            logger.info("Export of {} devices aborted after {} rows: {}", deviceIds.size(), rows[0], e.getCause().getMessage());
+            throw e.getCause();
+        } finally {
+            rowsCounter.increment(rows[0]);
+            exportTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+        logger.info("Exported {} rows for {} devices in [{}, {})", rows[0], deviceIds.size(), from, to);
+        return rows[0];
+    }
+
+    /**
+     * Ghi các dòng tầng lạnh của những thiết bị trong {@code pending} có id DB không lớn hơn {@code deviceDbId}
+     * rồi bỏ chúng khỏi {@code pending}, đọc qua pool xuất dữ liệu. {@code last} nhận id DB và created_at của
+     * dòng lạnh cuối cùng đã ghi.
+     */
+    private long writeColdUpTo(long deviceDbId, TreeMap<Long, String> pending, LocalDateTime from, LocalDateTime to,
+                               StringBuilder line, Writer writer, long[] last) {
+        long[] rows = {0};
+        Iterator<Map.Entry<Long, String>> devices = pending.headMap(deviceDbId, true).entrySet().iterator();
+        while (devices.hasNext()) {
+            Map.Entry<Long, String> device = devices.next();
+            devices.remove();
+            coldTierService.forEachInRange(exportRepository.coldChunks(), device.getKey(), from, to, (chunk, row) -> {
+                last[0] = device.getKey();
+                last[1] = chunk.micros(row);
+                line.setLength(0);
+                appendField(line, device.getValue()).append(',');
+                appendColdRow(line, chunk, row);
+                write(writer, line);
+                rows[0]++;
+            });
+        }
+        return rows[0];
+    }
+
+    private static void appendColdRow(StringBuilder line, SensorChunk chunk, int row) {
+        line.append(chunk.createdAt(row)).append(',')
+                .append(chunk.temperature(row)).append(',')
+                .append(chunk.humidity(row)).append(',')
+                .append(chunk.light(row)).append(',')
+                .append(chunk.gas(row)).append(',')
+                .append(chunk.alertLed(row)).append(',')
+                .append(chunk.buzzer(row)).append(',')
+                .append(chunk.led(row)).append(',')
+                .append(chunk.fan(row)).append(',')
+                .append(chunk.servo(row)).append('\n');
+    }
+
+    private static void write(Writer writer, StringBuilder line) {
+        try {
+            writer.append(line);
+        } catch (IOException e) {
+            // Client ngắt kết nối: dừng đọc cursor để trả kết nối về pool
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static StringBuilder appendField(StringBuilder line, String value) {
+        if (value == null) {
+            return line;
+        }
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+            return line.append(value);
+        }
+        return line.append('"').append(value.replace("\"", "\"\"")).append('"');
+    }
+}
@@ -0,0 +1,416 @@
+package com.ptit.service.service;
+
+import com.ptit.service.entity.Device;
+import com.ptit.service.entity.SensorData;
+import com.ptit.service.entity.enums.PayloadEncoding;
+import com.ptit.service.repository.SensorDataJdbcRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Hàng đợi ghi dữ liệu cảm biến: callback MQTT chỉ đưa {@link SensorData} vào hàng đợi có giới hạn,
+ * các worker lấy ra và ghi xuống DB theo lô (JDBC batch).
+ */
+@Service
+public class SensorDataIngestService {
+
+    private static final Logger logger = LoggerFactory.getLogger(SensorDataIngestService.class);
+
+    public enum OverflowPolicy {
+        /** Chặn callback MQTT tối đa block-timeout-ms, quá thời gian thì bỏ bản ghi. */
+        BLOCK,
+        /** Bỏ bản ghi cũ nhất trong hàng đợi để nhận bản ghi mới. */
+        DROP_OLDEST,
+        /** Ghi tạm bản ghi ra đĩa, worker sẽ ghi lại khi hàng đợi rảnh. */
+        SPILL
+    }
+
+    private final SensorDataJdbcRepository sensorDataJdbcRepository;
+    private final MeterRegistry meterRegistry;
+
+    @Value("${mqtt.ingest.queue-capacity:10000}")
+    private int queueCapacity;
+
+    @Value("${mqtt.ingest.workers:2}")
+    private int workerCount;
+
+    @Value("${mqtt.ingest.batch-size:500}")
+    private int batchSize;
+
+    @Value("${mqtt.ingest.max-linger-ms:200}")
+    private long maxLingerMs;
+
+    @Value("${mqtt.ingest.overflow-policy:BLOCK}")
+    private OverflowPolicy overflowPolicy;
+
+    @Value("${mqtt.ingest.block-timeout-ms:1000}")
+    private long blockTimeoutMs;
+
+    @Value("${mqtt.ingest.write-retries:3}")
+    private int writeRetries;
+
+    @Value("${mqtt.ingest.spill-dir:${java.io.tmpdir}/mqtt-service/spill}")
+    private String spillDir;
+
+    @Value("${mqtt.ingest.id-block-size:1000}")
+    private int idBlockSize;
+
+    private BlockingQueue<SensorData> queue;
+    private DiskSpool<SensorData> spool;
+    private final List<Thread> workers = new ArrayList<>();
+    private final AtomicBoolean replaying = new AtomicBoolean();
+    private volatile boolean running;
+
+    private List<Long> idBlock = List.of();
+    private int idIndex;
+
+    private Counter acceptedCounter;
+    private Counter droppedQueueFullCounter;
+    private Counter droppedWriteFailedCounter;
+    private Counter spilledCounter;
+    private Counter persistedCounter;
+    private Counter duplicateCounter;
+    private Timer flushTimer;
+    private Timer blockedTimer;
+    private Timer lagTimer;
+    private DistributionSummary batchSizeSummary;
+
+    public SensorDataIngestService(SensorDataJdbcRepository sensorDataJdbcRepository, MeterRegistry meterRegistry) {
+        this.sensorDataJdbcRepository = sensorDataJdbcRepository;
+        this.meterRegistry = meterRegistry;
+    }
+
+    @PostConstruct
+    public void start() {
+        queue = new ArrayBlockingQueue<>(queueCapacity);
+        if (overflowPolicy == OverflowPolicy.SPILL) {
+            spool = new DiskSpool<>(Paths.get(spillDir), "sensor-data", new SensorDataCodec());
+        }
+
+        acceptedCounter = meterRegistry.counter("sensor.ingest.accepted");
+        droppedQueueFullCounter = meterRegistry.counter("sensor.ingest.dropped", "reason", "queue_full");
+        droppedWriteFailedCounter = meterRegistry.counter("sensor.ingest.dropped", "reason", "write_failed");
+        spilledCounter = meterRegistry.counter("sensor.ingest.spilled");
+        persistedCounter = meterRegistry.counter("sensor.ingest.persisted");
+        duplicateCounter = meterRegistry.counter("sensor.ingest.duplicates");
+        flushTimer = meterRegistry.timer("sensor.ingest.flush");
+        blockedTimer = meterRegistry.timer("sensor.ingest.blocked");
+        // Tuổi của bản ghi khi đã ghi xong: từ lúc dựng bản ghi (ngay sau khi nhận bản tin) tới lúc commit
+        lagTimer = meterRegistry.timer("sensor.ingest.lag");
+        batchSizeSummary = meterRegistry.summary("sensor.ingest.batch.size");
+        Gauge.builder("sensor.ingest.queue.size", queue, BlockingQueue::size).register(meterRegistry);
+        Gauge.builder("sensor.ingest.queue.remaining", queue, BlockingQueue::remainingCapacity).register(meterRegistry);
+        Gauge.builder("sensor.ingest.spool.size", this, s -> s.spool == null ? 0 : s.spool.size()).register(meterRegistry);
+
+        running = true;
+        for (int i = 0; i < workerCount; i++) {
+            Thread worker = new Thread(this::runWorker, "sensor-ingest-" + i);
+            worker.setDaemon(true);
+            worker.start();
+            workers.add(worker);
+        }
+        logger.info("Sensor ingest started: capacity={}, workers={}, batchSize={}, maxLingerMs={}, policy={}",
+                queueCapacity, workerCount, batchSize, maxLingerMs, overflowPolicy);
+    }
+
+    /**
+     * Cấp id và đưa bản ghi vào hàng đợi ghi.
+     *
+     * @return {@code false} nếu bản ghi bị bỏ do hàng đợi đầy
+     */
+    public boolean submit(SensorData sensorData) {
+        if (sensorData.getId() == null) {
+            sensorData.setId(allocateId());
+        }
+        if (queue.offer(sensorData)) {
+            acceptedCounter.increment();
+            return true;
+        }
+
+        switch (overflowPolicy) {
+            case DROP_OLDEST:
+                while (!queue.offer(sensorData)) {
+                    if (queue.poll() != null) {
+                        droppedQueueFullCounter.increment();
+                    }
+                }
+                acceptedCounter.increment();
+                return true;
+            case SPILL:
+                try {
+                    spool.append(sensorData);
+                    spilledCounter.increment();
+                    acceptedCounter.increment();
+                    return true;
+                } catch (IOException e) {
+                    logger.error("Cannot spill sensor data {} to disk", sensorData.getId(), e);
+                    droppedQueueFullCounter.increment();
+                    return false;
+                }
+            case BLOCK:
+            default:
+                long start = System.nanoTime();
+                try {
+                    boolean accepted = queue.offer(sensorData, blockTimeoutMs, TimeUnit.MILLISECONDS);
+                    if (accepted) {
+                        acceptedCounter.increment();
+                    } else {
+                        droppedQueueFullCounter.increment();
+                    }
+                    return accepted;
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    droppedQueueFullCounter.increment();
+                    return false;
+                } finally {
+                    blockedTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                }
+        }
+    }
+
+    private synchronized long allocateId() {
+        if (idIndex >= idBlock.size()) {
+            // Lấy trước một khối id để không phải gọi sequence cho từng bản ghi
+            idBlock = sensorDataJdbcRepository.nextIds(idBlockSize);
+            idIndex = 0;
+        }
+        return idBlock.get(idIndex++);
+    }
+
+    private void runWorker() {
+        List<SensorData> batch = new ArrayList<>(batchSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                SensorData first = queue.poll(maxLingerMs, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    replaySpool();
+                    continue;
+                }
+                batch.add(first);
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(maxLingerMs);
+                while (batch.size() < batchSize) {
+                    if (queue.drainTo(batch, batchSize - batch.size()) > 0) {
+                        continue;
+                    }
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        break;
+                    }
+                    SensorData next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+                flush(batch);
+            } catch (InterruptedException e) {
+                if (!batch.isEmpty()) {
+                    flush(batch);
+                }
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                logger.error("Unexpected error in sensor ingest worker", e);
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void flush(List<SensorData> batch) {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                int duplicates = flushTimer.record(() -> sensorDataJdbcRepository.batchInsert(batch));
+                persistedCounter.increment(batch.size() - duplicates);
+                duplicateCounter.increment(duplicates);
+                batchSizeSummary.record(batch.size());
+                recordLag(batch);
+                return;
+            } catch (Exception e) {
+                if (attempt >= writeRetries) {
+                    handleFailedBatch(batch, e);
+                    return;
+                }
+                logger.warn("Batch insert of {} sensor rows failed (attempt {}/{}): {}",
+                        batch.size(), attempt, writeRetries, e.getMessage());
+                try {
+                    Thread.sleep(200L * attempt);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    handleFailedBatch(batch, e);
+                    return;
+                }
+            }
+        }
+    }
+
+    private void recordLag(List<SensorData> rows) {
+        long now = System.currentTimeMillis();
+        ZoneId zone = ZoneId.systemDefault();
+        for (SensorData row : rows) {
+            lagTimer.record(Math.max(0, now - row.getCreatedAt().atZone(zone).toInstant().toEpochMilli()), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void handleFailedBatch(List<SensorData> batch, Exception cause) {
+        if (spool != null) {
+            try {
+                for (SensorData data : batch) {
+                    spool.append(data);
+                }
+                spilledCounter.increment(batch.size());
+                logger.error("Batch insert failed, spilled {} sensor rows to disk", batch.size(), cause);
+                return;
+            } catch (IOException e) {
+                logger.error("Cannot spill failed batch to disk", e);
+            }
+        }
+        droppedWriteFailedCounter.increment(batch.size());
+        logger.error("Batch insert failed, dropped {} sensor rows", batch.size(), cause);
+    }
+
+    private void replaySpool() {
+        if (spool == null || spool.size() == 0 || !replaying.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            int replayed = spool.drain(batchSize, rows -> {
+                int duplicates = flushTimer.record(() -> sensorDataJdbcRepository.batchInsert(rows));
+                persistedCounter.increment(rows.size() - duplicates);
+                duplicateCounter.increment(duplicates);
+                recordLag(rows);
+            });
+            if (replayed > 0) {
+                logger.info("Replayed {} spilled sensor rows", replayed);
+            }
+        } catch (Exception e) {
+            logger.warn("Replaying spilled sensor rows failed, will retry: {}", e.getMessage());
+        } finally {
+            replaying.set(false);
+        }
+    }
+
+    /** Dọn các dấu vân tay khử trùng đã hết cửa sổ (chỉ có ở chế độ cluster SHARED). */
+    @Scheduled(fixedDelayString = "${mqtt.ingest.dedup-prune-interval-ms:60000}")
+    public void pruneDedup() {
+        if (!sensorDataJdbcRepository.isDeduplicating()) {
+            return;
+        }
+        try {
+            int pruned = sensorDataJdbcRepository.pruneDedup();
+            logger.debug("Pruned {} sensor dedup fingerprints", pruned);
+        } catch (Exception e) {
+            logger.warn("Pruning sensor dedup fingerprints failed: {}", e.getMessage());
+        }
+    }
+
+    @PreDestroy
+    public void stop() {
+        running = false;
+        for (Thread worker : workers) {
+            try {
+                worker.join(TimeUnit.SECONDS.toMillis(10));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (!queue.isEmpty()) {
+            logger.warn("Sensor ingest stopped with {} rows still queued", queue.size());
+        }
+        if (spool != null) {
+            spool.close();
+        }
+    }
+
+    private static class SensorDataCodec implements DiskSpool.Codec<SensorData> {
+        @Override
+        public void write(SensorData data, DataOutput out) throws IOException {
+            out.writeLong(data.getId());
+            out.writeLong(data.getDevice().getId());
+            out.writeFloat(data.getTemperature());
+            out.writeFloat(data.getHumidity());
+            out.writeFloat(data.getLight());
+            out.writeFloat(data.getGas());
+            out.writeInt(data.getAlertLed());
+            out.writeInt(data.getBuzzer());
+            out.writeInt(data.getLed());
+            out.writeInt(data.getFan());
+            out.writeInt(data.getServo());
+            writeNullable(out, data.getTopic());
+            writeNullable(out, data.getPayloadEncoding() == null ? null : data.getPayloadEncoding().name());
+            byte[] raw = data.getPayloadRaw();
+            out.writeInt(raw == null ? -1 : raw.length);
+            if (raw != null) {
+                out.write(raw);
+            }
+            writeNullable(out, data.getBroker());
+            out.writeLong(data.getCreatedAt().toEpochSecond(ZoneOffset.UTC));
+            out.writeInt(data.getCreatedAt().getNano());
+        }
+
+        @Override
+        public SensorData read(DataInput in) throws IOException {
+            SensorData data = new SensorData();
+            data.setId(in.readLong());
+            Device device = new Device();
+            device.setId(in.readLong());
+            data.setDevice(device);
+            data.setTemperature(in.readFloat());
+            data.setHumidity(in.readFloat());
+            data.setLight(in.readFloat());
+            data.setGas(in.readFloat());
+            data.setAlertLed(in.readInt());
+            data.setBuzzer(in.readInt());
+            data.setLed(in.readInt());
+            data.setFan(in.readInt());
+            data.setServo(in.readInt());
+            data.setTopic(readNullable(in));
+            String encoding = readNullable(in);
+            data.setPayloadEncoding(encoding == null ? null : PayloadEncoding.valueOf(encoding));
+            int rawLength = in.readInt();
+            if (rawLength >= 0) {
+                byte[] raw = new byte[rawLength];
+                in.readFully(raw);
+                data.setPayloadRaw(raw);
+            }
+            data.setBroker(readNullable(in));
+            data.setCreatedAt(LocalDateTime.ofEpochSecond(in.readLong(), in.readInt(), ZoneOffset.UTC));
+            return data;
+        }
+
+        private static void writeNullable(DataOutput out, String value) throws IOException {
+            out.writeBoolean(value != null);
+            if (value != null) {
+                out.writeUTF(value);
+            }
+        }
+
+        private static String readNullable(DataInput in) throws IOException {
+            return in.readBoolean() ? in.readUTF() : null;
+        }
+    }
+}
@@ -0,0 +1,205 @@
+package com.ptit.service.service;
+
+import com.ptit.service.repository.SensorDataColdRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Date;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Quản lý phân vùng theo ngày của bảng sensor_data: tạo trước phân vùng cho các ngày sắp tới và
+ * xoá nguyên phân vùng (cùng các chunk ở tầng lạnh) đã quá hạn lưu trữ. Việc xoá chỉ chạy khi đặt
+ * {@code mqtt.storage.retention-days > 0}; mặc định giữ vĩnh viễn.
+ *
+ * <p>Dòng của một ngày chưa có phân vùng (service dừng lâu hơn premake-days, đồng hồ thiết bị lệch) rơi vào
+ * sensor_data_default, và khi đó PostgreSQL không cho tạo phân vùng của ngày đó nữa. Mỗi lần bảo trì các
+ * ngày như vậy được chuyển ra phân vùng riêng, để retention và tầng lạnh xử lý như mọi ngày khác.
+ */
+@Service
+public class SensorDataPartitionService {
+
+    private static final Logger logger = LoggerFactory.getLogger(SensorDataPartitionService.class);
+
+    private static final Pattern PARTITION_NAME = Pattern.compile("sensor_data_p(\\d{8})");
+    private static final DateTimeFormatter PARTITION_DATE = DateTimeFormatter.BASIC_ISO_DATE;
+
+    private static final String LIST_PARTITIONS_SQL = "SELECT child.relname FROM pg_inherits i "
+            + "JOIN pg_class child ON child.oid = i.inhrelid "
+            + "JOIN pg_class parent ON parent.oid = i.inhparent "
+            + "WHERE parent.relname = 'sensor_data'";
+
+    // Bảng theo ngày đã tách khỏi sensor_data nhưng chưa xoá (tầng lạnh dừng giữa chừng)
+    private static final String LIST_DETACHED_SQL = "SELECT relname FROM pg_class "
+            + "WHERE relkind = 'r' AND NOT relispartition AND relname ~ '^sensor_data_p[0-9]{8}$'";
+
+    private static final String DETACH_PENDING_SQL = "SELECT inhdetachpending FROM pg_inherits WHERE inhrelid = ?::regclass";
+
+    private static final String HAS_DEFAULT_SQL =
+            "SELECT partdefid <> 0 FROM pg_partitioned_table WHERE partrelid = 'sensor_data'::regclass";
+
+    private static final String DEFAULT_DAYS_SQL =
+            "SELECT DISTINCT created_at::date FROM sensor_data_default ORDER BY 1";
+
+    private static final String DEFAULT_HAS_DAY_SQL =
+            "SELECT EXISTS (SELECT 1 FROM sensor_data_default WHERE created_at >= ? AND created_at < ?)";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final SensorDataColdRepository coldRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final Counter movedRowsCounter;
+    private final Counter stuckDaysCounter;
+
+    @Value("${mqtt.storage.lock-timeout-ms:5000}")
+    private long lockTimeoutMs;
+
+    @Value("${mqtt.storage.retention-days:0}")
+    private int retentionDays;
+
+    @Value("${mqtt.storage.premake-days:3}")
+    private int premakeDays;
+
+    public SensorDataPartitionService(JdbcTemplate jdbcTemplate, SensorDataColdRepository coldRepository,
+                                      PlatformTransactionManager transactionManager, MeterRegistry meterRegistry) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.coldRepository = coldRepository;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.movedRowsCounter = meterRegistry.counter("sensor.partition.default_rows_moved");
+        this.stuckDaysCounter = meterRegistry.counter("sensor.partition.stuck_days");
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void onStartup() {
+        maintainPartitions();
+    }
+
+    @Scheduled(cron = "${mqtt.storage.maintenance-cron:0 5 0 * * *}")
+    public void maintainPartitions() {
+        LocalDate today = LocalDate.now();
+        for (int i = 0; i <= premakeDays; i++) {
+            createPartition(today.plusDays(i));
+        }
+        // Các ngày khác đang nằm trong phân vùng default
+        for (LocalDate day : jdbcTemplate.queryForList(DEFAULT_DAYS_SQL, LocalDate.class)) {
+            createPartition(day);
+        }
+        if (retentionDays > 0) {
+            dropPartitionsBefore(today.minusDays(retentionDays));
+        }
+    }
+
+    /**
+     * Tạo phân vùng của {@code day} nếu chưa có. Nếu phân vùng default đang giữ dòng của ngày đó thì các dòng
+     * được chuyển sang phân vùng mới trong cùng giao dịch.
+     */
+    public void createPartition(LocalDate day) {
+        try {
+            if (Boolean.TRUE.equals(jdbcTemplate.queryForObject(DEFAULT_HAS_DAY_SQL, Boolean.class,
+                    day.atStartOfDay(), day.plusDays(1).atStartOfDay()))) {
+                moveOutOfDefault(day);
+            } else {
+                jdbcTemplate.queryForObject("SELECT create_sensor_data_partition(?)", String.class, Date.valueOf(day));
+            }
+        } catch (Exception e) {
+            // Thường do hết lock_timeout khi chuyển dòng khỏi default; lần bảo trì sau thử lại
+            stuckDaysCounter.increment();
+            logger.error("Cannot create sensor_data partition for {}, its rows stay in sensor_data_default", day, e);
+        }
+    }
+
+    /**
+     * Tạo bảng của ngày ngoài cây phân vùng, chuyển các dòng của ngày từ default sang rồi ATTACH. Khoá
+     * ACCESS EXCLUSIVE trên default (ATTACH cũng cần) giữ các dòng mới của ngày không lọt vào default giữa
+     * chừng; ghi vào các phân vùng khác không bị chặn.
+     */
+    private void moveOutOfDefault(LocalDate day) {
+        String partition = "sensor_data_p" + day.format(PARTITION_DATE);
+        Integer moved = transactionTemplate.execute(status -> {
+            jdbcTemplate.execute("SET LOCAL lock_timeout = " + lockTimeoutMs);
+            jdbcTemplate.execute("LOCK TABLE sensor_data_default IN ACCESS EXCLUSIVE MODE");
+            jdbcTemplate.execute("CREATE TABLE " + partition + " (LIKE sensor_data INCLUDING DEFAULTS)");
+            int rows = jdbcTemplate.update("WITH moved AS (DELETE FROM sensor_data_default "
+                    + "WHERE created_at >= ? AND created_at < ? RETURNING *) "
+                    + "INSERT INTO " + partition + " SELECT * FROM moved",
+                    day.atStartOfDay(), day.plusDays(1).atStartOfDay());
+            jdbcTemplate.execute("ALTER TABLE sensor_data ATTACH PARTITION " + partition
+                    + " FOR VALUES FROM ('" + day + "') TO ('" + day.plusDays(1) + "')");
+            return rows;
+        });
+        movedRowsCounter.increment(moved == null ? 0 : moved);
+        logger.warn("Moved {} rows of {} from sensor_data_default into new partition {}", moved, day, partition);
+    }
+
+    /**
+     * Các phân vùng theo ngày hiện có (không gồm phân vùng default), theo ngày tăng dần.
+     */
+    public Map<LocalDate, String> dailyPartitions() {
+        return byDay(jdbcTemplate.queryForList(LIST_PARTITIONS_SQL, String.class));
+    }
+
+    /**
+     * Các bảng theo ngày không còn là phân vùng của sensor_data (đã DETACH nhưng chưa DROP), theo ngày tăng dần.
+     */
+    public Map<LocalDate, String> detachedPartitions() {
+        return byDay(jdbcTemplate.queryForList(LIST_DETACHED_SQL, String.class));
+    }
+
+    /**
+     * Phân vùng đang ở trạng thái DETACH CONCURRENTLY dở dang, cần {@code DETACH PARTITION ... FINALIZE}.
+     */
+    public boolean isDetachPending(String partition) {
+        List<Boolean> pending = jdbcTemplate.queryForList(DETACH_PENDING_SQL, Boolean.class, partition);
+        return !pending.isEmpty() && Boolean.TRUE.equals(pending.get(0));
+    }
+
+    /**
+     * sensor_data có phân vùng default không; PostgreSQL không cho DETACH CONCURRENTLY khi có.
+     */
+    public boolean hasDefaultPartition() {
+        return Boolean.TRUE.equals(jdbcTemplate.queryForObject(HAS_DEFAULT_SQL, Boolean.class));
+    }
+
+    public int dropPartitionsBefore(LocalDate cutoff) {
+        int dropped = 0;
+        for (Map.Entry<LocalDate, String> partition : dailyPartitions().entrySet()) {
+            if (!partition.getKey().isBefore(cutoff)) {
+                break;
+            }
+            jdbcTemplate.execute("DROP TABLE IF EXISTS " + partition.getValue());
+            logger.info("Dropped expired sensor_data partition {}", partition.getValue());
+            dropped++;
+        }
+        int chunks = coldRepository.deleteBefore(cutoff);
+        if (chunks > 0) {
+            logger.info("Deleted {} expired sensor_data_cold chunks", chunks);
+        }
+        return dropped;
+    }
+
+    private static Map<LocalDate, String> byDay(List<String> tables) {
+        Map<LocalDate, String> partitions = new TreeMap<>();
+        for (String partition : tables) {
+            Matcher matcher = PARTITION_NAME.matcher(partition);
+            if (matcher.matches()) {
+                partitions.put(LocalDate.parse(matcher.group(1), PARTITION_DATE), partition);
+            }
+        }
+        return partitions;
+    }
+}
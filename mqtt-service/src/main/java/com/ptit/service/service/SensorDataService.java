@@ -1,16 +1,73 @@
 package com.ptit.service.service;
 
+import com.ptit.service.entity.Device;
 import com.ptit.service.entity.SensorData;
+import com.ptit.service.entity.SensorRollup;
+import com.ptit.service.entity.enums.RollupResolution;
+import com.ptit.service.exception.BaseException;
+import com.ptit.service.exception.ErrorCode;
+import com.ptit.service.repository.SensorRollupRepository;
+import com.ptit.service.response.DeviceConnectionResponse;
+import com.ptit.service.response.SensorAggregatePoint;
+import com.ptit.service.response.SensorHistoryResponse;
+import com.ptit.service.response.SensorReadingPage;
+import com.ptit.service.response.SensorReadingResponse;
+import com.ptit.service.response.SensorSparkline;
 import com.ptit.service.repository.SensorDataRepository;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.data.domain.Page;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
 import org.springframework.stereotype.Service;
 
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
 @Service
 public class SensorDataService {
     @Autowired
     private SensorDataRepository sensorDataRepository;
+    @Autowired
+    private SensorDataIngestService sensorDataIngestService;
+    @Autowired
+    private LatestReadingStore latestReadingStore;
+    @Autowired
+    private DeviceRegistry deviceRegistry;
+    @Autowired
+    private SensorRollupService sensorRollupService;
+    @Autowired
+    private SensorRollupRepository sensorRollupRepository;
+    @Autowired
+    private SensorDataColdTierService sensorDataColdTierService;
+    @Autowired
+    private RecentReadingCache recentReadingCache;
+
+    @Value("${mqtt.storage.latest-lookback-days:7}")
+    private int latestLookbackDays;
+
+    @Value("${mqtt.history.max-page-size:500}")
+    private int maxPageSize;
+
+    // Thứ tự của trang lịch sử: (created_at, id) giảm dần
+    private static final Comparator<SensorReadingResponse> NEWEST_FIRST = Comparator
+            .comparing(SensorReadingResponse::getCreatedAt)
+            .thenComparing(SensorReadingResponse::getId)
+            .reversed();
+
+    // Thiết bị đã kiểm tra trong DB mà chưa có dữ liệu, tránh truy vấn lại cho tới khi có bản tin mới
+    private final Set<Long> devicesWithoutData = ConcurrentHashMap.newKeySet();
 
     public SensorData saveSensorData(SensorData data) {
         return sensorDataRepository.save(data);
@@ -20,12 +77,290 @@ public class SensorDataService {
         sensorDataRepository.save(sensorData);
     }
 
-    public SensorData getLatestData(Long deviceId) {
-        return sensorDataRepository.findFirstByDeviceIdOrderByCreatedAtDesc(deviceId);
+    /**
+     * Nhận một bản ghi từ luồng MQTT: đưa vào hàng đợi ghi DB và cập nhật giá trị mới nhất.
+     *
+     * @return {@code false} nếu bản ghi bị bỏ do hàng đợi ghi đầy
+     */
+    public boolean accept(SensorData sensorData) {
+        if (!sensorDataIngestService.submit(sensorData)) {
+            return false;
+        }
+        latestReadingStore.update(sensorData);
+        recentReadingCache.add(sensorData);
+        sensorRollupService.record(sensorData);
+        devicesWithoutData.remove(sensorData.getDevice().getId());
+        return true;
+    }
+
+    /**
+     * Bản ghi của thiết bị do instance khác ghi (cluster mode HASH, mọi instance nhận mọi bản tin): chỉ cập
+     * nhật giá trị mới nhất, để /devices/latest và /app/device/{id} đúng ở instance nào cũng được.
+     */
+    public void observe(SensorData sensorData) {
+        latestReadingStore.update(sensorData);
+        devicesWithoutData.remove(sensorData.getDevice().getId());
+    }
+
+    public SensorReadingResponse getLatestData(Long deviceId) {
+        SensorData latest = latestReading(deviceId);
+        return latest == null ? null : SensorReadingResponse.from(latest);
+    }
+
+    /**
+     * Broker, topic và payload của bản tin mới nhất từ thiết bị.
+     */
+    public DeviceConnectionResponse getLatestConnection(Long deviceId) {
+        return DeviceConnectionResponse.from(latestReading(deviceId));
+    }
+
+    private SensorData latestReading(Long deviceId) {
+        SensorData latest = latestReadingStore.get(deviceId);
+        if (latest != null || devicesWithoutData.contains(deviceId)) {
+            return latest;
+        }
+        // Chỉ truy vấn DB khi khởi động lạnh với thiết bị chưa gửi dữ liệu kể từ lúc service chạy.
+        // Tìm trong các phân vùng gần đây trước, chỉ quét toàn bảng khi thiết bị im lặng lâu.
+        latest = sensorDataRepository.findFirstByDeviceIdAndCreatedAtGreaterThanEqualOrderByCreatedAtDesc(
+                deviceId, latestLookbackStart());
+        if (latest == null) {
+            latest = sensorDataRepository.findFirstByDeviceIdOrderByCreatedAtDesc(deviceId);
+        }
+        if (latest == null) {
+            devicesWithoutData.add(deviceId);
+            return null;
+        }
+        latestReadingStore.update(latest);
+        return latestReadingStore.get(deviceId);
+    }
+
+    /**
+     * Giá trị mới nhất của tất cả thiết bị, key là id DB của thiết bị. Các thiết bị chưa có trong
+     * bộ nhớ được nạp từ DB bằng một truy vấn duy nhất.
+     */
+    public Map<Long, SensorReadingResponse> getLatestForAllDevices() {
+        List<Long> missing = deviceRegistry.all().stream()
+                .map(Device::getId)
+                .filter(id -> !latestReadingStore.contains(id) && !devicesWithoutData.contains(id))
+                .collect(Collectors.toList());
+        if (!missing.isEmpty()) {
+            sensorDataRepository.findLatestByDeviceIdsSince(missing, latestLookbackStart())
+                    .forEach(latestReadingStore::update);
+            List<Long> stillMissing = missing.stream()
+                    .filter(id -> !latestReadingStore.contains(id))
+                    .collect(Collectors.toList());
+            if (!stillMissing.isEmpty()) {
+                sensorDataRepository.findLatestByDeviceIds(stillMissing).forEach(latestReadingStore::update);
+            }
+            missing.stream()
+                    .filter(id -> !latestReadingStore.contains(id))
+                    .forEach(devicesWithoutData::add);
+        }
+        Map<Long, SensorReadingResponse> result = new HashMap<>();
+        latestReadingStore.snapshot().forEach((id, data) -> result.put(id, SensorReadingResponse.from(data)));
+        return result;
+    }
+
+    private LocalDateTime latestLookbackStart() {
+        return LocalDate.now().minusDays(latestLookbackDays).atStartOfDay();
+    }
+
+    /**
+     * Một trang lịch sử thô của thiết bị, mới nhất trước, bắt đầu sau {@code cursor} (null = trang đầu).
+     * Chi phí mỗi trang không đổi dù lùi xa bao nhiêu vì truy vấn đi thẳng tới vị trí con trỏ trong index.
+     * Các dòng đã chuyển sang tầng lạnh được ghép vào theo cùng thứ tự (created_at, id). Trang nằm trong
+     * các bản ghi gần nhất được trả từ {@link RecentReadingCache} mà không truy vấn DB.
+     */
+    public SensorReadingPage getHistoryPage(Long deviceId, String cursor, int limit) {
+        if (limit <= 0) {
+            throw new BaseException(ErrorCode.INVALID_REQUEST);
+        }
+        int size = Math.min(limit, maxPageSize);
+        SensorReadingResponse after = cursor == null || cursor.isEmpty() ? null : decodeCursor(cursor);
+        // Lấy thêm một dòng để biết còn trang sau mà không cần đếm
+        List<SensorReadingResponse> items = recentReadingCache.readBefore(deviceId,
+                after == null ? null : after.getCreatedAt(), after == null ? null : after.getId(), size + 1);
+        if (items == null) {
+            items = readPage(deviceId, after, size);
+        }
+        boolean hasMore = items.size() > size;
+        if (hasMore) {
+            items = items.subList(0, size);
+        }
+        return SensorReadingPage.builder()
+                .deviceId(deviceId)
+                .items(items)
+                .hasMore(hasMore)
+                .nextCursor(hasMore ? encodeCursor(items.get(items.size() - 1)) : null)
+                .build();
+    }
+
+    /**
+     * {@code points} bản ghi gần nhất của thiết bị dạng cột, thường lấy từ bộ đệm mà không truy vấn DB.
+     */
+    public SensorSparkline getSparkline(Long deviceId, int points) {
+        if (points <= 0) {
+            throw new BaseException(ErrorCode.INVALID_REQUEST);
+        }
+        int size = Math.min(points, maxPageSize);
+        List<SensorReadingResponse> readings = recentReadingCache.readBefore(deviceId, null, null, size);
+        if (readings == null) {
+            readings = readPage(deviceId, null, size);
+            readings = readings.subList(0, Math.min(size, readings.size()));
+        }
+        int n = readings.size();
+        long[] offsets = new long[n];
+        float[] temperature = new float[n];
+        float[] humidity = new float[n];
+        float[] light = new float[n];
+        float[] gas = new float[n];
+        LocalDateTime start = n == 0 ? null : readings.get(n - 1).getCreatedAt();
+        for (int i = 0; i < n; i++) {
+            SensorReadingResponse reading = readings.get(n - 1 - i);
+            offsets[i] = Duration.between(start, reading.getCreatedAt()).toMillis();
+            temperature[i] = reading.getTemperature();
+            humidity[i] = reading.getHumidity();
+            light[i] = reading.getLight();
+            gas[i] = reading.getGas();
+        }
+        return SensorSparkline.builder()
+                .deviceId(deviceId)
+                .start(start)
+                .offsetsMs(offsets)
+                .temperature(temperature)
+                .humidity(humidity)
+                .light(light)
+                .gas(gas)
+                .build();
+    }
+
+    // Tối đa size + 1 dòng đứng trước after từ DB (tầng nóng và tầng lạnh), mới nhất trước
+    private List<SensorReadingResponse> readPage(Long deviceId, SensorReadingResponse after, int size) {
+        Pageable page = PageRequest.of(0, size + 1);
+        List<SensorReadingResponse> items = after == null
+                ? sensorDataRepository.findReadings(deviceId, page)
+                : sensorDataRepository.findReadingsBefore(deviceId, after.getCreatedAt(), after.getId(), page);
+        // Trang nóng đã đủ thì chỉ những dòng lạnh mới hơn dòng nóng cuối cùng mới có thể chen vào
+        LocalDateTime notBefore = items.size() > size ? items.get(items.size() - 1).getCreatedAt() : null;
+        List<SensorReadingResponse> cold = sensorDataColdTierService.readBefore(deviceId,
+                after == null ? null : after.getCreatedAt(), after == null ? null : after.getId(), notBefore, size + 1);
+        if (!cold.isEmpty()) {
+            items = new ArrayList<>(items);
+            items.addAll(cold);
+            items.sort(NEWEST_FIRST);
+            removeDuplicates(items);
+        }
+        return items;
+    }
+
+    // Ngày vừa chép sang tầng lạnh nhưng phân vùng chưa DETACH có ở cả hai tầng; sau khi sắp xếp các bản trùng
+    // nằm cạnh nhau
+    private static void removeDuplicates(List<SensorReadingResponse> sorted) {
+        int kept = 0;
+        for (int i = 0; i < sorted.size(); i++) {
+            SensorReadingResponse reading = sorted.get(i);
+            if (kept == 0 || !reading.getId().equals(sorted.get(kept - 1).getId())) {
+                sorted.set(kept++, reading);
+            }
+        }
+        sorted.subList(kept, sorted.size()).clear();
+    }
+
+    // Con trỏ là "createdAt|id" của dòng cuối trang, mã hoá base64url để client coi như chuỗi mờ
+    private static String encodeCursor(SensorReadingResponse last) {
+        String raw = last.getCreatedAt() + "|" + last.getId();
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static SensorReadingResponse decodeCursor(String cursor) {
+        try {
+            String raw = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            int sep = raw.lastIndexOf('|');
+            SensorReadingResponse position = new SensorReadingResponse();
+            position.setCreatedAt(LocalDateTime.parse(raw.substring(0, sep)));
+            position.setId(Long.parseLong(raw.substring(sep + 1)));
+            return position;
+        } catch (RuntimeException e) {
+            throw new BaseException(ErrorCode.INVALID_REQUEST, e);
+        }
+    }
+
+    /**
+     * Lịch sử theo khoảng thời gian. Với {@code resolution = "auto"} chọn độ phân giải mịn nhất mà số
+     * điểm không vượt quá {@code maxPoints}; "raw" trả về dữ liệu gốc (tối đa {@code maxPoints} dòng).
+     */
+    public SensorHistoryResponse getAggregatedHistory(Long deviceId, LocalDateTime from, LocalDateTime to,
+                                                      String resolution, int maxPoints) {
+        if (from == null || to == null || !from.isBefore(to) || maxPoints <= 0) {
+            throw new BaseException(ErrorCode.INVALID_REQUEST);
+        }
+        List<SensorAggregatePoint> points;
+        String resolutionCode;
+        if ("raw".equalsIgnoreCase(resolution)) {
+            resolutionCode = "raw";
+            List<SensorReadingResponse> readings = sensorDataRepository
+                    .findByDeviceIdAndCreatedAtGreaterThanEqualAndCreatedAtLessThanOrderByCreatedAtAsc(
+                            deviceId, from, to, PageRequest.of(0, maxPoints))
+                    .stream()
+                    .map(SensorReadingResponse::from)
+                    .collect(Collectors.toCollection(ArrayList::new));
+            readings.addAll(sensorDataColdTierService.readRange(deviceId, from, to, maxPoints));
+            readings.sort(NEWEST_FIRST.reversed());
+            removeDuplicates(readings);
+            points = readings.stream()
+                    .limit(maxPoints)
+                    .map(reading -> {
+                        SensorRollup single = new SensorRollup(deviceId, null, reading.getCreatedAt());
+                        single.add(reading.getTemperature(), reading.getHumidity(), reading.getLight(), reading.getGas());
+                        return SensorAggregatePoint.from(single);
+                    })
+                    .collect(Collectors.toList());
+        } else {
+            RollupResolution selected = resolveResolution(resolution, Duration.between(from, to), maxPoints);
+            resolutionCode = selected.getCode();
+            points = readRollups(deviceId, selected, from, to);
+        }
+        return SensorHistoryResponse.builder()
+                .deviceId(deviceId)
+                .resolution(resolutionCode)
+                .from(from)
+                .to(to)
+                .points(points)
+                .build();
+    }
+
+    private List<SensorAggregatePoint> readRollups(Long deviceId, RollupResolution resolution,
+                                                   LocalDateTime from, LocalDateTime to) {
+        LocalDateTime start = resolution.truncate(from);
+        TreeMap<LocalDateTime, SensorRollup> buckets = new TreeMap<>();
+        for (SensorRollup rollup : sensorRollupRepository.findRange(deviceId, resolution, start, to)) {
+            buckets.put(rollup.getBucketStart(), rollup);
+        }
+        // Bổ sung các phút gần nhất chưa được ghi xuống sensor_rollup
+        for (SensorRollup minute : sensorRollupService.pendingFor(deviceId, start, to)) {
+            SensorRollup bucket = minute.rebucket(resolution);
+            buckets.merge(bucket.getBucketStart(), bucket, (a, b) -> {
+                a.merge(b);
+                return a;
+            });
+        }
+        return buckets.values().stream().map(SensorAggregatePoint::from).collect(Collectors.toList());
     }
 
-    public Page<SensorData> getHistory(Long deviceId, Pageable pageable) {
-        // lấy 100 bản ghi gần nhất
-        return sensorDataRepository.findTop100ByDeviceIdOrderByCreatedAtDesc(deviceId, pageable);
+    private RollupResolution resolveResolution(String resolution, Duration range, int maxPoints) {
+        if (resolution == null || "auto".equalsIgnoreCase(resolution)) {
+            for (RollupResolution candidate : RollupResolution.values()) {
+                if (range.toMillis() / candidate.getStep().toMillis() <= maxPoints) {
+                    return candidate;
+                }
+            }
+            return RollupResolution.DAY;
+        }
+        for (RollupResolution candidate : RollupResolution.values()) {
+            if (candidate.getCode().equalsIgnoreCase(resolution) || candidate.name().equalsIgnoreCase(resolution)) {
+                return candidate;
+            }
+        }
+        throw new BaseException(ErrorCode.INVALID_REQUEST);
     }
 }
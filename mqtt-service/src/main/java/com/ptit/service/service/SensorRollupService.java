@@ -0,0 +1,270 @@
+package com.ptit.service.service;
+
+import com.ptit.service.entity.SensorData;
+import com.ptit.service.entity.SensorRollup;
+import com.ptit.service.entity.enums.RollupResolution;
+import com.ptit.service.repository.SensorRollupRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PreDestroy;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Tổng hợp dữ liệu cảm biến theo phút/giờ/ngày. Bản ghi được cộng vào bucket phút trong bộ nhớ khi
+ * được nhận; bucket phút đã đóng được đẩy xuống sensor_rollup (cộng dồn vào cả ba độ phân giải).
+ *
+ * <p>Khi khởi động, job bù cộng dồn dữ liệu sensor_data từ watermark chung tới lúc khởi động, dưới khoá
+ * advisory độc quyền và dời watermark trong cùng transaction nên chạy lại không cộng hai lần. Nếu còn
+ * instance khác đang flush (chạy cluster), các bản ghi trong khoảng đó do instance kia tổng hợp trực tiếp
+ * nên job bù bỏ qua; phần bản ghi mà lần chạy trước của instance này chưa kịp flush khi bị dừng đột ngột
+ * không được bù.
+ */
+@Service
+public class SensorRollupService {
+
+    private static final Logger logger = LoggerFactory.getLogger(SensorRollupService.class);
+
+    private static final String WATERMARK = "sensor_rollup";
+    // Dòng trạng thái riêng của từng instance, để nhận biết instance khác còn đang flush
+    private static final String INSTANCE_WATERMARK_PREFIX = WATERMARK + "@";
+
+    private final SensorRollupRepository sensorRollupRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final MqttClusterMembership clusterMembership;
+    private final String instanceWatermark;
+    private final Map<Key, PendingBucket> pending = new ConcurrentHashMap<>();
+    private final LocalDateTime startMinute = RollupResolution.MINUTE.truncate(LocalDateTime.now());
+    private volatile boolean caughtUp;
+
+    @Value("${mqtt.rollup.grace-seconds:10}")
+    private long graceSeconds;
+    @Value("${mqtt.rollup.flush-interval-ms:15000}")
+    private long flushIntervalMs;
+
+    public SensorRollupService(SensorRollupRepository sensorRollupRepository,
+                               PlatformTransactionManager transactionManager,
+                               MqttClusterMembership clusterMembership) {
+        this.sensorRollupRepository = sensorRollupRepository;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.clusterMembership = clusterMembership;
+        this.instanceWatermark = INSTANCE_WATERMARK_PREFIX + clusterMembership.getInstanceId();
+    }
+
+    public void record(SensorData data) {
+        LocalDateTime minute = RollupResolution.MINUTE.truncate(data.getCreatedAt());
+        if (minute.isBefore(startMinute)) {
+            // Khoảng trước lúc khởi động do job bù tính từ dữ liệu gốc
+            return;
+        }
+        Long deviceId = data.getDevice().getId();
+        Key key = new Key(deviceId, minute);
+        while (true) {
+            PendingBucket bucket = pending.computeIfAbsent(key,
+                    k -> new PendingBucket(new SensorRollup(deviceId, RollupResolution.MINUTE, minute)));
+            synchronized (bucket) {
+                // Bucket vừa bị flush lấy đi thì tạo bucket mới cho cùng phút
+                if (!bucket.closed) {
+                    bucket.rollup.add(data);
+                    return;
+                }
+            }
+        }
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public synchronized void catchUp() {
+        try {
+            transactionTemplate.executeWithoutResult(status -> {
+                sensorRollupRepository.lockExclusive();
+                LocalDateTime from = sensorRollupRepository.findWatermark(WATERMARK);
+                if (from == null) {
+                    from = sensorRollupRepository.findFirstRawTimestamp();
+                }
+                if (from != null && from.isBefore(startMinute)) {
+                    rebuild(RollupResolution.MINUTE.truncate(from), startMinute);
+                }
+                sensorRollupRepository.saveWatermark(WATERMARK, startMinute);
+                // Đánh dấu instance này đang tổng hợp trực tiếp từ startMinute, kể cả trước lần flush đầu
+                sensorRollupRepository.saveWatermark(instanceWatermark, startMinute);
+            });
+            caughtUp = true;
+        } catch (Exception e) {
+            logger.error("Sensor rollup catch-up failed, live rollups stay buffered until it succeeds", e);
+        }
+    }
+
+    /**
+     * Cộng dồn dữ liệu gốc trong [from, to) vào các bucket, trừ khi instance khác còn đang flush.
+     * Chạy trong transaction của {@link #catchUp()}.
+     */
+    private void rebuild(LocalDateTime from, LocalDateTime to) {
+        if (clusterMembership.getMode() != MqttClusterMembership.Mode.NONE) {
+            // Instance còn sống flush ít nhất mỗi flush-interval; nới gấp ba cho lần flush chậm
+            long activeWithinMs = 3 * flushIntervalMs + graceSeconds * 1000;
+            int active = sensorRollupRepository.countActive(INSTANCE_WATERMARK_PREFIX, instanceWatermark, activeWithinMs);
+            if (active > 0) {
+                logger.info("Skipping rollup catch-up for [{}, {}): {} other instances are rolling up live data",
+                        from, to, active);
+                return;
+            }
+        }
+        for (RollupResolution resolution : RollupResolution.values()) {
+            int buckets = sensorRollupRepository.rebuild(resolution, from, to);
+            logger.info("Added {} {} rollup buckets for [{}, {})", buckets, resolution.getCode(), from, to);
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${mqtt.rollup.flush-interval-ms:15000}")
+    public void flush() {
+        if (!caughtUp) {
+            catchUp();
+            if (!caughtUp) {
+                return;
+            }
+        }
+        LocalDateTime closedBefore = RollupResolution.MINUTE.truncate(LocalDateTime.now().minusSeconds(graceSeconds));
+        flushBefore(closedBefore, closedBefore);
+    }
+
+    private void flushBefore(LocalDateTime closedBefore, LocalDateTime watermark) {
+        Map<Key, SensorRollup> merged = new LinkedHashMap<>();
+        List<SensorRollup> taken = new ArrayList<>();
+        Iterator<Map.Entry<Key, PendingBucket>> it = pending.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Key, PendingBucket> entry = it.next();
+            if (!entry.getKey().bucket.isBefore(closedBefore)) {
+                continue;
+            }
+            it.remove();
+            PendingBucket pendingBucket = entry.getValue();
+            synchronized (pendingBucket) {
+                pendingBucket.closed = true;
+            }
+            SensorRollup minute = pendingBucket.rollup;
+            taken.add(minute);
+            for (RollupResolution resolution : RollupResolution.values()) {
+                SensorRollup bucket = minute.rebucket(resolution);
+                // Gộp trước trong Java: một lô INSERT ... ON CONFLICT không được chạm cùng một dòng hai lần
+                merged.merge(new Key(bucket.getDeviceId(), resolution, bucket.getBucketStart()), bucket,
+                        (a, b) -> {
+                            a.merge(b);
+                            return a;
+                        });
+            }
+        }
+        if (merged.isEmpty()) {
+            return;
+        }
+        try {
+            transactionTemplate.executeWithoutResult(status -> {
+                sensorRollupRepository.lockShared();
+                sensorRollupRepository.upsertAdditive(new ArrayList<>(merged.values()));
+                sensorRollupRepository.saveWatermark(WATERMARK, watermark);
+                sensorRollupRepository.saveWatermark(instanceWatermark, watermark);
+            });
+        } catch (Exception e) {
+            logger.error("Flushing {} sensor rollup buckets failed, will retry", merged.size(), e);
+            for (SensorRollup minute : taken) {
+                restore(minute);
+            }
+        }
+    }
+
+    private void restore(SensorRollup minute) {
+        Key key = new Key(minute.getDeviceId(), minute.getBucketStart());
+        while (true) {
+            PendingBucket bucket = pending.computeIfAbsent(key, k -> new PendingBucket(
+                    new SensorRollup(minute.getDeviceId(), RollupResolution.MINUTE, minute.getBucketStart())));
+            synchronized (bucket) {
+                if (!bucket.closed) {
+                    bucket.rollup.merge(minute);
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Các bucket phút còn trong bộ nhớ (chưa ghi xuống DB) của một thiết bị, dùng để bổ sung phần
+     * mới nhất cho truy vấn lịch sử.
+     */
+    public List<SensorRollup> pendingFor(Long deviceId, LocalDateTime from, LocalDateTime to) {
+        List<SensorRollup> result = new ArrayList<>();
+        for (Map.Entry<Key, PendingBucket> entry : pending.entrySet()) {
+            Key key = entry.getKey();
+            if (key.deviceId.equals(deviceId) && !key.bucket.isBefore(from) && key.bucket.isBefore(to)) {
+                PendingBucket bucket = entry.getValue();
+                synchronized (bucket) {
+                    result.add(bucket.rollup.rebucket(RollupResolution.MINUTE));
+                }
+            }
+        }
+        return result;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (caughtUp) {
+            // Ghi cả bucket đang mở; job bù cộng dồn nên watermark phải qua hết phút hiện tại, nếu không
+            // lần khởi động sau sẽ cộng phút này thêm một lần
+            flushBefore(LocalDateTime.MAX, RollupResolution.MINUTE.truncate(LocalDateTime.now()).plusMinutes(1));
+        }
+    }
+
+    private static final class PendingBucket {
+        private final SensorRollup rollup;
+        private boolean closed;
+
+        PendingBucket(SensorRollup rollup) {
+            this.rollup = rollup;
+        }
+    }
+
+    private static final class Key {
+        private final Long deviceId;
+        private final RollupResolution resolution;
+        private final LocalDateTime bucket;
+
+        Key(Long deviceId, LocalDateTime minute) {
+            this(deviceId, RollupResolution.MINUTE, minute);
+        }
+
+        Key(Long deviceId, RollupResolution resolution, LocalDateTime bucket) {
+            this.deviceId = deviceId;
+            this.resolution = resolution;
+            this.bucket = bucket;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) o;
+            return deviceId.equals(key.deviceId) && resolution == key.resolution && bucket.equals(key.bucket);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(deviceId, resolution, bucket);
+        }
+    }
+}
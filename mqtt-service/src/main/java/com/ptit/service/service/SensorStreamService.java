@@ -0,0 +1,509 @@
+package com.ptit.service.service;
+
+import com.ptit.service.exception.BaseException;
+import com.ptit.service.exception.ErrorCode;
+import com.ptit.service.response.SensorReadingResponse;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.time.ZoneId;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Luồng Server-Sent Events gọn cho màn hình theo dõi nhiều thiết bị trên một kết nối.
+ *
+ * <p>Mỗi luồng nhận một sự kiện {@code snapshot} với đủ giá trị của các thiết bị đã chọn, sau đó mỗi cửa
+ * sổ {@code window-ms} một sự kiện {@code delta} chỉ chứa các trường đã đổi của các thiết bị có cập
+ * nhật. Số thực được làm tròn tới {@code precision} chữ số thập phân trước khi so sánh, nên dao động nhỏ
+ * hơn độ chính xác không sinh ra delta. Khoá ngắn theo bản tin SmallKit (temp, hum, lgt, gas, led, fan,
+ * alt, bzr, sv), {@code ts} là epoch millis.
+ *
+ * <p>Delta của mỗi thiết bị được tính và chuyển JSON một lần cho mọi luồng, vì mọi luồng đều đồng bộ
+ * với cùng một trạng thái đã phát. Việc gửi chạy trên pool riêng có hàng đợi giới hạn, mỗi luồng tối đa
+ * một lần gửi đang chờ: luồng còn bận ở cửa sổ sau bị bỏ delta và nhận lại snapshot khi rảnh, nên client
+ * chậm không làm chậm các client khác. Lần ghi bị treo được Tomcat cắt sau
+ * {@code server.tomcat.connection-timeout}; luồng bận liên tục {@code max-busy-windows} cửa sổ thì bị đóng
+ * để client (EventSource) kết nối lại.
+ *
+ * <p>Luồng nhận cả giá trị của thiết bị không thuộc instance này: ở cluster mode HASH mọi instance đều nhận
+ * mọi bản tin, nên client kết nối vào instance nào cũng thấy đủ thiết bị. Ở SHARED mỗi bản tin chỉ tới một
+ * instance nên luồng phải tắt ({@code mqtt.stream.enabled=false}).
+ */
+@Service
+public class SensorStreamService {
+
+    private static final Logger logger = LoggerFactory.getLogger(SensorStreamService.class);
+
+    private static final String[] FLOAT_FIELDS = {"temp", "hum", "lgt", "gas"};
+    private static final String[] INT_FIELDS = {"alt", "bzr", "led", "fan", "sv"};
+
+    private final SensorDataService sensorDataService;
+    private final boolean enabled;
+    private final long windowMs;
+    private final long timeoutMs;
+    private final int maxDevices;
+    private final int maxStreams;
+    private final int maxBusyWindows;
+    private final long scale;
+    private final int precision;
+
+    private final Map<Long, DeviceState> states = new ConcurrentHashMap<>();
+    private final Set<Subscriber> subscribers = new CopyOnWriteArraySet<>();
+    private final AtomicInteger streamCount = new AtomicInteger();
+    // Luồng flush: mọi thao tác trên trạng thái đã phát và Subscriber.resync/busyWindows chạy ở đây
+    private final Executor flusher;
+    private final Executor sender;
+
+    private final Counter eventsCounter;
+    private final Counter bytesCounter;
+    private final Counter resyncCounter;
+    private final Counter rejectedCounter;
+    private final Counter stalledCounter;
+
+    public SensorStreamService(SensorDataService sensorDataService,
+                               MqttClusterMembership clusterMembership,
+                               MeterRegistry meterRegistry,
+                               @Value("${mqtt.stream.enabled:true}") boolean enabled,
+                               @Value("${mqtt.stream.window-ms:500}") long windowMs,
+                               @Value("${mqtt.stream.timeout-ms:1800000}") long timeoutMs,
+                               @Value("${mqtt.stream.heartbeat-ms:15000}") long heartbeatMs,
+                               @Value("${mqtt.stream.precision:1}") int precision,
+                               @Value("${mqtt.stream.max-devices:1000}") int maxDevices,
+                               @Value("${mqtt.stream.max-streams:1000}") int maxStreams,
+                               @Value("${mqtt.stream.send-threads:4}") int sendThreads,
+                               @Value("${mqtt.stream.send-queue-capacity:1000}") int sendQueueCapacity,
+                               @Value("${mqtt.stream.max-busy-windows:20}") int maxBusyWindows) {
+        this(sensorDataService, clusterMembership, meterRegistry, enabled, windowMs, timeoutMs, precision, maxDevices,
+                maxStreams, maxBusyWindows, newFlusher(), newSender(sendThreads, sendQueueCapacity));
+        if (!enabled) {
+            return;
+        }
+        ScheduledExecutorService scheduler = (ScheduledExecutorService) flusher;
+        scheduler.scheduleWithFixedDelay(this::flushSafely, this.windowMs, this.windowMs, TimeUnit.MILLISECONDS);
+        if (heartbeatMs > 0) {
+            scheduler.scheduleWithFixedDelay(this::heartbeat, heartbeatMs, heartbeatMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /** Cho phép test thay luồng flush/gửi và tự gọi {@link #flush()}. */
+    SensorStreamService(SensorDataService sensorDataService, MqttClusterMembership clusterMembership,
+                        MeterRegistry meterRegistry, boolean enabled, long windowMs, long timeoutMs, int precision,
+                        int maxDevices, int maxStreams, int maxBusyWindows, Executor flusher, Executor sender) {
+        if (enabled && clusterMembership.getMode() == MqttClusterMembership.Mode.SHARED) {
+            // Broker chia bản tin của một thiết bị cho nhiều instance, luồng ở mỗi instance chỉ thấy một phần
+            throw new IllegalStateException("mqtt.stream needs mqtt.cluster.mode NONE or HASH, got SHARED; "
+                    + "set mqtt.stream.enabled=false or switch to HASH");
+        }
+        this.sensorDataService = sensorDataService;
+        this.enabled = enabled;
+        this.windowMs = Math.max(windowMs, 10);
+        this.timeoutMs = timeoutMs;
+        this.maxDevices = maxDevices;
+        this.maxStreams = maxStreams;
+        this.maxBusyWindows = Math.max(maxBusyWindows, 2);
+        this.precision = Math.max(0, Math.min(precision, 6));
+        this.scale = (long) Math.pow(10, this.precision);
+
+        eventsCounter = meterRegistry.counter("sensor.stream.events");
+        bytesCounter = meterRegistry.counter("sensor.stream.bytes");
+        resyncCounter = meterRegistry.counter("sensor.stream.resync");
+        rejectedCounter = meterRegistry.counter("sensor.stream.rejected");
+        stalledCounter = meterRegistry.counter("sensor.stream.stalled");
+        Gauge.builder("sensor.stream.connections", streamCount, AtomicInteger::get).register(meterRegistry);
+        this.flusher = flusher;
+        this.sender = sender;
+    }
+
+    private static ScheduledExecutorService newFlusher() {
+        return Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "sensor-stream");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    // Mỗi luồng SSE tối đa một lần gửi đang chờ nên hàng đợi thường không quá max-streams; giới hạn để
+    // client treo hàng loạt không làm phình bộ nhớ, gửi bị từ chối thì luồng nhận lại snapshot sau
+    private static ThreadPoolExecutor newSender(int threads, int queueCapacity) {
+        AtomicInteger senderIndex = new AtomicInteger();
+        return new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(Math.max(queueCapacity, 1)), r -> {
+            Thread thread = new Thread(r, "sensor-stream-send-" + senderIndex.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Ghi nhận giá trị mới nhất của thiết bị; được gửi đi ở lần flush kế tiếp.
+     */
+    public void publish(long deviceId, SensorReadingResponse reading) {
+        if (enabled && reading != null) {
+            states.computeIfAbsent(deviceId, DeviceState::new).offer(reading);
+        }
+    }
+
+    /**
+     * Có luồng nào đang mở không; bên gọi dùng để bỏ qua việc chuẩn bị giá trị khi không ai theo dõi.
+     */
+    public boolean hasStreams() {
+        return streamCount.get() > 0;
+    }
+
+    /**
+     * Mở một luồng cho {@code deviceIds}. Snapshot được gửi trên luồng flush nên không lẫn với delta.
+     */
+    public SseEmitter subscribe(Collection<Long> deviceIds) {
+        if (!enabled) {
+            throw new BaseException(ErrorCode.STREAM_DISABLED);
+        }
+        if (deviceIds == null || deviceIds.isEmpty() || deviceIds.size() > maxDevices) {
+            throw new BaseException(ErrorCode.INVALID_REQUEST);
+        }
+        if (streamCount.incrementAndGet() > maxStreams) {
+            streamCount.decrementAndGet();
+            throw new BaseException(ErrorCode.STREAM_LIMIT_EXCEEDED);
+        }
+        Set<Long> devices = new LinkedHashSet<>(deviceIds);
+        // Thiết bị chưa gửi gì kể từ khi service chạy: lấy giá trị mới nhất (bộ nhớ, hoặc DB khi khởi động lạnh)
+        for (Long deviceId : devices) {
+            if (!states.containsKey(deviceId)) {
+                publish(deviceId, sensorDataService.getLatestData(deviceId));
+            }
+        }
+        Subscriber stream = new Subscriber(newEmitter(), devices);
+        stream.emitter.onCompletion(() -> close(stream));
+        stream.emitter.onTimeout(() -> {
+            close(stream);
+            stream.emitter.complete();
+        });
+        stream.emitter.onError(e -> close(stream));
+        flusher.execute(() -> {
+            flushSafely();
+            subscribers.add(stream);
+            if (stream.closed.get()) {
+                // Client đã ngắt trước khi kịp đăng ký
+                subscribers.remove(stream);
+            } else {
+                send(stream, "snapshot", snapshot(stream));
+            }
+        });
+        return stream.emitter;
+    }
+
+    SseEmitter newEmitter() {
+        return new SseEmitter(timeoutMs);
+    }
+
+    private void close(Subscriber stream) {
+        if (stream.closed.compareAndSet(false, true)) {
+            subscribers.remove(stream);
+            streamCount.decrementAndGet();
+        }
+    }
+
+    private void flushSafely() {
+        try {
+            flush();
+        } catch (Exception e) {
+            logger.error("Error flushing sensor stream", e);
+        }
+    }
+
+    void flush() {
+        closeStalled();
+        Map<Long, String> deltas = new HashMap<>();
+        for (DeviceState state : states.values()) {
+            String delta = state.takeDelta();
+            if (delta != null) {
+                deltas.put(state.deviceId, delta);
+            }
+        }
+        if (deltas.isEmpty() && subscribers.stream().noneMatch(s -> s.resync)) {
+            return;
+        }
+        for (Subscriber stream : subscribers) {
+            if (stream.resync) {
+                if (!stream.busy.get()) {
+                    stream.resync = false;
+                    resyncCounter.increment();
+                    send(stream, "snapshot", snapshot(stream));
+                }
+                continue;
+            }
+            StringBuilder data = null;
+            if (deltas.size() < stream.devices.size()) {
+                for (Map.Entry<Long, String> delta : deltas.entrySet()) {
+                    if (stream.devices.contains(delta.getKey())) {
+                        data = appendEntry(data, delta.getKey(), delta.getValue());
+                    }
+                }
+            } else {
+                for (Long deviceId : stream.devices) {
+                    String delta = deltas.get(deviceId);
+                    if (delta != null) {
+                        data = appendEntry(data, deviceId, delta);
+                    }
+                }
+            }
+            if (data == null) {
+                continue;
+            }
+            if (stream.busy.get()) {
+                // Bỏ delta này thì trạng thái phía client lệch, gửi lại snapshot khi luồng rảnh
+                stream.resync = true;
+                continue;
+            }
+            send(stream, "delta", data.append('}').toString());
+        }
+    }
+
+    // Lần gửi kéo dài nhiều cửa sổ: client không đọc nữa, đóng luồng để không giữ luồng gửi và bộ đệm
+    private void closeStalled() {
+        for (Subscriber stream : subscribers) {
+            if (!stream.busy.get()) {
+                stream.busyWindows = 0;
+            } else if (++stream.busyWindows >= maxBusyWindows) {
+                logger.warn("Closing sensor stream busy for {} windows", stream.busyWindows);
+                stalledCounter.increment();
+                close(stream);
+                stream.emitter.complete();
+            }
+        }
+    }
+
+    private String snapshot(Subscriber stream) {
+        StringBuilder data = null;
+        for (Long deviceId : stream.devices) {
+            DeviceState state = states.get(deviceId);
+            String full = state == null ? null : state.full();
+            if (full != null) {
+                data = appendEntry(data, deviceId, full);
+            }
+        }
+        return data == null ? "{}" : data.append('}').toString();
+    }
+
+    private static StringBuilder appendEntry(StringBuilder data, long deviceId, String value) {
+        if (data == null) {
+            data = new StringBuilder(256).append('{');
+        } else {
+            data.append(',');
+        }
+        return data.append('"').append(deviceId).append("\":").append(value);
+    }
+
+    private void send(Subscriber stream, String name, String data) {
+        submit(stream, SseEmitter.event().name(name).data(data), utf8Length(data));
+    }
+
+    private void heartbeat() {
+        for (Subscriber stream : subscribers) {
+            if (!stream.busy.get()) {
+                submit(stream, SseEmitter.event().comment(""), 0);
+            }
+        }
+    }
+
+    // Chỉ gọi trên luồng flush
+    private void submit(Subscriber stream, SseEmitter.SseEventBuilder event, int bytes) {
+        stream.busy.set(true);
+        try {
+            sender.execute(() -> {
+                try {
+                    stream.emitter.send(event);
+                    if (bytes > 0) {
+                        eventsCounter.increment();
+                        bytesCounter.increment(bytes);
+                    }
+                } catch (IOException | IllegalStateException e) {
+                    // Client đã ngắt kết nối
+                    close(stream);
+                    stream.emitter.completeWithError(e);
+                } finally {
+                    stream.busy.set(false);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // Hàng đợi gửi đầy: bỏ sự kiện này, trạng thái phía client lệch nên gửi lại snapshot khi rảnh
+            stream.busy.set(false);
+            stream.resync = true;
+            rejectedCounter.increment();
+        }
+    }
+
+    // Số byte UTF-8 của chuỗi, không tạo mảng byte; JSON ở đây gần như toàn ASCII
+    static int utf8Length(CharSequence text) {
+        int bytes = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c < 0x80) {
+                bytes++;
+            } else if (c < 0x800) {
+                bytes += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < text.length()
+                    && Character.isLowSurrogate(text.charAt(i + 1))) {
+                bytes += 4;
+                i++;
+            } else {
+                bytes += 3;
+            }
+        }
+        return bytes;
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (flusher instanceof ExecutorService) {
+            ((ExecutorService) flusher).shutdownNow();
+        }
+        if (sender instanceof ExecutorService) {
+            ((ExecutorService) sender).shutdownNow();
+        }
+        subscribers.forEach(stream -> stream.emitter.complete());
+    }
+
+    private static final class Subscriber {
+        private final SseEmitter emitter;
+        private final Set<Long> devices;
+        private final AtomicBoolean busy = new AtomicBoolean();
+        private final AtomicBoolean closed = new AtomicBoolean();
+        // Chỉ đọc/ghi trên luồng flush
+        private boolean resync;
+        private int busyWindows;
+
+        Subscriber(SseEmitter emitter, Set<Long> devices) {
+            this.emitter = emitter;
+            this.devices = devices;
+        }
+    }
+
+    /**
+     * Giá trị mới nhất chưa phát và trạng thái đã phát (đã làm tròn) của một thiết bị. Trạng thái đã phát
+     * chỉ được đọc/ghi trên luồng flush.
+     */
+    final class DeviceState {
+        private final long deviceId;
+        private SensorReadingResponse pending;
+        private long timestamp;
+        private final long[] floats = new long[FLOAT_FIELDS.length];
+        private final int[] ints = new int[INT_FIELDS.length];
+        private boolean published;
+
+        DeviceState(long deviceId) {
+            this.deviceId = deviceId;
+        }
+
+        synchronized void offer(SensorReadingResponse reading) {
+            // Bản tin đến muộn không ghi đè giá trị mới hơn
+            if (pending == null || !reading.getCreatedAt().isBefore(pending.getCreatedAt())) {
+                pending = reading;
+            }
+        }
+
+        private synchronized SensorReadingResponse take() {
+            SensorReadingResponse reading = pending;
+            pending = null;
+            return reading;
+        }
+
+        String takeDelta() {
+            SensorReadingResponse reading = take();
+            if (reading == null) {
+                return null;
+            }
+            long ts = reading.getCreatedAt().atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+            if (published && ts < timestamp) {
+                return null;
+            }
+            long[] nextFloats = {scaled(reading.getTemperature()), scaled(reading.getHumidity()),
+                    scaled(reading.getLight()), scaled(reading.getGas())};
+            int[] nextInts = {reading.getAlertLed(), reading.getBuzzer(), reading.getLed(), reading.getFan(),
+                    reading.getServo()};
+            StringBuilder delta = new StringBuilder(64).append("{\"ts\":").append(ts);
+            int empty = delta.length();
+            for (int i = 0; i < floats.length; i++) {
+                if (!published || floats[i] != nextFloats[i]) {
+                    floats[i] = nextFloats[i];
+                    appendScaled(delta.append(",\"").append(FLOAT_FIELDS[i]).append("\":"), floats[i]);
+                }
+            }
+            for (int i = 0; i < ints.length; i++) {
+                if (!published || ints[i] != nextInts[i]) {
+                    ints[i] = nextInts[i];
+                    delta.append(",\"").append(INT_FIELDS[i]).append("\":").append(ints[i]);
+                }
+            }
+            timestamp = ts;
+            published = true;
+            // Không trường nào đổi sau khi làm tròn: chỉ snapshot sau mang ts mới
+            return delta.length() == empty ? null : delta.append('}').toString();
+        }
+
+        String full() {
+            if (!published) {
+                return null;
+            }
+            StringBuilder full = new StringBuilder(128).append("{\"ts\":").append(timestamp);
+            for (int i = 0; i < floats.length; i++) {
+                appendScaled(full.append(",\"").append(FLOAT_FIELDS[i]).append("\":"), floats[i]);
+            }
+            for (int i = 0; i < ints.length; i++) {
+                full.append(",\"").append(INT_FIELDS[i]).append("\":").append(ints[i]);
+            }
+            return full.append('}').toString();
+        }
+    }
+
+    long scaled(float value) {
+        return Float.isFinite(value) ? Math.round(value * (double) scale) : 0;
+    }
+
+    // Viết value / scale dạng thập phân, bỏ các số 0 thừa ở cuối
+    void appendScaled(StringBuilder out, long value) {
+        if (value < 0) {
+            out.append('-');
+            value = -value;
+        }
+        out.append(value / scale);
+        long fraction = value % scale;
+        if (fraction == 0) {
+            return;
+        }
+        int digits = precision;
+        while (fraction % 10 == 0) {
+            fraction /= 10;
+            digits--;
+        }
+        out.append('.');
+        String text = Long.toString(fraction);
+        for (int i = text.length(); i < digits; i++) {
+            out.append('0');
+        }
+        out.append(text);
+    }
+}
@@ -0,0 +1,119 @@
+package com.ptit.service.service;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.context.event.EventListener;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.stereotype.Component;
+import org.springframework.util.AntPathMatcher;
+import org.springframework.web.socket.messaging.SessionDisconnectEvent;
+import org.springframework.web.socket.messaging.SessionSubscribeEvent;
+import org.springframework.web.socket.messaging.SessionUnsubscribeEvent;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Theo dõi các destination STOMP đang có client subscribe, dựa trên các sự kiện
+ * SUBSCRIBE/UNSUBSCRIBE/DISCONNECT của Spring. Dùng để bỏ qua việc chuyển đổi và gửi dữ liệu tới
+ * những destination không có ai nghe.
+ */
+@Component
+public class SubscriptionRegistry {
+
+    private final AntPathMatcher pathMatcher = new AntPathMatcher();
+
+    // sessionId -> (subscriptionId -> destination)
+    private final Map<String, Map<String, String>> sessions = new HashMap<>();
+    private final Map<String, AtomicInteger> destinations = new ConcurrentHashMap<>();
+    // Subscription dạng pattern (vd. /topic/sensorData/*), ít gặp nên được kiểm tra tuần tự
+    private final Map<String, AtomicInteger> patterns = new ConcurrentHashMap<>();
+
+    public SubscriptionRegistry(MeterRegistry meterRegistry) {
+        Gauge.builder("websocket.subscriptions", this, SubscriptionRegistry::subscriptionCount)
+                .register(meterRegistry);
+    }
+
+    @EventListener
+    public void onSubscribe(SessionSubscribeEvent event) {
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.wrap(event.getMessage());
+        String destination = accessor.getDestination();
+        if (accessor.getSessionId() == null || accessor.getSubscriptionId() == null || destination == null) {
+            return;
+        }
+        synchronized (sessions) {
+            String previous = sessions.computeIfAbsent(accessor.getSessionId(), id -> new HashMap<>())
+                    .put(accessor.getSubscriptionId(), destination);
+            if (previous != null) {
+                decrement(previous);
+            }
+            counters(destination).computeIfAbsent(destination, d -> new AtomicInteger()).incrementAndGet();
+        }
+    }
+
+    @EventListener
+    public void onUnsubscribe(SessionUnsubscribeEvent event) {
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.wrap(event.getMessage());
+        synchronized (sessions) {
+            Map<String, String> subscriptions = sessions.get(accessor.getSessionId());
+            if (subscriptions == null) {
+                return;
+            }
+            String destination = subscriptions.remove(accessor.getSubscriptionId());
+            if (destination != null) {
+                decrement(destination);
+            }
+            if (subscriptions.isEmpty()) {
+                sessions.remove(accessor.getSessionId());
+            }
+        }
+    }
+
+    @EventListener
+    public void onDisconnect(SessionDisconnectEvent event) {
+        synchronized (sessions) {
+            Map<String, String> subscriptions = sessions.remove(event.getSessionId());
+            if (subscriptions != null) {
+                subscriptions.values().forEach(this::decrement);
+            }
+        }
+    }
+
+    public boolean hasSubscribers(String destination) {
+        AtomicInteger count = destinations.get(destination);
+        if (count != null && count.get() > 0) {
+            return true;
+        }
+        for (String pattern : patterns.keySet()) {
+            if (pathMatcher.match(pattern, destination)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public int subscriptionCount() {
+        int total = 0;
+        for (AtomicInteger count : destinations.values()) {
+            total += count.get();
+        }
+        for (AtomicInteger count : patterns.values()) {
+            total += count.get();
+        }
+        return total;
+    }
+
+    private void decrement(String destination) {
+        Map<String, AtomicInteger> counters = counters(destination);
+        AtomicInteger count = counters.get(destination);
+        if (count != null && count.decrementAndGet() <= 0) {
+            counters.remove(destination);
+        }
+    }
+
+    private Map<String, AtomicInteger> counters(String destination) {
+        return pathMatcher.isPattern(destination) ? patterns : destinations;
+    }
+}
@@ -0,0 +1,3 @@
+-- Thời điểm cập nhật watermark gần nhất. Mỗi instance ghi thêm một dòng sensor_rollup@<instance-id> khi
+-- flush, để job bù biết còn instance nào khác đang cộng dồn rollup trực tiếp hay không.
+ALTER TABLE sensor_rollup_state ADD COLUMN IF NOT EXISTS updated_at TIMESTAMP NOT NULL DEFAULT LOCALTIMESTAMP;
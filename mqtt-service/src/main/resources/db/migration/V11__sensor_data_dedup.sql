@@ -0,0 +1,12 @@
+-- Dấu vân tay payload của các bản tin đã ghi gần đây, để bản tin QoS 1 được broker giao lại cho instance
+-- khác (shared subscription) không được ghi thêm lần nữa. id sensor_data do instance nhận cấp nên không
+-- dùng làm khoá trùng được. Dòng cũ hơn mqtt.ingest.dedup-window-ms được xoá định kỳ; UNLOGGED vì chỉ
+-- là cửa sổ ngắn, mất khi DB khởi động lại không ảnh hưởng dữ liệu.
+CREATE UNLOGGED TABLE IF NOT EXISTS sensor_data_dedup (
+    device_id   BIGINT    NOT NULL,
+    fingerprint BIGINT    NOT NULL,
+    received_at TIMESTAMP NOT NULL,
+    PRIMARY KEY (device_id, fingerprint)
+);
+
+CREATE INDEX IF NOT EXISTS idx_sensor_data_dedup_received ON sensor_data_dedup (received_at);
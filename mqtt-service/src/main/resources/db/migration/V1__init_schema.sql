@@ -0,0 +1,39 @@
+-- Lược đồ ban đầu, trùng với lược đồ Hibernate (ddl-auto: update) đã tạo trên các DB hiện có.
+-- Với DB đã có bảng, Flyway baseline ở version 0 rồi chạy file này như một lệnh no-op.
+
+CREATE TABLE IF NOT EXISTS iot_devices (
+    id              BIGSERIAL PRIMARY KEY,
+    device_id       VARCHAR(255),
+    device_name     VARCHAR(255),
+    device_type     VARCHAR(255),
+    device_location VARCHAR(255),
+    device_wifi     VARCHAR(255),
+    device_ip       VARCHAR(255),
+    created_at      TIMESTAMP,
+    updated_at      TIMESTAMP
+);
+
+CREATE TABLE IF NOT EXISTS commands (
+    id        BIGSERIAL PRIMARY KEY,
+    device_id BIGINT       NOT NULL REFERENCES iot_devices (id),
+    command   VARCHAR(255) NOT NULL,
+    status    VARCHAR(255) NOT NULL
+);
+
+CREATE TABLE IF NOT EXISTS sensor_data (
+    id          BIGSERIAL PRIMARY KEY,
+    device_id   BIGINT REFERENCES iot_devices (id),
+    temperature REAL    NOT NULL,
+    humidity    REAL    NOT NULL,
+    light       REAL    NOT NULL,
+    gas         REAL    NOT NULL,
+    alert_led   INTEGER NOT NULL,
+    buzzer      INTEGER NOT NULL,
+    led         INTEGER NOT NULL,
+    fan         INTEGER NOT NULL,
+    servo       INTEGER NOT NULL,
+    topic       VARCHAR(255),
+    payload     VARCHAR(255),
+    broker      VARCHAR(255),
+    created_at  TIMESTAMP
+);
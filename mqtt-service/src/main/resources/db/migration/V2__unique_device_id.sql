@@ -0,0 +1,19 @@
+-- Gộp các bản ghi iot_devices trùng device_id (do race check-then-insert trước đây),
+-- giữ bản ghi có id nhỏ nhất và chuyển dữ liệu liên quan sang bản ghi đó.
+
+CREATE TEMPORARY TABLE device_duplicates ON COMMIT DROP AS
+SELECT d.id AS duplicate_id, keep.id AS keep_id
+FROM iot_devices d
+JOIN (SELECT device_id, MIN(id) AS id FROM iot_devices GROUP BY device_id) keep
+  ON keep.device_id = d.device_id AND keep.id <> d.id;
+
+UPDATE sensor_data s SET device_id = dd.keep_id
+FROM device_duplicates dd WHERE s.device_id = dd.duplicate_id;
+
+UPDATE commands c SET device_id = dd.keep_id
+FROM device_duplicates dd WHERE c.device_id = dd.duplicate_id;
+
+DELETE FROM iot_devices d USING device_duplicates dd WHERE d.id = dd.duplicate_id;
+
+DROP INDEX IF EXISTS idx_iot_devices_device_id;
+ALTER TABLE iot_devices ADD CONSTRAINT uk_iot_devices_device_id UNIQUE (device_id);
@@ -0,0 +1,57 @@
+-- Chuyển sensor_data thành bảng phân vùng theo ngày trên created_at.
+-- Mỗi phân vùng tên sensor_data_pYYYYMMDD; SensorDataPartitionService tạo trước các ngày sắp tới
+-- và DROP cả phân vùng khi hết hạn lưu trữ thay vì DELETE từng dòng.
+
+ALTER TABLE sensor_data RENAME TO sensor_data_legacy;
+ALTER INDEX IF EXISTS sensor_data_pkey RENAME TO sensor_data_legacy_pkey;
+ALTER SEQUENCE sensor_data_id_seq OWNED BY NONE;
+
+CREATE TABLE sensor_data (
+    id          BIGINT    NOT NULL DEFAULT nextval('sensor_data_id_seq'),
+    device_id   BIGINT REFERENCES iot_devices (id),
+    temperature REAL      NOT NULL,
+    humidity    REAL      NOT NULL,
+    light       REAL      NOT NULL,
+    gas         REAL      NOT NULL,
+    alert_led   INTEGER   NOT NULL,
+    buzzer      INTEGER   NOT NULL,
+    led         INTEGER   NOT NULL,
+    fan         INTEGER   NOT NULL,
+    servo       INTEGER   NOT NULL,
+    topic       VARCHAR(255),
+    payload     VARCHAR(255),
+    broker      VARCHAR(255),
+    created_at  TIMESTAMP NOT NULL DEFAULT now(),
+    PRIMARY KEY (id, created_at)
+) PARTITION BY RANGE (created_at);
+
+ALTER SEQUENCE sensor_data_id_seq OWNED BY sensor_data.id;
+
+-- Nhận các dòng nằm ngoài mọi phân vùng theo ngày (ví dụ đồng hồ thiết bị/DB lệch) thay vì làm hỏng cả lô insert
+CREATE TABLE sensor_data_default PARTITION OF sensor_data DEFAULT;
+
+CREATE INDEX idx_sensor_data_device_created ON sensor_data (device_id, created_at DESC);
+
+CREATE OR REPLACE FUNCTION create_sensor_data_partition(day DATE) RETURNS TEXT AS $$
+DECLARE
+    partition_name TEXT := 'sensor_data_p' || to_char(day, 'YYYYMMDD');
+BEGIN
+    EXECUTE format('CREATE TABLE IF NOT EXISTS %I PARTITION OF sensor_data FOR VALUES FROM (%L) TO (%L)',
+                   partition_name, day, day + 1);
+    RETURN partition_name;
+END;
+$$ LANGUAGE plpgsql;
+
+SELECT create_sensor_data_partition(day::DATE)
+FROM generate_series(
+         COALESCE((SELECT MIN(created_at)::DATE FROM sensor_data_legacy), CURRENT_DATE),
+         CURRENT_DATE + 3,
+         INTERVAL '1 day') AS day;
+
+INSERT INTO sensor_data (id, device_id, temperature, humidity, light, gas, alert_led, buzzer, led, fan, servo,
+                         topic, payload, broker, created_at)
+SELECT id, device_id, temperature, humidity, light, gas, alert_led, buzzer, led, fan, servo,
+       topic, payload, broker, COALESCE(created_at, now())
+FROM sensor_data_legacy;
+
+DROP TABLE sensor_data_legacy;
@@ -0,0 +1,28 @@
+-- Bảng tổng hợp (rollup) dữ liệu cảm biến theo phút/giờ/ngày cho từng thiết bị.
+-- Lưu min/max/sum/count để các bucket có thể cộng dồn (avg = sum / count).
+
+CREATE TABLE sensor_rollup (
+    device_id       BIGINT           NOT NULL REFERENCES iot_devices (id),
+    resolution      VARCHAR(8)       NOT NULL,
+    bucket_start    TIMESTAMP        NOT NULL,
+    sample_count    BIGINT           NOT NULL,
+    temperature_min REAL             NOT NULL,
+    temperature_max REAL             NOT NULL,
+    temperature_sum DOUBLE PRECISION NOT NULL,
+    humidity_min    REAL             NOT NULL,
+    humidity_max    REAL             NOT NULL,
+    humidity_sum    DOUBLE PRECISION NOT NULL,
+    light_min       REAL             NOT NULL,
+    light_max       REAL             NOT NULL,
+    light_sum       DOUBLE PRECISION NOT NULL,
+    gas_min         REAL             NOT NULL,
+    gas_max         REAL             NOT NULL,
+    gas_sum         DOUBLE PRECISION NOT NULL,
+    PRIMARY KEY (device_id, resolution, bucket_start)
+);
+
+-- Mốc thời gian mà mọi dữ liệu trước đó đã được tổng hợp, dùng cho job bù (catch-up) khi khởi động
+CREATE TABLE sensor_rollup_state (
+    name      VARCHAR(64) PRIMARY KEY,
+    watermark TIMESTAMP   NOT NULL
+);
@@ -0,0 +1,4 @@
+-- Payload gốc lưu dạng nhị phân (có thể nén) thay cho cột text payload.
+-- Cột payload cũ được giữ lại cho dữ liệu đã có, bản ghi mới không ghi vào cột này nữa.
+ALTER TABLE sensor_data ADD COLUMN IF NOT EXISTS payload_raw BYTEA;
+ALTER TABLE sensor_data ADD COLUMN IF NOT EXISTS payload_encoding VARCHAR(16);
@@ -0,0 +1,13 @@
+-- Theo dõi vòng đời lệnh điều khiển: correlation id gửi kèm lệnh, thời điểm gửi/phản hồi và độ trễ.
+ALTER TABLE commands ADD COLUMN IF NOT EXISTS correlation_id VARCHAR(36);
+ALTER TABLE commands ADD COLUMN IF NOT EXISTS issued_at TIMESTAMP NOT NULL DEFAULT now();
+ALTER TABLE commands ADD COLUMN IF NOT EXISTS sent_at TIMESTAMP;
+ALTER TABLE commands ADD COLUMN IF NOT EXISTS completed_at TIMESTAMP;
+ALTER TABLE commands ADD COLUMN IF NOT EXISTS latency_ms BIGINT;
+ALTER TABLE commands ADD COLUMN IF NOT EXISTS response TEXT;
+
+CREATE UNIQUE INDEX IF NOT EXISTS ux_commands_correlation_id ON commands (correlation_id);
+
+-- Chỉ các lệnh còn chờ phản hồi: dùng để khớp phản hồi không có correlation id và để quét timeout
+CREATE INDEX IF NOT EXISTS ix_commands_open ON commands (device_id, issued_at)
+    WHERE status IN ('PENDING', 'SENT');
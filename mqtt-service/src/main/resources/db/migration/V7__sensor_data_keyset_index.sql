@@ -0,0 +1,5 @@
+-- Phân trang keyset lịch sử theo thiết bị trên (created_at, id): index có đủ cả hai cột để mỗi trang
+-- chỉ là một lần quét index từ vị trí con trỏ. Index cũ (device_id, created_at) là tiền tố của index mới.
+CREATE INDEX IF NOT EXISTS idx_sensor_data_device_created_id ON sensor_data (device_id, created_at DESC, id DESC);
+
+DROP INDEX IF EXISTS idx_sensor_data_device_created;
@@ -0,0 +1,3 @@
+-- Trạng thái kết nối của thiết bị do DeviceLivenessTracker cập nhật theo lô (không ghi theo từng bản tin).
+ALTER TABLE iot_devices ADD COLUMN IF NOT EXISTS last_seen_at TIMESTAMP;
+ALTER TABLE iot_devices ADD COLUMN IF NOT EXISTS status VARCHAR(16);
@@ -0,0 +1,18 @@
+-- Tầng lưu trữ lạnh của sensor_data: mỗi thiết bị mỗi ngày một chunk dạng cột đã nén (SensorChunkCodec).
+-- SensorDataColdTierService chuyển các phân vùng theo ngày đủ cũ sang đây rồi DROP phân vùng trong
+-- cùng một transaction; payload gốc (payload, payload_raw) không được giữ lại.
+CREATE TABLE IF NOT EXISTS sensor_data_cold (
+    device_id  BIGINT    NOT NULL REFERENCES iot_devices (id),
+    day        DATE      NOT NULL,
+    row_count  INTEGER   NOT NULL,
+    -- Khoảng created_at của các dòng trong chunk, để lọc chunk mà không phải giải mã
+    first_at   TIMESTAMP NOT NULL,
+    last_at    TIMESTAMP NOT NULL,
+    data       BYTEA     NOT NULL,
+    PRIMARY KEY (device_id, day)
+);
+
+-- Chunk đã được nén, không để TOAST nén lại lần nữa
+ALTER TABLE sensor_data_cold ALTER COLUMN data SET STORAGE EXTERNAL;
+
+CREATE INDEX IF NOT EXISTS idx_sensor_data_cold_day ON sensor_data_cold (day);
@@ -0,0 +1,95 @@
+package com.ptit.service.codec;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class SensorChunkCodecTest {
+
+    private static final LocalDateTime DAY = LocalDateTime.of(2024, 3, 1, 0, 0);
+
+    @Test
+    void roundTripsEmptyChunk() {
+        assertRoundTrip(new SensorChunk.Builder().build());
+    }
+
+    @Test
+    void roundTripsSingleRow() {
+        SensorChunk.Builder builder = new SensorChunk.Builder()
+                .add(42, DAY.plusNanos(123_456_000), 21.5f, 60f, 300f, 12f, 0, 1, 0, 1, 90, "iot/data", "tcp://broker:1883");
+        assertRoundTrip(builder.build());
+    }
+
+    @Test
+    void roundTripsNaNInfinityAndNegativeValues() {
+        float[] values = {Float.NaN, -12.25f, -0.0f, 0.0f, Float.NEGATIVE_INFINITY, Float.POSITIVE_INFINITY,
+                Float.MIN_VALUE, -Float.MAX_VALUE, Float.intBitsToFloat(0x7fc00001), Float.NaN, -40f, -40f};
+        SensorChunk.Builder builder = new SensorChunk.Builder();
+        for (int i = 0; i < values.length; i++) {
+            builder.add(1000 + i, DAY.plusSeconds(5L * i), values[i], -values[i], values[values.length - 1 - i],
+                    i % 2 == 0 ? Float.NaN : -1f, -1, Integer.MIN_VALUE, Integer.MAX_VALUE, -i, i, null, "");
+        }
+        assertRoundTrip(builder.build());
+    }
+
+    @Test
+    void roundTripsIrregularTimesAndIdGaps() {
+        Random random = new Random(7);
+        SensorChunk.Builder builder = new SensorChunk.Builder();
+        LocalDateTime time = DAY;
+        long id = 5_000_000_000L;
+        for (int i = 0; i < 5000; i++) {
+            // Phần lớn đều 5 giây, thỉnh thoảng mất kết nối, trùng thời điểm hoặc id nhảy theo khối
+            int gap = random.nextInt(20);
+            time = time.plusNanos(gap == 0 ? 0 : gap == 1 ? 3_600_000_000_000L : 5_000_000_000L + random.nextInt(1000) * 1000L);
+            id += random.nextInt(50) == 0 ? 1000 : 1;
+            int status = i / 700;
+            builder.add(id, time, 20 + random.nextFloat() * 10, random.nextFloat() * 100, status * 100f,
+                    random.nextInt(10) == 0 ? -random.nextFloat() : random.nextFloat(),
+                    status & 1, (status >> 1) & 1, status, status % 3, status * 45,
+                    status < 3 ? "iot/data" : "iot/data/bin", status < 5 ? "tcp://a:1883" : null);
+        }
+        SensorChunk chunk = builder.build();
+        byte[] data = assertRoundTrip(chunk);
+        // Dữ liệu đều đặn phải nhỏ hơn nhiều so với 13 cột thô
+        assertThat(data.length).isLessThan(chunk.size() * 20);
+    }
+
+    @Test
+    void rejectsUnknownVersion() {
+        byte[] data = SensorChunkCodec.encode(new SensorChunk.Builder().build());
+        data[0] = 99;
+        assertThatThrownBy(() -> SensorChunkCodec.decode(data)).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    private static byte[] assertRoundTrip(SensorChunk expected) {
+        byte[] data = SensorChunkCodec.encode(expected);
+        SensorChunk actual = SensorChunkCodec.decode(data);
+        assertThat(actual.size()).isEqualTo(expected.size());
+        for (int row = 0; row < expected.size(); row++) {
+            assertThat(actual.id(row)).as("id[%d]", row).isEqualTo(expected.id(row));
+            assertThat(actual.micros(row)).as("created_at[%d]", row).isEqualTo(expected.micros(row));
+            // So theo bit: NaN, -0.0 và payload của NaN phải giữ nguyên
+            assertThat(Float.floatToRawIntBits(actual.temperature(row))).as("temperature[%d]", row)
+                    .isEqualTo(Float.floatToRawIntBits(expected.temperature(row)));
+            assertThat(Float.floatToRawIntBits(actual.humidity(row))).as("humidity[%d]", row)
+                    .isEqualTo(Float.floatToRawIntBits(expected.humidity(row)));
+            assertThat(Float.floatToRawIntBits(actual.light(row))).as("light[%d]", row)
+                    .isEqualTo(Float.floatToRawIntBits(expected.light(row)));
+            assertThat(Float.floatToRawIntBits(actual.gas(row))).as("gas[%d]", row)
+                    .isEqualTo(Float.floatToRawIntBits(expected.gas(row)));
+            assertThat(actual.alertLed(row)).isEqualTo(expected.alertLed(row));
+            assertThat(actual.buzzer(row)).isEqualTo(expected.buzzer(row));
+            assertThat(actual.led(row)).isEqualTo(expected.led(row));
+            assertThat(actual.fan(row)).isEqualTo(expected.fan(row));
+            assertThat(actual.servo(row)).isEqualTo(expected.servo(row));
+            assertThat(actual.topic(row)).isEqualTo(expected.topic(row));
+            assertThat(actual.broker(row)).isEqualTo(expected.broker(row));
+        }
+        return data;
+    }
+}
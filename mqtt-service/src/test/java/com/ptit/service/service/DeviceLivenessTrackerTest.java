@@ -0,0 +1,208 @@
+package com.ptit.service.service;
+
+import com.ptit.service.entity.Device;
+import com.ptit.service.entity.enums.DeviceStatus;
+import com.ptit.service.repository.DeviceLivenessRepository;
+import com.ptit.service.response.DeviceStatusResponse;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.tuple;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.atLeast;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class DeviceLivenessTrackerTest {
+
+    private static final long START = 1_700_000_000_000L;
+    private static final long TIMEOUT_MS = 1000;
+    private static final long TICK_MS = 100;
+    // 4 ô x 100 ms ngắn hơn timeout: thiết bị phải chờ qua nhiều vòng quay của wheel
+    private static final int WHEEL_SIZE = 4;
+
+    private final AtomicLong clock = new AtomicLong(START);
+    private DeviceLivenessRepository repository;
+    private NotificationService notificationService;
+
+    @BeforeEach
+    void setUp() {
+        repository = mock(DeviceLivenessRepository.class);
+        notificationService = mock(NotificationService.class);
+    }
+
+    @Test
+    void expiresAfterTimeoutAcrossWheelRounds() {
+        DeviceLivenessTracker tracker = tracker(membership(MqttClusterMembership.Mode.NONE));
+        tracker.heartbeat(device(1L, "node_1"));
+
+        advanceTo(TIMEOUT_MS - TICK_MS, tracker);
+        assertThat(tracker.getStatus(1L).getStatus()).isEqualTo(DeviceStatus.ONLINE);
+
+        advanceTo(TIMEOUT_MS, tracker);
+        assertThat(tracker.getStatus(1L).getStatus()).isEqualTo(DeviceStatus.OFFLINE);
+        assertThat(published()).extracting(DeviceStatusResponse::getStatus)
+                .containsExactly(DeviceStatus.ONLINE, DeviceStatus.OFFLINE);
+    }
+
+    @Test
+    void reschedulesFromLastHeartbeat() {
+        DeviceLivenessTracker tracker = tracker(membership(MqttClusterMembership.Mode.NONE));
+        Device device = device(1L, "node_1");
+        tracker.heartbeat(device);
+        advanceTo(600, tracker);
+        tracker.heartbeat(device);
+
+        // Hạn ban đầu (1000 ms) qua đi nhưng thiết bị đã gửi lại lúc 600 ms: được đặt lại vào ô của 1600 ms
+        advanceTo(TIMEOUT_MS, tracker);
+        advanceTo(600 + TIMEOUT_MS - TICK_MS, tracker);
+        assertThat(tracker.getStatus(1L).getStatus()).isEqualTo(DeviceStatus.ONLINE);
+
+        advanceTo(600 + TIMEOUT_MS, tracker);
+        assertThat(tracker.getStatus(1L).getStatus()).isEqualTo(DeviceStatus.OFFLINE);
+        assertThat(published()).extracting(DeviceStatusResponse::getStatus)
+                .containsExactly(DeviceStatus.ONLINE, DeviceStatus.OFFLINE);
+    }
+
+    @Test
+    void comesBackOnlineAndExpiresAgain() {
+        DeviceLivenessTracker tracker = tracker(membership(MqttClusterMembership.Mode.NONE));
+        Device device = device(1L, "node_1");
+        tracker.heartbeat(device);
+        advanceTo(TIMEOUT_MS, tracker);
+
+        advanceTo(1500, tracker);
+        tracker.heartbeat(device);
+        assertThat(tracker.getStatus(1L).getStatus()).isEqualTo(DeviceStatus.ONLINE);
+
+        advanceTo(1500 + TIMEOUT_MS, tracker);
+        assertThat(published()).extracting(DeviceStatusResponse::getStatus)
+                .containsExactly(DeviceStatus.ONLINE, DeviceStatus.OFFLINE, DeviceStatus.ONLINE, DeviceStatus.OFFLINE);
+    }
+
+    @Test
+    void missedTicksAreCaughtUp() {
+        DeviceLivenessTracker tracker = tracker(membership(MqttClusterMembership.Mode.NONE));
+        tracker.heartbeat(device(1L, "node_1"));
+        tracker.tick();
+
+        // Luồng quay bị treo quá cả timeout: một lần tick phải quay bù mọi ô đã lỡ
+        clock.set(START + 3 * TIMEOUT_MS);
+        tracker.tick();
+        assertThat(tracker.getStatus(1L).getStatus()).isEqualTo(DeviceStatus.OFFLINE);
+    }
+
+    @Test
+    void resumesOnlyOwnedDevicesInHashMode() {
+        MqttClusterMembership membership = membership(MqttClusterMembership.Mode.HASH);
+        String owned = deviceIdWithHash(0);
+        String other = deviceIdWithHash(1);
+        LocalDateTime seen = toLocalDateTime(START);
+        when(repository.findOnline()).thenReturn(List.of(
+                new DeviceLivenessRepository.Row(1L, owned, seen, DeviceStatus.ONLINE),
+                new DeviceLivenessRepository.Row(2L, other, seen, DeviceStatus.ONLINE)));
+
+        DeviceLivenessTracker tracker = tracker(membership);
+        tracker.resume();
+
+        assertThat(tracker.getStatuses()).extracting(DeviceStatusResponse::getDeviceId).containsExactly(owned);
+        advanceTo(TIMEOUT_MS, tracker);
+        tracker.flush();
+        verify(repository, times(1)).batchUpdate(any());
+        assertThat(published()).extracting(DeviceStatusResponse::getDeviceId).containsExactly(owned);
+    }
+
+    @Test
+    void statusesOfOtherInstancesComeFromDatabaseInHashMode() {
+        MqttClusterMembership membership = membership(MqttClusterMembership.Mode.HASH);
+        String owned = deviceIdWithHash(0);
+        String other = deviceIdWithHash(1);
+        String crashed = deviceIdWithHash(1, other);
+        LocalDateTime now = toLocalDateTime(START);
+        // Instance sở hữu "crashed" đã dừng: ONLINE trong DB nhưng last_seen_at quá timeout + một chu kỳ flush
+        when(repository.findSeen()).thenReturn(List.of(
+                new DeviceLivenessRepository.Row(1L, owned, now.minusHours(1), DeviceStatus.OFFLINE),
+                new DeviceLivenessRepository.Row(2L, other, now.minusSeconds(5), DeviceStatus.ONLINE),
+                new DeviceLivenessRepository.Row(3L, crashed, now.minusMinutes(5), DeviceStatus.ONLINE)));
+
+        DeviceLivenessTracker tracker = tracker(membership);
+        tracker.heartbeat(device(1L, owned));
+
+        assertThat(tracker.getStatuses())
+                .extracting(DeviceStatusResponse::getDeviceId, DeviceStatusResponse::getStatus)
+                .containsExactlyInAnyOrder(
+                        tuple(owned, DeviceStatus.ONLINE),
+                        tuple(other, DeviceStatus.ONLINE),
+                        tuple(crashed, DeviceStatus.OFFLINE));
+    }
+
+    @Test
+    void refusesSharedModeUnlessDisabled() {
+        MqttClusterMembership membership = membership(MqttClusterMembership.Mode.SHARED);
+        assertThatThrownBy(() -> tracker(membership)).isInstanceOf(IllegalStateException.class);
+
+        DeviceLivenessTracker disabled = new DeviceLivenessTracker(repository, notificationService, membership,
+                false, TIMEOUT_MS, TICK_MS, WHEEL_SIZE, 10_000, new SimpleMeterRegistry(), clock::get);
+        disabled.heartbeat(device(1L, "node_1"));
+        assertThat(disabled.getStatuses()).isEmpty();
+        verify(notificationService, never()).sendRealtimeUpdate(any(), any());
+    }
+
+    private DeviceLivenessTracker tracker(MqttClusterMembership membership) {
+        return new DeviceLivenessTracker(repository, notificationService, membership, true,
+                TIMEOUT_MS, TICK_MS, WHEEL_SIZE, 10_000, new SimpleMeterRegistry(), clock::get);
+    }
+
+    private static MqttClusterMembership membership(MqttClusterMembership.Mode mode) {
+        return new MqttClusterMembership(mode, "mqtt-service", "mqtt-service-0", 0, 2, "relay",
+                new SimpleMeterRegistry());
+    }
+
+    /** Quay wheel từng tick tới {@code offsetMs} sau lúc bắt đầu, như luồng device-liveness. */
+    private void advanceTo(long offsetMs, DeviceLivenessTracker tracker) {
+        while (clock.get() < START + offsetMs) {
+            clock.set(Math.min(clock.get() + TICK_MS, START + offsetMs));
+            tracker.tick();
+        }
+    }
+
+    private List<DeviceStatusResponse> published() {
+        ArgumentCaptor<Object> payloads = ArgumentCaptor.forClass(Object.class);
+        verify(notificationService, atLeast(0)).sendRealtimeUpdate(eq("/topic/device-status"), payloads.capture());
+        return payloads.getAllValues().stream().map(DeviceStatusResponse.class::cast).toList();
+    }
+
+    private static Device device(long id, String deviceId) {
+        Device device = new Device();
+        device.setId(id);
+        device.setDeviceId(deviceId);
+        return device;
+    }
+
+    private static String deviceIdWithHash(int index, String... except) {
+        for (int i = 0; ; i++) {
+            String deviceId = "node_" + i;
+            if (Math.floorMod(deviceId.hashCode(), 2) == index && !List.of(except).contains(deviceId)) {
+                return deviceId;
+            }
+        }
+    }
+
+    private static LocalDateTime toLocalDateTime(long millis) {
+        return LocalDateTime.ofInstant(Instant.ofEpochMilli(millis), ZoneId.systemDefault());
+    }
+}
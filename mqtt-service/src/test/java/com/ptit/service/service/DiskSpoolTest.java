@@ -0,0 +1,67 @@
+package com.ptit.service.service;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class DiskSpoolTest {
+
+    private static final DiskSpool.Codec<Long> CODEC = new DiskSpool.Codec<>() {
+        @Override
+        public void write(Long item, DataOutput out) throws IOException {
+            out.writeLong(item);
+        }
+
+        @Override
+        public Long read(DataInput in) throws IOException {
+            return in.readLong();
+        }
+    };
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void drainsInBatches() throws IOException {
+        DiskSpool<Long> spool = new DiskSpool<>(directory, "test", CODEC);
+        for (long i = 0; i < 5; i++) {
+            spool.append(i);
+        }
+
+        List<List<Long>> batches = new ArrayList<>();
+        assertThat(spool.drain(2, batches::add)).isEqualTo(5);
+        assertThat(batches).containsExactly(List.of(0L, 1L), List.of(2L, 3L), List.of(4L));
+        assertThat(spool.size()).isZero();
+    }
+
+    @Test
+    void drainsCompleteRecordsOfTruncatedFile() throws IOException {
+        DiskSpool<Long> spool = new DiskSpool<>(directory, "test", CODEC);
+        for (long i = 0; i < 3; i++) {
+            spool.append(i);
+        }
+        spool.close();
+        // Tiến trình dừng giữa lúc ghi bản ghi thứ tư
+        Files.write(directory.resolve("test.spool"), new byte[]{0, 0, 0}, StandardOpenOption.APPEND);
+
+        DiskSpool<Long> reopened = new DiskSpool<>(directory, "test", CODEC);
+        assertThat(reopened.size()).isEqualTo(3);
+        List<Long> drained = new ArrayList<>();
+        assertThat(reopened.drain(10, drained::addAll)).isEqualTo(3);
+        assertThat(drained).containsExactly(0L, 1L, 2L);
+
+        // File replay đã xoá: lần sau không gửi lại các lô cũ
+        assertThat(Files.exists(directory.resolve("test.replay"))).isFalse();
+        assertThat(reopened.drain(10, batch -> drained.add(-1L))).isZero();
+    }
+}
@@ -0,0 +1,194 @@
+package com.ptit.service.service;
+
+import com.ptit.service.entity.Device;
+import com.ptit.service.entity.SensorData;
+import com.ptit.service.repository.SensorDataColdRepository;
+import com.ptit.service.repository.SensorDataJdbcRepository;
+import com.ptit.service.response.SensorReadingResponse;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+class RecentReadingCacheTest {
+
+    private SensorDataJdbcRepository jdbcRepository;
+    private SensorDataColdRepository coldRepository;
+
+    @BeforeEach
+    void setUp() {
+        jdbcRepository = mock(SensorDataJdbcRepository.class);
+        coldRepository = mock(SensorDataColdRepository.class);
+    }
+
+    @Test
+    void ringKeepsNewestReadingsWhenWrapping() {
+        RecentReadingCache.Ring ring = loadedRing(4);
+        for (long id = 1; id <= 10; id++) {
+            add(ring, id, id * 1000);
+        }
+
+        assertThat(ids(read(ring, Long.MAX_VALUE, Long.MAX_VALUE, 4, true))).containsExactly(10L, 9L, 8L, 7L);
+        // Dòng 6 trở về trước đã bị đẩy ra: không đủ dòng thì phải hỏi DB
+        read(ring, Long.MAX_VALUE, Long.MAX_VALUE, 5, false);
+    }
+
+    @Test
+    void readBeforePagesAcrossWrapPoint() {
+        // 8 dòng vào vòng 5 ô: head = 3, dòng 4..8 nằm ở ô 3, 4, 0, 1, 2
+        RecentReadingCache.Ring ring = loadedRing(5);
+        for (long id = 1; id <= 8; id++) {
+            add(ring, id, id * 1000);
+        }
+
+        List<SensorReadingResponse> first = read(ring, Long.MAX_VALUE, Long.MAX_VALUE, 2, true);
+        assertThat(ids(first)).containsExactly(8L, 7L);
+        List<SensorReadingResponse> second = read(ring, 7000, 7, 2, true);
+        assertThat(ids(second)).containsExactly(6L, 5L);
+        List<SensorReadingResponse> third = new ArrayList<>();
+        assertThat(ring.readBefore(5000, 5, 2, third)).isFalse();
+        assertThat(ids(third)).containsExactly(4L);
+    }
+
+    @Test
+    void readBeforeReachesEndOfShortHistory() {
+        RecentReadingCache.Ring ring = loadedRing(5);
+        for (long id = 1; id <= 3; id++) {
+            add(ring, id, id * 1000);
+        }
+
+        assertThat(ids(read(ring, 3000, 3, 10, true))).containsExactly(2L, 1L);
+        // Cùng thời điểm: khoá (time, id) phân định
+        add(ring, 4, 3000);
+        assertThat(ids(read(ring, 3000, 4, 10, true))).containsExactly(3L, 2L, 1L);
+    }
+
+    @Test
+    void lateReadingIsInsertedInOrderAcrossWrapPoint() {
+        RecentReadingCache.Ring ring = loadedRing(5);
+        for (long id = 1; id <= 7; id++) {
+            add(ring, id, id * 10);
+        }
+        add(ring, 100, 45);
+        // Trùng khoá thì bỏ qua
+        add(ring, 6, 60);
+        // Cũ hơn mọi dòng đang giữ trong khi DB còn dòng cũ hơn: không chèn
+        add(ring, 101, 5);
+
+        List<SensorReadingResponse> readings = read(ring, Long.MAX_VALUE, Long.MAX_VALUE, 5, true);
+        assertThat(ids(readings)).containsExactly(7L, 6L, 5L, 100L, 4L);
+    }
+
+    @Test
+    void markLoadedDropsReadingsOlderThanLoadedRange() {
+        RecentReadingCache.Ring ring = new RecentReadingCache.Ring(5);
+        // Bản tin đến trước khi nạp xong, cũ hơn dòng cũ nhất đọc được từ DB
+        add(ring, 2, 20);
+        add(ring, 4, 40);
+        add(ring, 3, 30);
+        assertThat(ring.readBefore(Long.MAX_VALUE, Long.MAX_VALUE, 1, new ArrayList<>())).isFalse();
+
+        ring.markLoaded(30, 3);
+
+        List<SensorReadingResponse> readings = new ArrayList<>();
+        assertThat(ring.readBefore(Long.MAX_VALUE, Long.MAX_VALUE, 3, readings)).isFalse();
+        assertThat(ids(readings)).containsExactly(4L, 3L);
+    }
+
+    @Test
+    void hashModeOnlyCachesOwnedDevices() {
+        RecentReadingCache cache = cache(MqttClusterMembership.Mode.HASH);
+        Device owned = device(1L, deviceIdWithHash(0));
+        Device other = device(2L, deviceIdWithHash(1));
+
+        cache.add(reading(10L, owned));
+        cache.add(reading(11L, other));
+
+        assertThat(cache.readBefore(1L, null, null, 10)).extracting(SensorReadingResponse::getId).containsExactly(10L);
+        // Thiết bị của instance khác không có vòng đệm và không được nạp theo truy vấn
+        assertThat(cache.readBefore(2L, null, null, 10)).isNull();
+        assertThat(cache.readBefore(3L, null, null, 10)).isNull();
+        verify(jdbcRepository).findRecent(eq(List.of(1L)), eq(300), any());
+    }
+
+    @Test
+    void sharedModeDisablesCache() {
+        RecentReadingCache cache = cache(MqttClusterMembership.Mode.SHARED);
+        cache.add(reading(10L, device(1L, "node_1")));
+
+        assertThat(cache.readBefore(1L, null, null, 10)).isNull();
+        verify(jdbcRepository, never()).findRecent(any(), anyInt(), any());
+    }
+
+    private RecentReadingCache cache(MqttClusterMembership.Mode mode) {
+        MqttClusterMembership membership = new MqttClusterMembership(mode, "mqtt-service", "mqtt-service-0", 0, 2,
+                "relay", new SimpleMeterRegistry());
+        return new RecentReadingCache(jdbcRepository, coldRepository, mock(DeviceRegistry.class), membership,
+                new SimpleMeterRegistry(), true, 300, 100, 50);
+    }
+
+    private static RecentReadingCache.Ring loadedRing(int capacity) {
+        RecentReadingCache.Ring ring = new RecentReadingCache.Ring(capacity);
+        ring.markLoaded(false);
+        return ring;
+    }
+
+    private static void add(RecentReadingCache.Ring ring, long id, long time) {
+        ring.add(id, time, id, -id, 0, 0, 0, 0, 0, 0, 0);
+    }
+
+    private static List<SensorReadingResponse> read(RecentReadingCache.Ring ring, long time, long id, int limit,
+                                                    boolean complete) {
+        List<SensorReadingResponse> readings = new ArrayList<>();
+        assertThat(ring.readBefore(time, id, limit, readings)).isEqualTo(complete);
+        for (SensorReadingResponse reading : readings) {
+            // Các cột đi cùng id khi dịch chuyển trong vòng đệm
+            assertThat(reading.getTemperature()).isEqualTo((float) reading.getId());
+            assertThat(reading.getHumidity()).isEqualTo((float) -reading.getId());
+        }
+        return readings;
+    }
+
+    private static List<Long> ids(List<SensorReadingResponse> readings) {
+        List<Long> ids = new ArrayList<>();
+        for (SensorReadingResponse reading : readings) {
+            ids.add(reading.getId());
+        }
+        return ids;
+    }
+
+    private static SensorData reading(Long id, Device device) {
+        SensorData data = new SensorData();
+        data.setId(id);
+        data.setDevice(device);
+        data.setCreatedAt(LocalDateTime.of(2024, 3, 1, 12, 0));
+        return data;
+    }
+
+    private static Device device(long id, String deviceId) {
+        Device device = new Device();
+        device.setId(id);
+        device.setDeviceId(deviceId);
+        return device;
+    }
+
+    private static String deviceIdWithHash(int index) {
+        for (int i = 0; ; i++) {
+            String deviceId = "node_" + i;
+            if (Math.floorMod(deviceId.hashCode(), 2) == index) {
+                return deviceId;
+            }
+        }
+    }
+}
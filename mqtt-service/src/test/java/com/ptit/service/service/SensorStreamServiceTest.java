@@ -0,0 +1,241 @@
+package com.ptit.service.service;
+
+import com.ptit.service.response.SensorReadingResponse;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+
+class SensorStreamServiceTest {
+
+    private static final LocalDateTime T0 = LocalDateTime.of(2024, 3, 1, 12, 0);
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final QueueExecutor sender = new QueueExecutor();
+    private final List<RecordingEmitter> emitters = new ArrayList<>();
+    private SensorDataService sensorDataService;
+
+    @BeforeEach
+    void setUp() {
+        // getLatestData trả null: thiết bị chỉ có giá trị khi test publish
+        sensorDataService = mock(SensorDataService.class);
+    }
+
+    @Test
+    void sendsSnapshotThenOnlyChangedFields() {
+        SensorStreamService service = service(1);
+        service.publish(1L, reading(T0, 21.5f, 60f, 100f, 300f, 0));
+        RecordingEmitter emitter = subscribe(service, 1L);
+        sender.runAll();
+
+        service.publish(1L, reading(T0.plusSeconds(1), 22f, 60f, 100f, 300f, 1));
+        service.flush();
+        sender.runAll();
+
+        assertThat(emitter.events).containsExactly(
+                event("snapshot", "{\"1\":{\"ts\":" + millis(T0)
+                        + ",\"temp\":21.5,\"hum\":60,\"lgt\":100,\"gas\":300,\"alt\":0,\"bzr\":0,\"led\":0,\"fan\":0,\"sv\":0}}"),
+                event("delta", "{\"1\":{\"ts\":" + millis(T0.plusSeconds(1)) + ",\"temp\":22,\"led\":1}}"));
+    }
+
+    @Test
+    void changesBelowPrecisionSendNoDelta() {
+        SensorStreamService service = service(1);
+        service.publish(1L, reading(T0, 21.52f, 60f, 100f, 300f, 0));
+        RecordingEmitter emitter = subscribe(service, 1L);
+        sender.runAll();
+
+        // 21.52 và 21.54 cùng làm tròn thành 21.5
+        service.publish(1L, reading(T0.plusSeconds(1), 21.54f, 60.04f, 100f, 300f, 0));
+        service.flush();
+        sender.runAll();
+        assertThat(emitter.events).hasSize(1);
+
+        service.publish(1L, reading(T0.plusSeconds(2), 21.56f, 60f, 100f, 300f, 0));
+        service.flush();
+        sender.runAll();
+        assertThat(emitter.events).last()
+                .isEqualTo(event("delta", "{\"1\":{\"ts\":" + millis(T0.plusSeconds(2)) + ",\"temp\":21.6}}"));
+    }
+
+    @Test
+    void appendScaledWritesShortestDecimal() {
+        SensorStreamService service = service(2);
+
+        assertThat(format(service, 0.05f)).isEqualTo("0.05");
+        assertThat(format(service, -1.5f)).isEqualTo("-1.5");
+        assertThat(format(service, -0.05f)).isEqualTo("-0.05");
+        assertThat(format(service, 21f)).isEqualTo("21");
+        assertThat(format(service, 21.999f)).isEqualTo("22");
+        assertThat(format(service, 1.1f)).isEqualTo("1.1");
+        assertThat(format(service, Float.NaN)).isEqualTo("0");
+    }
+
+    @Test
+    void takeDeltaReportsChangedFieldsAndFullReportsAll() {
+        SensorStreamService service = service(1);
+        SensorStreamService.DeviceState state = service.new DeviceState(1L);
+        assertThat(state.takeDelta()).isNull();
+        assertThat(state.full()).isNull();
+
+        state.offer(reading(T0, 21.5f, 60f, 100f, 300f, 0));
+        String all = "{\"ts\":" + millis(T0)
+                + ",\"temp\":21.5,\"hum\":60,\"lgt\":100,\"gas\":300,\"alt\":0,\"bzr\":0,\"led\":0,\"fan\":0,\"sv\":0}";
+        assertThat(state.takeDelta()).isEqualTo(all);
+        assertThat(state.full()).isEqualTo(all);
+
+        // Chỉ bản mới nhất trong cửa sổ được phát
+        state.offer(reading(T0.plusSeconds(1), -1.5f, 60f, 100f, 300f, 0));
+        state.offer(reading(T0.plusSeconds(2), -1.5f, 61f, 100f, 300f, 1));
+        assertThat(state.takeDelta())
+                .isEqualTo("{\"ts\":" + millis(T0.plusSeconds(2)) + ",\"temp\":-1.5,\"hum\":61,\"led\":1}");
+        assertThat(state.takeDelta()).isNull();
+        assertThat(state.full()).isEqualTo("{\"ts\":" + millis(T0.plusSeconds(2))
+                + ",\"temp\":-1.5,\"hum\":61,\"lgt\":100,\"gas\":300,\"alt\":0,\"bzr\":0,\"led\":1,\"fan\":0,\"sv\":0}");
+
+        // Bản tin đến muộn hơn bản đã phát bị bỏ
+        state.offer(reading(T0.plusSeconds(1), 30f, 61f, 100f, 300f, 1));
+        assertThat(state.takeDelta()).isNull();
+        assertThat(state.full()).contains("\"temp\":-1.5");
+    }
+
+    @Test
+    void busyStreamResyncsWithSnapshot() {
+        SensorStreamService service = service(1);
+        service.publish(1L, reading(T0, 21.5f, 60f, 100f, 300f, 0));
+        RecordingEmitter emitter = subscribe(service, 1L);
+        // Snapshot còn trong hàng đợi gửi: luồng đang bận
+
+        service.publish(1L, reading(T0.plusSeconds(1), 22f, 60f, 100f, 300f, 0));
+        service.flush();
+        assertThat(sender.pending()).isEqualTo(1);
+        sender.runAll();
+
+        service.flush();
+        sender.runAll();
+
+        assertThat(emitter.events).extracting(SensorStreamServiceTest::name).containsExactly("snapshot", "snapshot");
+        assertThat(emitter.events).last().asString().contains("\"temp\":22");
+        assertThat(meterRegistry.counter("sensor.stream.resync").count()).isEqualTo(1);
+    }
+
+    @Test
+    void rejectedSendResyncsWithSnapshot() {
+        SensorStreamService service = service(1);
+        service.publish(1L, reading(T0, 21.5f, 60f, 100f, 300f, 0));
+        RecordingEmitter emitter = subscribe(service, 1L);
+        sender.runAll();
+
+        sender.reject = true;
+        service.publish(1L, reading(T0.plusSeconds(1), 22f, 60f, 100f, 300f, 0));
+        service.flush();
+        assertThat(meterRegistry.counter("sensor.stream.rejected").count()).isEqualTo(1);
+
+        sender.reject = false;
+        service.flush();
+        sender.runAll();
+
+        assertThat(emitter.events).extracting(SensorStreamServiceTest::name).containsExactly("snapshot", "snapshot");
+        assertThat(emitter.events).last().asString().contains("\"temp\":22");
+    }
+
+    @Test
+    void utf8LengthCountsBytesNotChars() {
+        String[] samples = {"", "{\"1\":{\"ts\":1709294400000,\"temp\":21.5}}", "Phòng lab", "°C", "nhiệt độ 🌡"};
+        for (String sample : samples) {
+            assertThat(SensorStreamService.utf8Length(sample)).as(sample)
+                    .isEqualTo(sample.getBytes(StandardCharsets.UTF_8).length);
+        }
+    }
+
+    /** Luồng flush chạy ngay trên luồng test, luồng gửi do test tự chạy. */
+    private SensorStreamService service(int precision) {
+        MqttClusterMembership membership = new MqttClusterMembership(MqttClusterMembership.Mode.NONE,
+                "mqtt-service", "mqtt-service-0", 0, 2, "relay", new SimpleMeterRegistry());
+        return new SensorStreamService(sensorDataService, membership, meterRegistry, true, 500, 60_000, precision,
+                100, 100, 20, Runnable::run, sender) {
+            @Override
+            SseEmitter newEmitter() {
+                RecordingEmitter emitter = new RecordingEmitter();
+                emitters.add(emitter);
+                return emitter;
+            }
+        };
+    }
+
+    private RecordingEmitter subscribe(SensorStreamService service, Long... deviceIds) {
+        service.subscribe(List.of(deviceIds));
+        return emitters.get(emitters.size() - 1);
+    }
+
+    private static String format(SensorStreamService service, float value) {
+        StringBuilder out = new StringBuilder();
+        service.appendScaled(out, service.scaled(value));
+        return out.toString();
+    }
+
+    private static SensorReadingResponse reading(LocalDateTime createdAt, float temperature, float humidity,
+                                                 float light, float gas, int led) {
+        return new SensorReadingResponse(1L, createdAt, temperature, humidity, light, gas, 0, 0, led, 0, 0);
+    }
+
+    private static long millis(LocalDateTime time) {
+        return time.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
+    private static String event(String name, String data) {
+        return "event:" + name + "\ndata:" + data + "\n\n";
+    }
+
+    private static String name(String event) {
+        return event.substring("event:".length(), event.indexOf('\n'));
+    }
+
+    /** Ghi lại sự kiện dạng text/event-stream thay vì ghi ra response. */
+    private static final class RecordingEmitter extends SseEmitter {
+        private final List<String> events = new ArrayList<>();
+
+        @Override
+        public void send(SseEventBuilder builder) {
+            StringBuilder event = new StringBuilder();
+            builder.build().forEach(part -> event.append(part.getData()));
+            events.add(event.toString());
+        }
+    }
+
+    private static final class QueueExecutor implements Executor {
+        private final Deque<Runnable> tasks = new ArrayDeque<>();
+        private boolean reject;
+
+        @Override
+        public void execute(Runnable task) {
+            if (reject) {
+                throw new RejectedExecutionException("queue full");
+            }
+            tasks.add(task);
+        }
+
+        int pending() {
+            return tasks.size();
+        }
+
+        void runAll() {
+            while (!tasks.isEmpty()) {
+                tasks.poll().run();
+            }
+        }
+    }
+}